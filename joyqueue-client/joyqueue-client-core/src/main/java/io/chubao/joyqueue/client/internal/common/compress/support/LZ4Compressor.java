@@ -0,0 +1,46 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.client.internal.common.compress.support;
+
+import io.chubao.joyqueue.client.internal.common.compress.Compressor;
+import io.chubao.joyqueue.toolkit.io.LZ4;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * LZ4Compressor
+ * LZ4压缩，复用线程内的压缩上下文和缓冲区
+ */
+public class LZ4Compressor implements Compressor {
+
+    public static final String NAME = "lz4";
+
+    @Override
+    public void compress(byte[] bytes, int offset, int size, OutputStream out) throws IOException {
+        LZ4.INSTANCE.compress(bytes, offset, size, out);
+    }
+
+    @Override
+    public void decompress(byte[] bytes, int offset, int size, OutputStream out) throws IOException {
+        LZ4.INSTANCE.decompress(bytes, offset, size, out);
+    }
+
+    @Override
+    public String type() {
+        return NAME;
+    }
+}
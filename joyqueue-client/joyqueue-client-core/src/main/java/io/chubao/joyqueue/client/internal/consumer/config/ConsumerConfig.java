@@ -42,6 +42,9 @@ public class ConsumerConfig {
     private int thread = 1;
     private boolean failover = true;
 
+    private boolean prefetch = false;
+    private int prefetchSize = 2;
+
     private boolean loadBalance = true;
     private String loadBalanceType = RoundRobinBrokerLoadBalance.NAME;
 
@@ -64,6 +67,8 @@ public class ConsumerConfig {
         consumerConfig.setSessionTimeout(sessionTimeout);
         consumerConfig.setThread(thread);
         consumerConfig.setFailover(failover);
+        consumerConfig.setPrefetch(prefetch);
+        consumerConfig.setPrefetchSize(prefetchSize);
         consumerConfig.setLoadBalance(loadBalance);
         consumerConfig.setLoadBalanceType(loadBalanceType);
         consumerConfig.setBroadcastGroup(broadcastGroup);
@@ -172,6 +177,22 @@ public class ConsumerConfig {
         return failover;
     }
 
+    public void setPrefetch(boolean prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    public boolean isPrefetch() {
+        return prefetch;
+    }
+
+    public void setPrefetchSize(int prefetchSize) {
+        this.prefetchSize = prefetchSize;
+    }
+
+    public int getPrefetchSize() {
+        return prefetchSize;
+    }
+
     public void setLoadBalance(boolean loadBalance) {
         this.loadBalance = loadBalance;
     }
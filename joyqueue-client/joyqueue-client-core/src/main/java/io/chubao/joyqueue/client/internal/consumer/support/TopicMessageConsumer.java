@@ -57,6 +57,8 @@ public class TopicMessageConsumer extends Service {
     private MessagePoller messagePoller;
     private TopicMessageConsumerDispatcher messageConsumerDispatcher;
     private TopicMessageConsumerScheduler messageConsumerScheduler;
+    private TopicMessagePrefetcher messagePrefetcher;
+    private boolean broadcast;
     private MessageListenerManager messageListenerManager = new MessageListenerManager();
 
     public TopicMessageConsumer(String topic, ConsumerConfig config, NameServerConfig nameServerConfig, ClusterManager clusterManager,
@@ -80,15 +82,27 @@ public class TopicMessageConsumer extends Service {
         messagePoller = createMessageConsumer(topic);
         messageConsumerDispatcher = new TopicMessageConsumerDispatcher(topic, config, nameServerConfig, messagePoller, messageListenerManager, consumerInterceptorManager);
         messageConsumerScheduler = new TopicMessageConsumerScheduler(topic, config, messagePoller, messageConsumerDispatcher);
+        // 广播消费的拉取位置在应答后才更新，不支持预拉取
+        if (config.isPrefetch() && !broadcast) {
+            messagePrefetcher = new TopicMessagePrefetcher(topic, config, messagePoller, messageListenerManager);
+            messageConsumerDispatcher.setMessagePrefetcher(messagePrefetcher);
+        }
     }
 
     @Override
     protected void doStart() throws Exception {
         messagePoller.start();
         if (!messageListenerManager.isEmpty()) {
-            messageConsumerDispatcher.start();
-            messageConsumerScheduler.start();
+            startConsume();
+        }
+    }
+
+    protected void startConsume() throws Exception {
+        if (messagePrefetcher != null) {
+            messagePrefetcher.start();
         }
+        messageConsumerDispatcher.start();
+        messageConsumerScheduler.start();
     }
 
     @Override
@@ -97,6 +111,9 @@ public class TopicMessageConsumer extends Service {
             if (messageConsumerScheduler != null) {
                 messageConsumerScheduler.stop();
             }
+            if (messagePrefetcher != null) {
+                messagePrefetcher.stop();
+            }
             if (messageConsumerDispatcher != null) {
                 messageConsumerDispatcher.stop();
             }
@@ -108,6 +125,9 @@ public class TopicMessageConsumer extends Service {
 
     public void suspend() {
         messageConsumerScheduler.suspend();
+        if (messagePrefetcher != null) {
+            messagePrefetcher.suspend();
+        }
     }
 
     public boolean isSuspend() {
@@ -116,6 +136,9 @@ public class TopicMessageConsumer extends Service {
 
     public void resume() {
         messageConsumerScheduler.resume();
+        if (messagePrefetcher != null) {
+            messagePrefetcher.resume();
+        }
     }
 
     protected MessagePoller createMessageConsumer(String topic) {
@@ -127,6 +150,7 @@ public class TopicMessageConsumer extends Service {
         }
 
         if (topicMetadata.getType().equals(TopicType.BROADCAST)) {
+            broadcast = true;
             return MessagePollerFactory.createBroadcastPoller(config, nameServerConfig, clusterManager, consumerClientManager);
         } else {
             return MessagePollerFactory.create(config, nameServerConfig, clusterManager, clusterClientManager, consumerClientManager);
@@ -146,8 +170,7 @@ public class TopicMessageConsumer extends Service {
         messageListenerManager.addListener(messageListener);
         if (isStarted() && isEmpty) {
             try {
-                messageConsumerDispatcher.start();
-                messageConsumerScheduler.start();
+                startConsume();
             } catch (Exception e) {
                 throw new ConsumerException(e);
             }
@@ -53,6 +53,7 @@ public class TopicMessageConsumerDispatcher extends Service {
     private MessageListenerManager messageListenerManager;
     private ConsumerInterceptorManager consumerInterceptorManager;
     private ExecutorService listenerExecutor;
+    private TopicMessagePrefetcher messagePrefetcher;
 
     public TopicMessageConsumerDispatcher(String topic, ConsumerConfig config, NameServerConfig nameServerConfig,
                                           MessagePoller messagePoller, MessageListenerManager messageListenerManager, ConsumerInterceptorManager consumerInterceptorManager) {
@@ -64,6 +65,10 @@ public class TopicMessageConsumerDispatcher extends Service {
         this.consumerInterceptorManager = consumerInterceptorManager;
     }
 
+    public void setMessagePrefetcher(TopicMessagePrefetcher messagePrefetcher) {
+        this.messagePrefetcher = messagePrefetcher;
+    }
+
     @Override
     protected void doStart() throws Exception {
         listenerExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory(String.format("joyqueue-consumer-dispatcher-%s", topic)));
@@ -81,7 +86,12 @@ public class TopicMessageConsumerDispatcher extends Service {
             return false;
         }
 
-        List<ConsumeMessage> messages = messagePoller.poll(topic);
+        List<ConsumeMessage> messages = null;
+        if (messagePrefetcher != null) {
+            messages = messagePrefetcher.poll();
+        } else {
+            messages = messagePoller.poll(topic);
+        }
 
         if (logger.isDebugEnabled()) {
             logger.debug("poll messages, topic: {}, app: {}, messages: {}", topic, nameServerConfig.getApp(), messages);
@@ -99,7 +109,11 @@ public class TopicMessageConsumerDispatcher extends Service {
             logger.debug("reply messages, topic: {}, app: {}, replies: {}", topic, nameServerConfig.getApp(), consumeReplies);
         }
 
-        messagePoller.reply(topic, consumeReplies);
+        if (messagePrefetcher != null) {
+            messagePrefetcher.reply(consumeReplies);
+        } else {
+            messagePoller.reply(topic, consumeReplies);
+        }
         return true;
     }
 
@@ -115,7 +115,8 @@ public class TopicMessageConsumerScheduler extends Service implements Runnable {
             if (config.getInterval() > 0) {
                 Thread.currentThread().sleep(config.getInterval());
             }
-        } else {
+        } else if (!config.isPrefetch()) {
+            // 预拉取模式下，取消息时已经等待过idleInterval
             Thread.currentThread().sleep(config.getIdleInterval());
         }
     }
@@ -0,0 +1,205 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.client.internal.consumer.support;
+
+import com.google.common.collect.Lists;
+import io.chubao.joyqueue.client.internal.consumer.MessagePoller;
+import io.chubao.joyqueue.client.internal.consumer.config.ConsumerConfig;
+import io.chubao.joyqueue.client.internal.consumer.domain.ConsumeMessage;
+import io.chubao.joyqueue.client.internal.consumer.domain.ConsumeReply;
+import io.chubao.joyqueue.toolkit.concurrent.NamedThreadFactory;
+import io.chubao.joyqueue.toolkit.service.Service;
+import org.apache.commons.collections.CollectionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TopicMessagePrefetcher
+ * <p>
+ * 预拉取模式下，后台线程持续拉取消息放入有界队列，消费线程直接从队列中取消息，
+ * 拉取的网络延迟不再阻塞消费，消费的同时下一批消息已经在拉取。
+ * 消费线程的应答放入应答队列，由后台线程合并后批量异步提交。
+ * <p>
+ * 服务端在应答之前会占用已拉取的分区，所以队列中的每一批消息都来自不同的分区，
+ * 队列的长度需要保证消息在ackTimeout之内能够被消费完。
+ * 停止时队列中还没有被消费的消息直接丢弃，不应答，服务端在ackTimeout之后重新投递。
+ */
+public class TopicMessagePrefetcher extends Service {
+
+    protected static final Logger logger = LoggerFactory.getLogger(TopicMessagePrefetcher.class);
+
+    private String topic;
+    private ConsumerConfig config;
+    private MessagePoller messagePoller;
+    private MessageListenerManager messageListenerManager;
+
+    private BlockingQueue<List<ConsumeMessage>> messageQueue;
+    private BlockingQueue<ConsumeReply> replyQueue;
+    private ExecutorService prefetchThreadPool;
+    private volatile boolean suspend = false;
+    private volatile boolean stopped = false;
+
+    public TopicMessagePrefetcher(String topic, ConsumerConfig config, MessagePoller messagePoller, MessageListenerManager messageListenerManager) {
+        this.topic = topic;
+        this.config = config;
+        this.messagePoller = messagePoller;
+        this.messageListenerManager = messageListenerManager;
+    }
+
+    @Override
+    protected void validate() throws Exception {
+        messageQueue = new ArrayBlockingQueue<>(Math.max(1, config.getPrefetchSize()));
+        replyQueue = new LinkedBlockingQueue<>();
+        prefetchThreadPool = Executors.newFixedThreadPool(2, new NamedThreadFactory(String.format("joyqueue-consumer-prefetcher-%s", topic), true));
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        stopped = false;
+        prefetchThreadPool.execute(this::fetchLoop);
+        prefetchThreadPool.execute(this::replyLoop);
+    }
+
+    @Override
+    protected void doStop() {
+        stopped = true;
+        if (prefetchThreadPool != null) {
+            prefetchThreadPool.shutdown();
+            try {
+                prefetchThreadPool.awaitTermination(config.getTimeout(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // 应答线程退出后剩余的应答在这里提交
+        flushReplies();
+        // 没有消费的消息不应答，服务端在ackTimeout后重新投递
+        if (messageQueue != null) {
+            messageQueue.clear();
+        }
+    }
+
+    public void suspend() {
+        suspend = true;
+    }
+
+    public void resume() {
+        suspend = false;
+    }
+
+    /**
+     * 取一批预拉取的消息
+     *
+     * @return 没有消息时返回null
+     */
+    public List<ConsumeMessage> poll() {
+        try {
+            return messageQueue.poll(config.getIdleInterval(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * 异步提交应答
+     */
+    public void reply(List<ConsumeReply> replies) {
+        replyQueue.addAll(replies);
+        // 停止之后应答线程已经退出，直接提交
+        if (stopped) {
+            flushReplies();
+        }
+    }
+
+    protected void flushReplies() {
+        if (replyQueue == null) {
+            return;
+        }
+        List<ConsumeReply> replies = Lists.newArrayList();
+        replyQueue.drainTo(replies);
+        if (replies.isEmpty()) {
+            return;
+        }
+        try {
+            messagePoller.reply(topic, replies);
+        } catch (Exception e) {
+            logger.error("reply message exception, topic: {}", topic, e);
+        }
+    }
+
+    protected void fetchLoop() {
+        while (!stopped) {
+            try {
+                if (suspend || messageListenerManager.isEmpty()) {
+                    Thread.sleep(config.getIdleInterval());
+                    continue;
+                }
+                List<ConsumeMessage> messages = messagePoller.poll(topic);
+                if (CollectionUtils.isEmpty(messages)) {
+                    Thread.sleep(config.getIdleInterval());
+                    continue;
+                }
+                while (!messageQueue.offer(messages, config.getIdleInterval(), TimeUnit.MILLISECONDS)) {
+                    if (stopped) {
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                if (stopped) {
+                    break;
+                }
+                logger.error("prefetch message exception, topic: {}", topic, e);
+                try {
+                    Thread.sleep(config.getIdleInterval());
+                } catch (InterruptedException e1) {
+                    break;
+                }
+            }
+        }
+    }
+
+    protected void replyLoop() {
+        while (true) {
+            try {
+                ConsumeReply reply = replyQueue.poll(config.getIdleInterval(), TimeUnit.MILLISECONDS);
+                if (reply == null) {
+                    if (stopped) {
+                        break;
+                    }
+                    continue;
+                }
+                List<ConsumeReply> replies = Lists.newArrayList(reply);
+                replyQueue.drainTo(replies);
+                messagePoller.reply(topic, replies);
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                logger.error("reply message exception, topic: {}", topic, e);
+            }
+        }
+    }
+}
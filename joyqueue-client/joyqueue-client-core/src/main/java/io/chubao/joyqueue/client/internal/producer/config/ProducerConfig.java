@@ -45,6 +45,11 @@ public class ProducerConfig {
 
     private boolean batch = true;
 
+    private boolean accumulate = false;
+    private long lingerMs = 5;
+    private int batchSize = 1024 * 16;
+    private int bufferMemory = 1024 * 1024 * 32;
+
     private String selectorType = WeightedRoundRobinPartitionSelector.NAME;
     private int businessIdLengthLimit = 100;
     private int bodyLengthLimit = 1024 * 1024 * 1;
@@ -63,6 +68,10 @@ public class ProducerConfig {
         producerConfig.setCompressType(compressType);
         producerConfig.setCompressThreshold(compressThreshold);
         producerConfig.setBatch(batch);
+        producerConfig.setAccumulate(accumulate);
+        producerConfig.setLingerMs(lingerMs);
+        producerConfig.setBatchSize(batchSize);
+        producerConfig.setBufferMemory(bufferMemory);
         producerConfig.setSelectorType(selectorType);
         producerConfig.setBusinessIdLengthLimit(businessIdLengthLimit);
         producerConfig.setBodyLengthLimit(bodyLengthLimit);
@@ -158,6 +167,38 @@ public class ProducerConfig {
         return batch;
     }
 
+    public void setAccumulate(boolean accumulate) {
+        this.accumulate = accumulate;
+    }
+
+    public boolean isAccumulate() {
+        return accumulate;
+    }
+
+    public void setLingerMs(long lingerMs) {
+        this.lingerMs = lingerMs;
+    }
+
+    public long getLingerMs() {
+        return lingerMs;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBufferMemory(int bufferMemory) {
+        this.bufferMemory = bufferMemory;
+    }
+
+    public int getBufferMemory() {
+        return bufferMemory;
+    }
+
     public String getSelectorType() {
         return selectorType;
     }
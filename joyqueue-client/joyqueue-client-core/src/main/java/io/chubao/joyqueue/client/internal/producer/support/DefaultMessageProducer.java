@@ -64,6 +64,7 @@ public class DefaultMessageProducer extends Service implements MessageProducer {
     private MessageSender messageSender;
     private AtomicLong transactionSequence;
     private MessageProducerInner messageProducerInner;
+    private ProduceAccumulator produceAccumulator;
     private ProducerInterceptorManager producerInterceptorManager = new ProducerInterceptorManager();
 
     public DefaultMessageProducer(ProducerConfig config, NameServerConfig nameServerConfig, ClusterManager clusterManager, ProducerClientManager producerClientManager) {
@@ -87,16 +88,25 @@ public class DefaultMessageProducer extends Service implements MessageProducer {
         senderConfig = new SenderConfig(config.isCompress(), config.getCompressThreshold(), config.getCompressType(), config.isBatch());
         messageSender = new DefaultMessageSender(producerClientManager, senderConfig);
         messageProducerInner = new MessageProducerInner(config, nameServerConfig, messageSender, clusterManager, producerClientManager, producerInterceptorManager);
+        if (config.isAccumulate()) {
+            produceAccumulator = new ProduceAccumulator(config, messageProducerInner);
+        }
     }
 
     @Override
     protected void doStart() throws Exception {
         messageSender.start();
         messageProducerInner.start();
+        if (produceAccumulator != null) {
+            produceAccumulator.start();
+        }
     }
 
     @Override
     protected void doStop() {
+        if (produceAccumulator != null) {
+            produceAccumulator.stop();
+        }
         if (messageProducerInner != null) {
             messageProducerInner.stop();
         }
@@ -171,6 +181,13 @@ public class DefaultMessageProducer extends Service implements MessageProducer {
 
     protected SendResult doSend(ProduceMessage message, long timeout, TimeUnit timeoutUnit, boolean isOneway, AsyncProduceCallback callback) {
         checkState();
+        if (produceAccumulator != null && !isOneway) {
+            if (callback == null) {
+                return produceAccumulator.send(message, timeout, timeoutUnit);
+            }
+            produceAccumulator.append(message, timeout, timeoutUnit, callback);
+            return null;
+        }
         return messageProducerInner.send(message, null, timeout, timeoutUnit, isOneway, config.isFailover(), callback);
     }
 
@@ -294,6 +294,40 @@ public class MessageProducerInner extends Service {
         throw new NeedRetryException(code.getMessage(), code.getCode());
     }
 
+    /**
+     * 异步发送失败后是否可以换分区重试，和同步发送的重试条件一致，元数据相关的错误同时更新元数据
+     *
+     * @param topic 主题
+     * @param cause 失败原因
+     * @return 是否可以重试
+     */
+    public boolean isRetryable(String topic, Throwable cause) {
+        if (!(cause instanceof ClientException)) {
+            // 网络异常
+            return true;
+        }
+        JoyQueueCode code = JoyQueueCode.valueOf(((ClientException) cause).getCode());
+        if (code == null) {
+            return true;
+        }
+        switch (code) {
+            case CN_NO_PERMISSION:
+            case CN_SERVICE_NOT_AVAILABLE:
+            case FW_PRODUCE_MESSAGE_BROKER_NOT_LEADER:
+            case FW_BROKER_NOT_WRITABLE: {
+                clusterManager.updateTopicMetadata(topic, config.getApp());
+                return true;
+            }
+            case FW_TOPIC_NOT_EXIST:
+            case FW_TOPIC_NO_PARTITIONGROUP: {
+                return false;
+            }
+            default: {
+                return true;
+            }
+        }
+    }
+
     public TopicMetadata getAndCheckTopicMetadata(String topic) {
         TopicMetadata topicMetadata = clusterManager.fetchTopicMetadata(getTopicFullName(topic), config.getApp());
         if (topicMetadata == null) {
@@ -0,0 +1,383 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.client.internal.producer.support;
+
+import com.google.common.collect.Lists;
+import io.chubao.joyqueue.client.internal.metadata.domain.PartitionMetadata;
+import io.chubao.joyqueue.client.internal.metadata.domain.TopicMetadata;
+import io.chubao.joyqueue.client.internal.producer.callback.AsyncBatchProduceCallback;
+import io.chubao.joyqueue.client.internal.producer.callback.AsyncProduceCallback;
+import io.chubao.joyqueue.client.internal.producer.callback.CompletableFutureAsyncProduceCallback;
+import io.chubao.joyqueue.client.internal.producer.checker.ProduceMessageChecker;
+import io.chubao.joyqueue.client.internal.producer.config.ProducerConfig;
+import io.chubao.joyqueue.client.internal.producer.domain.ProduceMessage;
+import io.chubao.joyqueue.client.internal.producer.domain.SendResult;
+import io.chubao.joyqueue.client.internal.producer.exception.ProducerException;
+import io.chubao.joyqueue.client.internal.producer.helper.ProducerHelper;
+import io.chubao.joyqueue.exception.JoyQueueCode;
+import io.chubao.joyqueue.network.domain.BrokerNode;
+import io.chubao.joyqueue.toolkit.concurrent.NamedThreadFactory;
+import io.chubao.joyqueue.toolkit.service.Service;
+import io.chubao.joyqueue.toolkit.time.SystemClock;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 发送累加器
+ * <p>
+ * 单条发送的消息先按照分区选择器选出分区，放入该分区的缓冲批次中，
+ * 批次达到batchSize或者等待超过lingerMs后作为一个批量请求发送，
+ * 压缩和拦截器都作用在整个批次上，发送结果再拆分回每条消息的回调。
+ * 缓冲的消息总大小不超过bufferMemory，超过时发送线程阻塞等待，直到超时。
+ * 开启failover时，批次发送失败后按照重试策略换分区重发，和直接发送的重试方式一致。
+ */
+public class ProduceAccumulator extends Service {
+
+    protected static final Logger logger = LoggerFactory.getLogger(ProduceAccumulator.class);
+
+    private ProducerConfig config;
+    private MessageProducerInner messageProducerInner;
+
+    private int batchSize;
+    private int bufferMemory;
+    private Semaphore memory;
+    // key: topic, partition
+    private final ConcurrentMap<String, ConcurrentMap<Short, ProduceBatch>> batches = new ConcurrentHashMap<>();
+    private ScheduledExecutorService lingerThread;
+
+    public ProduceAccumulator(ProducerConfig config, MessageProducerInner messageProducerInner) {
+        this.config = config;
+        this.messageProducerInner = messageProducerInner;
+    }
+
+    @Override
+    protected void validate() throws Exception {
+        batchSize = Math.max(1, Math.min(config.getBatchSize(), config.getBatchBodyLengthLimit()));
+        bufferMemory = Math.max(batchSize, config.getBufferMemory());
+        memory = new Semaphore(bufferMemory);
+        lingerThread = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("joyqueue-producer-accumulator", true));
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        long interval = Math.max(1, config.getLingerMs() / 2);
+        lingerThread.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    drain(false);
+                } catch (Throwable t) {
+                    logger.error("drain batches exception", t);
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void doStop() {
+        if (lingerThread != null) {
+            lingerThread.shutdown();
+        }
+        drain(true);
+    }
+
+    public SendResult send(ProduceMessage message, long timeout, TimeUnit timeoutUnit) {
+        CompletableFuture<SendResult> future = new CompletableFuture<>();
+        long start = SystemClock.now();
+        append(message, timeout, timeoutUnit, new CompletableFutureAsyncProduceCallback(future));
+        long remaining = timeoutUnit.toMillis(timeout) - (SystemClock.now() - start);
+        try {
+            return future.get(Math.max(remaining, 0), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ProducerException) {
+                throw (ProducerException) e.getCause();
+            }
+            throw new ProducerException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new ProducerException(JoyQueueCode.CN_REQUEST_TIMEOUT.getMessage(message.getTopic()), JoyQueueCode.CN_REQUEST_TIMEOUT.getCode());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProducerException(JoyQueueCode.CN_THREAD_INTERRUPTED.getMessage(), JoyQueueCode.CN_THREAD_INTERRUPTED.getCode());
+        }
+    }
+
+    public void append(ProduceMessage message, long timeout, TimeUnit timeoutUnit, AsyncProduceCallback callback) {
+        ProduceMessageChecker.checkMessage(message, config);
+        int size = getSize(message);
+        int permits = Math.min(size, bufferMemory);
+        acquireMemory(message, permits, timeout, timeoutUnit);
+
+        try {
+            TopicMetadata topicMetadata = messageProducerInner.getAndCheckTopicMetadata(message.getTopic());
+            List<BrokerNode> brokers = messageProducerInner.getRegionBrokers(topicMetadata);
+            brokers = messageProducerInner.filterNotAvailableBrokers(brokers);
+            List<PartitionMetadata> partitions = messageProducerInner.getBrokerPartitions(topicMetadata, brokers);
+            PartitionMetadata partition = messageProducerInner.dispatchPartitions(Collections.singletonList(message), topicMetadata, partitions);
+
+            ConcurrentMap<Short, ProduceBatch> topicBatches = batches.computeIfAbsent(topicMetadata.getTopic(), key -> new ConcurrentHashMap<>());
+            while (true) {
+                ProduceBatch batch = topicBatches.computeIfAbsent(partition.getId(), key -> new ProduceBatch(topicMetadata, partition, partitions));
+                ProduceBatch ready = null;
+                boolean appended = false;
+                synchronized (batch) {
+                    if (batch.isSealed()) {
+                        continue;
+                    }
+                    if (!batch.isEmpty() && batch.getBytes() + size > batchSize) {
+                        ready = batch;
+                    } else {
+                        batch.add(message, size, permits, callback);
+                        appended = true;
+                        if (batch.getBytes() >= batchSize) {
+                            ready = batch;
+                        }
+                    }
+                    if (ready != null) {
+                        ready.seal();
+                        topicBatches.remove(partition.getId(), ready);
+                    }
+                }
+                if (ready != null) {
+                    send(ready);
+                }
+                if (appended) {
+                    return;
+                }
+            }
+        } catch (RuntimeException e) {
+            memory.release(permits);
+            throw e;
+        }
+    }
+
+    protected void acquireMemory(ProduceMessage message, int permits, long timeout, TimeUnit timeoutUnit) {
+        try {
+            if (!memory.tryAcquire(permits, timeout, timeoutUnit)) {
+                throw new ProducerException(String.format("accumulator buffer is full, topic: %s, bufferMemory: %s", message.getTopic(), bufferMemory),
+                        JoyQueueCode.CN_REQUEST_EXCESSIVE.getCode());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProducerException(JoyQueueCode.CN_THREAD_INTERRUPTED.getMessage(), JoyQueueCode.CN_THREAD_INTERRUPTED.getCode());
+        }
+    }
+
+    /**
+     * 发送等待超过lingerMs的批次
+     *
+     * @param all 为true时发送所有批次
+     */
+    protected void drain(boolean all) {
+        long now = SystemClock.now();
+        for (ConcurrentMap<Short, ProduceBatch> topicBatches : batches.values()) {
+            for (ProduceBatch batch : topicBatches.values()) {
+                if (!all && now - batch.getCreateTime() < config.getLingerMs()) {
+                    continue;
+                }
+                synchronized (batch) {
+                    if (batch.isSealed()) {
+                        continue;
+                    }
+                    batch.seal();
+                    topicBatches.remove(batch.getPartition().getId(), batch);
+                }
+                send(batch);
+            }
+        }
+    }
+
+    protected void send(ProduceBatch batch) {
+        try {
+            messageProducerInner.doBatchSend(batch.getMessages(), batch.getTopicMetadata(), batch.getPartition(), batch.getPartitions(),
+                    null, config.getTimeout(), TimeUnit.MILLISECONDS, false, config.isFailover(), batch);
+        } catch (Exception e) {
+            batch.onException(batch.getMessages(), e);
+        }
+    }
+
+    protected int getSize(ProduceMessage message) {
+        if (StringUtils.isNotBlank(message.getBody())) {
+            return message.getBody().length();
+        } else {
+            return message.getBodyBytes().length;
+        }
+    }
+
+    /**
+     * 一个分区的缓冲批次
+     */
+    protected class ProduceBatch implements AsyncBatchProduceCallback {
+
+        private TopicMetadata topicMetadata;
+        private PartitionMetadata partition;
+        private List<PartitionMetadata> partitions;
+        private final long createTime = SystemClock.now();
+        private final List<ProduceMessage> messages = Lists.newArrayList();
+        private final List<AsyncProduceCallback> callbacks = Lists.newArrayList();
+        private int bytes;
+        private int permits;
+        private boolean sealed;
+        private int retryTimes;
+        private List<PartitionMetadata> partitionBlackList;
+
+        ProduceBatch(TopicMetadata topicMetadata, PartitionMetadata partition, List<PartitionMetadata> partitions) {
+            this.topicMetadata = topicMetadata;
+            this.partition = partition;
+            this.partitions = partitions;
+        }
+
+        void add(ProduceMessage message, int size, int permits, AsyncProduceCallback callback) {
+            messages.add(message);
+            callbacks.add(callback);
+            this.bytes += size;
+            this.permits += permits;
+        }
+
+        void seal() {
+            sealed = true;
+        }
+
+        boolean isSealed() {
+            return sealed;
+        }
+
+        boolean isEmpty() {
+            return messages.isEmpty();
+        }
+
+        int getBytes() {
+            return bytes;
+        }
+
+        long getCreateTime() {
+            return createTime;
+        }
+
+        TopicMetadata getTopicMetadata() {
+            return topicMetadata;
+        }
+
+        PartitionMetadata getPartition() {
+            return partition;
+        }
+
+        List<PartitionMetadata> getPartitions() {
+            return partitions;
+        }
+
+        List<ProduceMessage> getMessages() {
+            return messages;
+        }
+
+        @Override
+        public void onSuccess(List<ProduceMessage> messages, List<SendResult> result) {
+            if (result == null || result.isEmpty()) {
+                // 消息可能已经写入，不重试
+                complete(new ProducerException(JoyQueueCode.CN_UNKNOWN_ERROR.getMessage(), JoyQueueCode.CN_UNKNOWN_ERROR.getCode()));
+                return;
+            }
+            memory.release(permits);
+            for (int i = 0; i < this.messages.size(); i++) {
+                SendResult sendResult;
+                if (result.size() == this.messages.size()) {
+                    sendResult = result.get(i);
+                } else {
+                    // 批量消息只返回一个结果，按顺序推算每条消息的索引
+                    SendResult batchResult = result.get(0);
+                    sendResult = new SendResult(batchResult.getTopic(), batchResult.getPartition(), batchResult.getIndex() + i, batchResult.getStartTime());
+                }
+                try {
+                    callbacks.get(i).onSuccess(this.messages.get(i), sendResult);
+                } catch (Exception e) {
+                    logger.error("produce callback exception, message: {}", this.messages.get(i), e);
+                }
+            }
+        }
+
+        @Override
+        public void onException(List<ProduceMessage> messages, Throwable cause) {
+            if (!retry(cause)) {
+                complete(cause);
+            }
+        }
+
+        protected void complete(Throwable cause) {
+            memory.release(permits);
+            for (int i = 0; i < this.messages.size(); i++) {
+                try {
+                    callbacks.get(i).onException(this.messages.get(i), cause);
+                } catch (Exception e) {
+                    logger.error("produce callback exception, message: {}", this.messages.get(i), e);
+                }
+            }
+        }
+
+        /**
+         * 开启failover时，换一个分区重新发送批次。
+         * 回调可能在网络线程中执行，重新选择分区和发送都在lingerThread中进行
+         *
+         * @return 是否会重新发送
+         */
+        protected boolean retry(Throwable cause) {
+            String topic = topicMetadata.getTopic();
+            if (!config.isFailover() || retryTimes >= config.getRetryPolicy().getMaxRetrys()
+                    || !messageProducerInner.isRetryable(topic, cause)) {
+                return false;
+            }
+            retryTimes++;
+            logger.debug("send batch exception, retry {} times, topic: {}, partition: {}", retryTimes, topic, partition, cause);
+            try {
+                lingerThread.execute(() -> resend(cause));
+            } catch (RejectedExecutionException e) {
+                return false;
+            }
+            return true;
+        }
+
+        protected void resend(Throwable cause) {
+            if (partitionBlackList == null) {
+                partitionBlackList = Lists.newLinkedList();
+            }
+            partitionBlackList.add(partition);
+            try {
+                topicMetadata = messageProducerInner.getAndCheckTopicMetadata(topicMetadata.getTopic());
+                List<BrokerNode> brokers = messageProducerInner.filterNotAvailableBrokers(messageProducerInner.getRegionBrokers(topicMetadata));
+                partitions = messageProducerInner.getBrokerPartitions(topicMetadata, brokers);
+                ProducerHelper.clearPartitions(messages);
+                partition = messageProducerInner.dispatchPartitions(messages, topicMetadata, partitions, partitionBlackList);
+            } catch (Exception e) {
+                logger.debug("redispatch batch exception, topic: {}, messages: {}", topicMetadata.getTopic(), messages, e);
+                complete(cause);
+                return;
+            }
+            send(this);
+        }
+    }
+}
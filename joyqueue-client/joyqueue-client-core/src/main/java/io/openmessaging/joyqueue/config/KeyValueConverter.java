@@ -83,6 +83,10 @@ public class KeyValueConverter {
         producerConfig.setCompressType(KeyValueHelper.getString(attributes, JoyQueueProducerBuiltinKeys.COMPRESS_TYPE, producerConfig.getCompressType()));
         producerConfig.setCompressThreshold(KeyValueHelper.getInt(attributes, JoyQueueProducerBuiltinKeys.COMPRESS_THRESHOLD, producerConfig.getCompressThreshold()));
         producerConfig.setBatch(attributes.getBoolean(JoyQueueProducerBuiltinKeys.BATCH, producerConfig.isBatch()));
+        producerConfig.setAccumulate(attributes.getBoolean(JoyQueueProducerBuiltinKeys.ACCUMULATE, producerConfig.isAccumulate()));
+        producerConfig.setLingerMs(attributes.getLong(JoyQueueProducerBuiltinKeys.LINGER_MS, producerConfig.getLingerMs()));
+        producerConfig.setBatchSize(KeyValueHelper.getInt(attributes, JoyQueueProducerBuiltinKeys.BATCH_SIZE, producerConfig.getBatchSize()));
+        producerConfig.setBufferMemory(KeyValueHelper.getInt(attributes, JoyQueueProducerBuiltinKeys.BUFFER_MEMORY, producerConfig.getBufferMemory()));
         producerConfig.setSelectorType(KeyValueHelper.getString(attributes, JoyQueueProducerBuiltinKeys.SELECTOR_TYPE, producerConfig.getSelectorType()));
         producerConfig.setBusinessIdLengthLimit(KeyValueHelper.getInt(attributes, JoyQueueProducerBuiltinKeys.BUSINESSID_LENGTH_LIMIT, producerConfig.getBusinessIdLengthLimit()));
         producerConfig.setBodyLengthLimit(KeyValueHelper.getInt(attributes, JoyQueueProducerBuiltinKeys.BODY_LENGTH_LIMIT, producerConfig.getBodyLengthLimit()));
@@ -109,6 +113,8 @@ public class KeyValueConverter {
         consumerConfig.setSessionTimeout(attributes.getLong(JoyQueueConsumerBuiltinKeys.SESSION_TIMEOUT, consumerConfig.getSessionTimeout()));
         consumerConfig.setThread(KeyValueHelper.getInt(attributes, JoyQueueConsumerBuiltinKeys.THREAD, consumerConfig.getThread()));
         consumerConfig.setFailover(attributes.getBoolean(JoyQueueConsumerBuiltinKeys.FAILOVER, consumerConfig.isFailover()));
+        consumerConfig.setPrefetch(attributes.getBoolean(JoyQueueConsumerBuiltinKeys.PREFETCH, consumerConfig.isPrefetch()));
+        consumerConfig.setPrefetchSize(KeyValueHelper.getInt(attributes, JoyQueueConsumerBuiltinKeys.PREFETCH_SIZE, consumerConfig.getPrefetchSize()));
         consumerConfig.setLoadBalance(attributes.getBoolean(JoyQueueConsumerBuiltinKeys.LOADBALANCE, consumerConfig.isLoadBalance()));
         consumerConfig.setLoadBalanceType(KeyValueHelper.getString(attributes, JoyQueueConsumerBuiltinKeys.LOADBALANCE_TYPE, consumerConfig.getLoadBalanceType()));
         consumerConfig.setBroadcastGroup(KeyValueHelper.getString(attributes, JoyQueueConsumerBuiltinKeys.BROADCAST_GROUP, consumerConfig.getBroadcastGroup()));
@@ -47,6 +47,11 @@ public interface JoyQueueConsumerBuiltinKeys extends OMSBuiltinKeys {
 
     String FAILOVER = "CONSUMER_FAILOVER";
 
+    String PREFETCH = "CONSUMER_PREFETCH";
+
+    // 预拉取队列中最多缓存的消息批数，停止消费者时没有消费的批次直接丢弃，不应答，在ackTimeout之后重新投递
+    String PREFETCH_SIZE = "CONSUMER_PREFETCH_SIZE";
+
     String LOADBALANCE = "CONSUMER_LOADBALANCE";
 
     String LOADBALANCE_TYPE = "CONSUMER_LOADBALANCE_TYPE";
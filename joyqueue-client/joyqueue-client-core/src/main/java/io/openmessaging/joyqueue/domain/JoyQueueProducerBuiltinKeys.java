@@ -45,6 +45,14 @@ public interface JoyQueueProducerBuiltinKeys extends OMSBuiltinKeys {
 
     String BATCH = "PRODUCER_BATCH";
 
+    String ACCUMULATE = "PRODUCER_ACCUMULATE";
+
+    String LINGER_MS = "PRODUCER_LINGER_MS";
+
+    String BATCH_SIZE = "PRODUCER_BATCH_SIZE";
+
+    String BUFFER_MEMORY = "PRODUCER_BUFFER_MEMORY";
+
     String SELECTOR_TYPE = "PRODUCER_SELECTOR_TYPE";
 
     String BUSINESSID_LENGTH_LIMIT = "PRODUCER_BUSINESSID_LENGTH_LIMIT";
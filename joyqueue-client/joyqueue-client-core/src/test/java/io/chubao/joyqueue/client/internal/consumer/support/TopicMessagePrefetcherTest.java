@@ -0,0 +1,188 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.client.internal.consumer.support;
+
+import io.chubao.joyqueue.client.internal.consumer.MessageListener;
+import io.chubao.joyqueue.client.internal.consumer.MessagePoller;
+import io.chubao.joyqueue.client.internal.consumer.config.ConsumerConfig;
+import io.chubao.joyqueue.client.internal.consumer.domain.ConsumeMessage;
+import io.chubao.joyqueue.client.internal.consumer.domain.ConsumeReply;
+import io.chubao.joyqueue.exception.JoyQueueCode;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TopicMessagePrefetcherTest
+ */
+public class TopicMessagePrefetcherTest {
+
+    private static final String TOPIC = "test_topic";
+    private static final int PREFETCH_SIZE = 2;
+
+    private final MessagePoller messagePoller = Mockito.mock(MessagePoller.class);
+    private final AtomicInteger pollTimes = new AtomicInteger();
+    private final List<List<ConsumeReply>> replies = new CopyOnWriteArrayList<>();
+    private final MessageListenerManager messageListenerManager = new MessageListenerManager();
+    private TopicMessagePrefetcher prefetcher;
+
+    @Before
+    public void before() {
+        Mockito.when(messagePoller.poll(Mockito.anyString())).thenAnswer(invocation -> {
+            pollTimes.incrementAndGet();
+            return Collections.singletonList(new ConsumeMessage());
+        });
+        Mockito.when(messagePoller.reply(Mockito.anyString(), Mockito.anyList())).thenAnswer(invocation -> {
+            replies.add(new ArrayList<>(invocation.<List<ConsumeReply>>getArgument(1)));
+            return JoyQueueCode.SUCCESS;
+        });
+        messageListenerManager.addListener((MessageListener) message -> {
+        });
+
+        ConsumerConfig config = new ConsumerConfig();
+        config.setPrefetchSize(PREFETCH_SIZE);
+        config.setIdleInterval(10);
+        config.setTimeout(1000);
+        prefetcher = new TopicMessagePrefetcher(TOPIC, config, messagePoller, messageListenerManager);
+    }
+
+    @After
+    public void after() {
+        prefetcher.stop();
+    }
+
+    @Test
+    public void testQueueBound() throws Exception {
+        prefetcher.start();
+        Thread.sleep(200);
+
+        // 队列满之后拉取线程阻塞，最多再多拉取一批等待放入队列
+        int times = pollTimes.get();
+        Assert.assertTrue("poll times: " + times, times >= PREFETCH_SIZE && times <= PREFETCH_SIZE + 1);
+        Thread.sleep(100);
+        Assert.assertEquals(times, pollTimes.get());
+
+        // 消费一批之后继续拉取
+        Assert.assertNotNull(prefetcher.poll());
+        waitFor(() -> pollTimes.get() > times);
+        Assert.assertTrue(pollTimes.get() <= PREFETCH_SIZE + 2);
+    }
+
+    @Test
+    public void testSuspendAndResume() throws Exception {
+        prefetcher.suspend();
+        prefetcher.start();
+        Thread.sleep(100);
+        Assert.assertEquals(0, pollTimes.get());
+
+        prefetcher.resume();
+        waitFor(() -> pollTimes.get() > 0);
+
+        prefetcher.suspend();
+        while (prefetcher.poll() != null) {
+            // 取出所有预拉取的消息
+        }
+        // 暂停之前已经开始的拉取可能还会完成一次
+        int times = pollTimes.get();
+        Thread.sleep(100);
+        Assert.assertTrue(pollTimes.get() <= times + 1);
+        times = pollTimes.get();
+        Thread.sleep(100);
+        Assert.assertEquals(times, pollTimes.get());
+
+        prefetcher.resume();
+        int suspendTimes = times;
+        waitFor(() -> pollTimes.get() > suspendTimes);
+    }
+
+    @Test
+    public void testReplyCommittedAtStop() throws Exception {
+        prefetcher.suspend();
+        prefetcher.start();
+        for (int i = 0; i < 100; i++) {
+            prefetcher.reply(Collections.singletonList(new ConsumeReply((short) 0, i)));
+        }
+        prefetcher.stop();
+        Assert.assertEquals(100, replyCount());
+
+        // 停止之后的应答直接提交
+        prefetcher.reply(Collections.singletonList(new ConsumeReply((short) 0, 100)));
+        Assert.assertEquals(101, replyCount());
+    }
+
+    @Test
+    public void testMergeReplies() throws Exception {
+        CountDownLatch replying = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Mockito.doAnswer(invocation -> {
+            replies.add(new ArrayList<>(invocation.<List<ConsumeReply>>getArgument(1)));
+            replying.countDown();
+            release.await();
+            return JoyQueueCode.SUCCESS;
+        }).when(messagePoller).reply(Mockito.anyString(), Mockito.anyList());
+        prefetcher.suspend();
+        prefetcher.start();
+
+        prefetcher.reply(Collections.singletonList(new ConsumeReply((short) 0, 0)));
+        Assert.assertTrue(replying.await(1, TimeUnit.SECONDS));
+
+        // 提交第一批应答的同时放入的应答合并成一批提交
+        prefetcher.reply(Arrays.asList(new ConsumeReply((short) 0, 1), new ConsumeReply((short) 1, 0)));
+        prefetcher.reply(Collections.singletonList(new ConsumeReply((short) 0, 2)));
+        release.countDown();
+        waitFor(() -> replies.size() == 2);
+
+        Assert.assertEquals(1, replies.get(0).size());
+        List<ConsumeReply> merged = replies.get(1);
+        Assert.assertEquals(3, merged.size());
+        Assert.assertEquals(1, merged.get(0).getIndex());
+        Assert.assertEquals(1, merged.get(1).getPartition());
+        Assert.assertEquals(2, merged.get(2).getIndex());
+    }
+
+    protected int replyCount() {
+        int count = 0;
+        for (List<ConsumeReply> reply : replies) {
+            count += reply.size();
+        }
+        return count;
+    }
+
+    protected void waitFor(Condition condition) throws Exception {
+        long deadline = System.currentTimeMillis() + 1000;
+        while (!condition.test()) {
+            if (System.currentTimeMillis() > deadline) {
+                Assert.fail("condition not satisfied in time");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    protected interface Condition {
+        boolean test();
+    }
+}
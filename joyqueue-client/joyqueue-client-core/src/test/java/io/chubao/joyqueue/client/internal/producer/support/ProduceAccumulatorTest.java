@@ -0,0 +1,299 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.client.internal.producer.support;
+
+import io.chubao.joyqueue.client.internal.exception.ClientException;
+import io.chubao.joyqueue.client.internal.metadata.domain.PartitionMetadata;
+import io.chubao.joyqueue.client.internal.metadata.domain.TopicMetadata;
+import io.chubao.joyqueue.client.internal.producer.callback.AsyncBatchProduceCallback;
+import io.chubao.joyqueue.client.internal.producer.callback.CompletableFutureAsyncProduceCallback;
+import io.chubao.joyqueue.client.internal.producer.config.ProducerConfig;
+import io.chubao.joyqueue.client.internal.producer.domain.ProduceMessage;
+import io.chubao.joyqueue.client.internal.producer.domain.SendResult;
+import io.chubao.joyqueue.client.internal.producer.exception.ProducerException;
+import io.chubao.joyqueue.exception.JoyQueueCode;
+import io.chubao.joyqueue.network.domain.BrokerNode;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ProduceAccumulatorTest
+ */
+public class ProduceAccumulatorTest {
+
+    private static final String TOPIC = "test_topic";
+
+    private final PartitionMetadata partition0 = new PartitionMetadata((short) 0, 0, TOPIC, null);
+    private final PartitionMetadata partition1 = new PartitionMetadata((short) 1, 1, TOPIC, null);
+    private final StubMessageProducerInner producerInner = new StubMessageProducerInner();
+    private ProduceAccumulator accumulator;
+
+    @After
+    public void after() {
+        if (accumulator != null) {
+            accumulator.stop();
+        }
+    }
+
+    @Test
+    public void testLingerFlush() throws Exception {
+        start(50, 1024, 1024);
+        CompletableFuture<SendResult> future1 = append("aaaaa");
+        CompletableFuture<SendResult> future2 = append("bbbbb");
+        Assert.assertTrue(producerInner.sent.isEmpty());
+
+        SentBatch batch = producerInner.sent.poll(1, TimeUnit.SECONDS);
+        Assert.assertNotNull("batch not sent after linger", batch);
+        Assert.assertEquals(2, batch.messages.size());
+        Assert.assertEquals(partition0, batch.partition);
+
+        batch.callback.onSuccess(batch.messages, Collections.singletonList(new SendResult(TOPIC, (short) 0, 10, 0)));
+        Assert.assertEquals(10, future1.get(1, TimeUnit.SECONDS).getIndex());
+        Assert.assertEquals(11, future2.get(1, TimeUnit.SECONDS).getIndex());
+    }
+
+    @Test
+    public void testBatchSizeFlush() throws Exception {
+        start(60 * 1000, 10, 1024);
+        append("aaaaa");
+        Assert.assertTrue(producerInner.sent.isEmpty());
+        append("bbbbb");
+
+        // 达到batchSize时在发送线程中直接发送，不等待linger
+        Assert.assertEquals(1, producerInner.sent.size());
+        Assert.assertEquals(2, producerInner.sent.poll().messages.size());
+
+        // 超过batchSize的消息放入新的批次
+        append("ccccc");
+        append("dddddd");
+        SentBatch batch = producerInner.sent.poll();
+        Assert.assertNotNull(batch);
+        Assert.assertEquals(1, batch.messages.size());
+        Assert.assertEquals("ccccc", batch.messages.get(0).getBody());
+    }
+
+    @Test
+    public void testBufferMemoryFull() throws Exception {
+        start(60 * 1000, 10, 10);
+        CompletableFuture<SendResult> first = append("aaaaaaaaaa");
+        SentBatch batch = producerInner.sent.poll();
+        Assert.assertNotNull(batch);
+
+        // 缓冲区已满，超时后抛出异常
+        try {
+            append("bbbbbbbbbb", 100);
+            Assert.fail("append should block until timeout");
+        } catch (ProducerException e) {
+            Assert.assertEquals(JoyQueueCode.CN_REQUEST_EXCESSIVE.getCode(), e.getCode());
+        }
+
+        // 阻塞的发送在前一个批次完成后继续
+        CompletableFuture<CompletableFuture<SendResult>> blocked = CompletableFuture.supplyAsync(() -> append("cccccccccc", 5000));
+        Thread.sleep(100);
+        Assert.assertFalse(blocked.isDone());
+        batch.callback.onSuccess(batch.messages, Collections.singletonList(new SendResult(TOPIC, (short) 0, 0, 0)));
+        Assert.assertEquals(0, first.get(1, TimeUnit.SECONDS).getIndex());
+        Assert.assertNotNull(blocked.get(1, TimeUnit.SECONDS));
+        Assert.assertEquals("cccccccccc", producerInner.sent.poll(1, TimeUnit.SECONDS).messages.get(0).getBody());
+    }
+
+    @Test
+    public void testSplitResult() throws Exception {
+        start(60 * 1000, 1024, 1024);
+        List<CompletableFuture<SendResult>> futures = Arrays.asList(append("a"), append("b"), append("c"));
+        accumulator.drain(true);
+        SentBatch batch = producerInner.sent.poll();
+        Assert.assertEquals(3, batch.messages.size());
+
+        // 批量消息只返回一个结果
+        batch.callback.onSuccess(batch.messages, Collections.singletonList(new SendResult(TOPIC, (short) 0, 100, 1)));
+        for (int i = 0; i < futures.size(); i++) {
+            SendResult result = futures.get(i).get(1, TimeUnit.SECONDS);
+            Assert.assertEquals(TOPIC, result.getTopic());
+            Assert.assertEquals(0, result.getPartition());
+            Assert.assertEquals(100 + i, result.getIndex());
+        }
+
+        // 每条消息一个结果
+        futures = Arrays.asList(append("a"), append("b"));
+        accumulator.drain(true);
+        batch = producerInner.sent.poll();
+        batch.callback.onSuccess(batch.messages, Arrays.asList(new SendResult(TOPIC, (short) 0, 7, 1), new SendResult(TOPIC, (short) 0, 3, 1)));
+        Assert.assertEquals(7, futures.get(0).get(1, TimeUnit.SECONDS).getIndex());
+        Assert.assertEquals(3, futures.get(1).get(1, TimeUnit.SECONDS).getIndex());
+    }
+
+    @Test
+    public void testEmptyResult() throws Exception {
+        start(60 * 1000, 1024, 1024);
+        CompletableFuture<SendResult> future = append("a");
+        accumulator.drain(true);
+        SentBatch batch = producerInner.sent.poll();
+        batch.callback.onSuccess(batch.messages, Collections.emptyList());
+
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            Assert.fail("empty result should fail the message");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof ProducerException);
+        }
+        // 消息可能已经写入，不重试
+        Assert.assertNull(producerInner.sent.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testRetryOnNotLeader() throws Exception {
+        start(60 * 1000, 1024, 1024);
+        CompletableFuture<SendResult> future = append("a");
+        accumulator.drain(true);
+        SentBatch batch = producerInner.sent.poll();
+        Assert.assertEquals(partition0, batch.partition);
+
+        JoyQueueCode notLeader = JoyQueueCode.FW_PRODUCE_MESSAGE_BROKER_NOT_LEADER;
+        batch.callback.onException(batch.messages, new ProducerException(notLeader.getMessage(), notLeader.getCode()));
+        SentBatch retry = producerInner.sent.poll(1, TimeUnit.SECONDS);
+        Assert.assertNotNull("batch not resent", retry);
+        Assert.assertEquals(partition1, retry.partition);
+        Assert.assertFalse(future.isDone());
+
+        retry.callback.onSuccess(retry.messages, Collections.singletonList(new SendResult(TOPIC, (short) 1, 5, 0)));
+        Assert.assertEquals(1, future.get(1, TimeUnit.SECONDS).getPartition());
+    }
+
+    @Test
+    public void testNotRetryable() throws Exception {
+        start(60 * 1000, 1024, 1024);
+        CompletableFuture<SendResult> future = append("a");
+        accumulator.drain(true);
+        SentBatch batch = producerInner.sent.poll();
+
+        JoyQueueCode notExist = JoyQueueCode.FW_TOPIC_NOT_EXIST;
+        batch.callback.onException(batch.messages, new ProducerException(notExist.getMessage(), notExist.getCode()));
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            Assert.fail("not retryable exception should fail the message");
+        } catch (ExecutionException e) {
+            Assert.assertEquals(notExist.getCode(), ((ProducerException) e.getCause()).getCode());
+        }
+        Assert.assertNull(producerInner.sent.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    protected void start(long lingerMs, int batchSize, int bufferMemory) throws Exception {
+        ProducerConfig config = new ProducerConfig();
+        config.setLingerMs(lingerMs);
+        config.setBatchSize(batchSize);
+        config.setBufferMemory(bufferMemory);
+        accumulator = new ProduceAccumulator(config, producerInner);
+        accumulator.start();
+    }
+
+    protected CompletableFuture<SendResult> append(String body) {
+        return append(body, 1000);
+    }
+
+    protected CompletableFuture<SendResult> append(String body, long timeout) {
+        CompletableFuture<SendResult> future = new CompletableFuture<>();
+        accumulator.append(new ProduceMessage(TOPIC, body), timeout, TimeUnit.MILLISECONDS, new CompletableFutureAsyncProduceCallback(future));
+        return future;
+    }
+
+    protected static class SentBatch {
+        private final List<ProduceMessage> messages;
+        private final PartitionMetadata partition;
+        private final AsyncBatchProduceCallback callback;
+
+        SentBatch(List<ProduceMessage> messages, PartitionMetadata partition, AsyncBatchProduceCallback callback) {
+            this.messages = messages;
+            this.partition = partition;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * 不连接broker，记录发送的批次，由测试调用回调
+     */
+    protected class StubMessageProducerInner extends MessageProducerInner {
+
+        private final TopicMetadata topicMetadata = new TopicMetadata(TOPIC, null, null, null, null,
+                Arrays.asList(partition0, partition1), null, null, null, null, null, null, null, true, JoyQueueCode.SUCCESS);
+        private final BlockingQueue<SentBatch> sent = new LinkedBlockingQueue<>();
+
+        StubMessageProducerInner() {
+            super(new ProducerConfig(), null, null, null, null);
+        }
+
+        @Override
+        public TopicMetadata getAndCheckTopicMetadata(String topic) {
+            return topicMetadata;
+        }
+
+        @Override
+        public List<BrokerNode> getRegionBrokers(TopicMetadata topicMetadata) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<BrokerNode> filterNotAvailableBrokers(List<BrokerNode> brokerNodes) {
+            return brokerNodes;
+        }
+
+        @Override
+        public List<PartitionMetadata> getBrokerPartitions(TopicMetadata topicMetadata, List<BrokerNode> brokerNodes) {
+            return topicMetadata.getPartitions();
+        }
+
+        @Override
+        public PartitionMetadata dispatchPartitions(List<ProduceMessage> messages, TopicMetadata topicMetadata, List<PartitionMetadata> partitions) {
+            return partitions.get(0);
+        }
+
+        @Override
+        public PartitionMetadata dispatchPartitions(List<ProduceMessage> messages, TopicMetadata topicMetadata, List<PartitionMetadata> partitions,
+                                                    List<PartitionMetadata> partitionBlackList) {
+            for (PartitionMetadata partition : partitions) {
+                if (partitionBlackList == null || !partitionBlackList.contains(partition)) {
+                    return partition;
+                }
+            }
+            throw new ProducerException(JoyQueueCode.FW_TOPIC_NO_PARTITIONGROUP.getMessage(), JoyQueueCode.FW_TOPIC_NO_PARTITIONGROUP.getCode());
+        }
+
+        @Override
+        public boolean isRetryable(String topic, Throwable cause) {
+            // 不更新元数据，其余和实际的重试条件一致
+            return !(cause instanceof ClientException)
+                    || ((ClientException) cause).getCode() != JoyQueueCode.FW_TOPIC_NOT_EXIST.getCode();
+        }
+
+        @Override
+        public List<SendResult> doBatchSend(List<ProduceMessage> messages, TopicMetadata topicMetadata, PartitionMetadata partition, List<PartitionMetadata> partitions,
+                                            String txId, long timeout, TimeUnit timeoutUnit, boolean isOneway, boolean failover, AsyncBatchProduceCallback callback) {
+            sent.add(new SentBatch(new ArrayList<>(messages), partition, callback));
+            return null;
+        }
+    }
+}
@@ -16,9 +16,11 @@
 package io.chubao.joyqueue.message;
 
 import io.chubao.joyqueue.toolkit.io.Compressors;
+import io.chubao.joyqueue.toolkit.io.LZ4;
 import io.chubao.joyqueue.toolkit.io.Snappy;
 import io.chubao.joyqueue.toolkit.io.Zip;
 import io.chubao.joyqueue.toolkit.io.Zlib;
+import io.chubao.joyqueue.toolkit.io.Zstd;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -369,6 +371,12 @@ public class Message implements Serializable {
                     case ZLIB: {
                         return Compressors.decompress(body, 0, body.length, Zlib.INSTANCE);
                     }
+                    case ZSTD: {
+                        return Compressors.decompress(body, 0, body.length, Zstd.INSTANCE);
+                    }
+                    case LZ4: {
+                        return Compressors.decompress(body, 0, body.length, LZ4.INSTANCE);
+                    }
                 }
                 return body;
             } else {
@@ -529,6 +537,10 @@ public class Message implements Serializable {
 
         Snappy(3),
 
+        ZSTD(4),
+
+        LZ4(5),
+
         ;
 
         private int type;
@@ -547,6 +559,10 @@ public class Message implements Serializable {
                     return ZLIB;
                 case 3:
                     return Snappy;
+                case 4:
+                    return ZSTD;
+                case 5:
+                    return LZ4;
                 default: {
                     throw new UnsupportedOperationException("unsupported type, type: " + value);
                 }
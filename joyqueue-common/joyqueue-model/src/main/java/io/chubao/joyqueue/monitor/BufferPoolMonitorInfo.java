@@ -26,6 +26,11 @@ public class BufferPoolMonitorInfo {
     private String maxMemorySize;
     private String mmpUsed;
     private String directUsed;
+    private String pageSize;
+    private String pageProtectedUsed;
+    private long pageHits;
+    private long pageMisses;
+    private long pageEvictions;
 
     private List<PLMonitorInfo> plMonitorInfos;
 
@@ -69,6 +74,46 @@ public class BufferPoolMonitorInfo {
         this.directUsed = directUsed;
     }
 
+    public String getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(String pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public String getPageProtectedUsed() {
+        return pageProtectedUsed;
+    }
+
+    public void setPageProtectedUsed(String pageProtectedUsed) {
+        this.pageProtectedUsed = pageProtectedUsed;
+    }
+
+    public long getPageHits() {
+        return pageHits;
+    }
+
+    public void setPageHits(long pageHits) {
+        this.pageHits = pageHits;
+    }
+
+    public long getPageMisses() {
+        return pageMisses;
+    }
+
+    public void setPageMisses(long pageMisses) {
+        this.pageMisses = pageMisses;
+    }
+
+    public long getPageEvictions() {
+        return pageEvictions;
+    }
+
+    public void setPageEvictions(long pageEvictions) {
+        this.pageEvictions = pageEvictions;
+    }
+
     public List<PLMonitorInfo> getPlMonitorInfos() {
         return plMonitorInfos;
     }
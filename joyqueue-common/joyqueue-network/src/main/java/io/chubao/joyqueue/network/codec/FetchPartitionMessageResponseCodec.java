@@ -26,6 +26,7 @@ import io.chubao.joyqueue.network.command.JoyQueueCommandType;
 import io.chubao.joyqueue.network.serializer.Serializer;
 import io.chubao.joyqueue.network.transport.codec.JoyQueueHeader;
 import io.chubao.joyqueue.network.transport.codec.PayloadCodec;
+import io.chubao.joyqueue.network.transport.codec.ZeroCopyWriter;
 import io.chubao.joyqueue.network.transport.command.Type;
 import io.netty.buffer.ByteBuf;
 
@@ -68,6 +69,7 @@ public class FetchPartitionMessageResponseCodec implements PayloadCodec<JoyQueue
 
     @Override
     public void encode(FetchPartitionMessageResponse payload, ByteBuf buffer) throws Exception {
+        ZeroCopyWriter zeroCopyWriter = payload.getZeroCopyWriter();
         buffer.writeShort(payload.getData().rowMap().size());
         for (Map.Entry<String, Map<Short, FetchPartitionMessageAckData>> topicEntry : payload.getData().rowMap().entrySet()) {
             Serializer.write(topicEntry.getKey(), buffer, Serializer.SHORT_SIZE);
@@ -77,7 +79,11 @@ public class FetchPartitionMessageResponseCodec implements PayloadCodec<JoyQueue
                 buffer.writeShort(partitionEntry.getKey());
                 buffer.writeShort(fetchPartitionMessageAckData.getBuffers().size());
                 for (ByteBuffer rByteBuffer : fetchPartitionMessageAckData.getBuffers()) {
-                    buffer.writeBytes(rByteBuffer);
+                    if (zeroCopyWriter != null) {
+                        zeroCopyWriter.write(buffer, rByteBuffer);
+                    } else {
+                        buffer.writeBytes(rByteBuffer);
+                    }
                 }
                 buffer.writeInt(fetchPartitionMessageAckData.getCode().getCode());
             }
@@ -25,6 +25,7 @@ import io.chubao.joyqueue.network.command.JoyQueueCommandType;
 import io.chubao.joyqueue.network.serializer.Serializer;
 import io.chubao.joyqueue.network.transport.codec.JoyQueueHeader;
 import io.chubao.joyqueue.network.transport.codec.PayloadCodec;
+import io.chubao.joyqueue.network.transport.codec.ZeroCopyWriter;
 import io.chubao.joyqueue.network.transport.command.Type;
 import io.netty.buffer.ByteBuf;
 
@@ -63,13 +64,18 @@ public class FetchTopicMessageResponseCodec implements PayloadCodec<JoyQueueHead
 
     @Override
     public void encode(FetchTopicMessageResponse payload, ByteBuf buffer) throws Exception {
+        ZeroCopyWriter zeroCopyWriter = payload.getZeroCopyWriter();
         buffer.writeShort(payload.getData().size());
         for (Map.Entry<String, FetchTopicMessageAckData> entry : payload.getData().entrySet()) {
             FetchTopicMessageAckData fetchTopicMessageAckData = entry.getValue();
             Serializer.write(entry.getKey(), buffer, Serializer.SHORT_SIZE);
             buffer.writeShort(fetchTopicMessageAckData.getBuffers().size());
             for (ByteBuffer rByteBuffer : fetchTopicMessageAckData.getBuffers()) {
-                buffer.writeBytes(rByteBuffer);
+                if (zeroCopyWriter != null) {
+                    zeroCopyWriter.write(buffer, rByteBuffer);
+                } else {
+                    buffer.writeBytes(rByteBuffer);
+                }
             }
             buffer.writeInt(fetchTopicMessageAckData.getCode().getCode());
         }
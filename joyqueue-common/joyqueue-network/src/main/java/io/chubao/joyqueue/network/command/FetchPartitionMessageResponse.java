@@ -16,7 +16,9 @@
 package io.chubao.joyqueue.network.command;
 
 import com.google.common.collect.Table;
+import io.chubao.joyqueue.network.transport.codec.ZeroCopyWriter;
 import io.chubao.joyqueue.network.transport.command.JoyQueuePayload;
+import io.chubao.joyqueue.network.transport.command.ZeroCopyPayload;
 
 /**
  * FetchPartitionMessageResponse
@@ -24,9 +26,10 @@ import io.chubao.joyqueue.network.transport.command.JoyQueuePayload;
  * author: gaohaoxiang
  * date: 2018/12/7
  */
-public class FetchPartitionMessageResponse extends JoyQueuePayload {
+public class FetchPartitionMessageResponse extends JoyQueuePayload implements ZeroCopyPayload {
 
     private Table<String, Short, FetchPartitionMessageAckData> data;
+    private ZeroCopyWriter zeroCopyWriter;
 
     @Override
     public int type() {
@@ -40,4 +43,14 @@ public class FetchPartitionMessageResponse extends JoyQueuePayload {
     public void setData(Table<String, Short, FetchPartitionMessageAckData> data) {
         this.data = data;
     }
+
+    @Override
+    public ZeroCopyWriter getZeroCopyWriter() {
+        return zeroCopyWriter;
+    }
+
+    @Override
+    public void setZeroCopyWriter(ZeroCopyWriter zeroCopyWriter) {
+        this.zeroCopyWriter = zeroCopyWriter;
+    }
 }
\ No newline at end of file
@@ -15,7 +15,9 @@
  */
 package io.chubao.joyqueue.network.command;
 
+import io.chubao.joyqueue.network.transport.codec.ZeroCopyWriter;
 import io.chubao.joyqueue.network.transport.command.JoyQueuePayload;
+import io.chubao.joyqueue.network.transport.command.ZeroCopyPayload;
 
 import java.util.Map;
 
@@ -25,9 +27,10 @@ import java.util.Map;
  * author: gaohaoxiang
  * date: 2018/12/7
  */
-public class FetchTopicMessageResponse extends JoyQueuePayload {
+public class FetchTopicMessageResponse extends JoyQueuePayload implements ZeroCopyPayload {
 
     private Map<String, FetchTopicMessageAckData> data;
+    private ZeroCopyWriter zeroCopyWriter;
 
     @Override
     public int type() {
@@ -41,4 +44,14 @@ public class FetchTopicMessageResponse extends JoyQueuePayload {
     public Map<String, FetchTopicMessageAckData> getData() {
         return data;
     }
+
+    @Override
+    public ZeroCopyWriter getZeroCopyWriter() {
+        return zeroCopyWriter;
+    }
+
+    @Override
+    public void setZeroCopyWriter(ZeroCopyWriter zeroCopyWriter) {
+        this.zeroCopyWriter = zeroCopyWriter;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,38 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.network.handler;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+/**
+ * 写缓冲区背压
+ * <p>
+ * 待发送的数据超过写缓冲区高水位时通道变为不可写，此时暂停读取该连接上的请求，
+ * 待发送的数据降到低水位以下后恢复读取。避免慢消费者的响应在内存中无限堆积。
+ */
+@ChannelHandler.Sharable
+public class BackpressureHandler extends ChannelInboundHandlerAdapter {
+
+    public static final BackpressureHandler INSTANCE = new BackpressureHandler();
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        ctx.channel().config().setAutoRead(ctx.channel().isWritable());
+        super.channelWritabilityChanged(ctx);
+    }
+}
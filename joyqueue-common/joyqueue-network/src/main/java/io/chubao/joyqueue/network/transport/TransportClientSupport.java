@@ -27,7 +27,10 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollMode;
 import io.netty.channel.epoll.EpollEventLoopGroup;
 import io.netty.channel.epoll.EpollSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
@@ -67,20 +70,34 @@ public abstract class TransportClientSupport extends Service {
 
     protected Bootstrap newBootstrap(ChannelHandler channelHandler, EventLoopGroup ioEventGroup) {
         Bootstrap bootstrap = new Bootstrap();
-        bootstrap.channel(Epoll.isAvailable() ? EpollSocketChannel.class : NioSocketChannel.class)
+        bootstrap.channel(useEpoll() ? EpollSocketChannel.class : NioSocketChannel.class)
                 .group(ioEventGroup)
                 .handler(channelHandler)
                 .option(ChannelOption.SO_REUSEADDR, config.isReuseAddress())
                 .option(ChannelOption.SO_RCVBUF, config.getSocketBufferSize())
-                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, newWriteBufferWaterMark());
+        if (useEpoll()) {
+            bootstrap.option(EpollChannelOption.EPOLL_MODE,
+                    config.isEpollEdgeTriggered() ? EpollMode.EDGE_TRIGGERED : EpollMode.LEVEL_TRIGGERED);
+        }
         return bootstrap;
     }
 
+    protected boolean useEpoll() {
+        return config.isEpoll() && Epoll.isAvailable();
+    }
+
+    protected WriteBufferWaterMark newWriteBufferWaterMark() {
+        int high = config.getWriteBufferHighWaterMark();
+        return new WriteBufferWaterMark(Math.min(config.getWriteBufferLowWaterMark(), high), high);
+    }
+
 
     protected EventLoopGroup newIoEventGroup() {
         int ioThread = config.getIoThread();
         NamedThreadFactory threadFactory = new NamedThreadFactory(config.getIoThreadName());
-        if (Epoll.isAvailable()) {
+        if (useEpoll()) {
             return new EpollEventLoopGroup(ioThread, threadFactory);
         } else {
             return new NioEventLoopGroup(ioThread, threadFactory);
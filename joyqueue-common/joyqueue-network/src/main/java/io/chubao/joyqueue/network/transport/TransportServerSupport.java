@@ -15,6 +15,7 @@
  */
 package io.chubao.joyqueue.network.transport;
 
+import io.chubao.joyqueue.network.handler.BackpressureHandler;
 import io.chubao.joyqueue.network.transport.config.ServerConfig;
 import io.chubao.joyqueue.toolkit.concurrent.NamedThreadFactory;
 import io.chubao.joyqueue.toolkit.service.Service;
@@ -22,9 +23,13 @@ import io.netty.bootstrap.ServerBootstrap;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollMode;
 import io.netty.channel.epoll.EpollEventLoopGroup;
 import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
@@ -109,9 +114,16 @@ public abstract class TransportServerSupport extends Service implements Transpor
 
     protected ServerBootstrap newBootstrap(ChannelHandler channelHandler, EventLoopGroup acceptEventGroup, EventLoopGroup ioEventGroup) throws Exception {
         ServerBootstrap serverBootstrap = new ServerBootstrap();
-        serverBootstrap.channel(Epoll.isAvailable() ? EpollServerSocketChannel.class : NioServerSocketChannel.class)
+        serverBootstrap.channel(useEpoll() ? EpollServerSocketChannel.class : NioServerSocketChannel.class)
                 .group(acceptEventGroup, ioEventGroup)
-                .childHandler(channelHandler)
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel channel) throws Exception {
+                        channel.pipeline()
+                                .addLast(BackpressureHandler.INSTANCE)
+                                .addLast(channelHandler);
+                    }
+                })
                 .option(ChannelOption.SO_REUSEADDR, config.isReuseAddress())
                 .option(ChannelOption.SO_RCVBUF, config.getSocketBufferSize())
                 .option(ChannelOption.SO_BACKLOG, config.getBacklog())
@@ -120,10 +132,25 @@ public abstract class TransportServerSupport extends Service implements Transpor
                 .childOption(ChannelOption.TCP_NODELAY, config.isTcpNoDelay())
                 .childOption(ChannelOption.SO_KEEPALIVE, config.isKeepAlive())
                 .childOption(ChannelOption.SO_LINGER, config.getSoLinger())
-                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, newWriteBufferWaterMark());
+        if (useEpoll()) {
+            EpollMode epollMode = config.isEpollEdgeTriggered() ? EpollMode.EDGE_TRIGGERED : EpollMode.LEVEL_TRIGGERED;
+            serverBootstrap.option(EpollChannelOption.EPOLL_MODE, epollMode)
+                    .childOption(EpollChannelOption.EPOLL_MODE, epollMode);
+        }
         return serverBootstrap;
     }
 
+    protected boolean useEpoll() {
+        return config.isEpoll() && Epoll.isAvailable();
+    }
+
+    protected WriteBufferWaterMark newWriteBufferWaterMark() {
+        int high = config.getWriteBufferHighWaterMark();
+        return new WriteBufferWaterMark(Math.min(config.getWriteBufferLowWaterMark(), high), high);
+    }
+
     protected Channel doBind(ServerBootstrap serverBootstrap) throws Exception {
         return serverBootstrap.bind(port)
                 .sync()
@@ -132,7 +159,7 @@ public abstract class TransportServerSupport extends Service implements Transpor
 
     protected EventLoopGroup newAcceptEventGroup() {
         NamedThreadFactory threadFactory = new NamedThreadFactory(config.getAcceptThreadName());
-        if (Epoll.isAvailable()) {
+        if (useEpoll()) {
             return new EpollEventLoopGroup(config.getAcceptThread(), threadFactory);
         } else {
             return new NioEventLoopGroup(config.getAcceptThread(), threadFactory);
@@ -141,7 +168,7 @@ public abstract class TransportServerSupport extends Service implements Transpor
 
     protected EventLoopGroup newIoEventGroup() {
         NamedThreadFactory threadFactory = new NamedThreadFactory(config.getIoThreadName());
-        if (Epoll.isAvailable()) {
+        if (useEpoll()) {
             return new EpollEventLoopGroup(config.getIoThread(), threadFactory);
         } else {
             return new NioEventLoopGroup(config.getIoThread(), threadFactory);
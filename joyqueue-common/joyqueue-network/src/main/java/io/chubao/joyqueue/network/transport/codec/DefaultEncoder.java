@@ -19,6 +19,7 @@ import io.chubao.joyqueue.network.transport.command.Command;
 import io.chubao.joyqueue.network.transport.command.Header;
 import io.chubao.joyqueue.network.transport.command.JoyQueuePayload;
 import io.chubao.joyqueue.network.transport.command.Payload;
+import io.chubao.joyqueue.network.transport.command.ZeroCopyPayload;
 import io.chubao.joyqueue.network.transport.exception.TransportException;
 import io.netty.buffer.ByteBuf;
 import org.slf4j.Logger;
@@ -87,6 +88,20 @@ public class DefaultEncoder implements Encoder {
     }
 
     protected void writeLength(Object obj, ByteBuf buffer) {
-        buffer.setInt(0, buffer.writerIndex());
+        buffer.setInt(0, buffer.writerIndex() + getZeroCopyLength(obj));
+    }
+
+    /**
+     * 零拷贝写入的数据不在buffer中，计算长度时需要加上
+     */
+    protected int getZeroCopyLength(Object obj) {
+        Object payload = ((Command) obj).getPayload();
+        if (payload instanceof ZeroCopyPayload) {
+            ZeroCopyWriter zeroCopyWriter = ((ZeroCopyPayload) payload).getZeroCopyWriter();
+            if (zeroCopyWriter != null) {
+                return zeroCopyWriter.length();
+            }
+        }
+        return 0;
     }
 }
\ No newline at end of file
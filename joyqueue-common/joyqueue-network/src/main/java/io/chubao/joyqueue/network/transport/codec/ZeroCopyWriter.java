@@ -0,0 +1,104 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.network.transport.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 零拷贝写入器
+ * <p>
+ * 编码时只记录消息数据应该插入的位置，不复制数据；
+ * 编码完成后将编码结果和消息数据拼接成CompositeByteBuf。
+ * 连续写入、在同一个数组中首尾相接的消息数据合并成一段。
+ * <p>
+ * 非线程安全，只能在一次编码中使用。
+ */
+public class ZeroCopyWriter {
+
+    private final List<Integer> offsets = new ArrayList<>();
+    private final List<ByteBuffer> buffers = new ArrayList<>();
+    private int length = 0;
+
+    /**
+     * 在buffer当前的写位置插入data，不改变buffer和data的位置
+     */
+    public void write(ByteBuf buffer, ByteBuffer data) {
+        int offset = buffer.writerIndex();
+        int last = buffers.size() - 1;
+        if (last >= 0 && offsets.get(last) == offset && isAdjacent(buffers.get(last), data)) {
+            // 和上一段数据在同一个数组中首尾相接，例如从存储中一次读出的连续消息，合并成一段
+            ByteBuffer previous = buffers.get(last);
+            buffers.set(last, ByteBuffer.wrap(previous.array(), previous.arrayOffset(), previous.remaining() + data.remaining()).slice());
+        } else {
+            offsets.add(offset);
+            buffers.add(data.slice());
+        }
+        length += data.remaining();
+    }
+
+    private boolean isAdjacent(ByteBuffer previous, ByteBuffer data) {
+        return previous.hasArray() && data.hasArray() && previous.array() == data.array()
+                && previous.arrayOffset() + previous.remaining() == data.arrayOffset() + data.position();
+    }
+
+    /**
+     * 插入数据的总长度
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * 将编码结果和插入的数据拼接在一起，调用后buffer的所有权转移到返回值
+     *
+     * @param allocator 分配器
+     * @param buffer    编码结果
+     * @return 拼接后的结果
+     */
+    public ByteBuf compose(ByteBufAllocator allocator, ByteBuf buffer) {
+        if (buffers.isEmpty()) {
+            return buffer;
+        }
+        CompositeByteBuf composite = allocator.compositeBuffer(buffers.size() * 2 + 1);
+        try {
+            int index = buffer.readerIndex();
+            for (int i = 0; i < buffers.size(); i++) {
+                int offset = offsets.get(i);
+                if (offset > index) {
+                    composite.addComponent(true, buffer.retainedSlice(index, offset - index));
+                    index = offset;
+                }
+                composite.addComponent(true, Unpooled.wrappedBuffer(buffers.get(i)));
+            }
+            if (buffer.writerIndex() > index) {
+                composite.addComponent(true, buffer.retainedSlice(index, buffer.writerIndex() - index));
+            }
+        } catch (Throwable t) {
+            composite.release();
+            throw t;
+        } finally {
+            buffer.release();
+        }
+        return composite;
+    }
+}
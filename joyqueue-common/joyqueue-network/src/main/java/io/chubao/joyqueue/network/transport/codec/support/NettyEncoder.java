@@ -16,9 +16,14 @@
 package io.chubao.joyqueue.network.transport.codec.support;
 
 import io.chubao.joyqueue.network.transport.codec.Codec;
+import io.chubao.joyqueue.network.transport.codec.ZeroCopyWriter;
+import io.chubao.joyqueue.network.transport.command.Command;
+import io.chubao.joyqueue.network.transport.command.ZeroCopyPayload;
 import io.chubao.joyqueue.network.transport.exception.TransportException;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.EncoderException;
 import io.netty.handler.codec.MessageToByteEncoder;
 
 /**
@@ -35,6 +40,34 @@ public class NettyEncoder extends MessageToByteEncoder {
         this.codec = codec;
     }
 
+    /**
+     * 支持零拷贝的消息体，消息数据不复制到编码缓冲区，和编码结果一起组成CompositeByteBuf发送
+     */
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (!(msg instanceof Command) || !(((Command) msg).getPayload() instanceof ZeroCopyPayload)) {
+            super.write(ctx, msg, promise);
+            return;
+        }
+
+        ZeroCopyPayload payload = (ZeroCopyPayload) ((Command) msg).getPayload();
+        ZeroCopyWriter zeroCopyWriter = new ZeroCopyWriter();
+        ByteBuf buffer = ctx.alloc().ioBuffer();
+        payload.setZeroCopyWriter(zeroCopyWriter);
+        try {
+            encode(ctx, msg, buffer);
+        } catch (EncoderException e) {
+            buffer.release();
+            throw e;
+        } catch (Throwable e) {
+            buffer.release();
+            throw new EncoderException(e);
+        } finally {
+            payload.setZeroCopyWriter(null);
+        }
+        ctx.write(zeroCopyWriter.compose(ctx.alloc(), buffer), promise);
+    }
+
     @Override
     protected void encode(ChannelHandlerContext ctx, Object msg, ByteBuf out) throws Exception {
         try {
@@ -0,0 +1,34 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.network.transport.command;
+
+import io.chubao.joyqueue.network.transport.codec.ZeroCopyWriter;
+
+/**
+ * 支持零拷贝编码的消息体
+ * <p>
+ * 编码前由NettyEncoder设置ZeroCopyWriter，编解码器通过它写入消息数据时不复制，
+ * 消息数据直接作为CompositeByteBuf的组成部分发送。
+ */
+public interface ZeroCopyPayload {
+
+    /**
+     * 获取零拷贝写入器，为null时按普通方式编码
+     */
+    ZeroCopyWriter getZeroCopyWriter();
+
+    void setZeroCopyWriter(ZeroCopyWriter zeroCopyWriter);
+}
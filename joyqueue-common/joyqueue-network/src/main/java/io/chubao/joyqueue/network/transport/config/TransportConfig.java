@@ -36,6 +36,14 @@ public class TransportConfig {
     // io线程数
     private  int ioThread = Runtime.getRuntime().availableProcessors() * 2;
     private String ioThreadName = "io-eventLoop";
+    // 是否使用epoll原生传输，只在Linux上有效，不可用时使用NIO
+    private boolean epoll = true;
+    // epoll触发模式，true为边缘触发，false为水平触发
+    private boolean epollEdgeTriggered = true;
+    // 写缓冲区低水位，待发送数据降到低水位以下时通道重新可写
+    private int writeBufferLowWaterMark = 1024 * 1024;
+    // 写缓冲区高水位，待发送数据超过高水位时通道不可写，服务端暂停读取该连接的请求
+    private int writeBufferHighWaterMark = 1024 * 1024 * 4;
     // 通道最大空闲时间(毫秒)
     private  int maxIdleTime = 120 * 1000;
     // 表示是否允许重用Socket所绑定的本地地址
@@ -115,6 +123,38 @@ public class TransportConfig {
         this.ioThread = ioThread;
     }
 
+    public boolean isEpoll() {
+        return epoll;
+    }
+
+    public void setEpoll(boolean epoll) {
+        this.epoll = epoll;
+    }
+
+    public boolean isEpollEdgeTriggered() {
+        return epollEdgeTriggered;
+    }
+
+    public void setEpollEdgeTriggered(boolean epollEdgeTriggered) {
+        this.epollEdgeTriggered = epollEdgeTriggered;
+    }
+
+    public int getWriteBufferLowWaterMark() {
+        return writeBufferLowWaterMark;
+    }
+
+    public void setWriteBufferLowWaterMark(int writeBufferLowWaterMark) {
+        this.writeBufferLowWaterMark = writeBufferLowWaterMark;
+    }
+
+    public int getWriteBufferHighWaterMark() {
+        return writeBufferHighWaterMark;
+    }
+
+    public void setWriteBufferHighWaterMark(int writeBufferHighWaterMark) {
+        this.writeBufferHighWaterMark = writeBufferHighWaterMark;
+    }
+
     public int getMaxIdleTime() {
         return maxIdleTime;
     }
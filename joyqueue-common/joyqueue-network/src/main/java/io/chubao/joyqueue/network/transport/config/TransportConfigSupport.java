@@ -70,6 +70,14 @@ public class TransportConfigSupport {
                     transportConfig.setAcceptThread(property.getInteger());
                 } else if (fullKey.equals(keyPrefix + TRANSPORT_IO_THREAD)) {
                     transportConfig.setIoThread(property.getInteger());
+                } else if (fullKey.equals(keyPrefix + TRANSPORT_EPOLL)) {
+                    transportConfig.setEpoll(property.getBoolean());
+                } else if (fullKey.equals(keyPrefix + TRANSPORT_EPOLL_EDGE_TRIGGERED)) {
+                    transportConfig.setEpollEdgeTriggered(property.getBoolean());
+                } else if (fullKey.equals(keyPrefix + TRANSPORT_WRITE_BUFFER_LOW_WATER_MARK)) {
+                    transportConfig.setWriteBufferLowWaterMark(property.getInteger());
+                } else if (fullKey.equals(keyPrefix + TRANSPORT_WRITE_BUFFER_HIGH_WATER_MARK)) {
+                    transportConfig.setWriteBufferHighWaterMark(property.getInteger());
                 } else if (fullKey.equals(keyPrefix + TRANSPORT_MAX_IDLE_TIME)) {
                     transportConfig.setMaxIdleTime(property.getInteger());
                 } else if (fullKey.equals(keyPrefix + TRANSPORT_REUSE_ADDRESS)) {
@@ -112,6 +120,10 @@ public class TransportConfigSupport {
     public static final String TRANSPORT_HOST = "transport.host";
     public static final String TRANSPORT_ACCEPT_THREAD = "transport.acceptThreads";
     public static final String TRANSPORT_IO_THREAD = "transport.ioThreads";
+    public static final String TRANSPORT_EPOLL = "transport.epoll";
+    public static final String TRANSPORT_EPOLL_EDGE_TRIGGERED = "transport.epollEdgeTriggered";
+    public static final String TRANSPORT_WRITE_BUFFER_LOW_WATER_MARK = "transport.writeBufferLowWaterMark";
+    public static final String TRANSPORT_WRITE_BUFFER_HIGH_WATER_MARK = "transport.writeBufferHighWaterMark";
     public static final String TRANSPORT_MAX_IDLE_TIME = "transport.maxIdleTime";
     public static final String TRANSPORT_REUSE_ADDRESS = "transport.reuseAddress";
     public static final String TRANSPORT_SO_LINGER = "transport.soLinger";
@@ -0,0 +1,171 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.network.transport.codec.support;
+
+import io.chubao.joyqueue.domain.QosLevel;
+import io.chubao.joyqueue.exception.JoyQueueCode;
+import io.chubao.joyqueue.network.command.FetchTopicMessageAckData;
+import io.chubao.joyqueue.network.command.FetchTopicMessageResponse;
+import io.chubao.joyqueue.network.transport.codec.JoyQueueHeader;
+import io.chubao.joyqueue.network.transport.command.Command;
+import io.chubao.joyqueue.network.transport.command.Direction;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 零拷贝编码和复制编码的结果必须完全相同
+ */
+public class NettyEncoderTest {
+
+    @Test
+    public void separateBuffersTest() {
+        Map<String, List<ByteBuffer>> data = new LinkedHashMap<>();
+        data.put("topic_a", Arrays.asList(message(10, 1), message(20, 2), message(30, 3)));
+        data.put("topic_b", Collections.singletonList(message(40, 4)));
+        data.put("topic_c", Collections.emptyList());
+
+        ByteBuf zeroCopy = encodeZeroCopy(data);
+        try {
+            // 编码数据3段，消息4段
+            assertComposite(zeroCopy, 7);
+            assertSameFrame(encodeCopy(data), zeroCopy);
+        } finally {
+            zeroCopy.release();
+        }
+    }
+
+    @Test
+    public void adjacentSlicesTest() {
+        // 从存储中一次读出的连续消息，每条消息是同一个块的一个切片
+        ByteBuffer block = message(100, 5);
+        List<ByteBuffer> slices = Arrays.asList(slice(block, 0, 10), slice(block, 10, 30), slice(block, 40, 60));
+
+        Map<String, List<ByteBuffer>> data = new LinkedHashMap<>();
+        data.put("topic_a", slices);
+
+        ByteBuf zeroCopy = encodeZeroCopy(data);
+        try {
+            // 三个切片合并成一段，前后各一段编码数据
+            assertComposite(zeroCopy, 3);
+            assertSameFrame(encodeCopy(data), zeroCopy);
+        } finally {
+            zeroCopy.release();
+        }
+    }
+
+    @Test
+    public void mixedSlicesTest() {
+        ByteBuffer block = message(100, 6);
+        ByteBuffer direct = ByteBuffer.allocateDirect(16);
+        direct.put(message(16, 7));
+        direct.flip();
+
+        Map<String, List<ByteBuffer>> data = new LinkedHashMap<>();
+        // 前两个相邻合并；第三个和第二个之间有空隙；第四个不是堆内存；第五个在非堆内存之后
+        data.put("topic_a", Arrays.asList(slice(block, 0, 10), slice(block, 10, 20), slice(block, 35, 5),
+                direct, slice(block, 40, 10)));
+        // 第一个和上一个主题的最后一个切片相邻，但是中间写入了编码数据，不能合并；第二个和第一个合并
+        data.put("topic_b", Arrays.asList(slice(block, 50, 20), slice(block, 70, 30)));
+
+        ByteBuf zeroCopy = encodeZeroCopy(data);
+        try {
+            // 编码数据3段，消息5段
+            assertComposite(zeroCopy, 8);
+            assertSameFrame(encodeCopy(data), zeroCopy);
+        } finally {
+            zeroCopy.release();
+        }
+    }
+
+    private ByteBuf encodeCopy(Map<String, List<ByteBuffer>> data) {
+        ByteBuf buffer = Unpooled.buffer();
+        new JoyQueueCodec().encode(command(data), buffer);
+        return buffer;
+    }
+
+    private ByteBuf encodeZeroCopy(Map<String, List<ByteBuffer>> data) {
+        EmbeddedChannel channel = new EmbeddedChannel(new NettyEncoder(new JoyQueueCodec()));
+        try {
+            Assert.assertTrue(channel.writeOutbound(command(data)));
+            return channel.readOutbound();
+        } finally {
+            channel.finishAndReleaseAll();
+        }
+    }
+
+    private Command command(Map<String, List<ByteBuffer>> data) {
+        Map<String, FetchTopicMessageAckData> ackData = new LinkedHashMap<>();
+        for (Map.Entry<String, List<ByteBuffer>> entry : data.entrySet()) {
+            // 复制编码会移动ByteBuffer的位置，每次编码使用副本
+            List<ByteBuffer> buffers = new ArrayList<>(entry.getValue().size());
+            for (ByteBuffer buffer : entry.getValue()) {
+                buffers.add(buffer.duplicate());
+            }
+            FetchTopicMessageAckData fetchTopicMessageAckData = new FetchTopicMessageAckData();
+            fetchTopicMessageAckData.setBuffers(buffers);
+            fetchTopicMessageAckData.setCode(buffers.isEmpty() ? JoyQueueCode.FW_FETCH_TOPIC_MESSAGE_PAUSED : JoyQueueCode.SUCCESS);
+            ackData.put(entry.getKey(), fetchTopicMessageAckData);
+        }
+        FetchTopicMessageResponse response = new FetchTopicMessageResponse();
+        response.setData(ackData);
+        // 请求id和时间固定，两次编码的头部相同
+        JoyQueueHeader header = new JoyQueueHeader(JoyQueueHeader.CURRENT_VERSION, QosLevel.RECEIVE, Direction.RESPONSE,
+                1, response.type(), 0L, (short) 0, null);
+        return new Command(header, response);
+    }
+
+    private void assertComposite(ByteBuf buffer, int components) {
+        Assert.assertTrue(buffer instanceof CompositeByteBuf);
+        Assert.assertEquals(components, ((CompositeByteBuf) buffer).numComponents());
+    }
+
+    private void assertSameFrame(ByteBuf expected, ByteBuf actual) {
+        try {
+            Assert.assertEquals(expected.readableBytes(), expected.getInt(expected.readerIndex()));
+            Assert.assertEquals(ByteBufUtil.hexDump(expected), ByteBufUtil.hexDump(actual));
+        } finally {
+            expected.release();
+        }
+    }
+
+    private ByteBuffer message(int size, int seed) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (seed * 31 + i);
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private ByteBuffer slice(ByteBuffer block, int offset, int length) {
+        ByteBuffer slice = block.duplicate();
+        slice.position(offset);
+        slice.limit(offset + length);
+        return slice.slice();
+    }
+}
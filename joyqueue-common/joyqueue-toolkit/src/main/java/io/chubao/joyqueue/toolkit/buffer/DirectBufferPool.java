@@ -0,0 +1,164 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.toolkit.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按大小分级的DirectBuffer缓冲池。
+ * <p>
+ * 缓冲区按2的幂分级，每级分成若干个分段，申请和释放优先使用当前线程对应的分段，
+ * 申请时当前分段没有可用的缓冲区再依次查找其它分段。
+ * 申请和释放可以在不同的线程中进行。
+ * <p>
+ * 超过maxBufferSize的申请直接在堆上分配，不进入缓冲池；
+ * 池中缓存的总大小超过capacity时，释放的缓冲区直接丢弃，由GC回收。
+ * 没有被释放的缓冲区同样由GC回收，不会泄漏。
+ */
+public class DirectBufferPool {
+    public static final int DEFAULT_MIN_BUFFER_SIZE = 256;
+    public static final int DEFAULT_MAX_BUFFER_SIZE = 1024 * 1024;
+    private static final int STRIPE_SIZE = 64;
+
+    private final int minShift;
+    private final int maxBufferSize;
+    private final long capacity;
+    private final int stripeMask;
+    // [级别][分段]
+    private final Stripe[][] stripes;
+    private final AtomicLong pooledBytes = new AtomicLong(0L);
+
+    public DirectBufferPool(long capacity) {
+        this(DEFAULT_MIN_BUFFER_SIZE, DEFAULT_MAX_BUFFER_SIZE, capacity);
+    }
+
+    /**
+     * @param minBufferSize 最小的缓冲区大小，向上取整为2的幂
+     * @param maxBufferSize 最大的缓冲区大小，向上取整为2的幂
+     * @param capacity      池中缓存的缓冲区的最大总大小
+     */
+    public DirectBufferPool(int minBufferSize, int maxBufferSize, long capacity) {
+        if (minBufferSize <= 0 || maxBufferSize < minBufferSize) {
+            throw new IllegalArgumentException(String.format("Invalid buffer size, min: %d, max: %d.", minBufferSize, maxBufferSize));
+        }
+        this.minShift = shift(minBufferSize);
+        int maxShift = shift(maxBufferSize);
+        this.maxBufferSize = 1 << maxShift;
+        this.capacity = capacity;
+
+        int stripeCount = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+        this.stripeMask = stripeCount - 1;
+        this.stripes = new Stripe[maxShift - minShift + 1][stripeCount];
+        for (Stripe[] level : stripes) {
+            for (int i = 0; i < level.length; i++) {
+                level[i] = new Stripe();
+            }
+        }
+    }
+
+    /**
+     * 申请缓冲区
+     *
+     * @param size 大小
+     * @return position为0，limit为size的缓冲区
+     */
+    public ByteBuffer allocate(int size) {
+        if (size > maxBufferSize) {
+            return ByteBuffer.allocate(size);
+        }
+        int level = level(size);
+        Stripe[] levelStripes = stripes[level];
+        int index = stripeIndex();
+        ByteBuffer buffer = null;
+        for (int i = 0; i < levelStripes.length && buffer == null; i++) {
+            buffer = levelStripes[(index + i) & stripeMask].poll();
+        }
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(1 << (level + minShift));
+        } else {
+            pooledBytes.addAndGet(-buffer.capacity());
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * 释放缓冲区，释放后调用方不能再使用这个缓冲区。
+     * 不是由本缓冲池申请的缓冲区会被忽略。
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        int bufferCapacity = buffer.capacity();
+        if (Integer.bitCount(bufferCapacity) != 1 || bufferCapacity > maxBufferSize || bufferCapacity < (1 << minShift)) {
+            return;
+        }
+        if (pooledBytes.addAndGet(bufferCapacity) > capacity) {
+            pooledBytes.addAndGet(-bufferCapacity);
+            return;
+        }
+        if (!stripes[level(bufferCapacity)][stripeIndex()].offer(buffer)) {
+            pooledBytes.addAndGet(-bufferCapacity);
+        }
+    }
+
+    /**
+     * 池中缓存的缓冲区的总大小
+     */
+    public long pooledBytes() {
+        return pooledBytes.get();
+    }
+
+    private int level(int size) {
+        return size <= (1 << minShift) ? 0 : shift(size) - minShift;
+    }
+
+    private int stripeIndex() {
+        return (int) Thread.currentThread().getId() & stripeMask;
+    }
+
+    private static int shift(int size) {
+        return 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    /**
+     * 一个分段，固定大小的栈
+     */
+    private static class Stripe {
+        private final ByteBuffer[] buffers = new ByteBuffer[STRIPE_SIZE];
+        private int size = 0;
+
+        synchronized ByteBuffer poll() {
+            if (size == 0) {
+                return null;
+            }
+            ByteBuffer buffer = buffers[--size];
+            buffers[size] = null;
+            return buffer;
+        }
+
+        synchronized boolean offer(ByteBuffer buffer) {
+            if (size == buffers.length) {
+                return false;
+            }
+            buffers[size++] = buffer;
+            return true;
+        }
+    }
+}
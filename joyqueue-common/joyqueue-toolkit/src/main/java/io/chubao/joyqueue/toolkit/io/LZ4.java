@@ -0,0 +1,93 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.toolkit.io;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * LZ4块压缩，优先使用本地库实现。
+ * <p>
+ * 格式：4字节原始长度（大端） + LZ4块。
+ * 每个线程复用一块输出缓冲区。
+ */
+public class LZ4 implements Compressor {
+    public static final Compressor INSTANCE = new LZ4();
+    private static final int HEADER_SIZE = 4;
+    // 超过这个大小的缓冲区用完不保留，避免线程长期持有大块内存
+    private static final int MAX_CACHED_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private static final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+    private static final LZ4FastDecompressor decompressor = LZ4Factory.fastestInstance().fastDecompressor();
+    private static final ThreadLocal<byte[]> buffers = new ThreadLocal<>();
+
+    @Override
+    public void compress(final byte[] buf, final int offset, final int size, final OutputStream out) throws
+            IOException {
+        if (null == buf || out == null) {
+            return;
+        }
+        byte[] buffer = buffer(HEADER_SIZE + compressor.maxCompressedLength(size));
+        buffer[0] = (byte) (size >>> 24);
+        buffer[1] = (byte) (size >>> 16);
+        buffer[2] = (byte) (size >>> 8);
+        buffer[3] = (byte) size;
+        int length = compressor.compress(buf, offset, size, buffer, HEADER_SIZE, buffer.length - HEADER_SIZE);
+        out.write(buffer, 0, HEADER_SIZE + length);
+    }
+
+    @Override
+    public void decompress(final byte[] buf, final int offset, final int size, final OutputStream out) throws
+            IOException {
+        if (buf == null || buf.length == 0 || size <= 0 || offset >= buf.length || out == null) {
+            return;
+        }
+        if (size < HEADER_SIZE) {
+            throw new IOException("invalid lz4 block, size " + size);
+        }
+        int length = ((buf[offset] & 0xFF) << 24) | ((buf[offset + 1] & 0xFF) << 16)
+                | ((buf[offset + 2] & 0xFF) << 8) | (buf[offset + 3] & 0xFF);
+        if (length < 0) {
+            throw new IOException("invalid lz4 block, length " + length);
+        }
+        byte[] buffer = buffer(length);
+        try {
+            decompressor.decompress(buf, offset + HEADER_SIZE, buffer, 0, length);
+        } catch (LZ4Exception e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        out.write(buffer, 0, length);
+    }
+
+    /**
+     * 获取当前线程的输出缓冲区，不够时重新分配
+     */
+    private static byte[] buffer(final int size) {
+        byte[] buffer = buffers.get();
+        if (buffer == null || buffer.length < size) {
+            buffer = new byte[size];
+            if (size <= MAX_CACHED_BUFFER_SIZE) {
+                buffers.set(buffer);
+            }
+        }
+        return buffer;
+    }
+}
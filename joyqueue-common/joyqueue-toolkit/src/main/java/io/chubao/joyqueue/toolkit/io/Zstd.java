@@ -0,0 +1,93 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.toolkit.io;
+
+import com.github.luben.zstd.RecyclingBufferPool;
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdDecompressCtx;
+import com.github.luben.zstd.ZstdInputStreamNoFinalizer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Zstandard压缩。
+ * <p>
+ * 压缩和解压上下文的创建开销较大，每个线程复用一个上下文和一块输出缓冲区。
+ * 压缩结果是标准的zstd帧，帧头中记录了原始长度，解压时可以一次性分配输出。
+ */
+public class Zstd implements Compressor {
+    public static final Compressor INSTANCE = new Zstd();
+    // 默认压缩级别，与zstd命令行一致
+    public static final int DEFAULT_LEVEL = 3;
+    // 超过这个大小的缓冲区用完不保留，避免线程长期持有大块内存
+    private static final int MAX_CACHED_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private static final ThreadLocal<ZstdCompressCtx> compressCtx =
+            ThreadLocal.withInitial(() -> new ZstdCompressCtx().setLevel(DEFAULT_LEVEL).setContentSize(true));
+    private static final ThreadLocal<ZstdDecompressCtx> decompressCtx = ThreadLocal.withInitial(ZstdDecompressCtx::new);
+    private static final ThreadLocal<byte[]> buffers = new ThreadLocal<>();
+
+    @Override
+    public void compress(final byte[] buf, final int offset, final int size, final OutputStream out) throws
+            IOException {
+        if (null == buf || out == null) {
+            return;
+        }
+        byte[] buffer = buffer((int) com.github.luben.zstd.Zstd.compressBound(size));
+        int length = compressCtx.get().compressByteArray(buffer, 0, buffer.length, buf, offset, size);
+        out.write(buffer, 0, length);
+    }
+
+    @Override
+    public void decompress(final byte[] buf, final int offset, final int size, final OutputStream out) throws
+            IOException {
+        if (buf == null || buf.length == 0 || size <= 0 || offset >= buf.length || out == null) {
+            return;
+        }
+        long contentSize = com.github.luben.zstd.Zstd.getFrameContentSize(buf, offset, size);
+        if (contentSize < 0 || contentSize > Integer.MAX_VALUE) {
+            // 帧头中没有原始长度，按流解压
+            try (ZstdInputStreamNoFinalizer zis = new ZstdInputStreamNoFinalizer(
+                    new ByteArrayInputStream(buf, offset, size), RecyclingBufferPool.INSTANCE)) {
+                byte[] buffer = buffer(64 * 1024);
+                int position;
+                while ((position = zis.read(buffer)) != -1) {
+                    out.write(buffer, 0, position);
+                }
+            }
+            return;
+        }
+        byte[] buffer = buffer((int) contentSize);
+        int length = decompressCtx.get().decompressByteArray(buffer, 0, (int) contentSize, buf, offset, size);
+        out.write(buffer, 0, length);
+    }
+
+    /**
+     * 获取当前线程的输出缓冲区，不够时重新分配
+     */
+    private static byte[] buffer(final int size) {
+        byte[] buffer = buffers.get();
+        if (buffer == null || buffer.length < size) {
+            buffer = new byte[size];
+            if (size <= MAX_CACHED_BUFFER_SIZE) {
+                buffers.set(buffer);
+            }
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,272 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.toolkit.stat;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 无锁的延迟直方图。
+ * <p>
+ * 参照HDR直方图分桶：小于32的数值每个值一个桶，之后每个2的幂区间平均划分为32个桶，相对误差不超过1/32。
+ * 和TPStatBuffer一样，桶按行（每个2的幂区间一行）延迟创建，只有出现过的数量级才占用内存。
+ * <p>
+ * 写入时按照线程ID选择一个条带，只在条带内做原子累加，不同线程之间基本没有竞争，也不加锁；
+ * 读取时合并所有条带。reset在原有数组上清零，不分配对象。
+ * <p>
+ * 读写并发时读到的是近似值。
+ */
+public class LatencyHistogram {
+    // 每行的桶数量，2的指数
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+    // 支持的最大数值为2^MAX_BITS-1，超过的计入最后一个桶
+    private static final int MAX_BITS = 40;
+    public static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+    // 行数
+    private static final int ROWS = MAX_BITS - SUB_BUCKET_BITS + 1;
+    // 条带最大数量
+    private static final int MAX_STRIPES = 16;
+
+    // 条带统计数组中各项的位置
+    private static final int COUNT = 0;
+    private static final int SUM = 1;
+    private static final int MIN = 2;
+    private static final int MAX = 3;
+    private static final int STAT_SIZE = 4;
+
+    private final int stripeMask;
+    // 第stripe个条带的第row行保存在stripe * ROWS + row
+    private final AtomicReferenceArray<AtomicLongArray> buckets;
+    // 每个条带的计数、总和、最小值和最大值
+    private final AtomicReferenceArray<AtomicLongArray> stats;
+
+    public LatencyHistogram() {
+        this(Math.min(MAX_STRIPES, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1)));
+    }
+
+    /**
+     * @param stripes 条带数量，会向上取整为2的指数
+     */
+    public LatencyHistogram(int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("stripes must be greater than 0");
+        }
+        int cap = Integer.highestOneBit(stripes * 2 - 1);
+        this.stripeMask = cap - 1;
+        this.buckets = new AtomicReferenceArray<>(cap * ROWS);
+        this.stats = new AtomicReferenceArray<>(cap);
+    }
+
+    /**
+     * 记录一个数值，负数按0处理
+     *
+     * @param value 数值
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        } else if (value > MAX_VALUE) {
+            value = MAX_VALUE;
+        }
+        int stripe = (int) Thread.currentThread().getId() & stripeMask;
+        int index = index(value);
+        row(stripe * ROWS + (index >>> SUB_BUCKET_BITS)).incrementAndGet(index & SUB_BUCKET_MASK);
+
+        AtomicLongArray stat = stat(stripe);
+        stat.incrementAndGet(COUNT);
+        stat.addAndGet(SUM, value);
+        long min;
+        while (value < (min = stat.get(MIN)) && !stat.compareAndSet(MIN, min, value)) {
+            // 重试
+        }
+        long max;
+        while (value > (max = stat.get(MAX)) && !stat.compareAndSet(MAX, max, value)) {
+            // 重试
+        }
+    }
+
+    /**
+     * 清零，不释放已经创建的桶
+     */
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            AtomicLongArray row = buckets.get(i);
+            if (row != null) {
+                for (int j = 0; j < SUB_BUCKET_COUNT; j++) {
+                    row.set(j, 0);
+                }
+            }
+        }
+        for (int i = 0; i < stats.length(); i++) {
+            AtomicLongArray stat = stats.get(i);
+            if (stat != null) {
+                resetStat(stat);
+            }
+        }
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < stats.length(); i++) {
+            AtomicLongArray stat = stats.get(i);
+            if (stat != null) {
+                count += stat.get(COUNT);
+            }
+        }
+        return count;
+    }
+
+    public long getSum() {
+        long sum = 0;
+        for (int i = 0; i < stats.length(); i++) {
+            AtomicLongArray stat = stats.get(i);
+            if (stat != null) {
+                sum += stat.get(SUM);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @return 平均值，没有数据时返回0
+     */
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) getSum() / count;
+    }
+
+    /**
+     * @return 最小值，没有数据时返回0
+     */
+    public long getMin() {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < stats.length(); i++) {
+            AtomicLongArray stat = stats.get(i);
+            if (stat != null) {
+                min = Math.min(min, stat.get(MIN));
+            }
+        }
+        return min == Long.MAX_VALUE ? 0 : min;
+    }
+
+    /**
+     * @return 最大值，没有数据时返回0
+     */
+    public long getMax() {
+        long max = 0;
+        for (int i = 0; i < stats.length(); i++) {
+            AtomicLongArray stat = stats.get(i);
+            if (stat != null) {
+                max = Math.max(max, stat.get(MAX));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * 获取百分位数值，返回所在桶的上界，并限定在[最小值, 最大值]之间
+     *
+     * @param percentile 百分比，例如99.9
+     * @return 百分位数值，没有数据时返回0
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            AtomicLongArray row = buckets.get(i);
+            if (row != null) {
+                for (int j = 0; j < SUB_BUCKET_COUNT; j++) {
+                    total += row.get(j);
+                }
+            }
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * total));
+        long pos = 0;
+        for (int row = 0; row < ROWS; row++) {
+            for (int col = 0; col < SUB_BUCKET_COUNT; col++) {
+                for (int stripe = 0; stripe <= stripeMask; stripe++) {
+                    AtomicLongArray bucket = buckets.get(stripe * ROWS + row);
+                    if (bucket != null) {
+                        pos += bucket.get(col);
+                    }
+                }
+                if (pos >= rank) {
+                    long value = highestEquivalentValue((row << SUB_BUCKET_BITS) | col);
+                    return Math.max(getMin(), Math.min(value, getMax()));
+                }
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * 数值所在桶的序号
+     */
+    static int index(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) | (int) ((value >>> shift) & SUB_BUCKET_MASK);
+    }
+
+    /**
+     * 桶内的最大数值
+     */
+    static long highestEquivalentValue(int index) {
+        int row = index >>> SUB_BUCKET_BITS;
+        int col = index & SUB_BUCKET_MASK;
+        if (row == 0) {
+            return col;
+        }
+        int shift = row - 1;
+        return ((long) (SUB_BUCKET_COUNT | col) << shift) + (1L << shift) - 1;
+    }
+
+    private AtomicLongArray row(int i) {
+        AtomicLongArray row = buckets.get(i);
+        if (row == null) {
+            row = new AtomicLongArray(SUB_BUCKET_COUNT);
+            if (!buckets.compareAndSet(i, null, row)) {
+                row = buckets.get(i);
+            }
+        }
+        return row;
+    }
+
+    private AtomicLongArray stat(int stripe) {
+        AtomicLongArray stat = stats.get(stripe);
+        if (stat == null) {
+            stat = new AtomicLongArray(STAT_SIZE);
+            resetStat(stat);
+            if (!stats.compareAndSet(stripe, null, stat)) {
+                stat = stats.get(stripe);
+            }
+        }
+        return stat;
+    }
+
+    private static void resetStat(AtomicLongArray stat) {
+        stat.set(COUNT, 0);
+        stat.set(SUM, 0);
+        stat.set(MIN, Long.MAX_VALUE);
+        stat.set(MAX, 0);
+    }
+}
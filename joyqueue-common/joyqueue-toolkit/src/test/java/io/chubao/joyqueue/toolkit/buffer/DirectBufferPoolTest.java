@@ -0,0 +1,73 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.toolkit.buffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class DirectBufferPoolTest {
+
+    @Test
+    public void testAllocateAndRelease() {
+        DirectBufferPool pool = new DirectBufferPool(256, 1024, 4096);
+
+        ByteBuffer buffer = pool.allocate(300);
+        Assert.assertTrue(buffer.isDirect());
+        Assert.assertEquals(512, buffer.capacity());
+        Assert.assertEquals(0, buffer.position());
+        Assert.assertEquals(300, buffer.limit());
+
+        pool.release(buffer);
+        Assert.assertEquals(512, pool.pooledBytes());
+
+        // 同一级别的申请复用释放的缓冲区
+        ByteBuffer reused = pool.allocate(400);
+        Assert.assertSame(buffer, reused);
+        Assert.assertEquals(400, reused.limit());
+        Assert.assertEquals(0, pool.pooledBytes());
+
+        // 超过最大大小的申请在堆上分配，释放时忽略
+        ByteBuffer large = pool.allocate(2048);
+        Assert.assertFalse(large.isDirect());
+        pool.release(large);
+        Assert.assertEquals(0, pool.pooledBytes());
+    }
+
+    @Test
+    public void testCapacity() {
+        DirectBufferPool pool = new DirectBufferPool(256, 1024, 1024);
+        ByteBuffer b1 = pool.allocate(1024);
+        ByteBuffer b2 = pool.allocate(1024);
+        pool.release(b1);
+        pool.release(b2);
+        Assert.assertEquals(1024, pool.pooledBytes());
+        Assert.assertSame(b1, pool.allocate(1024));
+        Assert.assertNotSame(b2, pool.allocate(1024));
+        Assert.assertEquals(0, pool.pooledBytes());
+    }
+
+    @Test
+    public void testReleaseInAnotherThread() throws InterruptedException {
+        DirectBufferPool pool = new DirectBufferPool(256, 1024, 4096);
+        ByteBuffer buffer = pool.allocate(256);
+        Thread thread = new Thread(() -> pool.release(buffer));
+        thread.start();
+        thread.join();
+        Assert.assertSame(buffer, pool.allocate(100));
+    }
+}
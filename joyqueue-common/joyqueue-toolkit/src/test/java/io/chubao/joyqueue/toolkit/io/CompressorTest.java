@@ -29,7 +29,7 @@ public class CompressorTest {
     @Test
     public void testCompress() throws IOException {
         String test = "中国人民122Addf";
-        Compressor[] compressors = new Compressor[]{Zip.INSTANCE, Zlib.INSTANCE, Snappy.INSTANCE};
+        Compressor[] compressors = new Compressor[]{Zip.INSTANCE, Zlib.INSTANCE, Snappy.INSTANCE, Zstd.INSTANCE, LZ4.INSTANCE};
         for (Compressor compressor : compressors) {
             byte[] data = Compressors.compress(test, compressor);
             String result = Compressors.decompress(data, Charsets.UTF_8, compressor);
@@ -0,0 +1,83 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.toolkit.stat;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testIndex() {
+        // 桶序号连续，并且每个数值都不超过所在桶的上界
+        int prev = -1;
+        for (long value = 0; value < 1 << 16; value++) {
+            int index = LatencyHistogram.index(value);
+            Assert.assertTrue(index == prev || index == prev + 1);
+            Assert.assertTrue(value <= LatencyHistogram.highestEquivalentValue(index));
+            prev = index;
+        }
+        int last = LatencyHistogram.index(LatencyHistogram.MAX_VALUE);
+        Assert.assertEquals(LatencyHistogram.MAX_VALUE, LatencyHistogram.highestEquivalentValue(last));
+    }
+
+    @Test
+    public void testPercentile() {
+        LatencyHistogram histogram = new LatencyHistogram(4);
+        Assert.assertEquals(0, histogram.getValueAtPercentile(99));
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        Assert.assertEquals(100, histogram.getCount());
+        Assert.assertEquals(1, histogram.getMin());
+        Assert.assertEquals(100, histogram.getMax());
+        Assert.assertEquals(50.5, histogram.getMean(), 0.001);
+        Assert.assertEquals(30, histogram.getValueAtPercentile(30));
+        // 相对误差不超过1/32
+        Assert.assertEquals(90, histogram.getValueAtPercentile(90), 90 / 32);
+        Assert.assertEquals(99, histogram.getValueAtPercentile(99), 99 / 32);
+        Assert.assertEquals(100, histogram.getValueAtPercentile(100));
+
+        histogram.reset();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getMax());
+        histogram.record(1000000);
+        Assert.assertEquals(1000000, histogram.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void testConcurrentRecord() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram(4);
+        int threads = 8;
+        int times = 10000;
+        CountDownLatch latch = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                for (int j = 0; j < times; j++) {
+                    histogram.record(j % 100);
+                }
+                latch.countDown();
+            }).start();
+        }
+        latch.await();
+        Assert.assertEquals(threads * times, histogram.getCount());
+        Assert.assertEquals(0, histogram.getMin());
+        Assert.assertEquals(99, histogram.getMax());
+        Assert.assertEquals(49, histogram.getValueAtPercentile(50));
+    }
+}
@@ -32,6 +32,7 @@ import io.chubao.joyqueue.server.archive.store.api.ArchiveStore;
 import io.chubao.joyqueue.server.archive.store.model.AchivePosition;
 import io.chubao.joyqueue.server.archive.store.model.SendLog;
 import io.chubao.joyqueue.store.PositionUnderflowException;
+import io.chubao.joyqueue.store.message.MessageBytes;
 import io.chubao.joyqueue.toolkit.concurrent.LoopThread;
 import io.chubao.joyqueue.toolkit.concurrent.NamedThreadFactory;
 import io.chubao.joyqueue.toolkit.lang.Close;
@@ -336,7 +337,7 @@ public class ProduceArchiveService extends Service {
         sendLog.setApp(brokerMessage.getApp());
         sendLog.setClientIp(brokerMessage.getClientIp());
         sendLog.setCompressType((short) -1);
-        sendLog.setMessageBody(buffer.array());
+        sendLog.setMessageBody(MessageBytes.toBytes(buffer));
         sendLog.setPartition(brokerMessage.getPartition());
         sendLog.setIndex(brokerMessage.getMsgIndexNo());
 
@@ -639,5 +640,4 @@ public class ProduceArchiveService extends Service {
             }
         }
     }
-
 }
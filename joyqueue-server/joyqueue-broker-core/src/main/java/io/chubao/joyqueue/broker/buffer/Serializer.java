@@ -99,6 +99,61 @@ public class Serializer extends AbstractSerializer {
         return sendTime;
     }
 
+    public static short readSysCode(ByteBuffer byteBuffer) {
+        ByteBuffer slice = byteBuffer.slice();
+        slice.position(20);
+        short sysCode = slice.getShort();
+
+        return sysCode;
+    }
+
+    public static byte readSource(ByteBuffer byteBuffer) {
+        return (byte) (readSysCode(byteBuffer) >> 2 & 0x3);
+    }
+
+    public static boolean readCompressed(ByteBuffer byteBuffer) {
+        return (readSysCode(byteBuffer) & 0x1) > 0;
+    }
+
+    public static boolean readBatch(ByteBuffer byteBuffer) {
+        return (readSysCode(byteBuffer) >> 12) == 1;
+    }
+
+    /**
+     * 读取消息体，不复制数据
+     *
+     * @param byteBuffer 存储的消息
+     * @return 和存储的消息共享数据的消息体
+     */
+    public static ByteBuffer readBody(ByteBuffer byteBuffer) {
+        ByteBuffer slice = byteBuffer.slice();
+        slice.position(61);
+        int bodyLength = slice.getInt();
+        slice.limit(slice.position() + bodyLength);
+
+        return slice.slice();
+    }
+
+    /**
+     * 读取扩展字段，跳过消息体、业务ID和属性
+     *
+     * @param byteBuffer 存储的消息
+     * @return 扩展字段
+     */
+    public static byte[] readExtension(ByteBuffer byteBuffer) {
+        ByteBuffer slice = byteBuffer.slice();
+        slice.position(61);
+        int bodyLength = slice.getInt();
+        slice.position(slice.position() + bodyLength);
+        int businessIdLength = slice.get() & 0xff;
+        slice.position(slice.position() + businessIdLength);
+        int attributesLength = slice.getShort();
+        slice.position(slice.position() + attributesLength);
+        int extensionLength = slice.getInt();
+
+        return readBytes(slice, extensionLength);
+    }
+
     public static void setPartition(ByteBuffer byteBuffer, short partition) {
         ByteBuffer slice = byteBuffer.slice();
         slice.position(4);
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.broker.cluster;
+
+import io.chubao.joyqueue.exception.JoyQueueCode;
+import io.chubao.joyqueue.response.BooleanResponse;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 主题+应用的读写权限快照
+ * <p>
+ * 由元数据预先计算，不可变。元数据变更后版本号失效，下次检查时重新构建。
+ * 检查时只需要一次黑名单哈希查找和一次分区位图查找。
+ */
+final class AccessSnapshot {
+    private static final BooleanResponse SUCCESS = BooleanResponse.success();
+
+    private final long version;
+    // 主题、应用或策略检查失败的结果，为null表示检查通过
+    private final BooleanResponse denied;
+    private final Set<String> blackList;
+    private final BooleanResponse blackListDenied;
+    // 当前broker上是否有主题的leader分区组
+    private final BooleanResponse leaderResponse;
+    // 当前broker是leader的分区
+    private final BitSet leaderPartitions;
+    private final BooleanResponse notLeaderDenied;
+
+    AccessSnapshot(long version, Set<String> blackList, JoyQueueCode blackListCode,
+                   BitSet leaderPartitions, JoyQueueCode noLeaderCode, JoyQueueCode notLeaderCode) {
+        this.version = version;
+        this.denied = null;
+        this.blackList = blackList == null || blackList.isEmpty() ? Collections.emptySet() : new HashSet<>(blackList);
+        this.blackListDenied = BooleanResponse.failed(blackListCode);
+        this.leaderPartitions = leaderPartitions;
+        this.leaderResponse = leaderPartitions.isEmpty() ? BooleanResponse.failed(noLeaderCode) : SUCCESS;
+        this.notLeaderDenied = BooleanResponse.failed(notLeaderCode);
+    }
+
+    private AccessSnapshot(long version, JoyQueueCode deniedCode) {
+        this.version = version;
+        this.denied = BooleanResponse.failed(deniedCode);
+        this.blackList = Collections.emptySet();
+        this.blackListDenied = null;
+        this.leaderPartitions = new BitSet();
+        this.leaderResponse = null;
+        this.notLeaderDenied = null;
+    }
+
+    /**
+     * 构建一个始终拒绝的快照
+     */
+    static AccessSnapshot denied(long version, JoyQueueCode code) {
+        return new AccessSnapshot(version, code);
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * 检查客户端地址能否访问主题
+     *
+     * @param address 客户端地址
+     * @return 检查结果
+     */
+    BooleanResponse check(String address) {
+        if (denied != null) {
+            return denied;
+        }
+        if (address != null && blackList.contains(address)) {
+            return blackListDenied;
+        }
+        return leaderResponse;
+    }
+
+    /**
+     * 检查客户端地址能否访问主题的指定分区
+     *
+     * @param address   客户端地址
+     * @param partition 分区
+     * @return 检查结果
+     */
+    BooleanResponse check(String address, short partition) {
+        BooleanResponse response = check(address);
+        if (!response.isSuccess()) {
+            return response;
+        }
+        return partition >= 0 && leaderPartitions.get(partition) ? SUCCESS : notLeaderDenied;
+    }
+}
@@ -55,8 +55,8 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Calendar;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -72,6 +72,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 集群管理
@@ -99,6 +100,12 @@ public class ClusterManager extends Service {
     private Map<EventType, List<EventListener<MetaEvent>>> eventListeners = new HashMap<>();
 
     private BrokerContext brokerContext;
+    // 读写权限快照的版本，元数据变更时递增
+    private final AtomicLong accessVersion = new AtomicLong();
+    // K=主题, V=(K=应用, V=写权限快照)
+    private final ConcurrentMap<String, ConcurrentMap<String, AccessSnapshot>> writeAccessCache = new ConcurrentHashMap<>();
+    // K=主题, V=(K=应用, V=读权限快照)
+    private final ConcurrentMap<String, ConcurrentMap<String, AccessSnapshot>> readAccessCache = new ConcurrentHashMap<>();
 
     public ClusterManager(BrokerConfig brokerConfig, NameService nameService, BrokerContext brokerContext) {
         this.brokerConfig = brokerConfig;
@@ -587,42 +594,7 @@ public class ClusterManager extends Service {
             // 当前broker没有写权限
             return brokerWritable;
         }
-
-        TopicConfig topicConfig = getTopicConfig(topic);
-        if (topicConfig == null) {
-            // 没有主题配置
-            logger.error("topic[{}] app[{}] cant't be write on broker [{}],has no topicConfig", topic, app, broker.getId() + "[" + broker.getIp() + ":" + broker.getPort() + "]");
-            return BooleanResponse.failed(JoyQueueCode.FW_TOPIC_NOT_EXIST);
-        }
-        Producer.ProducerPolicy producerPolicy = null;
-        try {
-            producerPolicy = getProducerPolicy(topic, app);
-        } catch (JoyQueueException e) {
-            logger.error("topic[{}],app[{}],error[{}]", topic, app, e.getMessage());
-            return BooleanResponse.failed(JoyQueueCode.valueOf(e.getCode()));
-        }
-        Set<String> blackList = producerPolicy != null ? producerPolicy.getBlackList() : null;
-        if (blackList != null) {
-            if (blackList.stream().anyMatch(ip -> ip.equals(address))) {
-                // 是否在生产黑名单内
-                logger.error("topic[{}] app[{}] cant't be write on broker [] in blacklist", topic, app, broker.getId() + "[" + broker.getIp() + ":" + broker.getPort() + "]");
-                return BooleanResponse.failed(JoyQueueCode.FW_PUT_MESSAGE_TOPIC_NOT_WRITE);
-            }
-        }
-        if (logger.isDebugEnabled()) {
-            logger.debug("checkWritable topicConfig[{}]", topicConfig);
-        }
-        Collection<PartitionGroup> partitionGroups = topicConfig.fetchPartitionGroupByBrokerId(broker.getId());
-        if (CollectionUtils.isEmpty(partitionGroups)) {
-            // 没有partitionGroup
-            logger.error("topic[{}] app[{}] cant't be write on broker [{}] has no partitionGroups", topic, app, broker.getId() + "[" + broker.getIp() + ":" + broker.getPort() + "]");
-            return BooleanResponse.failed(JoyQueueCode.FW_PRODUCE_MESSAGE_BROKER_NOT_LEADER);
-        }
-        if (partitionGroups.stream().noneMatch(partitionGroup -> partitionGroup.getLeader().equals(broker.getId()))) {
-            logger.error("topic[{}] cant't be write on broker [] ", topic, app, broker.getId() + "[" + broker.getIp() + ":" + broker.getPort() + "]");
-            return BooleanResponse.failed(JoyQueueCode.FW_PRODUCE_MESSAGE_BROKER_NOT_LEADER);
-        }
-        return BooleanResponse.success();
+        return getWriteAccess(topic, app).check(address);
     }
 
     /**
@@ -640,17 +612,11 @@ public class ClusterManager extends Service {
      * @Param partition
      */
     public BooleanResponse checkWritable(TopicName topic, String app, String address, short partition) {
-        BooleanResponse response = checkWritable(topic, app, address);
-        if (!response.isSuccess()) {
-            return response;
-        }
-        TopicConfig topicConfig = getTopicConfig(topic);
-        PartitionGroup group = topicConfig.fetchPartitionGroupByPartition(partition);
-        if (!group.getLeader().equals(broker.getId())) {
-            logger.error("topic[{}],app[{}],partition[{}],error[{}]", topic, app,partition, JoyQueueCode.FW_FETCH_TOPIC_MESSAGE_BROKER_NOT_LEADER.getMessage());
-            return BooleanResponse.failed(JoyQueueCode.FW_PRODUCE_MESSAGE_BROKER_NOT_LEADER);
+        BooleanResponse brokerWritable = checkBrokerWritable();
+        if (!brokerWritable.isSuccess()) {
+            return brokerWritable;
         }
-        return BooleanResponse.success();
+        return getWriteAccess(topic, app).check(address, partition);
     }
 
     /**
@@ -673,70 +639,150 @@ public class ClusterManager extends Service {
             // 没有读权限
             return brokerReadable;
         }
+        return getReadAccess(topic, app).check(address);
+    }
+
+    /**
+     * 检查是否能消费数据
+     * <br>
+     * <ui>是否有PartitionGroup是master</ui>
+     * <ui>有主题</ui>
+     * <ui>有应用</ui>
+     * <ui>是否停止消费</ui>
+     * <ui>是否在黑名单</ui>
+     *
+     * @param topic 主题
+     * @param app   应用
+     * @return 是否可读
+     */
+    public BooleanResponse checkReadable(TopicName topic, String app, String address, short partition) {
+        BooleanResponse brokerReadable = checkBrokerReadable();
+        if (!brokerReadable.isSuccess()) {
+            return brokerReadable;
+        }
+        return getReadAccess(topic, app).check(address, partition);
+    }
+
+    /**
+     * 获取写权限快照，快照版本过期时重新构建
+     */
+    private AccessSnapshot getWriteAccess(TopicName topic, String app) {
+        long version = accessVersion.get();
+        ConcurrentMap<String, AccessSnapshot> appAccess = getAppAccess(writeAccessCache, topic, app);
+        AccessSnapshot access = appAccess == null ? null : appAccess.get(app);
+        if (access == null || access.getVersion() != version) {
+            access = buildWriteAccess(topic, app, version);
+            if (appAccess != null) {
+                appAccess.put(app, access);
+            }
+        }
+        return access;
+    }
 
+    /**
+     * 获取读权限快照，快照版本过期时重新构建
+     */
+    private AccessSnapshot getReadAccess(TopicName topic, String app) {
+        long version = accessVersion.get();
+        ConcurrentMap<String, AccessSnapshot> appAccess = getAppAccess(readAccessCache, topic, app);
+        AccessSnapshot access = appAccess == null ? null : appAccess.get(app);
+        if (access == null || access.getVersion() != version) {
+            access = buildReadAccess(topic, app, version);
+            if (appAccess != null) {
+                appAccess.put(app, access);
+            }
+        }
+        return access;
+    }
+
+    private ConcurrentMap<String, AccessSnapshot> getAppAccess(ConcurrentMap<String, ConcurrentMap<String, AccessSnapshot>> accessCache,
+                                                              TopicName topic, String app) {
+        if (app == null) {
+            return null;
+        }
+        ConcurrentMap<String, AccessSnapshot> appAccess = accessCache.get(topic.getFullName());
+        if (appAccess == null) {
+            appAccess = new ConcurrentHashMap<>();
+            ConcurrentMap<String, AccessSnapshot> previous = accessCache.putIfAbsent(topic.getFullName(), appAccess);
+            if (previous != null) {
+                appAccess = previous;
+            }
+        }
+        return appAccess;
+    }
+
+    private AccessSnapshot buildWriteAccess(TopicName topic, String app, long version) {
         TopicConfig topicConfig = getTopicConfig(topic);
         if (topicConfig == null) {
             // 没有主题配置
-            return BooleanResponse.failed(JoyQueueCode.FW_TOPIC_NOT_EXIST);
+            logger.error("topic[{}] app[{}] cant't be write on broker [{}],has no topicConfig", topic, app, broker.getId() + "[" + broker.getIp() + ":" + broker.getPort() + "]");
+            return AccessSnapshot.denied(version, JoyQueueCode.FW_TOPIC_NOT_EXIST);
+        }
+        Producer.ProducerPolicy producerPolicy = null;
+        try {
+            producerPolicy = getProducerPolicy(topic, app);
+        } catch (JoyQueueException e) {
+            logger.error("topic[{}],app[{}],error[{}]", topic, app, e.getMessage());
+            return AccessSnapshot.denied(version, JoyQueueCode.valueOf(e.getCode()));
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("checkWritable topicConfig[{}]", topicConfig);
+        }
+        BitSet leaderPartitions = getLeaderPartitions(topicConfig);
+        if (leaderPartitions.isEmpty()) {
+            // 没有partitionGroup
+            logger.error("topic[{}] app[{}] cant't be write on broker [{}] has no partitionGroups", topic, app, broker.getId() + "[" + broker.getIp() + ":" + broker.getPort() + "]");
+        }
+        return new AccessSnapshot(version, producerPolicy != null ? producerPolicy.getBlackList() : null, JoyQueueCode.FW_PUT_MESSAGE_TOPIC_NOT_WRITE,
+                leaderPartitions, JoyQueueCode.FW_PRODUCE_MESSAGE_BROKER_NOT_LEADER, JoyQueueCode.FW_PRODUCE_MESSAGE_BROKER_NOT_LEADER);
+    }
+
+    private AccessSnapshot buildReadAccess(TopicName topic, String app, long version) {
+        TopicConfig topicConfig = getTopicConfig(topic);
+        if (topicConfig == null) {
+            // 没有主题配置
+            return AccessSnapshot.denied(version, JoyQueueCode.FW_TOPIC_NOT_EXIST);
         }
         Consumer.ConsumerPolicy consumerPolicy = null;
         try {
             consumerPolicy = getConsumerPolicy(topic, app);
         } catch (JoyQueueException e) {
             logger.error("topic[{}],app[{}],error[{}]", topic, app, e.getMessage());
-            return BooleanResponse.failed(JoyQueueCode.valueOf(e.getCode()));
+            return AccessSnapshot.denied(version, JoyQueueCode.valueOf(e.getCode()));
         }
-        Boolean paused = consumerPolicy.getPaused();
-        if (paused) {
+        if (Boolean.TRUE.equals(consumerPolicy.getPaused())) {
             // 暂停消费
-            return BooleanResponse.failed(JoyQueueCode.FW_FETCH_TOPIC_MESSAGE_PAUSED);
-        }
-        Set<String> blackList = consumerPolicy.getBlackList();
-        if (blackList != null) {
-            // 是否在消费黑名单内
-            if (blackList.stream().anyMatch(ip -> ip.equals(address))) {
-                return BooleanResponse.failed(JoyQueueCode.FW_GET_MESSAGE_APP_CLIENT_IP_NOT_READ);
-            }
+            return AccessSnapshot.denied(version, JoyQueueCode.FW_FETCH_TOPIC_MESSAGE_PAUSED);
         }
-        Collection<PartitionGroup> partitionGroups = topicConfig.fetchPartitionGroupByBrokerId(broker.getId());
-        if (CollectionUtils.isEmpty(partitionGroups)) {
+        BitSet leaderPartitions = getLeaderPartitions(topicConfig);
+        if (leaderPartitions.isEmpty()) {
             // 没有partitionGroup
             logger.error("topic[{}],app[{}],error[{}]", topic, app, JoyQueueCode.FW_TOPIC_NO_PARTITIONGROUP.getMessage());
-            return BooleanResponse.failed(JoyQueueCode.FW_TOPIC_NO_PARTITIONGROUP);
-        }
-        // 当前主题在该broker上有角色是master的分区组
-        if (partitionGroups.stream().noneMatch(partitionGroup -> partitionGroup.getLeader().equals(broker.getId()))) {
-            logger.error("topic[{}],app[{}],error[{}]", topic, app, JoyQueueCode.FW_FETCH_TOPIC_MESSAGE_BROKER_NOT_LEADER.getMessage());
-            return BooleanResponse.failed(JoyQueueCode.FW_FETCH_TOPIC_MESSAGE_BROKER_NOT_LEADER);
         }
-        return BooleanResponse.success();
+        return new AccessSnapshot(version, consumerPolicy.getBlackList(), JoyQueueCode.FW_GET_MESSAGE_APP_CLIENT_IP_NOT_READ,
+                leaderPartitions, JoyQueueCode.FW_TOPIC_NO_PARTITIONGROUP, JoyQueueCode.FW_FETCH_TOPIC_MESSAGE_BROKER_NOT_LEADER);
     }
 
     /**
-     * 检查是否能消费数据
-     * <br>
-     * <ui>是否有PartitionGroup是master</ui>
-     * <ui>有主题</ui>
-     * <ui>有应用</ui>
-     * <ui>是否停止消费</ui>
-     * <ui>是否在黑名单</ui>
-     *
-     * @param topic 主题
-     * @param app   应用
-     * @return 是否可读
+     * 当前broker是leader的分区
      */
-    public BooleanResponse checkReadable(TopicName topic, String app, String address, short partition) {
-        BooleanResponse response = checkReadable(topic, app, address);
-        if (!response.isSuccess()) {
-            return response;
-        }
-        TopicConfig topicConfig = getTopicConfig(topic);
-        PartitionGroup group = topicConfig.fetchPartitionGroupByPartition(partition);
-        if (!group.getLeader().equals(broker.getId())) {
-            logger.error("topic[{}],app[{}],partition[{}],error[{}]", topic, app,partition, JoyQueueCode.FW_FETCH_TOPIC_MESSAGE_BROKER_NOT_LEADER.getMessage());
-            return BooleanResponse.failed(JoyQueueCode.FW_FETCH_TOPIC_MESSAGE_BROKER_NOT_LEADER);
+    private BitSet getLeaderPartitions(TopicConfig topicConfig) {
+        BitSet leaderPartitions = new BitSet();
+        for (PartitionGroup partitionGroup : topicConfig.fetchPartitionGroupByBrokerId(broker.getId())) {
+            for (Short partition : partitionGroup.getPartitions()) {
+                leaderPartitions.set(partition);
+            }
         }
-        return BooleanResponse.success();
+        return leaderPartitions;
+    }
+
+    /**
+     * 元数据变更后使所有读写权限快照失效
+     */
+    private void invalidateAccessCache() {
+        accessVersion.incrementAndGet();
+        writeAccessCache.clear();
+        readAccessCache.clear();
     }
 
     /**
@@ -937,6 +983,7 @@ public class ClusterManager extends Service {
                             // 补偿订阅事件
                             compensateAddConsumeEvent(topicName);
                         }
+                        invalidateAccessCache();
                     }
                 } catch (Exception e) {
                     logger.error("update all topicConfigs error", e);
@@ -986,6 +1033,7 @@ public class ClusterManager extends Service {
             if(!producerCache.containsKey(topic.getFullName())){
                 producerCache.put(topic.getFullName(),new ConcurrentHashMap<>());
             }
+            invalidateAccessCache();
             return topicConfig;
         }
 
@@ -1000,6 +1048,7 @@ public class ClusterManager extends Service {
             Consumer consumerByTopic = nameService.getConsumerByTopicAndApp(topic, app);
             if (null != consumerByTopic) {
                 consumerCache.get(topic.getFullName()).put(app, new CacheConsumer(consumerByTopic, SystemClock.now()));
+                invalidateAccessCache();
             }
             return consumerByTopic;
         }
@@ -1052,6 +1101,7 @@ public class ClusterManager extends Service {
             Producer producerByTopic = nameService.getProducerByTopicAndApp(topic, app);
             if (null != producerByTopic) {
                 producerCache.get(topic.getFullName()).put(app, new CacheProducer(producerByTopic));
+                invalidateAccessCache();
             }
             return producerByTopic;
         }
@@ -1184,10 +1234,10 @@ public class ClusterManager extends Service {
 
             @Override
             public void onEvent(NameServerEvent event) {
+                if (!brokerConfig.getBrokerId().equals(event.getBrokerId())) {
+                    return;
+                }
                 try {
-                    if (!brokerConfig.getBrokerId().equals(event.getBrokerId())) {
-                        return;
-                    }
                     logger.info("event[{}]", event);
                     /**
                      * 新添topic，通知所有的partitionGroup
@@ -1289,6 +1339,8 @@ public class ClusterManager extends Service {
                     }
                 } catch (Exception e) {
                     logger.error(String.format("clusterManager event[%s] error", event), e);
+                } finally {
+                    invalidateAccessCache();
                 }
             }
         }
@@ -327,15 +327,22 @@ class ConcurrentConsumption extends Service {
                 // 读取消息结果
                 pullResult = readMessages(consumer, partition, pullIndex, count);
                 int msgCount = pullResult.getBuffers().size();
-                if (msgCount > 0) {
+                long skipped = pullResult.getSkipped();
+                if (skipped > 0) {
+                    // 跳过的已回滚事务消息直接应答
+                    tryUpdateAckPosition(new ConsumePartition(consumer.getTopic(), consumer.getApp(), partition), new long[]{pullIndex, pullIndex + skipped - 1});
+                }
+                if (msgCount > 0 || skipped > 0) {
                     // 更新最新拉取位置，即下次开始拉取的序号
-                    long newPullIndex = pullIndex + msgCount;
+                    long newPullIndex = pullIndex + skipped + msgCount;
                     logger.debug("set new pull index:{}, topic:{}, app:{}, partition:{}", newPullIndex, consumer.getTopic(), consumer.getApp(), partition);
                     positionManager.updateLastMsgPullIndex(TopicName.parse(consumer.getTopic()), consumer.getApp(), partition, newPullIndex);
+                }
+                if (msgCount > 0) {
                     // 本次拉取消息列表的结束序号
-                    long endIndex = newPullIndex - 1;
+                    long endIndex = pullIndex + skipped + msgCount - 1;
                     // 记录并行消费分区段，用于应答比对
-                    trackConsumeDetail(consumer, partition, pullIndex, endIndex, ackTimeout);
+                    trackConsumeDetail(consumer, partition, pullIndex + skipped, endIndex, ackTimeout);
                     // 退出循环
                     break;
                 }
@@ -416,6 +423,7 @@ class ConcurrentConsumption extends Service {
             int partitionGroup = clusterManager.getPartitionGroupId(TopicName.parse(consumer.getTopic()), partition);
             PartitionGroupStore store = storeService.getStore(consumer.getTopic(), partitionGroup);
             ReadResult readRst = store.read(partition, index, count, Long.MAX_VALUE);
+            pullResult.setSkipped(readRst.getSkipped());
             if (readRst.getCode() == JoyQueueCode.SUCCESS) {
                 List<ByteBuffer> byteBufferList = Lists.newArrayList(readRst.getMessages());
                 io.chubao.joyqueue.domain.Consumer consumerConfig = clusterManager.tryGetConsumer(TopicName.parse(consumer.getTopic()), consumer.getApp());
@@ -426,6 +434,7 @@ class ConcurrentConsumption extends Service {
                     byteBuffers = delayHandler.handle(consumerConfig.getConsumerPolicy(), byteBuffers);
                     // 构建拉取结果
                     pullResult = new PullResult(consumer, partition, byteBuffers);
+                    pullResult.setSkipped(readRst.getSkipped());
                 }
             } else {
                 logger.error("read message error, error code[{}]", readRst.getCode());
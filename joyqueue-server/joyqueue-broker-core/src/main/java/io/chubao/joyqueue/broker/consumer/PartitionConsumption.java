@@ -214,6 +214,7 @@ class PartitionConsumption extends Service {
 
             TPStatUtil.append(monitorKey, startTime, System.nanoTime());
 
+            pullResult.setSkipped(readRst.getSkipped());
             if (readRst.getCode() == JoyQueueCode.SUCCESS) {
                 ByteBuffer[] byteBufferArr = readRst.getMessages();
                 if (byteBufferArr == null) {
@@ -237,6 +238,7 @@ class PartitionConsumption extends Service {
                 }
 
                 pullResult = new PullResult(consumer, partition, byteBuffers);
+                pullResult.setSkipped(readRst.getSkipped());
             } else {
                 logger.error("read message error, error code[{}]", readRst.getCode());
             }
@@ -355,11 +357,17 @@ class PartitionConsumption extends Service {
      * @param count          消息条数
      * @return 读取的消息
      */
-    private ByteBuffer[] readMessages(Consumer consumer, int partitionGroup, short partition, long index, int count) throws IOException {
+    private ByteBuffer[] readMessages(Consumer consumer, int partitionGroup, short partition, long index, int count) throws IOException, JoyQueueException {
         PartitionGroupStore store = storeService.getStore(consumer.getTopic(), partitionGroup);
         try {
             ReadResult readRst = store.read(partition, index, count, Long.MAX_VALUE);
             if (readRst.getCode() == JoyQueueCode.SUCCESS) {
+                if (readRst.getSkipped() > 0) {
+                    // 跳过已回滚的事务消息，和应答一样同时更新应答位置和拉取位置
+                    long skipIndex = index + readRst.getSkipped();
+                    positionManager.updateLastMsgAckIndex(TopicName.parse(consumer.getTopic()), consumer.getApp(), partition, skipIndex);
+                    positionManager.updateLastMsgPullIndex(TopicName.parse(consumer.getTopic()), consumer.getApp(), partition, skipIndex);
+                }
                 return readRst.getMessages();
             } else {
                 logger.error("read message error, error code[{}]", readRst.getCode());
@@ -26,7 +26,8 @@ public enum KafkaCompressionCodec {
     NoCompressionCodec(0, "none"),
     GZIPCompressionCodec(1, "gzip"),
     SnappyCompressionCodec(2, "snappy"),
-    LZ4CompressionCodec(3, "lz4");
+    LZ4CompressionCodec(3, "lz4"),
+    ZStdCompressionCodec(4, "zstd");
 
     private int code;
     private String name;
@@ -15,6 +15,9 @@
  */
 package io.chubao.joyqueue.broker.consumer.converter.kafka;
 
+import com.github.luben.zstd.RecyclingBufferPool;
+import com.github.luben.zstd.ZstdInputStreamNoFinalizer;
+import com.github.luben.zstd.ZstdOutputStreamNoFinalizer;
 import io.chubao.joyqueue.broker.consumer.converter.kafka.compressor.lz4.KafkaLZ4BlockInputStream;
 import io.chubao.joyqueue.broker.consumer.converter.kafka.compressor.lz4.KafkaLZ4BlockOutputStream;
 import org.xerial.snappy.SnappyInputStream;
@@ -42,6 +45,8 @@ public final class KafkaCompressionCodecFactory {
                 return new SnappyOutputStream(stream);
             case LZ4CompressionCodec:
                 return new KafkaLZ4BlockOutputStream(stream);
+            case ZStdCompressionCodec:
+                return new ZstdOutputStreamNoFinalizer(stream, RecyclingBufferPool.INSTANCE);
             default:
                 throw new RuntimeException(String.format("unknown codec: %s", codec));
         }
@@ -55,6 +60,9 @@ public final class KafkaCompressionCodecFactory {
                 return new SnappyInputStream(stream);
             case LZ4CompressionCodec:
                 return new KafkaLZ4BlockInputStream(stream, messageVersion == 0); // RecordBatch.MAGIC_VALUE_V0
+            case ZStdCompressionCodec:
+                // 使用可回收的缓冲池，避免每批消息重新分配解压缓冲区
+                return new ZstdInputStreamNoFinalizer(stream, RecyclingBufferPool.INSTANCE);
             default:
                 throw new RuntimeException(String.format("unknown codec: %s", codec));
         }
@@ -35,6 +35,8 @@ public class PullResult {
     private List<ByteBuffer> buffers;
     // 状态码
     private JoyQueueCode code = JoyQueueCode.SUCCESS;
+    // 读取时跳过的已回滚事务消息的数量
+    private long skipped;
 
     public PullResult(final Consumer consumer, final short partition, final List<ByteBuffer> buffers) {
         this.topic = consumer.getTopic();
@@ -81,6 +83,14 @@ public class PullResult {
         this.code = joyQueueCode;
     }
 
+    public long getSkipped() {
+        return skipped;
+    }
+
+    public void setSkipped(long skipped) {
+        this.skipped = skipped;
+    }
+
     /**
      * 转换成缓冲区数组
      *
@@ -22,9 +22,9 @@ import io.chubao.joyqueue.broker.consumer.model.ConsumePartition;
 import io.chubao.joyqueue.broker.consumer.position.model.Position;
 import io.chubao.joyqueue.network.session.Joint;
 import io.chubao.joyqueue.toolkit.concurrent.LoopThread;
-import io.chubao.joyqueue.toolkit.io.Files;
 import com.google.common.base.Charsets;
 import io.chubao.joyqueue.toolkit.lang.Close;
+import io.chubao.joyqueue.toolkit.time.SystemClock;
 import com.google.common.base.Preconditions;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -33,20 +33,36 @@ import org.slf4j.LoggerFactory;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
 
 /**
- * 基于本地文件存储的消费位点快照
+ * 基于本地文件存储的消费位点
+ * <p>
+ * 消费位点保存在二进制的快照文件和增量日志文件中：
+ * put/remove/putIfAbsent记录发生变化的消费位点，每次刷盘只把这些消费位点追加到日志文件，
+ * 日志文件超过快照大小时合并成新的快照。原地修改Position之后需要重新put，否则不会被写入。
+ * 快照和日志的文件头中记录代数，只有代数和快照一致的日志才会被回放，
+ * 每条记录带有CRC32校验，恢复时丢弃日志尾部不完整的记录。
+ * <p>
+ * 记录格式：长度(4) + CRC32(4) + 类型(1) + 主题 + 应用 + 分区(2) + 分区组(4) [+ 4个位置(8 * 4)]
+ * <p>
+ * 兼容旧版本的JSON快照，启动时如果没有二进制快照，从JSON快照恢复并转换成二进制快照，
+ * 转换后JSON快照重命名为*.migrated保留，不再更新。
  * <p>
  * Created by chengzhiliang on 2019/2/27.
  */
@@ -54,18 +70,44 @@ public class LocalFileStore implements PositionStore<ConsumePartition, Position>
 
     private Logger logger = LoggerFactory.getLogger(LocalFileStore.class);
 
+    // 文件头：魔数(4) + 版本(2) + 代数(8)
+    private static final int MAGIC = 0x4A515053;
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 2 + 8;
+    // 记录类型
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    // 单条记录的最大长度，用于识别损坏的记录
+    private static final int MAX_RECORD_SIZE = 64 * 1024;
+    // 日志文件超过这个大小，并且超过快照文件大小时合并
+    private static final long COMPACT_MIN_JOURNAL_SIZE = 4 * 1024 * 1024L;
+    // 已经转换的旧版本JSON快照的后缀
+    private static final String MIGRATED_SUFFIX = ".migrated";
+
     // 位置信号量
     private final Object[] fileUpdateLock = new Object[0];
     // 消费位置配置文件
     PositionConfig config;
-    // 消费消息序号文件
+    // 旧版本的消费消息序号文件(JSON)
     private File indexFile;
-    // 消费消息序号文件备份(双写)
+    // 旧版本的消费消息序号文件备份(JSON)
     private File indexFileBack;
+    // 消费位置快照文件
+    private File snapshotFile;
+    // 消费位置增量日志文件
+    private File journalFile;
     // 快照文件目录
     private String basePath;
     // 消费者消费序号
     private ConcurrentMap<ConsumePartition, Position> consumePositionCache = new ConcurrentHashMap<>();
+    // 发生变化还没有写入文件的消费位置
+    private Set<ConsumePartition> dirtyPartitions = ConcurrentHashMap.newKeySet();
+    // 增量日志，使用RandomAccessFile读写：FileChannel在线程被中断时会被关闭，停止检查点线程时会中断它
+    private RandomAccessFile journal;
+    // 当前快照的代数
+    private long generation;
+    // 当前快照文件大小
+    private long snapshotSize;
     // 检查点线程
     private LoopThread thread;
 
@@ -92,9 +134,8 @@ public class LocalFileStore implements PositionStore<ConsumePartition, Position>
         this.config = new PositionConfig(basePath);
         this.indexFile = this.config.getPositionFile();
         this.indexFileBack = new File(this.indexFile.getParentFile(), this.indexFile.getName() + PositionConfig.BACK_SUFFIX);
-
-        Files.createFile(indexFile);
-        Files.createFile(indexFileBack);
+        this.snapshotFile = this.config.getSnapshotFile();
+        this.journalFile = this.config.getJournalFile();
 
         initConsumePositionCache();
 
@@ -116,8 +157,27 @@ public class LocalFileStore implements PositionStore<ConsumePartition, Position>
      * 初始化消费位置缓存
      */
     private void initConsumePositionCache() throws Exception {
-        ConcurrentMap<ConsumePartition, Position> recoverCache = recover();
-        this.consumePositionCache = recoverCache;
+        synchronized (fileUpdateLock) {
+            long t0 = SystemClock.now();
+            Recovered recovered = load();
+            this.consumePositionCache = recovered.positions;
+            this.generation = recovered.generation;
+            this.journal = new RandomAccessFile(journalFile, "rw");
+            if (recovered.journalLength < 0) {
+                // 没有二进制快照，或者日志不属于当前快照，重新生成快照
+                compact();
+            } else {
+                snapshotSize = snapshotFile.length();
+                // 丢弃日志尾部不完整的记录
+                journal.setLength(recovered.journalLength);
+                journal.seek(recovered.journalLength);
+            }
+            // 旧版本的JSON快照已经转换成二进制快照，保留原文件用于回退
+            markMigrated(indexFile);
+            markMigrated(indexFileBack);
+            logger.info("Consume positions recovered, count: {}, generation: {}, elapsed: {} ms.",
+                    consumePositionCache.size(), generation, SystemClock.now() - t0);
+        }
     }
 
     @Override
@@ -125,6 +185,11 @@ public class LocalFileStore implements PositionStore<ConsumePartition, Position>
         if (thread != null) {
             thread.stop();
         }
+        synchronized (fileUpdateLock) {
+            doFlush();
+            Close.close(journal);
+            journal = null;
+        }
         isStarted.set(false);
 
         logger.info("LocalFileStore is stop.");
@@ -143,16 +208,25 @@ public class LocalFileStore implements PositionStore<ConsumePartition, Position>
     @Override
     public void put(ConsumePartition key, Position value) {
         consumePositionCache.put(key, value);
+        dirtyPartitions.add(key);
     }
 
     @Override
     public Position remove(ConsumePartition key) {
-        return consumePositionCache.remove(key);
+        Position position = consumePositionCache.remove(key);
+        if (position != null) {
+            dirtyPartitions.add(key);
+        }
+        return position;
     }
 
     @Override
     public Position putIfAbsent(ConsumePartition key, Position value) {
-        return consumePositionCache.putIfAbsent(key, value);
+        Position position = consumePositionCache.putIfAbsent(key, value);
+        if (position == null) {
+            dirtyPartitions.add(key);
+        }
+        return position;
     }
 
     @Override
@@ -166,65 +240,255 @@ public class LocalFileStore implements PositionStore<ConsumePartition, Position>
     }
 
     /**
-     * 刷新偏移量到磁盘
+     * 刷新偏移量到磁盘，只追加发生变化的消费位置
      */
     protected void doFlush() {
-        Map<Joint, List<ConsumeBill>> jointListMap = cloneIndexCache(consumePositionCache);
-        dump(jointListMap);
+        synchronized (fileUpdateLock) {
+            if (journal == null || dirtyPartitions.isEmpty()) {
+                return;
+            }
+            List<ConsumePartition> flushing = new ArrayList<>(dirtyPartitions.size());
+            ByteBuffer buffer = ByteBuffer.allocate(4096);
+            for (ConsumePartition consumePartition : dirtyPartitions) {
+                // 先移除再读取，读取之后的修改会重新标记
+                dirtyPartitions.remove(consumePartition);
+                flushing.add(consumePartition);
+                Position position = consumePositionCache.get(consumePartition);
+                if (position == null) {
+                    buffer = writeRecord(buffer, REMOVE, consumePartition, null);
+                } else {
+                    buffer = writeRecord(buffer, PUT, consumePartition, toValues(position));
+                }
+            }
+            buffer.flip();
+
+            long position = 0L;
+            try {
+                position = journal.getFilePointer();
+                journal.write(buffer.array(), buffer.arrayOffset(), buffer.limit());
+                journal.getFD().sync();
+            } catch (Exception e) {
+                logger.error("flush index error.", e);
+                // 回滚写了一半的记录，避免影响之后追加的记录，下次刷盘重新写入
+                dirtyPartitions.addAll(flushing);
+                try {
+                    journal.setLength(position);
+                    journal.seek(position);
+                } catch (IOException ie) {
+                    logger.error("rollback index journal error.", ie);
+                }
+                return;
+            }
+
+            try {
+                if (journal.getFilePointer() > Math.max(COMPACT_MIN_JOURNAL_SIZE, snapshotSize)) {
+                    compact();
+                }
+            } catch (Exception e) {
+                logger.error("compact index error.", e);
+            }
+        }
     }
 
     /**
-     * 以线程安全的方式clone一份深拷贝
+     * 把当前所有消费位置写入新的快照，并清空日志。调用方需持有fileUpdateLock
+     */
+    private void compact() throws IOException {
+        long newGeneration = generation + 1;
+        int count = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(4096, consumePositionCache.size() * 64));
+        buffer = writeHeader(buffer, newGeneration);
+        for (Map.Entry<ConsumePartition, Position> entry : consumePositionCache.entrySet()) {
+            buffer = writeRecord(buffer, PUT, entry.getKey(), toValues(entry.getValue()));
+            count++;
+        }
+        buffer.flip();
+
+        File tmpFile = new File(snapshotFile.getParentFile(), snapshotFile.getName() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw")) {
+            raf.setLength(0L);
+            raf.write(buffer.array(), buffer.arrayOffset(), buffer.limit());
+            raf.getFD().sync();
+        }
+        Files.move(tmpFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // 快照替换成功之后再清空日志，旧的日志代数和新快照不一致，不会被回放
+        generation = newGeneration;
+        snapshotSize = snapshotFile.length();
+        ByteBuffer header = writeHeader(ByteBuffer.allocate(HEADER_SIZE), newGeneration);
+        header.flip();
+        journal.setLength(0L);
+        journal.seek(0L);
+        journal.write(header.array(), header.arrayOffset(), header.limit());
+        journal.getFD().sync();
+        logger.info("Consume positions compacted, count: {}, generation: {}, snapshot size: {}.", count, generation, snapshotSize);
+    }
+
+    /**
+     * 恢复快照
      *
      * @return
-     * @throws CloneNotSupportedException
+     * @throws IOException
      */
-    private Map<Joint, List<ConsumeBill>> cloneIndexCache(ConcurrentMap<ConsumePartition, Position> consumePositionCache) {
-        Map<Joint, List<ConsumeBill>> copyOfConsumeBills = new HashMap<>(consumePositionCache.size());
-        for (Map.Entry<ConsumePartition, Position> entry : consumePositionCache.entrySet()) {
-            ConsumePartition consumePartition = entry.getKey();
-            String topic = consumePartition.getTopic();
-            String app = consumePartition.getApp();
-            short partition = consumePartition.getPartition();
-            int partitionGroup = consumePartition.getPartitionGroup();
-            Position position = entry.getValue();
-            Joint joint = new Joint(topic, app);
-            List<ConsumeBill> consumeBills = copyOfConsumeBills.get(joint);
-            if (consumeBills == null) {
-                consumeBills = new ArrayList<>();
-                copyOfConsumeBills.put(joint, consumeBills);
+    public ConcurrentMap<ConsumePartition, Position> recover() throws IOException {
+        synchronized (fileUpdateLock) {
+            return load().positions;
+        }
+    }
+
+    /**
+     * 从快照和日志恢复消费位置，没有二进制快照时从旧版本的JSON快照恢复
+     */
+    private Recovered load() throws IOException {
+        Recovered recovered = new Recovered();
+        if (!snapshotFile.exists()) {
+            loadLegacy(recovered.positions);
+            return recovered;
+        }
+
+        ByteBuffer snapshot = ByteBuffer.wrap(Files.readAllBytes(snapshotFile.toPath()));
+        recovered.generation = readHeader(snapshot);
+        if (recovered.generation < 0 || replay(snapshot, recovered.positions) != snapshot.limit()) {
+            throw new IOException(String.format("Consume position snapshot %s is corrupted!", snapshotFile.getAbsolutePath()));
+        }
+
+        if (journalFile.exists()) {
+            ByteBuffer journal = ByteBuffer.wrap(Files.readAllBytes(journalFile.toPath()));
+            if (readHeader(journal) == recovered.generation) {
+                recovered.journalLength = replay(journal, recovered.positions);
+                if (recovered.journalLength < journal.limit()) {
+                    logger.warn("Discard {} bytes at the tail of consume position journal {}.",
+                            journal.limit() - recovered.journalLength, journalFile.getAbsolutePath());
+                }
             }
-            ConsumeBill consumeBill = new ConsumeBill(partitionGroup, partition, position);
-            consumeBills.add(consumeBill);
         }
-        return copyOfConsumeBills;
+        return recovered;
     }
 
     /**
-     * 持久化快照
+     * 回放记录，遇到不完整或者校验失败的记录时停止
      *
+     * @return 有效数据的结束位置
      */
-    private void dump(Map<Joint, List<ConsumeBill>> jointListMap) {
-        try {
-            String jsonStr = JSON.toJSONString(jointListMap);
-            synchronized (fileUpdateLock) {
-                writeFile(indexFile, jsonStr);
-                writeFile(indexFileBack, jsonStr);
+    private int replay(ByteBuffer buffer, ConcurrentMap<ConsumePartition, Position> positions) {
+        CRC32 crc32 = new CRC32();
+        while (buffer.remaining() >= 8) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > MAX_RECORD_SIZE || length > buffer.remaining()) {
+                buffer.position(start);
+                break;
+            }
+            crc32.reset();
+            crc32.update(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+            if ((int) crc32.getValue() != checksum) {
+                buffer.position(start);
+                break;
+            }
+            ByteBuffer record = buffer.slice();
+            record.limit(length);
+            buffer.position(buffer.position() + length);
+            try {
+                byte type = record.get();
+                ConsumePartition consumePartition = new ConsumePartition(readString(record), readString(record), record.getShort());
+                consumePartition.setPartitionGroup(record.getInt());
+                if (type == PUT) {
+                    positions.put(consumePartition, new Position(record.getLong(), record.getLong(), record.getLong(), record.getLong()));
+                } else {
+                    positions.remove(consumePartition);
+                }
+            } catch (BufferUnderflowException e) {
+                buffer.position(start);
+                break;
             }
-        } catch (Exception e) {
-            logger.error("flush index error.", e);
         }
+        return buffer.position();
+    }
+
+    private ByteBuffer writeHeader(ByteBuffer buffer, long generation) {
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putLong(generation);
+        return buffer;
     }
 
     /**
-     * 恢复快照
+     * 读取文件头
      *
-     * @return
-     * @throws IOException
+     * @return 代数，文件头无效时返回-1
      */
-    public ConcurrentMap<ConsumePartition, Position> recover() throws IOException {
-        ConcurrentMap<ConsumePartition, Position> consumePositionCache = new ConcurrentHashMap<>();
+    private long readHeader(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getShort() != VERSION) {
+            return -1L;
+        }
+        return buffer.getLong();
+    }
+
+    /**
+     * 写入一条记录，缓冲区不够时扩容
+     *
+     * @return 写入后的缓冲区
+     */
+    private ByteBuffer writeRecord(ByteBuffer buffer, byte type, ConsumePartition consumePartition, long[] values) {
+        byte[] topic = consumePartition.getTopic().getBytes(Charsets.UTF_8);
+        byte[] app = consumePartition.getApp().getBytes(Charsets.UTF_8);
+        int length = 1 + 2 + topic.length + 2 + app.length + 2 + 4 + (values == null ? 0 : 8 * values.length);
+        if (buffer.remaining() < 8 + length) {
+            ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + 8 + length));
+            buffer.flip();
+            newBuffer.put(buffer);
+            buffer = newBuffer;
+        }
+        buffer.putInt(length);
+        int checksumPosition = buffer.position();
+        buffer.putInt(0);
+        int start = buffer.position();
+        buffer.put(type);
+        buffer.putShort((short) topic.length);
+        buffer.put(topic);
+        buffer.putShort((short) app.length);
+        buffer.put(app);
+        buffer.putShort(consumePartition.getPartition());
+        buffer.putInt(consumePartition.getPartitionGroup());
+        if (values != null) {
+            for (long value : values) {
+                buffer.putLong(value);
+            }
+        }
+        CRC32 crc32 = new CRC32();
+        crc32.update(buffer.array(), buffer.arrayOffset() + start, length);
+        buffer.putInt(checksumPosition, (int) crc32.getValue());
+        return buffer;
+    }
+
+    private String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    private long[] toValues(Position position) {
+        return new long[]{position.getAckStartIndex(), position.getAckCurIndex(), position.getPullStartIndex(), position.getPullCurIndex()};
+    }
+
+    /**
+     * 旧版本的JSON快照转换之后重命名
+     */
+    private void markMigrated(File file) throws IOException {
+        if (file.exists()) {
+            Files.move(file.toPath(), new File(file.getParentFile(), file.getName() + MIGRATED_SUFFIX).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
 
+    /**
+     * 从旧版本的JSON快照恢复
+     */
+    private void loadLegacy(ConcurrentMap<ConsumePartition, Position> consumePositionCache) throws IOException {
+        if (!indexFile.exists() && !indexFileBack.exists()) {
+            return;
+        }
         Map<Joint, List<ConsumeBill>> consumeBills;
         try {
             consumeBills = loadFromFile(indexFile, new TypeReference<Map<Joint, List<ConsumeBill>>>() {
@@ -243,26 +507,6 @@ public class LocalFileStore implements PositionStore<ConsumePartition, Position>
                 );
             });
         }
-
-        return consumePositionCache;
-    }
-
-
-    /**
-     * 输出JSON到文件
-     *
-     * @param file    文件
-     * @param content 内容
-     * @throws IOException
-     */
-    private void writeFile(File file, String content) throws IOException {
-        FileWriter writer = new FileWriter(file);
-        try {
-            writer.write(content);
-            writer.flush();
-        } finally {
-            Close.close(writer);
-        }
     }
 
     /**
@@ -292,5 +536,16 @@ public class LocalFileStore implements PositionStore<ConsumePartition, Position>
         }
     }
 
+    /**
+     * 恢复结果
+     */
+    private static class Recovered {
+        // 消费位置
+        private ConcurrentMap<ConsumePartition, Position> positions = new ConcurrentHashMap<>();
+        // 快照的代数
+        private long generation = 0L;
+        // 日志有效数据的长度，小于0时需要重新生成快照
+        private int journalLength = -1;
+    }
 
 }
@@ -25,8 +25,12 @@ import java.io.File;
 public class PositionConfig {
     //备份文件后缀
     public static String BACK_SUFFIX = ".1";
-    //消费位置文件
+    //旧版本的消费位置文件(JSON)
     private File positionFile;
+    //消费位置快照文件
+    private File snapshotFile;
+    //消费位置增量日志文件
+    private File journalFile;
 
     public PositionConfig(File dataDirectory) {
         if (dataDirectory == null) {
@@ -51,6 +55,8 @@ public class PositionConfig {
             throw new IllegalArgumentException(String.format("%s can not be read", dataDirectory.getPath()));
         }
         this.positionFile = new File(dataDirectory, "index");
+        this.snapshotFile = new File(dataDirectory, "index.snapshot");
+        this.journalFile = new File(dataDirectory, "index.journal");
     }
 
     public PositionConfig(String file) {
@@ -66,4 +72,22 @@ public class PositionConfig {
         return positionFile;
     }
 
+    /**
+     * 获取消费位置快照文件
+     *
+     * @return 消费位置快照文件
+     */
+    public File getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    /**
+     * 获取消费位置增量日志文件
+     *
+     * @return 消费位置增量日志文件
+     */
+    public File getJournalFile() {
+        return journalFile;
+    }
+
 }
@@ -253,6 +253,8 @@ public class PositionManager extends Service {
         Position position = positionStore.get(consumePartition);
         if (position != null) {
             position.setAckCurIndex(index);
+            // 标记位置已修改，刷盘时写入
+            positionStore.put(consumePartition, position);
         } else {
             logger.error("Position is null, topic:{}, app:{}, partition:{}, index:{}", topic, app, partition, index);
             // 补偿逻辑：如果当前broker是指定partition对应partitionGroup的leader，则按照给定index初始化Position，否则不处理
@@ -358,6 +360,8 @@ public class PositionManager extends Service {
         Position position = positionStore.get(consumePartition);
         if (position != null) {
             position.setAckStartIndex(index);
+            // 标记位置已修改，刷盘时写入
+            positionStore.put(consumePartition, position);
         } else {
             logger.error("Position is null, topic:{}, app:{}, partition:{}, index:{}", topic, app, partition, index);
             // 补偿逻辑：如果当前broker是指定partition对应partitionGroup的leader，则按照给定index初始化Position，否则不处理
@@ -399,6 +403,8 @@ public class PositionManager extends Service {
         Position position = positionStore.get(consumePartition);
         if (position != null) {
             position.setPullCurIndex(index);
+            // 标记位置已修改，刷盘时写入
+            positionStore.put(consumePartition, position);
         } else {
             logger.error("Position is null, topic:{}, app:{}, partition:{}, index:{}", topic, app, partition, index);
             // 补偿逻辑：如果当前broker是指定partition对应partitionGroup的leader，则按照给定index初始化Position，否则不处理
@@ -89,6 +89,14 @@ public class ElectionConfig {
         return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.MAX_BATCH_REPLICATE_SIZE);
     }
 
+    public int getMaxReplicateInflight() {
+        return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.MAX_REPLICATE_INFLIGHT);
+    }
+
+    public int getReplicateIoThreadNum() {
+        return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.REPLICATE_IO_THREAD_NUM);
+    }
+
     public int getDisableStoreTimeout() {
         return PropertySupplier.getValue(propertySupplier, ElectionConfigKey.DISABLE_STORE_TIMEOUT);
     }
@@ -32,10 +32,12 @@ public enum ElectionConfigKey implements PropertyDef {
     HEARTBEAT_TIMEOUT("election.heartbeat.timeout", 1000, Type.INT),
     SEND_COMMAND_TIMEOUT("election.send.command.timeout", 1000 * 5, Type.INT),
     MAX_BATCH_REPLICATE_SIZE("election.max.replicate.length", 1024 * 1024, Type.INT),
+    MAX_REPLICATE_INFLIGHT("election.max.replicate.inflight", 4, Type.INT),
     DISABLE_STORE_TIMEOUT("election.disable.store.timeout", 1000 * 5, Type.INT),
     LISTEN_PORT("election.listen.port", 18001, Type.INT),
     TRANSFER_LEADER_TIMEOUT("election.transfer.leader.timeout", 1000 * 10, Type.INT),
     REPLICATE_CONSUME_POS_INTERVAL("election.replicate.consume.pos.interval", 1000 * 5, Type.INT),
+    REPLICATE_IO_THREAD_NUM("election.replicate.io.thread.num", 64, Type.INT),
     REPLICATE_THREAD_NUM_MIN("election.replicate.thread.num.min", 10, Type.INT),
     REPLICATE_THREAD_NUM_MAX("election.replicate.thread.num.max", 100, Type.INT),
     COMMAND_QUEUE_SIZE("election.command.queue.size", 1024, Type.INT),
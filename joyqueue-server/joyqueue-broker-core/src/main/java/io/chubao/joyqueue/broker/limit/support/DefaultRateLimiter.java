@@ -25,12 +25,12 @@ import io.chubao.joyqueue.broker.limit.RateLimiter;
  */
 public class DefaultRateLimiter implements RateLimiter {
 
-    private com.google.common.util.concurrent.RateLimiter tpsRateLimiter;
-    private com.google.common.util.concurrent.RateLimiter trafficRateLimiter;
+    private TokenBucket tpsRateLimiter;
+    private TokenBucket trafficRateLimiter;
 
     public DefaultRateLimiter(int tps, int traffic) {
-        this.tpsRateLimiter = com.google.common.util.concurrent.RateLimiter.create(tps);
-        this.trafficRateLimiter = com.google.common.util.concurrent.RateLimiter.create(traffic);
+        this.tpsRateLimiter = new TokenBucket(tps);
+        this.trafficRateLimiter = new TokenBucket(traffic);
     }
 
     @Override
@@ -0,0 +1,73 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.broker.limit.support;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁令牌桶，语义与guava的SmoothBursty一致：
+ * 最多积攒1秒的令牌，单次申请可以超过剩余令牌（预支），预支未还清之前的申请都会失败。
+ * <p>
+ * 整个桶的状态只有一个时间戳：桶里令牌被取空的时刻（theoretical empty time），
+ * 令牌数 = (now - emptyTime) / interval，上限为1秒的令牌。
+ * 申请时按需懒惰补充，通过CAS推进时间戳，不需要加锁。
+ * 被拒绝的申请只读取时间戳不做写入，限流生效时不会在线程之间争抢缓存行。
+ * <p>
+ * 线程安全。
+ */
+public class TokenBucket {
+
+    private static final long MAX_BURST_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    // 每个令牌的间隔纳秒数
+    private final double intervalNanos;
+    private final AtomicLong emptyTime;
+
+    public TokenBucket(int permitsPerSecond) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive");
+        }
+        this.intervalNanos = (double) MAX_BURST_NANOS / permitsPerSecond;
+        // 与guava一致，初始时桶是空的
+        this.emptyTime = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * 尝试获取令牌，不等待
+     *
+     * @param permits 令牌数
+     * @return 获取成功返回true
+     */
+    public boolean tryAcquire(int permits) {
+        if (permits <= 0) {
+            return true;
+        }
+        long cost = (long) (permits * intervalNanos);
+        while (true) {
+            long now = System.nanoTime();
+            long current = emptyTime.get();
+            if (current - now > 0) {
+                // 还有预支的令牌没有还清
+                return false;
+            }
+            long base = Math.max(current, now - MAX_BURST_NANOS);
+            if (emptyTime.compareAndSet(current, base + cost)) {
+                return true;
+            }
+        }
+    }
+}
@@ -15,43 +15,37 @@
  */
 package io.chubao.joyqueue.broker.monitor.metrics;
 
-import com.codahale.metrics.ExponentiallyDecayingReservoir;
-import com.codahale.metrics.Histogram;
-import com.codahale.metrics.Meter;
-import com.codahale.metrics.Reservoir;
-import com.codahale.metrics.Snapshot;
+import io.chubao.joyqueue.toolkit.stat.LatencyHistogram;
+import io.chubao.joyqueue.toolkit.time.SystemClock;
+
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * metrics
+ * 计数使用LongAdder，耗时使用无锁的LatencyHistogram（微秒精度），mark和slice都不加锁，slice不分配对象
  *
  * author: gaohaoxiang
  * date: 2018/10/11
  */
 public class Metrics {
 
-    private Meter meter;
-    private Reservoir reservoir;
-    private Histogram histogram;
+    private static final double MICROS_PER_MILLI = 1000.0;
 
-    private long oneMinuteRate;
+    private final LongAdder count = new LongAdder();
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private volatile long startTime = SystemClock.now();
 
-    public Metrics() {
-        init();
-    }
+    private long oneMinuteRate;
 
     public void slice() {
-        oneMinuteRate = meter.getCount();
+        oneMinuteRate = count.sum();
         reset();
     }
 
     public void reset() {
-        init();
-    }
-
-    protected void init() {
-        this.meter = new Meter();
-        this.reservoir = new ExponentiallyDecayingReservoir();
-        this.histogram = new Histogram(reservoir);
+        count.reset();
+        histogram.reset();
+        startTime = SystemClock.now();
     }
 
     public void mark() {
@@ -59,67 +53,71 @@ public class Metrics {
     }
 
     public void mark(long count) {
-        this.meter.mark(count);
+        this.count.add(count);
     }
 
     public void mark(double time, long count) {
-        this.meter.mark(count);
-        this.histogram.update((long) time);
+        this.count.add(count);
+        this.histogram.record((long) (time * MICROS_PER_MILLI));
     }
 
     public void setCount(long count) {
-        this.meter.mark(count);
+        this.count.add(count);
     }
 
     public long getCount() {
-        return this.meter.getCount();
+        return this.count.sum();
     }
 
     public long getOneMinuteRate() {
         if (oneMinuteRate == 0) {
-            return this.meter.getCount();
+            return this.count.sum();
         } else {
             return oneMinuteRate;
         }
     }
 
     public long getMeanRate() {
-        return (long) this.meter.getMeanRate();
+        long elapsed = SystemClock.now() - startTime;
+        if (elapsed <= 0) {
+            return 0;
+        }
+        return (long) (this.count.sum() * 1000.0 / elapsed);
     }
 
     public double getTp999() {
-        return this.getSnapshot().get999thPercentile();
+        return getPercentile(99.9);
     }
 
     public double getTp99() {
-        return this.getSnapshot().get99thPercentile();
+        return getPercentile(99);
     }
 
     public double getTp95() {
-        return this.getSnapshot().get95thPercentile();
+        return getPercentile(95);
     }
 
     public double getTp75() {
-        return this.getSnapshot().get75thPercentile();
+        return getPercentile(75);
     }
 
     public double getTp90() {
-        return this.getSnapshot().getMean();
+        return getPercentile(90);
     }
 
     public double getMax() {
-        return this.getSnapshot().getMax();
+        return this.histogram.getMax() / MICROS_PER_MILLI;
     }
 
     public double getMin() {
-        return this.getSnapshot().getMin();
+        return this.histogram.getMin() / MICROS_PER_MILLI;
     }
 
     public double getAvg() {
-        return this.getSnapshot().getMean();
+        return this.histogram.getMean() / MICROS_PER_MILLI;
     }
 
-    protected Snapshot getSnapshot() {
-        return this.histogram.getSnapshot();
+    protected double getPercentile(double percentile) {
+        return this.histogram.getValueAtPercentile(percentile) / MICROS_PER_MILLI;
     }
 }
\ No newline at end of file
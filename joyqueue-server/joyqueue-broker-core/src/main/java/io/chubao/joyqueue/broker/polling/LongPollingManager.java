@@ -23,6 +23,9 @@ import io.chubao.joyqueue.exception.JoyQueueCode;
 import io.chubao.joyqueue.network.session.Consumer;
 import io.chubao.joyqueue.network.session.Joint;
 import io.chubao.joyqueue.broker.consumer.model.PullResult;
+import io.chubao.joyqueue.store.StoreService;
+import io.chubao.joyqueue.store.WriteEvent;
+import io.chubao.joyqueue.toolkit.concurrent.EventListener;
 import io.chubao.joyqueue.toolkit.concurrent.NamedThreadFactory;
 import io.chubao.joyqueue.toolkit.config.PropertySupplier;
 import com.google.common.base.Preconditions;
@@ -30,50 +33,87 @@ import io.chubao.joyqueue.toolkit.service.Service;
 import io.chubao.joyqueue.toolkit.service.ServiceThread;
 import io.chubao.joyqueue.toolkit.time.SystemClock;
 import com.jd.laf.extension.Converts;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 长轮询管理
  * <p>
+ * 长轮询请求按主题挂起，存储写入消息后直接唤醒该主题上挂起的请求，在线程池中重新拉取消息；
+ * 过期由时间轮处理。守护线程以较长的间隔兜底扫描，处理分区锁释放等不会触发写入事件的情况。
+ * <p>
  * Created by chengzhiliang on 2018/8/16.
  */
 public class LongPollingManager extends Service {
     public static final String LONG_POLLING_QUEUE_SIZE = "broker.consume.long_polling_queue_size";
+    public static final String LONG_POLLING_THREADS = "broker.consume.long_polling_threads";
+    public static final String LONG_POLLING_SCAN_INTERVAL = "broker.consume.long_polling_scan_interval";
     //TODO 设置一个合理的值
     public static final int MAX_LONG_POLLING_QUEUE_SIZE = 100000;
+    public static final int DEFAULT_LONG_POLLING_THREADS = Runtime.getRuntime().availableProcessors();
+    public static final long DEFAULT_LONG_POLLING_SCAN_INTERVAL = 1000L;
+    // 时间轮的精度
+    protected static final long TIMER_TICK_MS = 10L;
+    // 挂起新的长轮询请求时，检查这个时间窗口内是否有写入，避免丢失拉取和挂起之间写入的消息
+    protected static final long RECENT_WRITE_WINDOW_MS = 100L;
+
+    // 长轮询状态：等待中、拉取中、已结束
+    protected static final int WAITING = 0;
+    protected static final int PULLING = 1;
+    protected static final int DONE = 2;
 
     protected static Logger logger = LoggerFactory.getLogger(LongPollingManager.class);
-    // 长轮询请求queue
-    protected Queue<LongPolling> longPollingQueue = new LinkedBlockingQueue<>();
+    // 按主题挂起的长轮询请求
+    protected ConcurrentMap<String, TopicWaiters> waiters = new ConcurrentHashMap<>();
+    // 挂起的长轮询请求数量
+    protected AtomicInteger size = new AtomicInteger(0);
     // 消费者长轮询数量
     protected ConcurrentMap<Joint, AtomicInteger> counter = new ConcurrentHashMap<>();
     // 消息获取。
     protected Consume consumeManager;
     // 会话管理器
     protected SessionManager sessionManager;
-    // 异步处理。
+    // 兜底扫描
     protected Thread guardThread = null;
     // 长轮询线程池
     protected ExecutorService executorService;
+    // 过期时间轮
+    protected HashedWheelTimer timer;
     // 集群管理器
     protected ClusterManager clusterManager;
     // 配置管理
     protected PropertySupplier propertySupplier;
+    // 存储服务，为null时只能依赖兜底扫描
+    protected StoreService storeService;
+    // 消息写入监听器
+    protected EventListener<WriteEvent> writeListener = this::onWrite;
 
     public LongPollingManager(SessionManager sessionManager,
                               ClusterManager clusterManager,
                               Consume consumeManager,
                               PropertySupplier propertySupplier) {
+        this(sessionManager, clusterManager, consumeManager, null, propertySupplier);
+    }
+
+    public LongPollingManager(SessionManager sessionManager,
+                              ClusterManager clusterManager,
+                              Consume consumeManager,
+                              StoreService storeService,
+                              PropertySupplier propertySupplier) {
         Preconditions.checkArgument(sessionManager != null, "sessionManager can not be null");
         Preconditions.checkArgument(clusterManager != null, "clusterManager can not be null");
         Preconditions.checkArgument(consumeManager != null, "consumeManager can not be null");
@@ -82,16 +122,23 @@ public class LongPollingManager extends Service {
         this.sessionManager = sessionManager;
         this.clusterManager = clusterManager;
         this.consumeManager = consumeManager;
+        this.storeService = storeService;
         this.propertySupplier = propertySupplier;
-        this.executorService = Executors.newSingleThreadExecutor(new NamedThreadFactory("LongPolling"));
     }
 
     @Override
     protected void doStart() throws Exception {
         super.doStart();
         counter.clear();
-        // 守护进程，每100毫秒执行一次
-        guardThread = new Thread(new ServiceThread(this, 100) {
+        waiters.clear();
+        size.set(0);
+        executorService = Executors.newFixedThreadPool(getLongPollingThreads(), new NamedThreadFactory("LongPolling"));
+        timer = new HashedWheelTimer(new NamedThreadFactory("LongPolling-Timer"), TIMER_TICK_MS, TimeUnit.MILLISECONDS);
+        if (storeService != null) {
+            storeService.addWriteListener(writeListener);
+        }
+        // 守护进程，兜底扫描
+        guardThread = new Thread(new ServiceThread(this, getLongPollingScanInterval()) {
             @Override
             public boolean onException(Throwable e) {
                 logger.error(e.getMessage(), e);
@@ -111,10 +158,21 @@ public class LongPollingManager extends Service {
     @Override
     protected void doStop() {
         super.doStop();
+        if (storeService != null) {
+            storeService.removeWriteListener(writeListener);
+        }
         if (guardThread != null) {
             guardThread.interrupt();
         }
+        if (timer != null) {
+            timer.stop();
+        }
+        if (executorService != null) {
+            executorService.shutdownNow();
+        }
         counter.clear();
+        waiters.clear();
+        size.set(0);
         logger.info("long pull manager is stopped");
     }
 
@@ -136,6 +194,24 @@ public class LongPollingManager extends Service {
         return count;
     }
 
+    /**
+     * 获取主题的挂起队列
+     *
+     * @param topic 主题
+     * @return 挂起队列
+     */
+    protected TopicWaiters getWaiters(String topic) {
+        TopicWaiters topicWaiters = waiters.get(topic);
+        if (topicWaiters == null) {
+            topicWaiters = new TopicWaiters();
+            TopicWaiters old = waiters.putIfAbsent(topic, topicWaiters);
+            if (old != null) {
+                topicWaiters = old;
+            }
+        }
+        return topicWaiters;
+    }
+
 
     /**
      * 添加长轮询请求
@@ -143,7 +219,7 @@ public class LongPollingManager extends Service {
      * @return 成功标示
      */
     public boolean suspend(LongPolling longPolling) {
-        logger.debug("longPolling info:[{}], longPollingQueueSize:[{}]", longPolling, longPollingQueue.size());
+        logger.debug("longPolling info:[{}], longPollingQueueSize:[{}]", longPolling, size.get());
 
         Consumer consumer = longPolling.getConsumer();
         if (consumer == null || longPolling.getLongPollingTimeout() == 0 || !isStarted()) {
@@ -158,17 +234,17 @@ public class LongPollingManager extends Service {
         }
 
         // 超过容量
-        if (longPollingQueue.size() >= getLongPollingQueueSize()) {
+        if (size.get() >= getLongPollingQueueSize()) {
             return false;
         }
 
-        // 入队
-        if (longPollingQueue.offer(longPolling)) {
-            // 增加消费长轮询计数器
-            count.incrementAndGet();
-            return true;
-        }
-        return false;
+        // 增加消费长轮询计数器
+        count.incrementAndGet();
+        size.incrementAndGet();
+        // 不知道调用方拉取消息的准确时间，从创建长轮询的时间往前推一个时间窗口
+        long pullTime = longPolling.getExpire() - longPolling.getLongPollingTimeout() - RECENT_WRITE_WINDOW_MS;
+        hold(new PollingEntry(longPolling, count), getWaiters(topic), pullTime);
+        return true;
     }
 
     // 获取长轮训队列大小
@@ -177,54 +253,171 @@ public class LongPollingManager extends Service {
         return value == null || Converts.getInteger(value) > MAX_LONG_POLLING_QUEUE_SIZE ? MAX_LONG_POLLING_QUEUE_SIZE : Converts.getInteger(value);
     }
 
+    // 获取长轮询线程数量
+    private int getLongPollingThreads() {
+        Object value = propertySupplier.getOrCreateProperty(LONG_POLLING_THREADS).getValue();
+        return value == null || Converts.getInteger(value) <= 0 ? DEFAULT_LONG_POLLING_THREADS : Converts.getInteger(value);
+    }
+
+    // 获取兜底扫描间隔
+    private long getLongPollingScanInterval() {
+        Object value = propertySupplier.getOrCreateProperty(LONG_POLLING_SCAN_INTERVAL).getValue();
+        return value == null || Converts.getLong(value) <= 0 ? DEFAULT_LONG_POLLING_SCAN_INTERVAL : Converts.getLong(value);
+    }
+
     /**
-     * 处理长轮询请求，检查是否过期，是否有数据了
+     * 挂起长轮询请求，等待写入事件或者过期
+     *
+     * @param entry        长轮询请求
+     * @param topicWaiters 主题的挂起队列
+     * @param pullTime     上次拉取消息的时间，之后有写入的消息则立即唤醒
      */
-    protected void processHoldRequest() throws Exception {
-        int size = longPollingQueue.size();
-        for (int i = 0; i < size; i++) {
-            if (!isStarted()) {
-                return;
+    protected void hold(PollingEntry entry, TopicWaiters topicWaiters, long pullTime) {
+        long delay = entry.longPolling.getExpire() - SystemClock.now();
+        if (delay <= 0) {
+            if (entry.state.compareAndSet(WAITING, DONE)) {
+                expire(entry, entry.longPolling.getConsumer());
             }
-            long currentTime = SystemClock.now();
-            LongPolling longPolling = longPollingQueue.poll();
-            Consumer consumer = longPolling.getConsumer();
-            AtomicInteger count = counter.get(consumer.getJoint());
-            // 得到当前消费者
-            consumer = sessionManager.getConsumerById(consumer.getId());
-            if (consumer == null) {
-                // 消费者不存在了，则抛弃该长轮询
-                if (count != null) {
-                    // 减少计数器
-                    count.decrementAndGet();
+            return;
+        }
+        topicWaiters.queue.offer(entry);
+        // 拉取期间时间轮已经触发过，需要重新设置
+        if (entry.timeout == null || entry.timeout.isExpired()) {
+            entry.timeout = timer.newTimeout(timeout -> onTimeout(entry, topicWaiters), delay, TimeUnit.MILLISECONDS);
+        }
+        // 拉取之后、挂起之前写入的消息不会再触发唤醒，需要立即重新拉取
+        if (topicWaiters.lastWriteTime >= pullTime && topicWaiters.queue.remove(entry)) {
+            wakeup(entry);
+        }
+    }
+
+    /**
+     * 存储写入消息后回调，唤醒该主题上挂起的长轮询请求
+     */
+    protected void onWrite(WriteEvent event) {
+        TopicWaiters topicWaiters = waiters.get(event.getTopic());
+        if (topicWaiters == null) {
+            return;
+        }
+        topicWaiters.lastWriteTime = SystemClock.now();
+        PollingEntry entry;
+        while ((entry = topicWaiters.queue.poll()) != null) {
+            wakeup(entry);
+        }
+    }
+
+    /**
+     * 唤醒长轮询请求，在线程池中重新拉取消息
+     */
+    protected void wakeup(PollingEntry entry) {
+        if (!entry.state.compareAndSet(WAITING, PULLING)) {
+            return;
+        }
+        try {
+            executorService.execute(new PullMessageTask(entry));
+        } catch (RejectedExecutionException e) {
+            logger.warn("long polling task rejected, consumer: {}", entry.longPolling.getConsumer());
+        }
+    }
+
+    /**
+     * 时间轮过期回调
+     */
+    protected void onTimeout(PollingEntry entry, TopicWaiters topicWaiters) {
+        // 正在拉取的请求由拉取任务处理过期
+        if (entry.state.compareAndSet(WAITING, DONE)) {
+            topicWaiters.queue.remove(entry);
+            expire(entry, entry.longPolling.getConsumer());
+        }
+    }
+
+    /**
+     * 长轮询过期，减少计数器并回调
+     */
+    protected void expire(PollingEntry entry, Consumer consumer) {
+        release(entry);
+        try {
+            entry.longPolling.getLongPollingCallback().onExpire(consumer);
+        } catch (Exception e) {
+            logger.error("expire long pull error.", e);
+        }
+    }
+
+    protected void release(PollingEntry entry) {
+        if (entry.timeout != null) {
+            entry.timeout.cancel();
+        }
+        // 减少计数器
+        entry.count.decrementAndGet();
+        size.decrementAndGet();
+    }
+
+    /**
+     * 兜底扫描：清理消费者已经不存在的请求，唤醒有空闲分区的请求
+     */
+    protected void processHoldRequest() throws Exception {
+        for (TopicWaiters topicWaiters : waiters.values()) {
+            Iterator<PollingEntry> iterator = topicWaiters.queue.iterator();
+            while (iterator.hasNext()) {
+                if (!isStarted()) {
+                    return;
                 }
-                longPolling.getLongPollingCallback().onExpire(longPolling.getConsumer());
-            } else if (longPolling.getExpire() <= currentTime) {
-                if (count != null) {
-                    // 减少计数器
-                    count.decrementAndGet();
+                PollingEntry entry = iterator.next();
+                if (entry.state.get() != WAITING) {
+                    iterator.remove();
+                    continue;
+                }
+                // 得到当前消费者
+                Consumer consumer = sessionManager.getConsumerById(entry.longPolling.getConsumer().getId());
+                if (consumer == null) {
+                    // 消费者不存在了，则抛弃该长轮询
+                    if (entry.state.compareAndSet(WAITING, DONE)) {
+                        iterator.remove();
+                        expire(entry, entry.longPolling.getConsumer());
+                    }
+                } else if (consumeManager.hasFreePartition(consumer)) {
+                    // 有空闲队列
+                    iterator.remove();
+                    wakeup(entry);
                 }
-                // 长轮询过期了
-                longPolling.getLongPollingCallback().onExpire(consumer);
-            } else if (consumeManager.hasFreePartition(consumer)) {
-                // 有空闲队列
-                executorService.execute(new PullMessageTask(longPolling));
-            } else {
-                // 没有数据，则继续等待
-                longPollingQueue.offer(longPolling);
             }
         }
+    }
+
+    /**
+     * 主题上挂起的长轮询请求
+     */
+    protected static class TopicWaiters {
+        // 挂起队列
+        protected final Queue<PollingEntry> queue = new ConcurrentLinkedQueue<>();
+        // 最近一次写入消息的时间
+        protected volatile long lastWriteTime = 0L;
+    }
+
+    /**
+     * 挂起的长轮询请求
+     */
+    protected static class PollingEntry {
+        protected final LongPolling longPolling;
+        // 消费者长轮询计数器
+        protected final AtomicInteger count;
+        protected final AtomicInteger state = new AtomicInteger(WAITING);
+        protected volatile Timeout timeout;
 
+        public PollingEntry(LongPolling longPolling, AtomicInteger count) {
+            this.longPolling = longPolling;
+            this.count = count;
+        }
     }
 
     /**
      * 重新拉取消息
      */
     protected class PullMessageTask implements Runnable {
-        private final LongPolling longPolling;
+        private final PollingEntry entry;
 
-        public PullMessageTask(LongPolling longPolling) {
-            this.longPolling = longPolling;
+        public PullMessageTask(PollingEntry entry) {
+            this.entry = entry;
         }
 
         @Override
@@ -232,31 +425,41 @@ public class LongPollingManager extends Service {
             if (!isStarted()) {
                 return;
             }
+            LongPolling longPolling = entry.longPolling;
             Consumer consumer = longPolling.getConsumer();
-            AtomicInteger count = counter.get(consumer.getJoint());
             PullResult pullResult = null;
             try {
+                if (sessionManager.getConsumerById(consumer.getId()) == null) {
+                    // 消费者不存在了，则抛弃该长轮询
+                    entry.state.set(DONE);
+                    expire(entry, consumer);
+                    return;
+                }
                 // 取数据
+                long pullTime = SystemClock.now();
                 pullResult = consumeManager.getMessage(consumer, longPolling.getCount(), longPolling.getAckTimeout());
+                if (pullResult != null && !pullResult.getCode().equals(JoyQueueCode.SUCCESS)) {
+                    logger.error("getMessage error, code: {}, consumer: {}", pullResult.getCode(), consumer);
+                }
                 if (pullResult != null && pullResult.getBuffers().size() > 0) {
+                    entry.state.set(DONE);
+                    release(entry);
                     // 回调成功
                     longPolling.getLongPollingCallback().onSuccess(consumer, pullResult);
-                    if (count != null) {
-                        count.decrementAndGet();
-                    }
+                } else if (longPolling.getExpire() <= SystemClock.now()) {
+                    // 长轮询过期了
+                    entry.state.set(DONE);
+                    expire(entry, consumer);
                 } else if (isStarted()) {
-                    // 重入队列，等待再次轮询
-                    longPollingQueue.offer(longPolling);
-                }
-
-                if (!pullResult.getCode().equals(JoyQueueCode.SUCCESS)) {
-                    logger.error("getMessage error, code: {}, consumer: {}", pullResult.getCode(), consumer);
+                    // 重新挂起，等待下次唤醒
+                    entry.state.set(WAITING);
+                    hold(entry, getWaiters(consumer.getTopic()), pullTime);
                 }
             } catch (Throwable th) {
                 try {
                     logger.error("long pull error.", th);
-                    if (count != null) {
-                        count.decrementAndGet();
+                    if (entry.state.getAndSet(DONE) != DONE) {
+                        release(entry);
                     }
                     longPolling.getLongPollingCallback().onException(consumer, th);
                 } catch (Exception e) {
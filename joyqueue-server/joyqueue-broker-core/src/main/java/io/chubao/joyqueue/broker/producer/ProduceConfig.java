@@ -71,4 +71,16 @@ public class ProduceConfig {
     public int getBodyLength() {
         return PropertySupplier.getValue(propertySupplier, ProducerConfigKey.PRODUCE_BODY_LENGTH);
     }
-}
\ No newline at end of file
+
+    public boolean isBufferPoolEnable() {
+        return PropertySupplier.getValue(propertySupplier, ProducerConfigKey.BUFFER_POOL_ENABLE);
+    }
+
+    public int getBufferPoolMaxBufferSize() {
+        return PropertySupplier.getValue(propertySupplier, ProducerConfigKey.BUFFER_POOL_MAX_BUFFER_SIZE);
+    }
+
+    public long getBufferPoolCapacity() {
+        return PropertySupplier.getValue(propertySupplier, ProducerConfigKey.BUFFER_POOL_CAPACITY);
+    }
+}
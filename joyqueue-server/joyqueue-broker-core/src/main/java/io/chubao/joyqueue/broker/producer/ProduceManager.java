@@ -38,6 +38,7 @@ import io.chubao.joyqueue.store.PartitionGroupStore;
 import io.chubao.joyqueue.store.StoreService;
 import io.chubao.joyqueue.store.WriteRequest;
 import io.chubao.joyqueue.store.WriteResult;
+import io.chubao.joyqueue.toolkit.buffer.DirectBufferPool;
 import io.chubao.joyqueue.toolkit.concurrent.EventListener;
 import io.chubao.joyqueue.toolkit.concurrent.LoopThread;
 import io.chubao.joyqueue.toolkit.lang.Close;
@@ -88,6 +89,9 @@ public class ProduceManager extends Service implements Produce, BrokerContextAwa
     private Metric.MetricInstance metric = null;
     private LoopThread metricThread = null;
 
+    // 序列化消息使用的缓冲池，为null时直接在堆上分配
+    private DirectBufferPool bufferPool = null;
+
     public ProduceManager() {
         //do nothing
     }
@@ -138,6 +142,10 @@ public class ProduceManager extends Service implements Produce, BrokerContextAwa
         }
         transactionManager = new TransactionManager(config, store, clusterManager, brokerMonitor);
 
+        if (config.isBufferPoolEnable()) {
+            bufferPool = new DirectBufferPool(DirectBufferPool.DEFAULT_MIN_BUFFER_SIZE, config.getBufferPoolMaxBufferSize(), config.getBufferPoolCapacity());
+        }
+
         if(config.getPrintMetricIntervalMs() > 0) {
             metrics = new Metric("input", 1, new String [] {"callback", "async"},new String[]{"tps"}, new String [] {"traffic"});
             metric = metrics.getMetricInstances().get(0);
@@ -244,11 +252,22 @@ public class ProduceManager extends Service implements Produce, BrokerContextAwa
      * @throws JoyQueueException
      */
     private PutResult writeTxMessage(Producer producer, List<BrokerMessage> msgs, String txId, long endTime) throws JoyQueueException {
-        ByteBuffer[] byteBuffers = generateRByteBufferList(msgs);
-        Future<WriteResult> writeResultFuture = transactionManager.putMessage(producer, txId, byteBuffers);
-        WriteResult writeResult = syncWait(writeResultFuture, endTime - SystemClock.now());
         PutResult putResult = new PutResult();
-        putResult.addWriteResult(msgs.get(0).getPartition(), writeResult);
+        String topic = producer.getTopic();
+        long startTime = SystemClock.now();
+        Map<PartitionGroup, List<WriteRequest>> dispatchedMsgs = dispatchPartition(msgs, getTxPartitions(topic));
+        // 先发出所有分区组的写入再统一等待
+        Map<PartitionGroup, Future<WriteResult>> futures = new HashMap<>();
+        for (Map.Entry<PartitionGroup, List<WriteRequest>> dispatchEntry : dispatchedMsgs.entrySet()) {
+            futures.put(dispatchEntry.getKey(), transactionManager.putMessage(producer, txId, dispatchEntry.getKey(),
+                    dispatchEntry.getValue().toArray(new WriteRequest[]{})));
+        }
+        for (Map.Entry<PartitionGroup, Future<WriteResult>> futureEntry : futures.entrySet()) {
+            PartitionGroup partitionGroup = futureEntry.getKey();
+            WriteResult writeResult = syncWait(futureEntry.getValue(), endTime - SystemClock.now());
+            onPutMessage(topic, producer.getApp(), partitionGroup.getGroup(), startTime, dispatchedMsgs.get(partitionGroup));
+            putResult.addWriteResult((short) partitionGroup.getGroup(), writeResult);
+        }
         return putResult;
     }
 
@@ -262,16 +281,40 @@ public class ProduceManager extends Service implements Produce, BrokerContextAwa
      * @throws JoyQueueException
      */
     private void writeTxMessageAsync(Producer producer, List<BrokerMessage> msgs, String txId, long timeout, EventListener<WriteResult> eventListener) throws JoyQueueException {
-        ByteBuffer[] byteBuffers = generateRByteBufferList(msgs);
-        try {
-            WriteResult writeResult = transactionManager.putMessage(producer, txId, byteBuffers).get(timeout, TimeUnit.MILLISECONDS);
-            eventListener.onEvent(writeResult);
-        } catch (Exception e) {
-            logger.error("writeTxMessageAsync exception, producer: {}", producer, e);
-            eventListener.onEvent(new WriteResult(JoyQueueCode.CN_UNKNOWN_ERROR, ArrayUtils.EMPTY_LONG_ARRAY));
+        String topic = producer.getTopic();
+        long startTime = SystemClock.now();
+        long endTime = startTime + timeout;
+        Map<PartitionGroup, List<WriteRequest>> dispatchedMsgs = dispatchPartition(msgs, getTxPartitions(topic));
+        Map<PartitionGroup, Future<WriteResult>> futures = new HashMap<>();
+        for (Map.Entry<PartitionGroup, List<WriteRequest>> dispatchEntry : dispatchedMsgs.entrySet()) {
+            futures.put(dispatchEntry.getKey(), transactionManager.putMessage(producer, txId, dispatchEntry.getKey(),
+                    dispatchEntry.getValue().toArray(new WriteRequest[]{})));
+        }
+        for (Map.Entry<PartitionGroup, Future<WriteResult>> futureEntry : futures.entrySet()) {
+            PartitionGroup partitionGroup = futureEntry.getKey();
+            try {
+                WriteResult writeResult = futureEntry.getValue().get(Math.max(endTime - SystemClock.now(), 0L), TimeUnit.MILLISECONDS);
+                onPutMessage(topic, producer.getApp(), partitionGroup.getGroup(), startTime, dispatchedMsgs.get(partitionGroup));
+                eventListener.onEvent(writeResult);
+            } catch (Exception e) {
+                logger.error("writeTxMessageAsync exception, producer: {}", producer, e);
+                eventListener.onEvent(new WriteResult(JoyQueueCode.CN_UNKNOWN_ERROR, ArrayUtils.EMPTY_LONG_ARRAY));
+            }
         }
     }
 
+    /**
+     * 事务消息可以写入的分区
+     */
+    private List<Short> getTxPartitions(String topic) throws JoyQueueException {
+        List<Short> partitions = clusterManager.getMasterPartitionList(TopicName.parse(topic));
+        if (partitions == null || partitions.size() == 0) {
+            logger.error("no partitions available topic:{}", topic);
+            throw new JoyQueueException(JoyQueueCode.CN_NO_PERMISSION);
+        }
+        return partitions;
+    }
+
     /**
      * 写入消息
      *
@@ -359,8 +402,8 @@ public class ProduceManager extends Service implements Produce, BrokerContextAwa
                         writeRequests.toArray(new WriteRequest[]{}));
 
                 long t1 = System.nanoTime();
-                metric.addCounter("tps", writeRequests.stream().map(WriteRequest::getBuffer).count());
-                metric.addTraffic("traffic", writeRequests.stream().map(WriteRequest::getBuffer).mapToInt(ByteBuffer::remaining).sum());
+                metric.addCounter("tps", writeRequests.size());
+                metric.addTraffic("traffic", writeRequests.stream().mapToInt(WriteRequest::getSize).sum());
                 metric.addLatency("async", t1 - t0);
             } else {
                 partitionStore.asyncWrite(event -> {
@@ -378,7 +421,7 @@ public class ProduceManager extends Service implements Produce, BrokerContextAwa
     protected void onPutMessage(String topic, String app, int partitionGroup, long startTime, List<WriteRequest> writeRequests) {
         long now = SystemClock.now();
         writeRequests.forEach(writeRequest -> {
-            brokerMonitor.onPutMessage(topic, app, partitionGroup, writeRequest.getPartition(), writeRequest.getBatchSize(), writeRequest.getBuffer().limit(), now - startTime);
+            brokerMonitor.onPutMessage(topic, app, partitionGroup, writeRequest.getPartition(), writeRequest.getBatchSize(), writeRequest.getSize(), now - startTime);
         });
     }
 
@@ -463,7 +506,7 @@ public class ProduceManager extends Service implements Produce, BrokerContextAwa
             if (msg.isBatch()) {
                 batchCount = msg.getFlag();
             }
-            writeRequestList.add(new WriteRequest(writePartition, convertBrokerMessage2RByteBuffer(msg), batchCount));
+            writeRequestList.add(new WriteRequest(writePartition, convertBrokerMessage2RByteBuffer(msg, bufferPool), batchCount, bufferPool));
         }
 
         return resultMap;
@@ -504,38 +547,25 @@ public class ProduceManager extends Service implements Produce, BrokerContextAwa
      * 将BrokerMessage转换成RByteBuffer
      *
      * @param brokerMessage
+     * @param bufferPool 缓冲池，为null时在堆上分配
      * @return
      * @throws JoyQueueException
      */
-    private ByteBuffer convertBrokerMessage2RByteBuffer(BrokerMessage brokerMessage) throws JoyQueueException {
+    private ByteBuffer convertBrokerMessage2RByteBuffer(BrokerMessage brokerMessage, DirectBufferPool bufferPool) throws JoyQueueException {
         int msgSize = Serializer.sizeOf(brokerMessage);
-        // todo bufferPool有问题，暂时直接创建
-        ByteBuffer allocate = ByteBuffer.allocate(msgSize);
+        ByteBuffer allocate = null == bufferPool ? ByteBuffer.allocate(msgSize) : bufferPool.allocate(msgSize);
         try {
             Serializer.write(brokerMessage, allocate, msgSize);
         } catch (Exception e) {
+            if (null != bufferPool) {
+                bufferPool.release(allocate);
+            }
             logger.error("Serialize message error! topic:{},app:{}", brokerMessage.getTopic(), brokerMessage.getApp(), e);
             throw new JoyQueueException(JoyQueueCode.SE_SERIALIZER_ERROR);
         }
         return allocate;
     }
 
-    /**
-     * @param msgs
-     * @return
-     * @throws JoyQueueException
-     */
-    private ByteBuffer[] generateRByteBufferList(List<BrokerMessage> msgs) throws JoyQueueException {
-        int size = msgs.size();
-        ByteBuffer[] byteBuffers = new ByteBuffer[size];
-        for (int i = 0; i < size; i++) {
-            BrokerMessage message = msgs.get(i);
-            ByteBuffer byteBuffer = convertBrokerMessage2RByteBuffer(message);
-            byteBuffers[i] = byteBuffer;
-        }
-        return byteBuffers;
-    }
-
 
     /**
      * 负责非包含消息内容的命令写入，包括(TxPrepare,TxCommit,TxRollback)
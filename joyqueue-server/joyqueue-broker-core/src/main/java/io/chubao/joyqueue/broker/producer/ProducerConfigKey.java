@@ -34,6 +34,15 @@ public enum ProducerConfigKey implements PropertyDef {
     // body长度
     PRODUCE_BODY_LENGTH("produce.body.length", 1024 * 1024 * 5, PropertyDef.Type.INT),
 
+    // 是否使用DirectBuffer缓冲池序列化消息
+    BUFFER_POOL_ENABLE("produce.buffer.pool.enable", false, PropertyDef.Type.BOOLEAN),
+
+    // 缓冲池中缓冲区的最大大小，超过这个大小的消息直接在堆上分配
+    BUFFER_POOL_MAX_BUFFER_SIZE("produce.buffer.pool.max.buffer.size", 1024 * 1024, PropertyDef.Type.INT),
+
+    // 缓冲池最多缓存的缓冲区总大小
+    BUFFER_POOL_CAPACITY("produce.buffer.pool.capacity", 128L * 1024 * 1024, PropertyDef.Type.LONG),
+
     ;
 
 
@@ -117,6 +117,7 @@ public class TransactionCleaner extends Service implements Runnable {
                         transactionId.getTopic(), transactionId.getApp(), transactionId.getTxId(), transactionId.getStoreId());
                 return;
             }
+            // 已经写入分区的事务消息由存储在相同的过期时间自动回滚，这里只清理事务记录
             transactionStore.remove(transactionId.getStoreId());
             unCompletedTransactionManager.removeTransaction(transactionId.getTopic(), transactionId.getApp(), transactionId.getTxId());
             logger.info("clear expired transaction, topic: {}, app : {}, txId: {}, storeId: {}", transactionId.getTopic(), transactionId.getApp(), transactionId.getTxId(), transactionId.getStoreId());
@@ -17,7 +17,6 @@ package io.chubao.joyqueue.broker.producer.transaction;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import io.chubao.joyqueue.broker.buffer.Serializer;
 import io.chubao.joyqueue.broker.cluster.ClusterManager;
 import io.chubao.joyqueue.broker.monitor.BrokerMonitor;
@@ -36,7 +35,6 @@ import io.chubao.joyqueue.store.PartitionGroupStore;
 import io.chubao.joyqueue.store.StoreService;
 import io.chubao.joyqueue.store.WriteRequest;
 import io.chubao.joyqueue.store.WriteResult;
-import io.chubao.joyqueue.store.message.MessageParser;
 import io.chubao.joyqueue.store.transaction.TransactionStore;
 import io.chubao.joyqueue.toolkit.service.Service;
 import io.chubao.joyqueue.toolkit.time.SystemClock;
@@ -45,9 +43,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -143,77 +140,83 @@ public class TransactionManager extends Service {
             throw new JoyQueueException(JoyQueueCode.CN_TRANSACTION_NOT_EXISTS);
         }
 
-        BrokerPrepare brokerPrepare = null;
-        Map<Integer, List<WriteRequest>> writeRequestMap = Maps.newHashMap();
-        int messageSize = 0;
-
         try {
-            int index = 0;
-            Iterator<ByteBuffer> readIterator = transactionStore.readIterator(transactionId.getStoreId());
-            while (readIterator.hasNext()) {
-                ByteBuffer byteBuffer = readIterator.next();
-                if (index == 0) {
-                    brokerPrepare = Serializer.readBrokerPrepare(byteBuffer);
-                } else {
-                    short currentPartition = dispatchPartition(byteBuffer, (short) 0);
-                    PartitionGroup partitionGroup = clusterManager.getPartitionGroup(TopicName.parse(producer.getTopic()), currentPartition);
-                    if (partitionGroup == null) {
-                        throw new JoyQueueException(JoyQueueCode.SE_WRITE_FAILED);
-                    }
-                    List<WriteRequest> writeRequests = writeRequestMap.get(partitionGroup.getGroup());
-                    if (writeRequests == null) {
-                        writeRequests = Lists.newLinkedList();
-                        writeRequestMap.put(partitionGroup.getGroup(), writeRequests);
-                    }
-                    writeRequests.add(new WriteRequest(currentPartition, byteBuffer, 1));
-                    messageSize += byteBuffer.limit();
-                }
-                index++;
-            }
+            // 事务消息已经写入分区，提交只在各分区组写入提交标记，各分区组并行写入
+            waitFutures(producer, writeMarkers(transactionId, true));
+        } catch (JoyQueueException e) {
+            logger.warn("write transaction commit marker exception, topic: {}, app: {}, txId: {}", commit.getTopic(), commit.getApp(), commit.getTxId(), e);
+            throw e;
+        }
 
-            try {
-                for (Map.Entry<Integer, List<WriteRequest>> entry : writeRequestMap.entrySet()) {
-                    PartitionGroupStore partitionStoreService = store.getStore(commit.getTopic(), entry.getKey(), QosLevel.REPLICATION);
-                    long startTime = SystemClock.now();
-                    Future<WriteResult> future = partitionStoreService.asyncWrite(entry.getValue().toArray(new WriteRequest[0]));
-                    waitFuture(producer, future);
-                    long endTime = SystemClock.now();
-
-                    for (WriteRequest writeRequest : entry.getValue()) {
-                        brokerMonitor.onPutMessage(producer.getTopic(), producer.getApp(), entry.getKey(), writeRequest.getPartition(), 1, messageSize, endTime - startTime);
-                    }
-                }
-            } catch (Exception e) {
-                logger.warn("write transaction message exception, topic: {}, app: {}, txId: {}", brokerPrepare.getTopic(), brokerPrepare.getApp(), brokerPrepare.getTxId(), e);
-                throw new JoyQueueException(JoyQueueCode.SE_IO_ERROR);
-            }
+        transactionStore.remove(transactionId.getStoreId());
+        unCompletedTransactionManager.removeTransaction(transactionId);
+        return transactionId;
+    }
 
-            unCompletedTransactionManager.removeTransaction(transactionId);
-        } catch (Exception e) {
-            logger.error("write transaction message exception, topic: {}, app: {}, txId: {}", commit.getTopic(), commit.getApp(), commit.getTxId(), e);
-            if (e instanceof JoyQueueException) {
-                throw (JoyQueueException) e;
-            } else {
-                throw new JoyQueueException(JoyQueueCode.SE_IO_ERROR);
+    /**
+     * 在本节点作为leader的每个分区组写入事务的提交或回滚标记，不等待写入完成。
+     * 事务在分区组中没有写入消息时，分区组直接返回成功。
+     */
+    protected List<Future<WriteResult>> writeMarkers(TransactionId transactionId, boolean commit) {
+        List<Future<WriteResult>> futures = Lists.newArrayList();
+        List<PartitionGroup> partitionGroups = clusterManager.getPartitionGroup(TopicName.parse(transactionId.getTopic()));
+        if (partitionGroups == null) {
+            return futures;
+        }
+        String storeTransactionId = getStoreTransactionId(transactionId);
+        for (PartitionGroup partitionGroup : partitionGroups) {
+            PartitionGroupStore partitionGroupStore = store.getStore(transactionId.getTopic(), partitionGroup.getGroup(), QosLevel.REPLICATION);
+            if (partitionGroupStore == null) {
+                continue;
             }
+            futures.add(commit ? partitionGroupStore.asyncCommitTransaction(storeTransactionId) : partitionGroupStore.asyncRollbackTransaction(storeTransactionId));
         }
-        return transactionId;
+        return futures;
+    }
+
+    /**
+     * 存储中的事务ID，同一个Topic下唯一
+     */
+    protected String getStoreTransactionId(TransactionId transactionId) {
+        return transactionId.getApp() + "/" + transactionId.getTxId();
     }
 
-    protected short dispatchPartition(ByteBuffer msg, short defaultPartition) {
-        short partition = MessageParser.getShort(msg, MessageParser.PARTITION);
-        return partition < 0 ? defaultPartition : partition;
+    /**
+     * 存储中事务的过期时间，和TransactionCleaner的过期判断一致，过期后由存储自动回滚
+     */
+    protected long getStoreExpireTime(TransactionId transactionId) {
+        if (transactionId.isFeedback()) {
+            return transactionId.getStartTime() + config.getTransactionExpireTime();
+        } else {
+            return transactionId.getStartTime() + transactionId.getTimeout();
+        }
     }
 
     protected void waitFuture(Producer producer, Future<WriteResult> future) throws JoyQueueException {
+        waitFutures(producer, Collections.singletonList(future));
+    }
+
+    /**
+     * 等待已经发出的写入全部完成，所有写入共用一个超时时间
+     */
+    protected void waitFutures(Producer producer, List<Future<WriteResult>> futures) throws JoyQueueException {
+        WriteResult writeResult;
         try {
             io.chubao.joyqueue.domain.Producer.ProducerPolicy producerPolicy = clusterManager.tryGetProducerPolicy(TopicName.parse(producer.getTopic()), producer.getApp());
             int configTimeOut = (producerPolicy == null ? 0 : producerPolicy.getTimeOut());
-            if (configTimeOut == 0) {
-                future.get();
-            } else {
-                future.get(configTimeOut, TimeUnit.MILLISECONDS);
+            long deadline = SystemClock.now() + configTimeOut;
+            for (Future<WriteResult> future : futures) {
+                if (configTimeOut == 0) {
+                    writeResult = future.get();
+                } else {
+                    writeResult = future.get(Math.max(deadline - SystemClock.now(), 0L), TimeUnit.MILLISECONDS);
+                }
+                if (writeResult.getCode() != JoyQueueCode.SUCCESS) {
+                    throw new JoyQueueException(writeResult.getCode());
+                }
             }
+        } catch (JoyQueueException e) {
+            throw e;
         } catch (InterruptedException e) {
             throw new JoyQueueException(JoyQueueCode.SE_DISK_FLUSH_SLOW);
         } catch (ExecutionException | TimeoutException e) {
@@ -236,13 +239,28 @@ public class TransactionManager extends Service {
             throw new JoyQueueException(JoyQueueCode.CN_TRANSACTION_NOT_EXISTS);
         }
 
+        try {
+            waitFutures(producer, writeMarkers(transactionId, false));
+        } catch (JoyQueueException e) {
+            logger.warn("write transaction rollback marker exception, topic: {}, app: {}, txId: {}", rollback.getTopic(), rollback.getApp(), rollback.getTxId(), e);
+            throw e;
+        }
+
         transactionStore.remove(transactionId.getStoreId());
         unCompletedTransactionManager.removeTransaction(transactionId);
         return transactionId;
     }
 
-    public Future<WriteResult> putMessage(Producer producer, String txId, ByteBuffer... byteBuffers) throws JoyQueueException {
-        TransactionStore transactionStore = store.getTransactionStore(producer.getTopic());
+    /**
+     * 写入事务消息，消息直接写入分区组，在事务提交之前对消费者不可见
+     *
+     * @param producer 生产者
+     * @param txId 事务ID
+     * @param partitionGroup 分区组
+     * @param writeRequests 同一个分区组的消息
+     * @return 以Future形式返回结果
+     */
+    public Future<WriteResult> putMessage(Producer producer, String txId, PartitionGroup partitionGroup, WriteRequest... writeRequests) throws JoyQueueException {
         if (Strings.isNullOrEmpty(txId)) {
             logger.error("The current message is not a tx message!");
             throw new JoyQueueException(JoyQueueCode.CN_UNKNOWN_ERROR);
@@ -254,7 +272,12 @@ public class TransactionManager extends Service {
             throw new JoyQueueException(JoyQueueCode.CN_TRANSACTION_NOT_EXISTS);
         }
 
-        return transactionStore.asyncWrite(transactionId.getStoreId(), byteBuffers);
+        PartitionGroupStore partitionGroupStore = store.getStore(producer.getTopic(), partitionGroup.getGroup(), QosLevel.REPLICATION);
+        if (partitionGroupStore == null) {
+            logger.error("partition group store not exist, topic: {}, group: {}", producer.getTopic(), partitionGroup.getGroup());
+            throw new JoyQueueException(JoyQueueCode.SE_WRITE_FAILED);
+        }
+        return partitionGroupStore.asyncWriteTransaction(getStoreTransactionId(transactionId), getStoreExpireTime(transactionId), writeRequests);
     }
 
     public TransactionId getTransaction(String topic, String app, String txId) {
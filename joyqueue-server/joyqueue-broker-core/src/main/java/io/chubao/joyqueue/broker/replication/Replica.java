@@ -17,6 +17,8 @@ package io.chubao.joyqueue.broker.replication;
 
 import io.chubao.joyqueue.broker.election.TopicPartitionGroup;
 
+import java.util.concurrent.Delayed;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * author: zhuduohui
@@ -33,17 +35,34 @@ public class Replica {
     private String address;
 
     // write position of this replica
-    private long writePosition = 0;
+    private volatile long writePosition = 0;
 
     // commit position of this replica
     // leader replica send commit position to follower replica
     private long commitPosition = 0;
 
     // next position which leader will send to replica
-    private long nextPosition = 0;
+    private volatile long nextPosition = 0;
 
     // if the log of this replica match with with leader
-    private boolean match = false;
+    private volatile boolean match = false;
+
+    // number of append entries requests sent but not responded
+    private final AtomicInteger inflight = new AtomicInteger(0);
+
+    // epoch of the replicate pipeline, increased when the pipeline rolls back,
+    // responses of requests sent in previous epochs are ignored
+    private volatile int epoch = 0;
+
+    // number of pending send tasks, only one thread builds and sends append entries requests
+    // to this replica at a time so that requests are sent in position order
+    private final AtomicInteger sendTasks = new AtomicInteger(0);
+
+    // time of the last append entries request sent
+    private volatile long lastSendTime;
+
+    // replicate command waiting in the delay queue, guarded by this
+    private Delayed pendingCommand;
 
     private long lastAppendSuccessTime;
 
@@ -117,6 +136,70 @@ public class Replica {
         this.match = match;
     }
 
+    int inflight() {
+        return inflight.get();
+    }
+
+    void incrementInflight() {
+        inflight.incrementAndGet();
+    }
+
+    /**
+     * 收到请求的响应或者请求失败时调用。
+     * 只有请求所属的流水线代数仍然是当前代数时才减少inflight，之前代数的请求在回滚时已经清零
+     * @param epoch 请求所属的流水线代数
+     */
+    synchronized void decrementInflight(int epoch) {
+        if (epoch == this.epoch) {
+            inflight.updateAndGet(i -> i > 0 ? i - 1 : 0);
+        }
+    }
+
+    int epoch() {
+        return epoch;
+    }
+
+    /**
+     * 流水线回滚，之前发出的请求全部作废，inflight清零
+     */
+    synchronized void nextEpoch() {
+        epoch++;
+        inflight.set(0);
+    }
+
+    /**
+     * 提交一个发送任务
+     * @return 没有其他线程正在发送时返回true，由当前线程负责发送
+     */
+    boolean enterSend() {
+        return sendTasks.getAndIncrement() == 0;
+    }
+
+    /**
+     * 处理完发送任务
+     * @param handled 已经处理的任务数量
+     * @return 剩余的任务数量，不为0时当前线程需要继续发送
+     */
+    int exitSend(int handled) {
+        return sendTasks.addAndGet(-handled);
+    }
+
+    long lastSendTime() {
+        return lastSendTime;
+    }
+
+    void lastSendTime(long lastSendTime) {
+        this.lastSendTime = lastSendTime;
+    }
+
+    Delayed pendingCommand() {
+        return pendingCommand;
+    }
+
+    void pendingCommand(Delayed pendingCommand) {
+        this.pendingCommand = pendingCommand;
+    }
+
     void lastReplicateConsumePosTime(long lastReplicateConsumePosTime) {
         this.lastReplicateConsumePosTime = lastReplicateConsumePosTime;
     }
@@ -149,6 +232,8 @@ public class Replica {
                 .append(", commitPosition:").append(commitPosition)
                 .append(", nextPosition:").append(nextPosition)
                 .append(", match:").append(match)
+                .append(", inflight:").append(inflight.get())
+                .append(", epoch:").append(epoch)
                 .append(", lastAppendSuccessTime:").append(lastAppendSuccessTime)
                 .append(", lastReplicateConsumePosTime:").append(lastReplicateConsumePosTime).toString();
 
@@ -94,6 +94,8 @@ public class ReplicaGroup extends Service {
 
     private static final long ONE_SECOND_NANO = 1000 * 1000 * 1000;
     private static final long ONE_MS_NANO     = 1000 * 1000;
+    // 没有新消息时的兜底检查间隔，新消息写入时会立即唤醒复制
+    private static final long IDLE_CHECK_INTERVAL_NANO = 100 * ONE_MS_NANO;
     private static final int MAX_PROCESS_TIME =  300 * 1000;
 
     ReplicaGroup(TopicPartitionGroup topicPartitionGroup, ReplicationManager replicationManager,
@@ -164,7 +166,7 @@ public class ReplicaGroup extends Service {
 
         replicas.add(newReplica);
 
-        replicateResponseQueue.put(new DelayedCommand(ONE_SECOND_NANO, newReplica.replicaId()));
+        schedule(newReplica, ONE_SECOND_NANO);
 
         for (Replica replica : replicas) {
             logger.info("Partition group {}/node {} add node, replica {}'s next position is {}",
@@ -248,8 +250,11 @@ public class ReplicaGroup extends Service {
 
         long writePosition = replicableStore.rightPosition();
         replicas.forEach(r -> {
-            r.nextPosition(writePosition);
-            r.setMatch(false);
+            synchronized (r) {
+                r.nextEpoch();
+                r.nextPosition(writePosition);
+                r.setMatch(false);
+            }
         });
 
         state = LEADER;
@@ -306,19 +311,25 @@ public class ReplicaGroup extends Service {
                     }
 
                     DelayedCommand command = replicateResponseQueue.take();
-                    if (command.replicaId() == localReplicaId) {
-                        replicateLocal();
+                    Replica replica = getReplica(command.replicaId());
+                    if (replica == null) {
+                        logger.info("Partition group {}/node {} not contain this node {}",
+                                topicPartitionGroup, localReplicaId, command.replicaId());
                         continue;
                     }
+                    synchronized (replica) {
+                        if (replica.pendingCommand() == command) {
+                            replica.pendingCommand(null);
+                        }
+                    }
 
-                    if (!replicas.contains(getReplica(command.replicaId()))) {
-                        logger.info("Partition group {}/node {} not contain this node {}",
-                                topicPartitionGroup, localReplicaId, command.replicaId());
+                    if (command.replicaId() == localReplicaId) {
+                        replicateLocal();
                         continue;
                     }
 
-                    replicateMessage(getReplica(command.replicaId()));
-                    maybeReplicateConsumePos(getReplica(command.replicaId()));
+                    replicateMessage(replica);
+                    maybeReplicateConsumePos(replica);
 
                 } catch (InterruptedException ie) {
                     logger.info("Partition group {}/node {} replicate interrupted",
@@ -342,27 +353,68 @@ public class ReplicaGroup extends Service {
      */
     private void initResponseQueue() {
         replicateResponseQueue.clear();
-        replicas.forEach((r) -> replicateResponseQueue.put(
-                new DelayedCommand(0, r.replicaId())));
+        replicas.forEach(r -> {
+            synchronized (r) {
+                r.pendingCommand(null);
+            }
+            schedule(r, 0);
+        });
     }
 
     /**
-     * 如果只有一个节点，直接commit
+     * 在delayTimeNs之后调度副本的复制。
+     * 每个副本在队列中最多只有一个待执行的命令，已有的命令更晚到期时用新命令替换它。
+     * @param replica 副本
+     * @param delayTimeNs 延迟时间
      */
-    private void replicateLocal() {
-        long delayTimeNs;
+    private void schedule(Replica replica, long delayTimeNs) {
+        synchronized (replica) {
+            Delayed pending = replica.pendingCommand();
+            if (pending != null) {
+                if (pending.getDelay(TimeUnit.NANOSECONDS) <= delayTimeNs) {
+                    // 已有的命令更早到期
+                    return;
+                }
+                replicateResponseQueue.remove(pending);
+            }
+            DelayedCommand command = new DelayedCommand(delayTimeNs, replica.replicaId());
+            replica.pendingCommand(command);
+            replicateResponseQueue.put(command);
+        }
+    }
+
+    /**
+     * 本地写入消息后调用，唤醒复制：
+     * 只有一个节点时唤醒本地提交，否则唤醒窗口未满的副本发送复制请求
+     */
+    void onWrite() {
+        if (!isStarted() || (state != LEADER && state != TRANSFERRING) || neednotReplicate()) {
+            return;
+        }
         if (replicas.size() == 1) {
-            if (replicableStore.commitPosition() < replicableStore.rightPosition()) {
-                replicableStore.commit(replicableStore.rightPosition());
-                delayTimeNs = 0;
-            } else {
-                delayTimeNs = ONE_MS_NANO / 5;
+            Replica local = getReplica(localReplicaId);
+            if (local != null) {
+                schedule(local, 0);
+            }
+            return;
+        }
+        for (Replica replica : replicas) {
+            if (replica.replicaId() != localReplicaId && replica.inflight() < replicateWindow(replica)) {
+                schedule(replica, 0);
             }
-        } else {
-            delayTimeNs = ONE_SECOND_NANO;
         }
+    }
 
-        replicateResponseQueue.put(new DelayedCommand(delayTimeNs, localReplicaId));
+    /**
+     * 如果只有一个节点，直接commit
+     */
+    private void replicateLocal() {
+        if (replicas.size() == 1 && replicableStore.commitPosition() < replicableStore.rightPosition()) {
+            replicableStore.commit(replicableStore.rightPosition());
+        }
+
+        // 新消息写入时会通过onWrite立即唤醒，这里只做兜底检查
+        schedule(getReplica(localReplicaId), replicas.size() == 1 ? IDLE_CHECK_INTERVAL_NANO : ONE_SECOND_NANO);
     }
 
     /**
@@ -372,37 +424,119 @@ public class ReplicaGroup extends Service {
     private void replicateMessage(Replica replica) {
         try {
             replicateExecutor.submit(() -> {
-                try {
-                    long startTimeUs = usTime();
-
-                    AppendEntriesRequest request = generateAppendEntriesRequest(replica);
-                    if (request == null) {
-                        replicateResponseQueue.put(new DelayedCommand(ONE_MS_NANO, replica.replicaId()));
-                        return;
+                // 同一个副本的请求只由一个线程构造和发送，保证请求按位置顺序发出；
+                // 其他线程正在发送时只登记任务，由正在发送的线程继续处理
+                if (!replica.enterSend()) {
+                    return;
+                }
+                int tasks = 1;
+                do {
+                    try {
+                        sendAppendEntries(replica);
+                    } catch (Throwable t) {
+                        logger.warn("Partition group {}/ node {} send append entries to {} fail",
+                                topicPartitionGroup, localReplicaId, replica.replicaId(), t);
+                        schedule(replica, ONE_SECOND_NANO);
                     }
+                    tasks = replica.exitSend(tasks);
+                } while (tasks != 0);
+            });
+        } catch (Exception e) {
+            logger.info("Partition group {}/node {} replicate message to {} fail",
+                    topicPartitionGroup, localReplicaId, replica.replicaId(), e);
+            schedule(replica, ONE_SECOND_NANO);
+        }
+    }
 
-                    JoyQueueHeader header = new JoyQueueHeader(Direction.REQUEST, CommandType.RAFT_APPEND_ENTRIES_REQUEST);
+    /**
+     * 副本允许同时发送、未收到响应的复制请求数量。
+     * 副本的日志和leader匹配之前，每次只发送一个请求用于探测匹配位置。
+     * @param replica 副本
+     * @return 窗口大小
+     */
+    private int replicateWindow(Replica replica) {
+        return replica.isMatch() ? Math.max(1, electionConfig.getMaxReplicateInflight()) : 1;
+    }
 
-                    if (!replica.isMatch() || logger.isDebugEnabled()) {
-                        logger.info("Partition group {}/node {} send append entries request {} to node {}, " +
-                                        "read entries elapse {} us",
-                                topicPartitionGroup, leaderId, request, replica.replicaId(), usTime() - startTimeUs);
+    /**
+     * 在窗口允许的范围内连续向副本发送复制请求，不等待之前请求的响应。
+     * 匹配的副本每发送一个请求，nextPosition立即前进到请求的结束位置；
+     * 收到失败响应或者发送失败时，流水线回滚到失败请求的位置重新探测。
+     * @param replica 副本
+     * @throws Exception 异常
+     */
+    private void sendAppendEntries(Replica replica) throws Exception {
+        while (true) {
+            long startTimeUs = usTime();
+            AppendEntriesRequest request;
+            int epoch;
+
+            synchronized (replica) {
+                if (replica.inflight() >= replicateWindow(replica)) {
+                    if (SystemClock.now() - replica.lastSendTime() <= 2L * electionConfig.getSendCommandTimeout()) {
+                        // 等待响应后再发送
+                        return;
                     }
+                    // 超时仍然没有收到响应，放弃之前发送的请求，从已确认的位置重新探测
+                    logger.warn("Partition group {}/node {} wait append entries response from {} timeout, " +
+                                    "rollback to {}, replica: {}",
+                            topicPartitionGroup, localReplicaId, replica.replicaId(), replica.writePosition(), replica);
+                    replica.nextEpoch();
+                    replica.setMatch(false);
+                    replica.nextPosition(Math.min(replica.nextPosition(), replica.writePosition()));
+                }
 
-                    replicationManager.sendCommand(replica.getAddress(), new Command(header, request),
-                            electionConfig.getSendCommandTimeout(),
-                            new AppendEntriesRequestCallback(replica, startTimeUs, request.getEntriesLength()));
+                request = generateAppendEntriesRequest(replica);
+                if (request == null) {
+                    if (replica.inflight() == 0) {
+                        schedule(replica, IDLE_CHECK_INTERVAL_NANO);
+                    }
+                    return;
+                }
 
-                } catch (Throwable t) {
-                    logger.warn("Partition group {}/ node {} send append entries to {} fail",
-                            topicPartitionGroup, localReplicaId, replica.replicaId(), t);
-                    replicateResponseQueue.put(new DelayedCommand(ONE_SECOND_NANO, replica.replicaId()));
+                if (replica.isMatch()) {
+                    replica.nextPosition(request.getStartPosition() + request.getEntriesLength());
                 }
-            });
-        } catch (Exception e) {
-            logger.info("Partition group {}/node {} replicate message to {} fail",
-                    topicPartitionGroup, localReplicaId, replica.replicaId(), e);
-            replicateResponseQueue.put(new DelayedCommand(ONE_SECOND_NANO, replica.replicaId()));
+                replica.incrementInflight();
+                replica.lastSendTime(SystemClock.now());
+                epoch = replica.epoch();
+            }
+
+            JoyQueueHeader header = new JoyQueueHeader(Direction.REQUEST, CommandType.RAFT_APPEND_ENTRIES_REQUEST);
+
+            if (!replica.isMatch() || logger.isDebugEnabled()) {
+                logger.info("Partition group {}/node {} send append entries request {} to node {}, " +
+                                "read entries elapse {} us, inflight {}",
+                        topicPartitionGroup, leaderId, request, replica.replicaId(), usTime() - startTimeUs,
+                        replica.inflight());
+            }
+
+            try {
+                replicationManager.sendCommand(replica.getAddress(), new Command(header, request),
+                        electionConfig.getSendCommandTimeout(),
+                        new AppendEntriesRequestCallback(replica, startTimeUs, request.getEntriesLength(),
+                                request.getStartPosition(), epoch));
+            } catch (Exception e) {
+                rollback(replica, epoch, request.getStartPosition());
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 复制请求失败时回滚流水线：之前发出的请求的响应都将被忽略，从失败请求的位置重新探测
+     * @param replica 副本
+     * @param epoch 失败请求所属的流水线代数
+     * @param startPosition 失败请求的起始位置
+     */
+    private void rollback(Replica replica, int epoch, long startPosition) {
+        synchronized (replica) {
+            if (epoch != replica.epoch()) {
+                return;
+            }
+            replica.nextEpoch();
+            replica.setMatch(false);
+            replica.nextPosition(Math.min(replica.nextPosition(), startPosition));
         }
     }
 
@@ -465,15 +599,22 @@ public class ReplicaGroup extends Service {
         private Replica replica;
         private long startTimeUs;
         private int entriesLength;
+        private long startPosition;
+        private int epoch;
 
-        AppendEntriesRequestCallback(Replica replica, long startTimeUs, int entriesLength) {
+        AppendEntriesRequestCallback(Replica replica, long startTimeUs, int entriesLength,
+                                     long startPosition, int epoch) {
             this.replica = replica;
             this.startTimeUs = startTimeUs;
             this.entriesLength = entriesLength;
+            this.startPosition = startPosition;
+            this.epoch = epoch;
         }
 
         @Override
         public void onSuccess(Command request, Command response) {
+            // 流水线回滚之前发出的请求的响应不再触发复制，由回滚方负责调度
+            boolean current = epoch == replica.epoch();
             try {
                 if (!(request.getPayload() instanceof AppendEntriesRequest)
                         || !(response.getPayload() instanceof AppendEntriesResponse)) {
@@ -503,7 +644,7 @@ public class ReplicaGroup extends Service {
                     return;
                 }
 
-                processAppendEntriesResponse(appendEntriesResponse, replica);
+                processAppendEntriesResponse(appendEntriesResponse, replica, startPosition, epoch);
 
                 brokerMonitor.onReplicateMessage(topicPartitionGroup.getTopic(), topicPartitionGroup.getPartitionGroupId(),
                         1, entriesLength, usTime() - startTimeUs);
@@ -512,7 +653,10 @@ public class ReplicaGroup extends Service {
                 logger.info("Partition group {}/node {} process append entries reponse fail",
                         topicPartitionGroup, localReplicaId, e);
             } finally {
-                replicateResponseQueue.put(new DelayedCommand(0, replica.replicaId()));
+                replica.decrementInflight(epoch);
+                if (current) {
+                    schedule(replica, 0);
+                }
             }
         }
 
@@ -535,8 +679,11 @@ public class ReplicaGroup extends Service {
                 logger.warn("Partition group {}/node {} send append entries onException fail, request is {}",
                         topicPartitionGroup, localReplicaId, request, e);
             } finally {
-                replicateResponseQueue.put(
-                        new DelayedCommand(ONE_SECOND_NANO, replica.replicaId()));
+                replica.decrementInflight(epoch);
+                if (epoch == replica.epoch()) {
+                    rollback(replica, epoch, startPosition);
+                    schedule(replica, ONE_SECOND_NANO);
+                }
             }
         }
     }
@@ -544,24 +691,42 @@ public class ReplicaGroup extends Service {
     /**
      * Process the response of append entries request
      * Update the commit position as the majority value of all replica's write position
+     * 同一个副本的多个请求的响应可能乱序到达，已匹配的副本的位置只前进不后退
      * @param response 写入记录响应
+     * @param replica 副本
+     * @param startPosition 请求的起始位置
+     * @param epoch 请求所属的流水线代数
      */
-    private synchronized void processAppendEntriesResponse(AppendEntriesResponse response, Replica replica) {
+    private synchronized void processAppendEntriesResponse(AppendEntriesResponse response, Replica replica,
+                                                           long startPosition, int epoch) {
         replica.lastAppendSuccessTime(SystemClock.now());
 
-        if (!response.isSuccess()) {
-            if (response.getNextPosition() == -1L) {
-                replica.nextPosition(getPrevPosition(replica.nextPosition()));
+        synchronized (replica) {
+            if (epoch != replica.epoch()) {
+                return;
+            }
+
+            if (!response.isSuccess()) {
+                replica.nextEpoch();
+                replica.setMatch(false);
+                if (response.getNextPosition() == -1L) {
+                    replica.nextPosition(getPrevPosition(startPosition));
+                } else {
+                    replica.nextPosition(getPrevPosition(response.getNextPosition()));
+                }
+                return;
+            }
+
+            if (replica.isMatch()) {
+                replica.writePosition(Math.max(replica.writePosition(), response.getWritePosition()));
+                replica.nextPosition(Math.max(replica.nextPosition(), response.getNextPosition()));
             } else {
-                replica.nextPosition(getPrevPosition(response.getNextPosition()));
+                replica.writePosition(response.getWritePosition());
+                replica.nextPosition(response.getNextPosition());
+                replica.setMatch(true);
             }
-            return;
         }
 
-        replica.writePosition(response.getWritePosition());
-        replica.nextPosition(response.getNextPosition());
-        replica.setMatch(true);
-
         if (transferee != ElectionNode.INVALID_NODE_ID && replica.nextPosition() >= timeoutNowPosition) {
             sendTimeoutNowRequest(transferee);
         }
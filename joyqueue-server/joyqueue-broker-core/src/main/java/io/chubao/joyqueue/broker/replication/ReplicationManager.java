@@ -33,6 +33,7 @@ import io.chubao.joyqueue.network.transport.config.ClientConfig;
 import io.chubao.joyqueue.network.transport.exception.TransportException;
 import io.chubao.joyqueue.network.transport.support.DefaultTransportAttribute;
 import io.chubao.joyqueue.store.StoreService;
+import io.chubao.joyqueue.store.WriteEvent;
 import io.chubao.joyqueue.store.replication.ReplicableStore;
 import io.chubao.joyqueue.toolkit.concurrent.EventListener;
 import io.chubao.joyqueue.toolkit.concurrent.NamedThreadFactory;
@@ -71,6 +72,7 @@ public class ReplicationManager extends Service {
     private ExecutorService replicateExecutor;
     private ScheduledExecutorService replicateTimerExecutor;
     private BlockingDeque replicateQueue;
+    private EventListener<WriteEvent> writeListener;
 
     public ReplicationManager(ElectionConfig electionConfig, StoreService storeService,
                               Consume consume, BrokerMonitor brokerMonitor) {
@@ -92,7 +94,7 @@ public class ReplicationManager extends Service {
         ClientConfig clientConfig = new ClientConfig();
         clientConfig.setIoThreadName("JournalqReplication-IO-EventLoop");
         clientConfig.setMaxAsync(2000);
-        clientConfig.setIoThread(64);
+        clientConfig.setIoThread(electionConfig.getReplicateIoThreadNum());
         clientConfig.setSocketBufferSize(1024 * 1024 * 1);
         transportClient = new BrokerTransportClientFactory().create(clientConfig);
         transportClient.start();
@@ -127,10 +129,18 @@ public class ReplicationManager extends Service {
                 }
             }
         }, 30, 30, TimeUnit.SECONDS);
+
+        // 写入消息后立即唤醒复制，不必等待复制线程轮询
+        writeListener = this::onWrite;
+        storeService.addWriteListener(writeListener);
     }
 
     @Override
     public void doStop() {
+        if (writeListener != null) {
+            storeService.removeWriteListener(writeListener);
+            writeListener = null;
+        }
         Close.close(transportClient);
         Close.close(replicateExecutor);
 
@@ -219,6 +229,13 @@ public class ReplicationManager extends Service {
         transport.async(command, timeout, callback);
     }
 
+    private void onWrite(WriteEvent event) {
+        ReplicaGroup replicaGroup = replicaGroups.get(new TopicPartitionGroup(event.getTopic(), event.getPartitionGroup()));
+        if (replicaGroup != null) {
+            replicaGroup.onWrite();
+        }
+    }
+
     private class ClientEventListener implements EventListener<TransportEvent> {
         @Override
         public void onEvent(TransportEvent event) {
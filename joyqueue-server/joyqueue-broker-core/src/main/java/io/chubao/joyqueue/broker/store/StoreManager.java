@@ -30,7 +30,10 @@ import io.chubao.joyqueue.toolkit.service.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 存储管理器
@@ -77,15 +80,18 @@ public class StoreManager extends Service implements BrokerContextAware, Propert
         int brokerId = clusterManager.getBrokerId();
         List<Replica> replicas = nameService.getReplicaByBroker(brokerId);
         if (null != replicas) {
+            // 收集所有需要恢复的分区组，由存储并行恢复
+            Map<String, List<Integer>> partitionGroups = new HashMap<>();
             for (Replica replica : replicas) {
                 PartitionGroup group = clusterManager.getPartitionGroupByGroup(replica.getTopic(),replica.getGroup());
                 if (group.getReplicas().contains(brokerId)) {
                     logger.info("begin restore topic {},group.no {} group {}",replica.getTopic().getFullName(),replica.getGroup(),group);
-                    storeService.restorePartitionGroup(group.getTopic().getFullName(), group.getGroup());
+                    partitionGroups.computeIfAbsent(group.getTopic().getFullName(), topic -> new ArrayList<>()).add(group.getGroup());
                     //electionService.onPartitionGroupCreate(group.getElectType(), group.getGroupTopic(), group.getGroup(),
                     //        new ArrayList<>(group.getBrokers().values()), group.getLearners(), brokerId, group.getLeader());
                 }
             }
+            storeService.restorePartitionGroups(partitionGroups);
         }
         storeCleanManager.start();
     }
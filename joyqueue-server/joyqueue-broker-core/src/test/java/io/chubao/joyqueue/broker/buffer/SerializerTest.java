@@ -126,4 +126,30 @@ public class SerializerTest {
         Assert.assertEquals(sendTime, 100l);
     }
 
+    @Test
+    public void readBodyAndExtension() throws Exception {
+        message.setSource((byte) 2);
+        message.setBatch(true);
+        message.setClientIp(IpUtil.toByte(new InetSocketAddress(50088)));
+        message.setBusinessId("businessId");
+        message.setText("text");
+        message.setAttribute("Test","TestTest");
+        message.setExtension("Test".getBytes());
+
+        int size = Serializer.sizeOf(message);
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        Serializer.write(message, buffer ,size);
+
+        Assert.assertEquals(2, Serializer.readSource(buffer));
+        Assert.assertTrue(Serializer.readBatch(buffer));
+        Assert.assertFalse(Serializer.readCompressed(buffer));
+        ByteBuffer body = Serializer.readBody(buffer);
+        byte[] bodyBytes = new byte[body.remaining()];
+        body.get(bodyBytes);
+        Assert.assertArrayEquals(message.getByteBody(), bodyBytes);
+        Assert.assertArrayEquals(message.getExtension(), Serializer.readExtension(buffer));
+        Assert.assertEquals(0, buffer.position());
+    }
+
 }
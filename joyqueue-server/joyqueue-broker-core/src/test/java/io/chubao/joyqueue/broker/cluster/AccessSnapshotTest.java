@@ -0,0 +1,60 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.broker.cluster;
+
+import io.chubao.joyqueue.exception.JoyQueueCode;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Collections;
+
+public class AccessSnapshotTest {
+
+    @Test
+    public void testCheck() {
+        BitSet leaderPartitions = new BitSet();
+        leaderPartitions.set(1);
+        leaderPartitions.set(3);
+        AccessSnapshot access = new AccessSnapshot(1L, Collections.singleton("10.0.0.1"), JoyQueueCode.FW_PUT_MESSAGE_TOPIC_NOT_WRITE,
+                leaderPartitions, JoyQueueCode.FW_PRODUCE_MESSAGE_BROKER_NOT_LEADER, JoyQueueCode.FW_PRODUCE_MESSAGE_BROKER_NOT_LEADER);
+
+        Assert.assertTrue(access.check("10.0.0.2").isSuccess());
+        Assert.assertTrue(access.check(null).isSuccess());
+        Assert.assertEquals(JoyQueueCode.FW_PUT_MESSAGE_TOPIC_NOT_WRITE, access.check("10.0.0.1").getJoyQueueCode());
+        Assert.assertEquals(JoyQueueCode.FW_PUT_MESSAGE_TOPIC_NOT_WRITE, access.check("10.0.0.1", (short) 1).getJoyQueueCode());
+
+        Assert.assertTrue(access.check("10.0.0.2", (short) 3).isSuccess());
+        Assert.assertEquals(JoyQueueCode.FW_PRODUCE_MESSAGE_BROKER_NOT_LEADER, access.check("10.0.0.2", (short) 2).getJoyQueueCode());
+        Assert.assertEquals(JoyQueueCode.FW_PRODUCE_MESSAGE_BROKER_NOT_LEADER, access.check("10.0.0.2", (short) -1).getJoyQueueCode());
+    }
+
+    @Test
+    public void testNoLeader() {
+        AccessSnapshot access = new AccessSnapshot(1L, null, JoyQueueCode.FW_GET_MESSAGE_APP_CLIENT_IP_NOT_READ,
+                new BitSet(), JoyQueueCode.FW_TOPIC_NO_PARTITIONGROUP, JoyQueueCode.FW_FETCH_TOPIC_MESSAGE_BROKER_NOT_LEADER);
+        Assert.assertEquals(JoyQueueCode.FW_TOPIC_NO_PARTITIONGROUP, access.check("10.0.0.1").getJoyQueueCode());
+        Assert.assertEquals(JoyQueueCode.FW_TOPIC_NO_PARTITIONGROUP, access.check("10.0.0.1", (short) 0).getJoyQueueCode());
+    }
+
+    @Test
+    public void testDenied() {
+        AccessSnapshot access = AccessSnapshot.denied(2L, JoyQueueCode.FW_FETCH_TOPIC_MESSAGE_PAUSED);
+        Assert.assertEquals(2L, access.getVersion());
+        Assert.assertEquals(JoyQueueCode.FW_FETCH_TOPIC_MESSAGE_PAUSED, access.check("10.0.0.1").getJoyQueueCode());
+        Assert.assertEquals(JoyQueueCode.FW_FETCH_TOPIC_MESSAGE_PAUSED, access.check("10.0.0.1", (short) 0).getJoyQueueCode());
+    }
+}
@@ -20,11 +20,14 @@ import io.chubao.joyqueue.broker.consumer.position.model.Position;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
-import org.junit.Ignore;
 import org.junit.Test;
 
+import io.chubao.joyqueue.toolkit.util.BaseDirUtils;
+
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.concurrent.ConcurrentMap;
 
 /**
@@ -32,7 +35,6 @@ import java.util.concurrent.ConcurrentMap;
  * <p>
  * Created by chengzhiliang on 2019/3/11.
  */
-@Ignore
 public class LocalFileStoreTest {
 
     // 本地文件存储
@@ -43,25 +45,15 @@ public class LocalFileStoreTest {
 
     @Before
     public void setup() throws Exception {
-        final String basePath = "LocalFileTest";
-        String property = "java.io.tmpdir";
-        String tempDir = System.getProperty(property);
-        base = new File(tempDir);
-        Assert.assertTrue(base.exists() && base.isDirectory() && base.canWrite());
-
-        deleteBaseFolder();
-        base.mkdirs();
+        base = BaseDirUtils.prepareBaseDir("local_file_store");
         localFileStore.setBasePath(base.getAbsolutePath());
         localFileStore.start();
     }
 
     @After
-    public void deleteBaseFolder() throws IOException {
+    public void deleteBaseFolder() {
         localFileStore.stop();
-        if (base.exists()) {
-            if (base.isDirectory()) deleteFolder(base);
-            else base.delete();
-        }
+        BaseDirUtils.destroyBaseDir(base);
     }
 
 
@@ -121,18 +113,113 @@ public class LocalFileStoreTest {
         Assert.assertEquals(position.toString(), positionVal.toString());
     }
 
-    private static void deleteFolder(File folder) {
-        File[] files = folder.listFiles();
-        if (files != null) { //some JVMs return null for empty dirs
-            for (File f : files) {
-                if (f.isDirectory()) {
-                    deleteFolder(f);
-                } else {
-                    f.delete();
-                }
+    @Test
+    public void incrementalFlush() throws Exception {
+        put();
+        localFileStore.forceFlush();
+        File journal = new File(base, "index.journal");
+        long length = journal.length();
+
+        // 没有变化时不写文件
+        localFileStore.forceFlush();
+        Assert.assertEquals(length, journal.length());
+
+        // 原地修改没有重新put时不写文件
+        position.setAckCurIndex(100);
+        localFileStore.forceFlush();
+        Assert.assertEquals(length, journal.length());
+
+        // 只写入重新put的位置
+        localFileStore.put(consumePartition, position);
+        localFileStore.forceFlush();
+        Assert.assertTrue(journal.length() > length);
+        Assert.assertTrue(journal.length() - length < 100);
+
+        ConsumePartition removed = new ConsumePartition("topic", "app", (short) 2);
+        localFileStore.put(removed, new Position(1, 1, 1, 1));
+        localFileStore.forceFlush();
+        localFileStore.remove(removed);
+
+        restart();
+        Assert.assertEquals(100, localFileStore.get(consumePartition).getAckCurIndex());
+        Assert.assertNull(localFileStore.get(removed));
+    }
+
+    @Test
+    public void compact() throws Exception {
+        // 日志超过合并阈值后合并成快照
+        for (int i = 0; i < 1000; i++) {
+            localFileStore.put(new ConsumePartition("topic_" + i, "app", (short) 0), new Position(i, i, i, i));
+        }
+        for (int i = 0; i < 200; i++) {
+            for (int j = 0; j < 1000; j++) {
+                ConsumePartition partition = new ConsumePartition("topic_" + j, "app", (short) 0);
+                Position position = localFileStore.get(partition);
+                position.setAckCurIndex(i * j);
+                localFileStore.put(partition, position);
             }
+            localFileStore.forceFlush();
+        }
+        Assert.assertTrue(new File(base, "index.journal").length() < 4 * 1024 * 1024L);
+
+        restart();
+        for (int j = 0; j < 1000; j++) {
+            Assert.assertEquals(199L * j, localFileStore.get(new ConsumePartition("topic_" + j, "app", (short) 0)).getAckCurIndex());
+        }
+    }
+
+    @Test
+    public void truncatedJournal() throws Exception {
+        put();
+        localFileStore.forceFlush();
+        position.setAckCurIndex(10);
+        localFileStore.put(consumePartition, position);
+        localFileStore.forceFlush();
+        localFileStore.stop();
+
+        // 模拟写了一半的记录
+        File journal = new File(base, "index.journal");
+        try (RandomAccessFile raf = new RandomAccessFile(journal, "rw")) {
+            raf.setLength(journal.length() - 3);
+        }
+        localFileStore = new LocalFileStore();
+        localFileStore.setBasePath(base.getAbsolutePath());
+        localFileStore.start();
+        Assert.assertEquals(0, localFileStore.get(consumePartition).getAckCurIndex());
+
+        // 截断后可以继续追加
+        localFileStore.put(consumePartition, new Position(0, 20, 0, 0));
+        restart();
+        Assert.assertEquals(20, localFileStore.get(consumePartition).getAckCurIndex());
+    }
+
+    @Test
+    public void recoverFromJson() throws Exception {
+        localFileStore.stop();
+        BaseDirUtils.destroyBaseDir(base);
+        base = BaseDirUtils.prepareBaseDir("local_file_store");
+        try (FileWriter writer = new FileWriter(new File(base, "index"))) {
+            writer.write("{{\"app\":\"app\",\"topic\":\"topic\"}:[{\"ackCurIndex\":5,\"ackStartIndex\":1,"
+                    + "\"partition\":1,\"partitionGroup\":0,\"pullCurIndex\":6,\"pullStartIndex\":2}]}");
         }
-        folder.delete();
+
+        localFileStore = new LocalFileStore();
+        localFileStore.setBasePath(base.getAbsolutePath());
+        localFileStore.start();
+        Assert.assertEquals(new Position(1, 5, 2, 6).toString(), localFileStore.get(consumePartition).toString());
+        // 旧版本的快照重命名保留
+        Assert.assertFalse(new File(base, "index").exists());
+        Assert.assertTrue(new File(base, "index.migrated").exists());
+
+        restart();
+        Assert.assertEquals(new Position(1, 5, 2, 6).toString(), localFileStore.get(consumePartition).toString());
+    }
+
+    private void restart() throws Exception {
+        localFileStore.stop();
+        localFileStore = new LocalFileStore();
+        localFileStore.setBasePath(base.getAbsolutePath());
+        localFileStore.start();
     }
 
-}
\ No newline at end of file
+}
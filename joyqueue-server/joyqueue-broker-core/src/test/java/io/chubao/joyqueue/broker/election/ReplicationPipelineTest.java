@@ -0,0 +1,231 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.broker.election;
+
+import io.chubao.joyqueue.broker.config.Configuration;
+import io.chubao.joyqueue.domain.Broker;
+import io.chubao.joyqueue.domain.PartitionGroup;
+import io.chubao.joyqueue.domain.TopicName;
+import io.chubao.joyqueue.store.Store;
+import io.chubao.joyqueue.store.StoreConfig;
+import io.chubao.joyqueue.store.replication.ReplicableStore;
+import io.chubao.joyqueue.toolkit.io.Files;
+import io.chubao.joyqueue.toolkit.network.IpUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * 流水线复制测试：每个复制请求只包含少量消息，使leader向每个副本同时发送多个复制请求
+ */
+public class ReplicationPipelineTest {
+    private static Logger logger = LoggerFactory.getLogger(ReplicationPipelineTest.class);
+
+    private final int NODE_NUM = 3;
+    // 每个复制请求最多4KB，保证流水线中同时有多个请求
+    private final String MAX_REPLICATE_LENGTH = String.valueOf(4 * 1024);
+    private final String MAX_REPLICATE_INFLIGHT = String.valueOf(4);
+
+    private ElectionManagerStub[] electionManager = new ElectionManagerStub[NODE_NUM];
+    private LeaderElection[] leaderElections = new LeaderElection[NODE_NUM];
+    private Broker[] brokers = new Broker[NODE_NUM];
+    private Store[] storeServices = new Store[NODE_NUM];
+    private List<Broker> allNodes = new LinkedList<>();
+
+    private TopicName topic1 = TopicName.parse("test");
+    private int partitionGroup1 = 1;
+    private short[] partitions = new short[]{0, 1, 2, 3, 4};
+
+    private ProduceTask produceTask;
+
+    private String getStoreDir() {
+        return System.getProperty("java.io.tmpdir") + File.separator + "store";
+    }
+
+    private String getElectionDir() {
+        return System.getProperty("java.io.tmpdir") + File.separator + "election";
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        String localIp = IpUtil.getLocalIp();
+
+        for (int i = 0; i < NODE_NUM; i++) {
+            Configuration conf = new Configuration();
+            conf.addProperty(ElectionConfigKey.MAX_BATCH_REPLICATE_SIZE.getName(), MAX_REPLICATE_LENGTH);
+            conf.addProperty(ElectionConfigKey.MAX_REPLICATE_INFLIGHT.getName(), MAX_REPLICATE_INFLIGHT);
+
+            StoreConfig storeConfig = new StoreConfig(conf);
+            storeConfig.setPath(getStoreDir() + i);
+            storeServices[i] = new Store(storeConfig);
+            storeServices[i].start();
+
+            ElectionConfig electionConfig = new ElectionConfig(conf);
+            electionConfig.setElectionMetaPath(getElectionDir() + i);
+            electionConfig.setListenPort("1800" + (i + 1));
+
+            electionManager[i] = new ElectionManagerStub(electionConfig, storeServices[i], new ConsumeStub());
+            electionManager[i].start();
+        }
+
+        for (int i = 0; i < NODE_NUM; i++) {
+            brokers[i] = new Broker();
+            brokers[i].setId(i + 1);
+            brokers[i].setIp(localIp);
+            brokers[i].setPort(18000 + i);
+            allNodes.add(brokers[i]);
+        }
+
+        for (int i = 0; i < NODE_NUM; i++) {
+            storeServices[i].createPartitionGroup(topic1.getFullName(), partitionGroup1, partitions);
+            createLeaderElection(i);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (produceTask != null) {
+            produceTask.stop(true);
+            produceTask = null;
+        }
+
+        for (int i = 0; i < NODE_NUM; i++) {
+            if (electionManager[i] != null) {
+                leaderElections[i] = electionManager[i].getLeaderElection(topic1, partitionGroup1);
+                if (leaderElections[i] != null) leaderElections[i].stop();
+                electionManager[i].onPartitionGroupRemove(topic1, partitionGroup1);
+                electionManager[i].stop();
+            }
+
+            if (storeServices[i] != null) {
+                storeServices[i].removePartitionGroup(topic1.getFullName(), partitionGroup1);
+                storeServices[i].stop();
+            }
+
+            Files.deleteDirectory(new File(getStoreDir() + i));
+            Files.deleteDirectory(new File(getElectionDir() + i));
+        }
+    }
+
+    private void createLeaderElection(int index) throws Exception {
+        electionManager[index].onPartitionGroupCreate(PartitionGroup.ElectType.raft,
+                topic1, partitionGroup1, allNodes, new TreeSet<>(), brokers[index].getId(), -1);
+        leaderElections[index] = electionManager[index].getLeaderElection(topic1, partitionGroup1);
+    }
+
+    private int getLeader(int waitTimes) throws InterruptedException {
+        int times = 0;
+        int leaderId = leaderElections[0].getLeaderId();
+        while (leaderId == -1 && times++ < waitTimes) {
+            Thread.sleep(1000);
+            leaderId = leaderElections[0].getLeaderId();
+        }
+        return leaderId;
+    }
+
+    private int follower(int leaderId) {
+        return leaderId == NODE_NUM ? 1 : leaderId + 1;
+    }
+
+    /**
+     * 等待所有副本追上leader，然后逐字节比较每个副本的日志
+     */
+    private void assertReplicated(int leaderId, int waitTimes) throws Exception {
+        ReplicableStore leaderStore = storeServices[leaderId - 1].getReplicableStore(topic1.getFullName(), partitionGroup1);
+        long rightPosition = leaderStore.rightPosition();
+        Assert.assertTrue(rightPosition > 0);
+
+        for (int i = 0; i < NODE_NUM; i++) {
+            ReplicableStore store = storeServices[i].getReplicableStore(topic1.getFullName(), partitionGroup1);
+            int times = 0;
+            while (store.rightPosition() < rightPosition && times++ < waitTimes) {
+                Thread.sleep(1000);
+            }
+            logger.info("Store {}'s left is {}, write position is {}, commit position is {}",
+                    i, store.leftPosition(), store.rightPosition(), store.commitPosition());
+            Assert.assertEquals(rightPosition, store.rightPosition());
+
+            long position = store.leftPosition();
+            while (position < rightPosition) {
+                ByteBuffer expected = leaderStore.readEntryBuffer(position, 1024 * 1024);
+                ByteBuffer actual = store.readEntryBuffer(position, expected.remaining());
+                Assert.assertEquals(expected, actual);
+                position += expected.remaining();
+            }
+        }
+
+        ReplicaGroup replicaGroup = leaderElections[leaderId - 1].getReplicaGroup();
+        for (int i = 0; i < NODE_NUM; i++) {
+            Assert.assertEquals(0L, replicaGroup.lagLength(brokers[i].getId()));
+        }
+        Assert.assertEquals(rightPosition, leaderStore.commitPosition());
+    }
+
+    @Test
+    public void testPipelineReplication() throws Exception {
+        int leaderId = getLeader(15);
+        Assert.assertNotEquals(-1, leaderId);
+        logger.info("Leader id is " + leaderId);
+
+        produceTask = new ProduceTask(storeServices[leaderId - 1], topic1, partitionGroup1);
+        produceTask.start();
+        Thread.sleep(5000);
+        produceTask.stop(true);
+        produceTask = null;
+
+        Assert.assertEquals(leaderId, leaderElections[0].getLeaderId());
+        assertReplicated(leaderId, 10);
+    }
+
+    @Test
+    public void testPipelineRollback() throws Exception {
+        int leaderId = getLeader(15);
+        Assert.assertNotEquals(-1, leaderId);
+        logger.info("Leader id is " + leaderId);
+
+        produceTask = new ProduceTask(storeServices[leaderId - 1], topic1, partitionGroup1);
+        produceTask.start();
+        Thread.sleep(3000);
+
+        // 停掉一个follower，发往它的请求全部失败，leader回滚流水线并重新探测
+        int followerId = follower(leaderId);
+        electionManager[followerId - 1].removeLeaderElection(topic1.getFullName(), partitionGroup1);
+        electionManager[followerId - 1].stop();
+        logger.info("Node " + followerId + " stop");
+        Thread.sleep(3000);
+
+        // follower恢复后从匹配的位置继续复制，期间leader持续写入
+        electionManager[followerId - 1].start();
+        createLeaderElection(followerId - 1);
+        logger.info("Node " + followerId + " start");
+        Thread.sleep(5000);
+
+        produceTask.stop(true);
+        produceTask = null;
+
+        Assert.assertEquals(leaderId, leaderElections[leaderId - 1].getLeaderId());
+        assertReplicated(leaderId, 20);
+    }
+}
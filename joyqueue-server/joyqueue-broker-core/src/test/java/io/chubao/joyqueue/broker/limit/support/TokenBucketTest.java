@@ -0,0 +1,73 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.broker.limit.support;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TokenBucketTest {
+
+    @Test
+    public void testBorrow() {
+        TokenBucket bucket = new TokenBucket(1);
+        // 与guava一致，没有预支时允许一次超额申请
+        Assert.assertTrue(bucket.tryAcquire(100));
+        Assert.assertFalse(bucket.tryAcquire(1));
+        Assert.assertTrue(bucket.tryAcquire(0));
+    }
+
+    @Test
+    public void testRefill() throws Exception {
+        TokenBucket bucket = new TokenBucket(100);
+        Assert.assertTrue(bucket.tryAcquire(1));
+        Thread.sleep(100);
+        Assert.assertTrue(bucket.tryAcquire(1));
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        TokenBucket bucket = new TokenBucket(1);
+        AtomicInteger acquired = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int j = 0; j < 100; j++) {
+                    if (bucket.tryAcquire(1)) {
+                        acquired.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertTrue(acquired.get() >= 1 && acquired.get() <= 2);
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.broker.polling;
+
+import io.chubao.joyqueue.broker.cluster.ClusterManager;
+import io.chubao.joyqueue.broker.consumer.Consume;
+import io.chubao.joyqueue.broker.consumer.model.PullResult;
+import io.chubao.joyqueue.broker.monitor.SessionManager;
+import io.chubao.joyqueue.network.session.Consumer;
+import io.chubao.joyqueue.store.WriteEvent;
+import io.chubao.joyqueue.toolkit.config.PropertySupplier;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class LongPollingManagerTest {
+    private static final String TOPIC = "test_topic";
+    private static final String APP = "test_app";
+
+    private final SessionManager sessionManager = Mockito.mock(SessionManager.class);
+    private final ClusterManager clusterManager = Mockito.mock(ClusterManager.class);
+    private final Consume consume = Mockito.mock(Consume.class);
+    private final Consumer consumer = new Consumer("1", TOPIC, APP);
+    private LongPollingManager longPollingManager;
+
+    @Before
+    public void before() throws Exception {
+        Map<String, Object> properties = new HashMap<>();
+        // 兜底扫描间隔足够长，确保测试中的唤醒来自写入事件
+        properties.put(LongPollingManager.LONG_POLLING_SCAN_INTERVAL, 60000L);
+        properties.put(LongPollingManager.LONG_POLLING_THREADS, 2);
+
+        Mockito.when(clusterManager.getMasterPartitionList(Mockito.any())).thenReturn(Arrays.asList((short) 0, (short) 1));
+        Mockito.when(sessionManager.getConsumerById(consumer.getId())).thenReturn(consumer);
+
+        longPollingManager = new LongPollingManager(sessionManager, clusterManager, consume, new PropertySupplier.MapSupplier(properties));
+        longPollingManager.start();
+    }
+
+    @After
+    public void after() {
+        longPollingManager.stop();
+    }
+
+    @Test
+    public void wakeupOnWriteTest() throws Exception {
+        Mockito.when(consume.getMessage(Mockito.eq(consumer), Mockito.anyInt(), Mockito.anyInt()))
+                .thenReturn(new PullResult(consumer, (short) 0, Collections.singletonList(ByteBuffer.allocate(1))));
+        LatchCallback callback = new LatchCallback();
+        // 避免挂起时因为最近有写入而立即拉取
+        Thread.sleep(LongPollingManager.RECENT_WRITE_WINDOW_MS);
+        Assert.assertTrue(longPollingManager.suspend(new LongPolling(consumer, 10, 1000, 30000L, callback)));
+        Assert.assertFalse(callback.success.await(200, TimeUnit.MILLISECONDS));
+
+        longPollingManager.onWrite(new WriteEvent(TOPIC, 0, new short[]{0}));
+        Assert.assertTrue(callback.success.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(0, longPollingManager.size.get());
+        Assert.assertEquals(0, longPollingManager.getCount(consumer).get());
+    }
+
+    @Test
+    public void reholdOnEmptyTest() throws Exception {
+        Mockito.when(consume.getMessage(Mockito.eq(consumer), Mockito.anyInt(), Mockito.anyInt()))
+                .thenReturn(new PullResult(consumer, (short) 0, Collections.emptyList()));
+        LatchCallback callback = new LatchCallback();
+        Assert.assertTrue(longPollingManager.suspend(new LongPolling(consumer, 10, 1000, 500L, callback)));
+
+        // 没有拉取到消息时重新挂起，直到过期
+        longPollingManager.onWrite(new WriteEvent(TOPIC, 0, new short[]{0}));
+        Assert.assertFalse(callback.expire.await(200, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(callback.expire.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(1, callback.success.getCount());
+        Assert.assertEquals(0, longPollingManager.size.get());
+    }
+
+    @Test
+    public void expireTest() throws Exception {
+        LatchCallback callback = new LatchCallback();
+        Assert.assertTrue(longPollingManager.suspend(new LongPolling(consumer, 10, 1000, 100L, callback)));
+        Assert.assertTrue(longPollingManager.suspend(new LongPolling(consumer, 10, 1000, 100L, new LatchCallback())));
+        // 长轮询数量不能超过主题队列数量
+        Assert.assertFalse(longPollingManager.suspend(new LongPolling(consumer, 10, 1000, 100L, new LatchCallback())));
+
+        Assert.assertTrue(callback.expire.await(1, TimeUnit.SECONDS));
+        // 其它主题的写入不会唤醒
+        longPollingManager.onWrite(new WriteEvent("other_topic", 0, new short[]{0}));
+        Mockito.verify(consume, Mockito.never()).getMessage(Mockito.any(Consumer.class), Mockito.anyInt(), Mockito.anyInt());
+    }
+
+    private static class LatchCallback implements LongPollingCallback {
+        private final CountDownLatch success = new CountDownLatch(1);
+        private final CountDownLatch expire = new CountDownLatch(1);
+
+        @Override
+        public void onSuccess(Consumer consumer, PullResult pullResult) {
+            success.countDown();
+        }
+
+        @Override
+        public void onExpire(Consumer consumer) {
+            expire.countDown();
+        }
+
+        @Override
+        public void onException(Consumer consumer, Throwable throwable) {
+        }
+    }
+}
@@ -21,6 +21,7 @@ import io.chubao.joyqueue.broker.kafka.coordinator.group.GroupCoordinator;
 import io.chubao.joyqueue.broker.kafka.coordinator.transaction.ProducerSequenceManager;
 import io.chubao.joyqueue.broker.kafka.coordinator.transaction.TransactionCoordinator;
 import io.chubao.joyqueue.broker.kafka.coordinator.transaction.TransactionIdManager;
+import io.chubao.joyqueue.broker.kafka.handler.delay.DelayedFetchManager;
 
 /**
  * KafkaContext
@@ -35,15 +36,17 @@ public class KafkaContext {
     private TransactionCoordinator transactionCoordinator;
     private TransactionIdManager transactionIdManager;
     private ProducerSequenceManager producerSequenceManager;
+    private DelayedFetchManager delayedFetchManager;
     private BrokerContext brokerContext;
 
     public KafkaContext(KafkaConfig config, GroupCoordinator groupCoordinator, TransactionCoordinator transactionCoordinator, TransactionIdManager transactionIdManager,
-                        ProducerSequenceManager producerSequenceManager, BrokerContext brokerContext) {
+                        ProducerSequenceManager producerSequenceManager, DelayedFetchManager delayedFetchManager, BrokerContext brokerContext) {
         this.config = config;
         this.groupCoordinator = groupCoordinator;
         this.transactionCoordinator = transactionCoordinator;
         this.transactionIdManager = transactionIdManager;
         this.producerSequenceManager = producerSequenceManager;
+        this.delayedFetchManager = delayedFetchManager;
         this.brokerContext = brokerContext;
     }
 
@@ -67,6 +70,10 @@ public class KafkaContext {
         return producerSequenceManager;
     }
 
+    public DelayedFetchManager getDelayedFetchManager() {
+        return delayedFetchManager;
+    }
+
     public BrokerContext getBrokerContext() {
         return brokerContext;
     }
@@ -64,6 +64,14 @@ public class KafkaConfig {
         return getConfig(KafkaConfigKey.FETCH_DELAY);
     }
 
+    public int getFetchDelayThreads() {
+        return getConfig(KafkaConfigKey.FETCH_DELAY_THREADS);
+    }
+
+    public boolean getFetchPassthrough() {
+        return getConfig(KafkaConfigKey.FETCH_PASSTHROUGH);
+    }
+
     public int getOffsetSyncTimeout() {
         return getConfig(KafkaConfigKey.OFFSET_SYNC_TIMEOUT);
     }
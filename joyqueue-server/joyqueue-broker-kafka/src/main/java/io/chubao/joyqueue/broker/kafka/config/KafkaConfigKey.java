@@ -62,6 +62,10 @@ public enum KafkaConfigKey implements PropertyDef {
     METADATA_DELAY("kafka.metadata.delay", true, Type.BOOLEAN),
     // 拉取延迟
     FETCH_DELAY("kafka.fetch.delay", true, Type.BOOLEAN),
+    // 延迟拉取的线程数，分区写入新消息后在这些线程中重新拉取
+    FETCH_DELAY_THREADS("kafka.fetch.delay.threads", Runtime.getRuntime().availableProcessors(), Type.INT),
+    // 拉取kafka客户端生产的V2批量消息时，直接使用存储的消息体，不做反序列化和转换
+    FETCH_PASSTHROUGH("kafka.fetch.passthrough", true, Type.BOOLEAN),
     // 写入超时
     PRODUCE_TIMEOUT("kafka.produce.timeout", 1000 * 3, Type.INT),
     // 通信acquire超时
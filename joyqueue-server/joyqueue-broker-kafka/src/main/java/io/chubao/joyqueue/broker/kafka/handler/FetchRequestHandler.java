@@ -32,8 +32,10 @@ import io.chubao.joyqueue.broker.kafka.command.FetchRequest;
 import io.chubao.joyqueue.broker.kafka.command.FetchResponse;
 import io.chubao.joyqueue.broker.kafka.config.KafkaConfig;
 import io.chubao.joyqueue.broker.kafka.converter.CheckResultConverter;
+import io.chubao.joyqueue.broker.kafka.handler.delay.DelayedFetchManager;
 import io.chubao.joyqueue.broker.kafka.helper.KafkaClientHelper;
 import io.chubao.joyqueue.broker.kafka.message.KafkaBrokerMessage;
+import io.chubao.joyqueue.broker.kafka.message.KafkaMessageSerializer;
 import io.chubao.joyqueue.broker.kafka.message.converter.KafkaMessageConverter;
 import io.chubao.joyqueue.broker.monitor.SessionManager;
 import io.chubao.joyqueue.broker.network.traffic.Traffic;
@@ -46,10 +48,9 @@ import io.chubao.joyqueue.network.session.Consumer;
 import io.chubao.joyqueue.network.transport.Transport;
 import io.chubao.joyqueue.network.transport.command.Command;
 import io.chubao.joyqueue.response.BooleanResponse;
-import io.chubao.joyqueue.toolkit.delay.AbstractDelayedOperation;
 import io.chubao.joyqueue.toolkit.delay.DelayedOperation;
 import io.chubao.joyqueue.toolkit.delay.DelayedOperationKey;
-import io.chubao.joyqueue.toolkit.delay.DelayedOperationManager;
+import io.chubao.joyqueue.toolkit.time.SystemClock;
 import org.apache.commons.collections.CollectionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -58,6 +59,8 @@ import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * FetchRequestHandler
@@ -74,7 +77,7 @@ public class FetchRequestHandler extends AbstractKafkaCommandHandler implements
     private ClusterManager clusterManager;
     private MessageConvertSupport messageConvertSupport;
     private SessionManager sessionManager;
-    private DelayedOperationManager<DelayedOperation> delayPurgatory;
+    private DelayedFetchManager delayedFetchManager;
 
     @Override
     public void setKafkaContext(KafkaContext kafkaContext) {
@@ -83,18 +86,33 @@ public class FetchRequestHandler extends AbstractKafkaCommandHandler implements
         this.clusterManager = kafkaContext.getBrokerContext().getClusterManager();
         this.messageConvertSupport = kafkaContext.getBrokerContext().getMessageConvertSupport();
         this.sessionManager = kafkaContext.getBrokerContext().getSessionManager();
-        this.delayPurgatory = new DelayedOperationManager<>("kafka-fetch-wait");
-        this.delayPurgatory.start();
+        this.delayedFetchManager = kafkaContext.getDelayedFetchManager();
     }
 
     @Override
     public Command handle(Transport transport, Command command) {
         FetchRequest fetchRequest = (FetchRequest) command.getPayload();
+        FetchResponse fetchResponse = fetch(transport, fetchRequest);
+        int currentBytes = getBytes(fetchResponse);
+
+        // 如果当前拉取消息量小于最小限制，那么延迟响应，等待分区写入新消息或者超时后重新拉取
+        if (config.getFetchDelay() && fetchRequest.getMinBytes() > currentBytes && fetchRequest.getMaxWait() > 0) {
+            if (delayFetch(transport, command, fetchResponse, SystemClock.now() + fetchRequest.getMaxWait())) {
+                return null;
+            }
+        }
+
+        return new Command(fetchResponse);
+    }
+
+    protected FetchResponse fetch(Transport transport, FetchRequest fetchRequest) {
         Map<String, List<FetchRequest.PartitionRequest>> partitionRequestMap = fetchRequest.getPartitionRequests();
         String clientId = KafkaClientHelper.parseClient(fetchRequest.getClientId());
         String clientIp = ((InetSocketAddress) transport.remoteAddress()).getHostString();
 //        IsolationLevel isolationLevel = IsolationLevel.valueOf(fetchRequest.getIsolationLevel());
         int maxBytes = fetchRequest.getMaxBytes();
+        boolean passthrough = config.getFetchPassthrough()
+                && KafkaMessageSerializer.getSupportedMagic(fetchRequest.getVersion()) >= KafkaMessageSerializer.MESSAGE_MAGIC_V2;
         Traffic traffic = new Traffic(clientId);
 
         Map<String, List<FetchResponse.PartitionResponse>> fetchPartitionResponseMap = Maps.newHashMapWithExpectedSize(partitionRequestMap.size());
@@ -122,7 +140,7 @@ public class FetchRequestHandler extends AbstractKafkaCommandHandler implements
 
                 long offset = partitionRequest.getOffset();
                 int partitionMaxBytes = partitionRequest.getMaxBytes();
-                FetchResponse.PartitionResponse partitionResponse = fetchMessage(transport, topic, partition, clientId, offset, partitionMaxBytes);
+                FetchResponse.PartitionResponse partitionResponse = fetchMessage(transport, topic, partition, clientId, offset, partitionMaxBytes, passthrough);
 
                 currentBytes += partitionResponse.getBytes();
                 partitionResponses.add(partitionResponse);
@@ -134,23 +152,55 @@ public class FetchRequestHandler extends AbstractKafkaCommandHandler implements
 
         FetchResponse fetchResponse = new FetchResponse();
         fetchResponse.setPartitionResponses(fetchPartitionResponseMap);
-        Command response = new Command(fetchResponse);
+        return fetchResponse;
+    }
 
-        // 如果当前拉取消息量小于最小限制，那么延迟响应
-        if (config.getFetchDelay() && fetchRequest.getMinBytes() > currentBytes && fetchRequest.getMaxWait() > 0) {
-            delayPurgatory.tryCompleteElseWatch(new AbstractDelayedOperation(fetchRequest.getMaxWait()) {
-                @Override
-                protected void onComplete() {
-                    transport.acknowledge(command, response);
+    /**
+     * 挂起拉取请求，按照主题分区监听消息写入
+     *
+     * @return 没有可以监听的分区时返回false，需要立即响应
+     */
+    protected boolean delayFetch(Transport transport, Command command, FetchResponse fetchResponse, long deadline) {
+        FetchRequest fetchRequest = (FetchRequest) command.getPayload();
+        String clientId = KafkaClientHelper.parseClient(fetchRequest.getClientId());
+        Connection connection = SessionHelper.getConnection(transport);
+        List<DelayedFetchPartition> partitions = Lists.newLinkedList();
+        Set<Object> watchKeys = Sets.newHashSet();
+
+        for (Map.Entry<String, List<FetchResponse.PartitionResponse>> entry : fetchResponse.getPartitionResponses().entrySet()) {
+            TopicName topic = TopicName.parse(entry.getKey());
+            Consumer consumer = sessionManager.getConsumerById(connection.getConsumer(topic.getFullName(), clientId));
+            if (consumer == null) {
+                continue;
+            }
+            for (FetchResponse.PartitionResponse partitionResponse : entry.getValue()) {
+                if (partitionResponse.getError() != KafkaErrorCode.NONE.getCode()) {
+                    continue;
                 }
-            }, Sets.newHashSet(new DelayedOperationKey()));
-            return null;
+                partitions.add(new DelayedFetchPartition(consumer, (short) partitionResponse.getPartition(), partitionResponse.getHighWater()));
+                watchKeys.add(new DelayedOperationKey(topic.getFullName(), partitionResponse.getPartition()));
+            }
         }
 
-        return response;
+        long delay = deadline - SystemClock.now();
+        if (watchKeys.isEmpty() || delay <= 0) {
+            return false;
+        }
+        delayedFetchManager.tryCompleteElseWatch(new DelayedFetch(delay, deadline, transport, command, fetchResponse, partitions), watchKeys);
+        return true;
     }
 
-    private FetchResponse.PartitionResponse fetchMessage(Transport transport, TopicName topic, int partition, String clientId, long offset, int maxBytes) {
+    protected int getBytes(FetchResponse fetchResponse) {
+        int bytes = 0;
+        for (List<FetchResponse.PartitionResponse> partitionResponses : fetchResponse.getPartitionResponses().values()) {
+            for (FetchResponse.PartitionResponse partitionResponse : partitionResponses) {
+                bytes += partitionResponse.getBytes();
+            }
+        }
+        return bytes;
+    }
+
+    private FetchResponse.PartitionResponse fetchMessage(Transport transport, TopicName topic, int partition, String clientId, long offset, int maxBytes, boolean passthrough) {
         Connection connection = SessionHelper.getConnection(transport);
         String consumerId = connection.getConsumer(topic.getFullName(), clientId);
         Consumer consumer = sessionManager.getConsumerById(consumerId);
@@ -169,9 +219,12 @@ public class FetchRequestHandler extends AbstractKafkaCommandHandler implements
 
         // 判断总体长度
         while (currentBytes < maxBytes && offset < maxIndex) {
-            List<BrokerMessage> messages = null;
+            List<KafkaBrokerMessage> messages = null;
             try {
-                messages = doFetchMessage(consumer, partition, offset, batchSize);
+                PullResult pullResult = consume.getMessage(consumer, (short) partition, offset, batchSize);
+                // 跳过已回滚的事务消息
+                offset += pullResult.getSkipped();
+                messages = doFetchMessage(topic, consumer, partition, offset, batchSize, passthrough, pullResult);
 
                 if (CollectionUtils.isEmpty(messages)) {
                     break;
@@ -180,10 +233,8 @@ public class FetchRequestHandler extends AbstractKafkaCommandHandler implements
                 short skipOffset = 0;
                 int currentBatchSize = 0;
 
-                // 消息转换
-                for (BrokerMessage message : messages) {
-                    currentBytes += message.getSize();
-                    KafkaBrokerMessage kafkaBrokerMessage = KafkaMessageConverter.toKafkaBrokerMessage(topic.getFullName(), partition, message);
+                for (KafkaBrokerMessage kafkaBrokerMessage : messages) {
+                    currentBytes += kafkaBrokerMessage.getSize();
                     kafkaBrokerMessages.add(kafkaBrokerMessage);
 
                     // 如果是批量，跳过批量条数
@@ -216,8 +267,8 @@ public class FetchRequestHandler extends AbstractKafkaCommandHandler implements
         return fetchResponsePartitionData;
     }
 
-    private List<BrokerMessage> doFetchMessage(Consumer consumer, int partition, long offset, int batchSize) throws Exception {
-        PullResult pullResult = consume.getMessage(consumer, (short) partition, offset, batchSize);
+    private List<KafkaBrokerMessage> doFetchMessage(TopicName topic, Consumer consumer, int partition, long offset, int batchSize, boolean passthrough,
+                                                    PullResult pullResult) throws Exception {
         if (pullResult.getCode() != JoyQueueCode.SUCCESS) {
             logger.warn("fetch message error, consumer: {}, partition: {}, offset: {}, batchSize: {}, code: {}", consumer, partition, offset, batchSize, pullResult.getCode());
             return null;
@@ -225,12 +276,106 @@ public class FetchRequestHandler extends AbstractKafkaCommandHandler implements
         if (pullResult.size() == 0) {
             return null;
         }
-        List<BrokerMessage> brokerMessages = Lists.newArrayListWithCapacity(pullResult.getBuffers().size());
+        List<KafkaBrokerMessage> result = Lists.newArrayListWithCapacity(pullResult.getBuffers().size());
+        List<BrokerMessage> brokerMessages = Lists.newLinkedList();
         for (ByteBuffer buffer : pullResult.getBuffers()) {
-            BrokerMessage brokerMessage = Serializer.readBrokerMessage(buffer);
-            brokerMessages.add(brokerMessage);
+            // kafka客户端生产的批量消息直接使用存储的消息体，其它消息反序列化后转换
+            KafkaBrokerMessage kafkaBrokerMessage = (passthrough ? KafkaMessageConverter.toKafkaBrokerMessage(buffer) : null);
+            if (kafkaBrokerMessage == null) {
+                brokerMessages.add(Serializer.readBrokerMessage(buffer));
+                continue;
+            }
+            convertMessages(topic, partition, brokerMessages, result);
+            result.add(kafkaBrokerMessage);
+        }
+        convertMessages(topic, partition, brokerMessages, result);
+        return result;
+    }
+
+    private void convertMessages(TopicName topic, int partition, List<BrokerMessage> brokerMessages, List<KafkaBrokerMessage> result) {
+        if (brokerMessages.isEmpty()) {
+            return;
+        }
+        for (BrokerMessage message : messageConvertSupport.convert(brokerMessages, SourceType.KAFKA.getValue())) {
+            KafkaBrokerMessage kafkaBrokerMessage = KafkaMessageConverter.toKafkaBrokerMessage(topic.getFullName(), partition, message);
+            kafkaBrokerMessage.setSize(message.getSize());
+            result.add(kafkaBrokerMessage);
+        }
+        brokerMessages.clear();
+    }
+
+    /**
+     * 挂起的拉取请求
+     * 监听的分区写入新消息，或者超时后，在线程池中重新拉取，满足最小拉取量或者超时后响应，否则继续挂起
+     */
+    protected class DelayedFetch extends DelayedOperation {
+
+        private long deadline;
+        private Transport transport;
+        private Command command;
+        private FetchResponse fetchResponse;
+        private List<DelayedFetchPartition> partitions;
+
+        public DelayedFetch(long delayMs, long deadline, Transport transport, Command command,
+                            FetchResponse fetchResponse, List<DelayedFetchPartition> partitions) {
+            super(delayMs);
+            this.deadline = deadline;
+            this.transport = transport;
+            this.command = command;
+            this.fetchResponse = fetchResponse;
+            this.partitions = partitions;
+        }
+
+        @Override
+        protected boolean tryComplete() {
+            for (DelayedFetchPartition partition : partitions) {
+                if (consume.getMaxIndex(partition.consumer, partition.partition) > partition.highWater) {
+                    return forceComplete();
+                }
+            }
+            return false;
+        }
+
+        @Override
+        protected void onComplete() {
+            try {
+                delayedFetchManager.execute(this::refetch);
+            } catch (RejectedExecutionException e) {
+                logger.warn("delayed fetch rejected, transport: {}", transport);
+                transport.acknowledge(command, new Command(fetchResponse));
+            }
+        }
+
+        @Override
+        protected void onExpiration() {
+        }
+
+        protected void refetch() {
+            FetchRequest fetchRequest = (FetchRequest) command.getPayload();
+            FetchResponse response = fetchResponse;
+            try {
+                response = fetch(transport, fetchRequest);
+                if (getBytes(response) < fetchRequest.getMinBytes() && delayFetch(transport, command, response, deadline)) {
+                    return;
+                }
+            } catch (Exception e) {
+                logger.error("delayed fetch exception, transport: {}", transport, e);
+            }
+            transport.acknowledge(command, new Command(response));
+        }
+    }
+
+    protected static class DelayedFetchPartition {
+
+        private Consumer consumer;
+        private short partition;
+        private long highWater;
+
+        public DelayedFetchPartition(Consumer consumer, short partition, long highWater) {
+            this.consumer = consumer;
+            this.partition = partition;
+            this.highWater = highWater;
         }
-        return messageConvertSupport.convert(brokerMessages, SourceType.KAFKA.getValue());
     }
 
     @Override
@@ -0,0 +1,104 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.broker.kafka.handler.delay;
+
+import io.chubao.joyqueue.broker.kafka.config.KafkaConfig;
+import io.chubao.joyqueue.store.StoreService;
+import io.chubao.joyqueue.store.WriteEvent;
+import io.chubao.joyqueue.toolkit.concurrent.EventListener;
+import io.chubao.joyqueue.toolkit.concurrent.NamedThreadFactory;
+import io.chubao.joyqueue.toolkit.delay.DelayedOperation;
+import io.chubao.joyqueue.toolkit.delay.DelayedOperationKey;
+import io.chubao.joyqueue.toolkit.delay.DelayedOperationManager;
+import io.chubao.joyqueue.toolkit.service.Service;
+
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 挂起的拉取请求
+ * <p>
+ * 按照主题分区监听存储的消息写入，写入后完成监听该分区的拉取请求，
+ * 完成后的重新拉取在单独的线程池中执行，不占用存储的写入线程。
+ */
+public class DelayedFetchManager extends Service {
+
+    private KafkaConfig config;
+    private StoreService storeService;
+
+    private DelayedOperationManager<DelayedOperation> delayPurgatory;
+    private ExecutorService delayFetchExecutor;
+    private EventListener<WriteEvent> writeListener = this::onWrite;
+
+    public DelayedFetchManager(KafkaConfig config, StoreService storeService) {
+        this.config = config;
+        this.storeService = storeService;
+    }
+
+    @Override
+    protected void validate() throws Exception {
+        delayPurgatory = new DelayedOperationManager<>("kafka-fetch-wait");
+        delayFetchExecutor = Executors.newFixedThreadPool(config.getFetchDelayThreads(), new NamedThreadFactory("joyqueue-kafka-delayed-fetch"));
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        delayPurgatory.start();
+        storeService.addWriteListener(writeListener);
+    }
+
+    @Override
+    protected void doStop() {
+        storeService.removeWriteListener(writeListener);
+        if (delayPurgatory != null) {
+            delayPurgatory.shutdown();
+        }
+        if (delayFetchExecutor != null) {
+            delayFetchExecutor.shutdown();
+        }
+    }
+
+    /**
+     * 挂起拉取请求，监听的分区写入消息或者超时后完成
+     */
+    public boolean tryCompleteElseWatch(DelayedOperation operation, Set<Object> watchKeys) {
+        return delayPurgatory.tryCompleteElseWatch(operation, watchKeys);
+    }
+
+    /**
+     * 在线程池中重新拉取
+     *
+     * @throws java.util.concurrent.RejectedExecutionException 已经停止
+     */
+    public void execute(Runnable command) {
+        delayFetchExecutor.execute(command);
+    }
+
+    /**
+     * 存储写入消息后回调，尝试完成监听该分区的拉取请求
+     */
+    protected void onWrite(WriteEvent event) {
+        short lastPartition = -1;
+        for (short partition : event.getPartitions()) {
+            if (partition == lastPartition) {
+                continue;
+            }
+            lastPartition = partition;
+            delayPurgatory.checkAndComplete(new DelayedOperationKey(event.getTopic(), partition));
+        }
+    }
+}
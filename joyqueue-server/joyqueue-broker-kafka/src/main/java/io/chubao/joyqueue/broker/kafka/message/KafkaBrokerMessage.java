@@ -15,6 +15,7 @@
  */
 package io.chubao.joyqueue.broker.kafka.message;
 
+import java.nio.ByteBuffer;
 import java.util.Map;
 
 /**
@@ -35,6 +36,8 @@ public class KafkaBrokerMessage {
     private long timestamp;
     private byte[] key;
     private byte[] value;
+    // 直接引用存储中的消息体，拉取时不复制
+    private ByteBuffer valueBuffer;
     private long offset;
     private boolean batch;
     private short flag;
@@ -94,6 +97,11 @@ public class KafkaBrokerMessage {
     }
 
     public byte[] getValue() {
+        if (value == null && valueBuffer != null) {
+            byte[] bytes = new byte[valueBuffer.remaining()];
+            valueBuffer.duplicate().get(bytes);
+            value = bytes;
+        }
         return value;
     }
 
@@ -101,6 +109,14 @@ public class KafkaBrokerMessage {
         this.value = value;
     }
 
+    public ByteBuffer getValueBuffer() {
+        return valueBuffer;
+    }
+
+    public void setValueBuffer(ByteBuffer valueBuffer) {
+        this.valueBuffer = valueBuffer;
+    }
+
     public long getOffset() {
         return offset;
     }
@@ -92,7 +92,7 @@ public class KafkaMessageSerializer extends AbstractKafkaMessageSerializer {
         }
     }
 
-    protected static byte getSupportedMagic(short version) {
+    public static byte getSupportedMagic(short version) {
         if (version <= 1) {
             return MESSAGE_MAGIC_V0;
         } else if (version <= 3) {
@@ -15,6 +15,9 @@
  */
 package io.chubao.joyqueue.broker.kafka.message.compressor;
 
+import com.github.luben.zstd.RecyclingBufferPool;
+import com.github.luben.zstd.ZstdInputStreamNoFinalizer;
+import com.github.luben.zstd.ZstdOutputStreamNoFinalizer;
 import io.chubao.joyqueue.broker.kafka.message.compressor.lz4.KafkaLZ4BlockInputStream;
 import io.chubao.joyqueue.broker.kafka.message.compressor.lz4.KafkaLZ4BlockOutputStream;
 import io.chubao.joyqueue.broker.kafka.message.exception.UnknownCodecException;
@@ -43,6 +46,8 @@ public final class KafkaCompressionCodecFactory {
                 return new SnappyOutputStream(stream);
             case LZ4CompressionCodec:
                 return new KafkaLZ4BlockOutputStream(stream);
+            case ZStdCompressionCodec:
+                return new ZstdOutputStreamNoFinalizer(stream, RecyclingBufferPool.INSTANCE);
             default:
                 throw new UnknownCodecException(String.format("unknown codec: %s", codec));
         }
@@ -56,6 +61,9 @@ public final class KafkaCompressionCodecFactory {
                 return new SnappyInputStream(stream);
             case LZ4CompressionCodec:
                 return new KafkaLZ4BlockInputStream(stream, messageMagic == 0); // RecordBatch.MAGIC_VALUE_V0
+            case ZStdCompressionCodec:
+                // 使用可回收的缓冲池，避免每批消息重新分配解压缓冲区
+                return new ZstdInputStreamNoFinalizer(stream, RecyclingBufferPool.INSTANCE);
             default:
                 throw new UnknownCodecException(String.format("unknown codec: %s", codec));
         }
@@ -17,8 +17,10 @@ package io.chubao.joyqueue.broker.kafka.message.converter;
 
 import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
+import io.chubao.joyqueue.broker.buffer.Serializer;
 import io.chubao.joyqueue.broker.kafka.message.KafkaBrokerMessage;
 import io.chubao.joyqueue.broker.kafka.message.KafkaMessageSerializer;
+import io.chubao.joyqueue.broker.kafka.message.serializer.KafkaMessageV2Serializer;
 import io.chubao.joyqueue.message.BrokerMessage;
 import io.chubao.joyqueue.message.SourceType;
 import io.chubao.joyqueue.toolkit.network.IpUtil;
@@ -27,6 +29,7 @@ import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 
@@ -58,6 +61,34 @@ public class KafkaMessageConverter {
         return kafkaBrokerMessage;
     }
 
+    /**
+     * 直接从存储的消息构造kafka批量消息，不反序列化整条消息，消息体引用存储的数据。
+     * 只支持kafka客户端生产的V2批量消息，其它消息返回null
+     *
+     * @param buffer 存储的消息
+     * @return kafka批量消息
+     */
+    public static KafkaBrokerMessage toKafkaBrokerMessage(ByteBuffer buffer) {
+        if (Serializer.readSource(buffer) != SourceType.KAFKA.getValue()
+                || !Serializer.readBatch(buffer) || Serializer.readCompressed(buffer)) {
+            return null;
+        }
+        byte[] extension = Serializer.readExtension(buffer);
+        if (!KafkaMessageV2Serializer.isCurrentExtension(extension)) {
+            return null;
+        }
+        KafkaBrokerMessage kafkaBrokerMessage = new KafkaBrokerMessage();
+        kafkaBrokerMessage.setOffset(Serializer.readIndex(buffer));
+        kafkaBrokerMessage.setValueBuffer(Serializer.readBody(buffer));
+        kafkaBrokerMessage.setBatch(true);
+        kafkaBrokerMessage.setFlag(Serializer.readFlag(buffer));
+        kafkaBrokerMessage.setSize(buffer.remaining());
+        kafkaBrokerMessage.setMagic(KafkaMessageSerializer.readExtensionMagic(extension));
+        kafkaBrokerMessage.setTimestamp(KafkaMessageSerializer.readExtensionTimestamp(extension));
+        kafkaBrokerMessage.setAttribute(KafkaMessageSerializer.readExtensionAttribute(extension));
+        return kafkaBrokerMessage;
+    }
+
     public static List<BrokerMessage> toBrokerMessages(String topic, int partition, String clientId, InetSocketAddress clientAddress, List<KafkaBrokerMessage> kafkaBrokerMessages) {
         List<BrokerMessage> result = Lists.newLinkedList();
         byte[] clientAddressBytes = IpUtil.toByte(clientAddress);
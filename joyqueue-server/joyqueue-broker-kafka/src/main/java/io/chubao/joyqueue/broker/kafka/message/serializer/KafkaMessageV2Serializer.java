@@ -43,6 +43,9 @@ public class KafkaMessageV2Serializer extends AbstractKafkaMessageSerializer {
 
     private static final byte CURRENT_MAGIC = MESSAGE_MAGIC_V2;
 
+    // attribute到messageCount之间的批量头长度，参与crc计算
+    private static final int BATCH_HEADER_CRC_LENGTH = 2 + 4 + 8 + 8 + 8 + 2 + 4 + 4;
+
     public static void writeExtension(BrokerMessage brokerMessage, KafkaBrokerMessage kafkaBrokerMessage) {
         byte[] extension = new byte[CURRENT_EXTENSION_LENGTH];
         writeExtensionMagic(extension, CURRENT_MAGIC);
@@ -69,6 +72,14 @@ public class KafkaMessageV2Serializer extends AbstractKafkaMessageSerializer {
         }
     }
 
+    /**
+     * 判断扩展字段是否是V2批量消息，满足时可以直接使用存储的消息体
+     */
+    public static boolean isCurrentExtension(byte[] extension) {
+        return extension != null && extension.length == CURRENT_EXTENSION_LENGTH
+                && readExtensionMagic(extension) == CURRENT_MAGIC;
+    }
+
     public static void writeMessage(ByteBuf buffer, KafkaBrokerMessage message) throws Exception {
         buffer.writeLong(message.getOffset()); // baseOffset
         int sizeIndex = buffer.writerIndex();
@@ -90,18 +101,26 @@ public class KafkaMessageV2Serializer extends AbstractKafkaMessageSerializer {
 //        buffer.setInt(offsetIndex, (int) (lastMessage.getOffset() - firstMessage.getOffset()));
 //        buffer.setLong(offsetIndex + 4 + 8, lastMessage.getTimestamp());
 
-        buffer.writeBytes(message.getValue());
+        // 计算crc，从crc开始后的全部数据，消息体直接从源数据计算，不从buffer中复制
+        byte[] header = new byte[BATCH_HEADER_CRC_LENGTH];
+        buffer.getBytes(crcIndex + 4, header);
+        PureJavaCrc32C crc32c = new PureJavaCrc32C();
+        crc32c.update(header, 0, header.length);
+
+        ByteBuffer valueBuffer = message.getValueBuffer();
+        if (valueBuffer != null) {
+            crc32c.update(valueBuffer);
+            buffer.writeBytes(valueBuffer.duplicate());
+        } else {
+            byte[] value = message.getValue();
+            crc32c.update(value, 0, value.length);
+            buffer.writeBytes(value);
+        }
 
         // 计算整体长度
         int endIndex = buffer.writerIndex();
         buffer.setInt(sizeIndex, endIndex - sizeIndex - 4);
 
-        // 计算crc，从crc开始后的全部数据
-        byte[] bytes = new byte[endIndex - crcIndex - 4];
-        buffer.getBytes(crcIndex + 4, bytes);
-
-        PureJavaCrc32C crc32c = new PureJavaCrc32C();
-        crc32c.update(bytes, 0, bytes.length);
         long crc = crc32c.getValue();
         buffer.setInt(crcIndex, (int) (crc & 0xffffffffL));
     }
@@ -38,6 +38,7 @@ import io.chubao.joyqueue.broker.kafka.coordinator.transaction.completion.Transa
 import io.chubao.joyqueue.broker.kafka.coordinator.transaction.completion.TransactionCompletionScheduler;
 import io.chubao.joyqueue.broker.kafka.coordinator.transaction.log.TransactionLog;
 import io.chubao.joyqueue.broker.kafka.coordinator.transaction.synchronizer.TransactionSynchronizer;
+import io.chubao.joyqueue.broker.kafka.handler.delay.DelayedFetchManager;
 import io.chubao.joyqueue.broker.kafka.manage.KafkaManageServiceFactory;
 import io.chubao.joyqueue.broker.kafka.network.helper.KafkaProtocolHelper;
 import io.chubao.joyqueue.broker.kafka.session.KafkaConnectionHandler;
@@ -87,6 +88,7 @@ public class KafkaProtocol extends Service implements ProtocolService, BrokerCon
     private TransactionHandler transactionHandler;
     private TransactionOffsetHandler transactionOffsetHandler;
     private TransactionCoordinator transactionCoordinator;
+    private DelayedFetchManager delayedFetchManager;
     private KafkaConnectionManager connectionManager;
 
     private KafkaConnectionHandler connectionHandler;
@@ -122,12 +124,13 @@ public class KafkaProtocol extends Service implements ProtocolService, BrokerCon
         this.transactionOffsetHandler = new TransactionOffsetHandler(coordinator, this.transactionMetadataManager, transactionSynchronizer);
         this.transactionCoordinator = new TransactionCoordinator(coordinator, this.transactionMetadataManager, transactionHandler, transactionOffsetHandler);
 
+        this.delayedFetchManager = new DelayedFetchManager(config, brokerContext.getStoreService());
         this.connectionManager = new KafkaConnectionManager(brokerContext.getSessionManager());
 
         this.connectionHandler = new KafkaConnectionHandler(connectionManager);
         this.transportHandler = new KafkaTransportHandler(config);
 
-        this.kafkaContext = new KafkaContext(config, groupCoordinator, transactionCoordinator, transactionIdManager, producerSequenceManager, brokerContext);
+        this.kafkaContext = new KafkaContext(config, groupCoordinator, transactionCoordinator, transactionIdManager, producerSequenceManager, delayedFetchManager, brokerContext);
         registerManage(brokerContext, kafkaContext);
     }
 
@@ -152,10 +155,14 @@ public class KafkaProtocol extends Service implements ProtocolService, BrokerCon
         transactionOffsetHandler.start();
         transactionCompletionHandler.start();
         transactionCompletionScheduler.start();
+
+        delayedFetchManager.start();
     }
 
     @Override
     protected void doStop() {
+        delayedFetchManager.stop();
+
         groupCoordinator.stop();
         groupOffsetManager.stop();
         groupBalanceManager.stop();
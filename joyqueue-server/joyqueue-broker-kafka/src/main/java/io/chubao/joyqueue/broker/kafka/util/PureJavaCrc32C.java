@@ -15,6 +15,8 @@
  */
 package io.chubao.joyqueue.broker.kafka.util;
 
+import java.nio.ByteBuffer;
+
 public class PureJavaCrc32C {
 
     /** the current CRC value, bit-flipped */
@@ -33,6 +35,19 @@ public class PureJavaCrc32C {
         crc = 0xffffffff;
     }
 
+    /**
+     * 计算buffer中position到limit之间的数据，不改变buffer的position
+     */
+    public void update(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.duplicate().get(bytes);
+            update(bytes, 0, bytes.length);
+        }
+    }
+
     public void update(byte[] b, int off, int len) {
         int localCrc = crc;
 
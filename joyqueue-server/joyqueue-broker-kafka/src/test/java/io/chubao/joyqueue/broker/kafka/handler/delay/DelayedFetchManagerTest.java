@@ -0,0 +1,151 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.broker.kafka.handler.delay;
+
+import io.chubao.joyqueue.broker.kafka.config.KafkaConfig;
+import io.chubao.joyqueue.store.StoreService;
+import io.chubao.joyqueue.store.WriteEvent;
+import io.chubao.joyqueue.toolkit.concurrent.EventListener;
+import io.chubao.joyqueue.toolkit.config.PropertySupplier;
+import io.chubao.joyqueue.toolkit.delay.DelayedOperation;
+import io.chubao.joyqueue.toolkit.delay.DelayedOperationKey;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DelayedFetchManagerTest
+ */
+public class DelayedFetchManagerTest {
+
+    private static final String TOPIC = "test_topic";
+
+    private final StoreService storeService = Mockito.mock(StoreService.class);
+    // 模拟存储中每个分区的最大序号
+    private final Map<Short, AtomicLong> maxIndexes = new ConcurrentHashMap<>();
+    private volatile EventListener<WriteEvent> writeListener;
+    private volatile EventListener<WriteEvent> removedListener;
+    private DelayedFetchManager delayedFetchManager;
+
+    @Before
+    public void before() throws Exception {
+        Mockito.doAnswer(invocation -> {
+            writeListener = invocation.getArgument(0);
+            return null;
+        }).when(storeService).addWriteListener(Mockito.any());
+        Mockito.doAnswer(invocation -> {
+            removedListener = invocation.getArgument(0);
+            return null;
+        }).when(storeService).removeWriteListener(Mockito.any());
+
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("kafka.fetch.delay.threads", 2);
+        delayedFetchManager = new DelayedFetchManager(new KafkaConfig(new PropertySupplier.MapSupplier(properties)), storeService);
+        delayedFetchManager.start();
+    }
+
+    @After
+    public void after() {
+        delayedFetchManager.stop();
+    }
+
+    @Test
+    public void completeOnWriteTest() throws Exception {
+        CompletableFuture<Long> response = new CompletableFuture<>();
+        TestDelayedFetch delayedFetch = new TestDelayedFetch(60 * 1000, (short) 1, getMaxIndex((short) 1), response);
+        Assert.assertFalse(delayedFetchManager.tryCompleteElseWatch(delayedFetch, Collections.singleton(new DelayedOperationKey(TOPIC, (short) 1))));
+        Assert.assertNotNull(writeListener);
+
+        // 写入其它分区不会唤醒
+        write((short) 2, 1);
+        Thread.sleep(100);
+        Assert.assertFalse(response.isDone());
+
+        // 写入监听的分区后在超时之前完成，响应按照完成时的存储状态重新构建
+        write((short) 1, 3);
+        Assert.assertEquals(3, (long) response.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void stopTest() throws Exception {
+        EventListener<WriteEvent> listener = writeListener;
+        delayedFetchManager.stop();
+        Assert.assertSame(listener, removedListener);
+
+        try {
+            delayedFetchManager.execute(() -> {
+            });
+            Assert.fail("executor should be shutdown");
+        } catch (RejectedExecutionException e) {
+        }
+    }
+
+    protected void write(short partition, int count) {
+        maxIndexes.computeIfAbsent(partition, key -> new AtomicLong()).addAndGet(count);
+        short[] partitions = new short[count];
+        Arrays.fill(partitions, partition);
+        writeListener.onEvent(new WriteEvent(TOPIC, 0, partitions));
+    }
+
+    protected long getMaxIndex(short partition) {
+        AtomicLong maxIndex = maxIndexes.get(partition);
+        return (maxIndex == null ? 0 : maxIndex.get());
+    }
+
+    protected class TestDelayedFetch extends DelayedOperation {
+
+        private short partition;
+        private long highWater;
+        private CompletableFuture<Long> response;
+
+        public TestDelayedFetch(long delayMs, short partition, long highWater, CompletableFuture<Long> response) {
+            super(delayMs);
+            this.partition = partition;
+            this.highWater = highWater;
+            this.response = response;
+        }
+
+        @Override
+        protected boolean tryComplete() {
+            if (getMaxIndex(partition) > highWater) {
+                return forceComplete();
+            }
+            return false;
+        }
+
+        @Override
+        protected void onComplete() {
+            delayedFetchManager.execute(() -> response.complete(getMaxIndex(partition)));
+        }
+
+        @Override
+        protected void onExpiration() {
+            response.completeExceptionally(new IllegalStateException("expired"));
+        }
+    }
+}
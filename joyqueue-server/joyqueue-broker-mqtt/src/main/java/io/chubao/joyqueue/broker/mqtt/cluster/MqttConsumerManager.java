@@ -15,52 +15,72 @@
  */
 package io.chubao.joyqueue.broker.mqtt.cluster;
 
+import io.chubao.joyqueue.broker.BrokerContext;
+import io.chubao.joyqueue.broker.buffer.Serializer;
 import io.chubao.joyqueue.broker.consumer.Consume;
-import io.chubao.joyqueue.broker.mqtt.connection.MqttConnection;
+import io.chubao.joyqueue.broker.consumer.model.PullResult;
+import io.chubao.joyqueue.broker.mqtt.publish.MessagePublisher;
 import io.chubao.joyqueue.broker.mqtt.session.MqttSession;
+import io.chubao.joyqueue.broker.mqtt.subscriptions.MqttSubscription;
+import io.chubao.joyqueue.broker.mqtt.subscriptions.TopicTrie;
 import io.chubao.joyqueue.exception.JoyQueueException;
 import io.chubao.joyqueue.message.BrokerMessage;
 import io.chubao.joyqueue.network.session.Consumer;
-import io.chubao.joyqueue.broker.BrokerContext;
-import io.chubao.joyqueue.broker.mqtt.publish.MessagePublisher;
-import io.chubao.joyqueue.broker.mqtt.subscriptions.MqttSubscription;
-import io.chubao.joyqueue.broker.mqtt.util.PollSelector;
-import io.chubao.joyqueue.broker.mqtt.util.Selector;
+import io.chubao.joyqueue.store.StoreService;
+import io.chubao.joyqueue.store.WriteEvent;
+import io.chubao.joyqueue.toolkit.concurrent.EventListener;
 import io.chubao.joyqueue.toolkit.concurrent.NamedThreadFactory;
-import com.google.common.base.Strings;
 import io.chubao.joyqueue.toolkit.service.Service;
+import io.netty.handler.codec.mqtt.MqttQoS;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * 订阅按主题过滤器索引在前缀树中，消息按主题分组推送：
+ * 同一主题、同一应用的所有会话组成一个推送组，由推送组统一拉取消息，读取一次后推送给组内所有匹配的会话。
+ * 主题有新消息写入时触发对应的推送组，另外定时触发一次，用于推送订阅之前的积压消息和超时重投的消息。
+ *
  * @author majun8
  */
 public class MqttConsumerManager extends Service {
     private static final Logger LOG = LoggerFactory.getLogger(MqttConsumerManager.class);
 
     private static int CONSUME_THREAD_TOTAL = 10;
-    private static int ASYNC_PUB_THREAD_TOTAL = 100;
     private static int ASYNC_ACK_THREAD_TOTAL = 50;
-    private Selector selector = new PollSelector();
+    private static int CONSUME_BATCH_SIZE = 32;
+    private static int CONSUME_ACK_TIMEOUT = 1000 * 60 * 2;
+    private static long CONSUME_SWEEP_INTERVAL = 1000;
     private ExecutorService executorService;
-    private ExecutorService asyncPublishExecutorService;
+    private ScheduledExecutorService sweepExecutorService;
     private ExecutorService asyncAcknowledgeExecutorService;
-    private ConcurrentMap<Integer, Runnable> consumeThreadMap = new ConcurrentHashMap<>();
-    private ConcurrentMap<String, Runnable> clientConsumeThreadMap = new ConcurrentHashMap<>();
-    private ConcurrentMap<String, Consumer> consumers = new ConcurrentHashMap<>();
+    // 所有在线会话的订阅，键是主题过滤器
+    private final TopicTrie<MqttSubscription> subscriptions = new TopicTrie<>();
+    // 主题 -> 应用 -> 推送组
+    private final ConcurrentMap<String, ConcurrentMap<String, ConsumeGroup>> consumeGroups = new ConcurrentHashMap<>();
     private Consume consume;
+    private StoreService storeService;
     private MqttConnectionManager connectionManager;
     private MqttSessionManager sessionManager;
     private MessagePublisher messagePublisher;
+    private EventListener<WriteEvent> writeListener = this::onWrite;
 
     public MqttConsumerManager(BrokerContext brokerContext, MqttConnectionManager connectionManager, MqttSessionManager sessionManager, MessagePublisher messagePublisher) {
         this.consume = brokerContext.getConsume();
+        this.storeService = brokerContext.getStoreService();
         this.connectionManager = connectionManager;
         this.sessionManager = sessionManager;
         this.messagePublisher = messagePublisher;
@@ -70,120 +90,149 @@ public class MqttConsumerManager extends Service {
     protected void validate() throws Exception {
         super.validate();
         executorService = Executors.newFixedThreadPool(CONSUME_THREAD_TOTAL, new NamedThreadFactory("mqtt-consume"));
-        asyncPublishExecutorService = Executors.newFixedThreadPool(ASYNC_PUB_THREAD_TOTAL, new NamedThreadFactory("mqtt-async-publish"));
+        sweepExecutorService = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("mqtt-consume-sweep"));
         asyncAcknowledgeExecutorService = Executors.newFixedThreadPool(ASYNC_ACK_THREAD_TOTAL, new NamedThreadFactory("mqtt-async-acknowledge"));
     }
 
     @Override
     public void start() throws Exception {
         super.start();
-        for (int i = 0; i < CONSUME_THREAD_TOTAL; i++) {
-            Runnable consumeTask = new ConsumeTask(Integer.toString(i));
-            consumeThreadMap.put(i, consumeTask);
-            executorService.execute(consumeTask);
-        }
+        storeService.addWriteListener(writeListener);
+        sweepExecutorService.scheduleWithFixedDelay(this::sweep, CONSUME_SWEEP_INTERVAL, CONSUME_SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
     }
 
     @Override
     public void stop() {
         super.stop();
-        if (!executorService.isShutdown()) {
-            clientConsumeThreadMap.forEach(
-                    (clientID, consumeThread) -> {
-                        if (consumeThread != null) {
-                            ConsumeTask consumeTask = (ConsumeTask) consumeThread;
-                            consumeTask.setRunning(false);
-                        }
-                    }
-            );
-            executorService.shutdownNow();
-        }
+        storeService.removeWriteListener(writeListener);
+        sweepExecutorService.shutdownNow();
+        executorService.shutdownNow();
+        asyncAcknowledgeExecutorService.shutdown();
     }
 
+    /**
+     * 客户端连接后，开始推送会话中已有的订阅
+     */
     public void fireConsume(String clientID) {
         MqttSession session = sessionManager.getSession(clientID);
-        ConsumeTask consumeTask = selectThreadConsume(clientID, session);
-        clientConsumeThreadMap.put(clientID, consumeTask);
+        subscribe(clientID, session.listSubsciptions());
     }
 
+    /**
+     * 客户端断开后，停止推送
+     */
     public void stopConsume(String clientID) {
-        ConsumeTask consumeTask = (ConsumeTask) clientConsumeThreadMap.get(clientID);
-        if (consumeTask != null) {
-            consumeTask.removeClientConsume(clientID);
-            clientConsumeThreadMap.remove(clientID);
+        if (sessionManager.contains(clientID)) {
+            unSubscribe(clientID, sessionManager.getSession(clientID).listSubsciptions());
+        }
+    }
+
+    public void subscribe(String clientID, Set<MqttSubscription> subscriptionSet) {
+        for (MqttSubscription subscription : subscriptionSet) {
+            String topicFilter = subscription.getTopicFilter().toString();
+            subscriptions.add(topicFilter, subscription);
+            trigger(topicFilter);
+        }
+    }
+
+    public void unSubscribe(String clientID, Set<MqttSubscription> subscriptionSet) {
+        for (MqttSubscription subscription : subscriptionSet) {
+            subscriptions.remove(subscription.getTopicFilter().toString(), subscription);
         }
-        removeConsumer(clientID);
     }
 
     public void acknowledge(String clientID, int packageId) {
         MqttSession session = sessionManager.getSession(clientID);
-        if (session != null) {
+        if (session != null && connectionManager.isConnected(clientID)) {
             BrokerMessage brokerMessage = session.getMessageAcknowledgedZone().acquireAcknowledgedMessage(packageId);
             if (brokerMessage != null) {
-                short partition = brokerMessage.getPartition();
-                long index = brokerMessage.getMsgIndexNo();
-                String topic = brokerMessage.getTopic();
-                Consumer consumer = getConsumer(clientID, topic);
-                if (consumer != null) {
-                    asyncAcknowledgeExecutorService.submit(
-                            () -> commitAcknowledge(consumer, partition, index)
-                    );
+                String application = getApplication(clientID);
+                Map<String, ConsumeGroup> groups = consumeGroups.get(brokerMessage.getTopic());
+                ConsumeGroup group = groups == null ? null : groups.get(application);
+                if (group != null) {
+                    group.acknowledge(brokerMessage.getPartition(), brokerMessage.getMsgIndexNo());
                 }
             }
         }
     }
 
-    private ConsumeTask selectThreadConsume(String clientID, MqttSession session) {
-        int threadPos = selector.select(clientID, CONSUME_THREAD_TOTAL);
-
-        ConsumeTask consumeTask = (ConsumeTask) consumeThreadMap.get(threadPos);
-        consumeTask.addClientConsume(clientID, session);
-        return consumeTask;
+    protected void onWrite(WriteEvent event) {
+        if (isStarted()) {
+            trigger(event.getTopic());
+        }
     }
 
-    public Consumer getConsumer(String clientID, String topic) {
-        Consumer consumer = null;
-        if (connectionManager.isConnected(clientID)) {
-            MqttConnection connection = connectionManager.getConnection(clientID);
-            String application = connection.getApplication();
-            String clientGroup = connection.getClientGroupName();
-            String consumerId = connection.getConsumer(topic, application);
-            if (Strings.isNullOrEmpty(consumerId) || ((consumer = consumers.get(generateConsumerId(clientID, topic, application, clientGroup))) == null)) {
-                consumerId = generateConsumerId(clientID, topic, application, clientGroup);
-                consumer = new Consumer();
-                consumer.setId(consumerId);
-                consumer.setConnectionId(connection.getId());
-                consumer.setApp(application);
-                consumer.setTopic(topic);
-                consumer.setType(Consumer.ConsumeType.MQTT);
-                Consumer oldConsumer = consumers.putIfAbsent(consumerId, consumer);
-                connection.addConsumer(topic, application, consumerId);
-                if (oldConsumer != null) {
-                    consumer = oldConsumer;
+    /**
+     * 触发主题下所有应用的推送组，主题有匹配的订阅而推送组不存在时创建
+     */
+    private void trigger(String topic) {
+        Map<String, ConsumeGroup> groups = consumeGroups.get(topic);
+        if (groups == null) {
+            Set<MqttSubscription> matched = subscriptions.match(topic);
+            if (matched.isEmpty()) {
+                return;
+            }
+            for (MqttSubscription subscription : matched) {
+                String application = getApplication(subscription.getClientId());
+                if (application != null) {
+                    getOrCreateGroup(topic, application);
                 }
             }
+            groups = consumeGroups.get(topic);
+            if (groups == null) {
+                return;
+            }
+        }
+        for (ConsumeGroup group : groups.values()) {
+            group.trigger();
         }
-        return consumer;
     }
 
-    public void removeConsumer(String clientID) {
-        if (connectionManager.isConnected(clientID)) {
-            MqttConnection connection = connectionManager.getConnection(clientID);
-            for (String app : connection.getConsumers().keySet()) {
-                ConcurrentMap<String, String> topicIds = connection.getConsumers().get(app);
-                for (String topic : topicIds.keySet()) {
-                    String id = topicIds.get(topic);
-                    if (!Strings.isNullOrEmpty(id)) {
-                        consumers.remove(id);
-                        topicIds.remove(topic, id);
+    private ConsumeGroup getOrCreateGroup(String topic, String application) {
+        return consumeGroups.computeIfAbsent(topic, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(application, k -> new ConsumeGroup(topic, application));
+    }
+
+    /**
+     * 定时触发所有推送组，清理已经没有会话的推送组
+     */
+    private void sweep() {
+        try {
+            for (Map.Entry<String, ConcurrentMap<String, ConsumeGroup>> entry : consumeGroups.entrySet()) {
+                String topic = entry.getKey();
+                Set<MqttSubscription> matched = subscriptions.match(topic);
+                for (MqttSubscription subscription : matched) {
+                    String application = getApplication(subscription.getClientId());
+                    if (application != null) {
+                        getOrCreateGroup(topic, application);
                     }
                 }
+                for (ConsumeGroup group : entry.getValue().values()) {
+                    if (group.targets(matched).isEmpty()) {
+                        entry.getValue().remove(group.application, group);
+                    } else {
+                        group.trigger();
+                    }
+                }
+                if (entry.getValue().isEmpty()) {
+                    consumeGroups.remove(topic, entry.getValue());
+                }
             }
+        } catch (Exception e) {
+            LOG.error("mqtt consume sweep error", e);
         }
     }
 
-    private String generateConsumerId(String clientID, String topic, String application, String clientGroup) {
-        return String.format("%s_consumer_%s_%s_%s", clientID, application, topic, clientGroup);
+    private String getApplication(String clientID) {
+        if (!connectionManager.isConnected(clientID)) {
+            return null;
+        }
+        try {
+            return connectionManager.getConnection(clientID).getApplication();
+        } catch (Exception e) {
+            // 连接已经断开
+            return null;
+        }
     }
 
     private void commitAcknowledge(Consumer consumer, short partition, long index) {
@@ -194,90 +243,137 @@ public class MqttConsumerManager extends Service {
         }
     }
 
-    private class ConsumeTask implements Runnable {
-        private String name = "consume-";
-        private boolean isRunning = true;
-
-        private ConcurrentMap<String, MqttSession> clientConsumeMap = new ConcurrentHashMap<>();
-
-        ConsumeTask(String name) {
-            this.name = this.name + name;
-        }
-
-        public boolean isRunning() {
-            return isRunning;
-        }
+    /**
+     * 一个主题、一个应用的推送组
+     */
+    private class ConsumeGroup {
+        private final String topic;
+        private final String application;
+        private final Consumer consumer;
+        // 正在执行推送
+        private final AtomicBoolean running = new AtomicBoolean(false);
+        // 推送过程中有新的触发
+        private final AtomicBoolean dirty = new AtomicBoolean(false);
+        // 分区_索引 -> 还没有回复PubAck的会话数
+        private final ConcurrentMap<String, AtomicInteger> unacknowledged = new ConcurrentHashMap<>();
 
-        public void setRunning(boolean running) {
-            isRunning = running;
+        ConsumeGroup(String topic, String application) {
+            this.topic = topic;
+            this.application = application;
+            String consumerId = String.format("mqtt_consumer_%s_%s", application, topic);
+            this.consumer = new Consumer();
+            this.consumer.setId(consumerId);
+            this.consumer.setConnectionId(consumerId);
+            this.consumer.setApp(application);
+            this.consumer.setTopic(topic);
+            this.consumer.setType(Consumer.ConsumeType.MQTT);
         }
 
-        public void addClientConsume(String clientID, MqttSession session) {
-            clientConsumeMap.put(clientID, session);
+        void trigger() {
+            dirty.set(true);
+            if (running.compareAndSet(false, true)) {
+                executorService.execute(this::drain);
+            }
         }
 
-        public void removeClientConsume(String clientID) {
-            MqttSession session = clientConsumeMap.remove(clientID);
+        private void drain() {
+            try {
+                while (dirty.getAndSet(false) && isStarted()) {
+                    while (isStarted() && dispatch() >= CONSUME_BATCH_SIZE) {
+                        // 拉满一批说明可能还有积压，继续推送
+                    }
+                }
+            } catch (Exception e) {
+                LOG.error("mqtt consume error, topic: <{}>, app: <{}>, cause: <{}>", topic, application, e.getMessage(), e);
+            } finally {
+                running.set(false);
+                if (dirty.get() && isStarted() && running.compareAndSet(false, true)) {
+                    executorService.execute(this::drain);
+                }
+            }
         }
 
-        @Override
-        public void run() {
-            while (isRunning) {
-                try {
-                    if (clientConsumeMap.size() > 0) {
-                        clientConsumeMap.forEach(
-                                (clientID, session) -> {
-                                    Set<MqttSubscription> subscriptions = session.listSubsciptions();
-                                    if (subscriptions != null && subscriptions.size() > 0) {
-                                        subscriptions.forEach(
-                                                subscription -> {
-                                                    String topic = subscription.getTopicFilter().toString();
-                                                    int qos = subscription.getRequestedQos().value();
-                                                    Consumer consumer = getConsumer(clientID, topic);
-                                                    if (consumer != null) {
-                                                        try {
-                                                            asyncPublishExecutorService.execute(
-                                                                    () -> {
-                                                                        try {
-                                                                            messagePublisher.publish2Subscriber(
-                                                                                    name,
-                                                                                    clientID,
-                                                                                    session,
-                                                                                    consumer,
-                                                                                    qos
-                                                                            );
-                                                                        } catch (Exception e) {
-                                                                            LOG.error(e.getMessage(), e);
-                                                                        }
-                                                                    }
-                                                            );
-                                                        } catch (Exception e) {
-                                                            LOG.error(e.getMessage(), e);
-                                                        }
-                                                    }
-                                                }
-                                        );
-                                    }
-                                }
-                        );
-                        // help cpu
-                        try {
-                            Thread.sleep(800);
-                        } catch (InterruptedException e) {
-                            LOG.warn("mqtt consumer manager thread: <{}> interrupted, exception: {}", name, e.getMessage());
+        /**
+         * 拉取一批消息，推送给所有匹配的在线会话
+         *
+         * @return 拉取到的消息数量
+         */
+        private int dispatch() throws Exception {
+            Map<String, MqttSubscription> targets = targets(subscriptions.match(topic));
+            if (targets.isEmpty()) {
+                return 0;
+            }
+            PullResult result = consume.getMessage(consumer, CONSUME_BATCH_SIZE, CONSUME_ACK_TIMEOUT);
+            List<ByteBuffer> buffers = result.getBuffers();
+            if (buffers == null || buffers.isEmpty()) {
+                return 0;
+            }
+            for (ByteBuffer buffer : buffers) {
+                BrokerMessage brokerMessage = Serializer.readBrokerMessage(buffer);
+                String key = key(brokerMessage.getPartition(), brokerMessage.getMsgIndexNo());
+                // 先占一个计数，避免推送过程中PubAck全部返回导致提前确认
+                AtomicInteger pending = new AtomicInteger(1);
+                unacknowledged.put(key, pending);
+                boolean failed = false;
+                for (MqttSubscription subscription : targets.values()) {
+                    String clientID = subscription.getClientId();
+                    int qos = subscription.getRequestedQos().value();
+                    try {
+                        MqttSession session = sessionManager.getSession(clientID);
+                        pending.incrementAndGet();
+                        MqttQoS published = messagePublisher.publish2Subscriber(clientID, session, topic, brokerMessage, qos);
+                        if (published == null || published == MqttQoS.AT_MOST_ONCE) {
+                            pending.decrementAndGet();
                         }
-                    } else {
-                        try {
-                            Thread.sleep(2000);
-                        } catch (InterruptedException e) {
-                            LOG.warn("mqtt consumer manager thread: <{}> interrupted, exception: {}", name, e.getMessage());
+                        if (published == null && qos > MqttQoS.AT_MOST_ONCE.value()) {
+                            failed = true;
                         }
+                    } catch (Exception e) {
+                        pending.decrementAndGet();
+                        if (qos > MqttQoS.AT_MOST_ONCE.value()) {
+                            failed = true;
+                        }
+                        LOG.error("publish message error, clientID: <{}>, topic: <{}>, cause: <{}>", clientID, topic, e.getMessage());
                     }
-                } catch (Exception e) {
-                    LOG.error("Thread: <{}>, mqtt consume client message consume error, topic: <{}>, cause: <{}>", name, e.getMessage());
+                }
+                if (failed) {
+                    // 有qos大于0的订阅者没有推送成功，不确认消息，等待确认超时后重新推送
+                    unacknowledged.remove(key, pending);
+                } else {
+                    acknowledge(brokerMessage.getPartition(), brokerMessage.getMsgIndexNo());
+                }
+            }
+            return buffers.size();
+        }
+
+        /**
+         * 组内的在线会话，同一个会话有多个订阅匹配时取最高的qos
+         */
+        Map<String, MqttSubscription> targets(Set<MqttSubscription> matched) {
+            Map<String, MqttSubscription> targets = new HashMap<>();
+            for (MqttSubscription subscription : matched) {
+                String clientID = subscription.getClientId();
+                if (!application.equals(getApplication(clientID)) || !sessionManager.contains(clientID)) {
+                    continue;
+                }
+                MqttSubscription exist = targets.get(clientID);
+                if (exist == null || exist.getRequestedQos().value() < subscription.getRequestedQos().value()) {
+                    targets.put(clientID, subscription);
                 }
             }
-            LOG.info("mqtt consumer manager thread: <{}> stop.", name);
+            return targets;
+        }
+
+        void acknowledge(short partition, long index) {
+            String key = key(partition, index);
+            AtomicInteger pending = unacknowledged.get(key);
+            if (pending != null && pending.decrementAndGet() == 0 && unacknowledged.remove(key, pending)) {
+                asyncAcknowledgeExecutorService.submit(() -> commitAcknowledge(consumer, partition, index));
+            }
+        }
+
+        private String key(short partition, long index) {
+            return partition + "_" + index;
         }
     }
 }
@@ -16,6 +16,7 @@
 package io.chubao.joyqueue.broker.mqtt.cluster;
 
 import io.chubao.joyqueue.broker.mqtt.subscriptions.TopicFilter;
+import io.chubao.joyqueue.broker.mqtt.subscriptions.TopicTrie;
 import io.chubao.joyqueue.broker.BrokerContext;
 import io.chubao.joyqueue.domain.ClientType;
 import io.chubao.joyqueue.domain.Subscription;
@@ -23,7 +24,6 @@ import io.chubao.joyqueue.domain.TopicName;
 import io.chubao.joyqueue.nsr.NameService;
 import io.chubao.joyqueue.broker.mqtt.subscriptions.MqttSubscription;
 import io.chubao.joyqueue.toolkit.service.Service;
-import io.netty.util.internal.ConcurrentSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,7 +41,8 @@ import java.util.concurrent.TimeUnit;
 public class MqttSubscriptionManager extends Service {
     private static Logger LOG = LoggerFactory.getLogger(MqttSubscriptionManager.class);
 
-    private Set<String> topics = new ConcurrentSet<>();
+    // 已知的全部主题，按层级索引，订阅时用主题过滤器直接查找匹配的主题
+    private TopicTrie<String> topics = new TopicTrie<>();
     private ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
     private NameService nameService;
 
@@ -97,16 +98,13 @@ public class MqttSubscriptionManager extends Service {
     }
 
     private void filterTopics(Set<MqttSubscription> list, List<MqttSubscription> topicFilters) {
-        if (topics.size() == 0) {
+        if (topics.isEmpty()) {
             list.addAll(topicFilters);
         } else {
             for (MqttSubscription subscription : topicFilters) {
-                for (String topic : topics) {
-                    TopicFilter newTopicFilter = new TopicFilter(topic);
-                    if (newTopicFilter.match(subscription.getTopicFilter())) {
-                        MqttSubscription newSubscription = new MqttSubscription(subscription.getClientId(), newTopicFilter, subscription.getRequestedQos());
-                        list.add(newSubscription);
-                    }
+                for (String topic : topics.select(subscription.getTopicFilter().toString())) {
+                    MqttSubscription newSubscription = new MqttSubscription(subscription.getClientId(), new TopicFilter(topic), subscription.getRequestedQos());
+                    list.add(newSubscription);
                 }
             }
         }
@@ -121,7 +119,7 @@ public class MqttSubscriptionManager extends Service {
             if (origTopics != null && origTopics.size() > 0) {
                 LOG.info("Topic updater data size: {}", origTopics.size());
                 for (String tn : origTopics) {
-                    topics.add(tn);
+                    topics.add(tn, tn);
                 }
             } else {
                 LOG.info("Topic updater data empty.");
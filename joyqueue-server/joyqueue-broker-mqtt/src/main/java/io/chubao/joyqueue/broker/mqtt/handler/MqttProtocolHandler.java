@@ -356,6 +356,7 @@ public class MqttProtocolHandler extends Service {
                         for (MqttSubscription subscription : topicFilters) {
                             session.addSubscription(subscription);
                         }
+                        consumerManager.subscribe(clientID, topicFilters);
                     }
                 } else {
                     // The payload of a SUBSCRIBE packet MUST contain at least one Topic Filter / QoS pair. A SUBSCRIBE packet with no payload is a protocol violation
@@ -426,6 +427,7 @@ public class MqttProtocolHandler extends Service {
                         for (MqttSubscription subscription : unSubcriptions) {
                             session.removeSubscription(subscription);
                         }
+                        consumerManager.unSubscribe(clientID, unSubcriptions);
                     }
                 } else {
                     // The Payload of an UNSUBSCRIBE packet MUST contain at least one Topic Filter. An UNSUBSCRIBE packet with no payload is a protocol violation
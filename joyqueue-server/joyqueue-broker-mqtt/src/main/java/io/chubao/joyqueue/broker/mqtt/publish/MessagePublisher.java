@@ -16,17 +16,12 @@
 package io.chubao.joyqueue.broker.mqtt.publish;
 
 import io.chubao.joyqueue.broker.BrokerContext;
-import io.chubao.joyqueue.broker.buffer.Serializer;
-import io.chubao.joyqueue.broker.consumer.Consume;
-import io.chubao.joyqueue.broker.consumer.model.PullResult;
 import io.chubao.joyqueue.broker.mqtt.cluster.MqttConnectionManager;
-import io.chubao.joyqueue.broker.mqtt.connection.MqttConnection;
 import io.chubao.joyqueue.broker.mqtt.session.MqttSession;
 import io.chubao.joyqueue.broker.producer.Produce;
 import io.chubao.joyqueue.domain.QosLevel;
 import io.chubao.joyqueue.exception.JoyQueueException;
 import io.chubao.joyqueue.message.BrokerMessage;
-import io.chubao.joyqueue.network.session.Consumer;
 import io.chubao.joyqueue.network.session.Producer;
 import io.chubao.joyqueue.broker.mqtt.util.MqttMessageSerializer;
 import io.netty.buffer.Unpooled;
@@ -43,9 +38,7 @@ import io.netty.handler.codec.mqtt.MqttQoS;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.nio.ByteBuffer;
 import java.util.Collections;
-import java.util.List;
 
 import static io.netty.channel.ChannelFutureListener.CLOSE_ON_FAILURE;
 
@@ -55,12 +48,10 @@ import static io.netty.channel.ChannelFutureListener.CLOSE_ON_FAILURE;
 public class MessagePublisher {
     private static final Logger LOG = LoggerFactory.getLogger(MessagePublisher.class);
     private Produce produce;
-    private Consume consume;
     private MqttConnectionManager connectionManager;
 
     public MessagePublisher(BrokerContext brokerContext, MqttConnectionManager connectionManager) {
         this.produce = brokerContext.getProduce();
-        this.consume = brokerContext.getConsume();
         this.connectionManager = connectionManager;
     }
 
@@ -110,46 +101,44 @@ public class MessagePublisher {
         }
     }
 
-    public void publish2Subscriber(String name, String clientID, MqttSession session, Consumer consumer, int qos) throws Exception {
-        PullResult result = consume.getMessage(
-                consumer,
-                1,
-                1000 * 60 * 2
+    /**
+     * 把一条已经读取的消息推送给一个订阅者
+     *
+     * @return 实际推送使用的qos，为AT_MOST_ONCE以外的值时需要等待客户端PubAck；连接不可用没有推送时返回null
+     */
+    public MqttQoS publish2Subscriber(String clientID, MqttSession session, String topicName, BrokerMessage brokerMessage, int qos) {
+        if (!connectionManager.isConnected(clientID)) {
+            return null;
+        }
+        Channel channel = connectionManager.getConnection(clientID).getChannel();
+        if (!channel.isActive() || !channel.isOpen()) {
+            return null;
+        }
+        MqttQoS mqttQoS = MqttQoS.valueOf(MqttMessageSerializer.getLowerQos(MqttMessageSerializer.readExtension(brokerMessage), qos));
+        MqttFixedHeader mqttFixedHeader = new MqttFixedHeader(
+                MqttMessageType.PUBLISH,
+                false,
+                mqttQoS,
+                false,
+                0
         );
-        String topicName = result.getTopic();
-        List<ByteBuffer> buffers = result.getBuffers();
-        if (buffers != null && buffers.size() > 0) {
-            BrokerMessage brokerMessage = Serializer.readBrokerMessage(buffers.get(0));
-            MqttFixedHeader mqttFixedHeader = new MqttFixedHeader(
-                    MqttMessageType.PUBLISH,
-                    false,
-                    MqttQoS.valueOf(MqttMessageSerializer.getLowerQos(MqttMessageSerializer.readExtension(brokerMessage), qos)),
-                    false,
-                    0
-            );
-            int packageId = session.getMessageAcknowledgedZone().acquireAcknowledgedPosition(brokerMessage);
-            MqttPublishMessage publishMsg = (MqttPublishMessage) MqttMessageFactory.newMessage(
-                    mqttFixedHeader,
-                    new MqttPublishVariableHeader(topicName, packageId),
-                    Unpooled.wrappedBuffer(brokerMessage.getByteBody()));
+        // qos为0时客户端不会回复PubAck，不需要占用packageId
+        boolean needAck = mqttQoS != MqttQoS.AT_MOST_ONCE;
+        int packageId = needAck ? session.getMessageAcknowledgedZone().acquireAcknowledgedPosition(brokerMessage) : 0;
+        MqttPublishMessage publishMsg = (MqttPublishMessage) MqttMessageFactory.newMessage(
+                mqttFixedHeader,
+                new MqttPublishVariableHeader(topicName, packageId),
+                Unpooled.wrappedBuffer(brokerMessage.getByteBody()));
 
-            boolean isActive = connectionManager.isConnected(clientID);
-            if (isActive) {
-                MqttConnection connection = connectionManager.getConnection(clientID);
-                Channel channel = connection.getChannel();
-                if (channel.isActive() && channel.isOpen()) {
-                    channel.writeAndFlush(publishMsg).addListener((ChannelFutureListener) channelFuture -> {
-                        if (channelFuture.isSuccess()) {
-                            if (LOG.isDebugEnabled()) {
-                                LOG.debug("推送消息成功: {}", publishMsg);
-                            }
-                        } else {
-                            LOG.error("publish message error, thread: <{}>, clientID: <{}>, message: <{}>, cause: <{}>", name, clientID, brokerMessage, channelFuture.cause());
-                            throw new Exception(channelFuture.cause());
-                        }
-                    });
+        channel.writeAndFlush(publishMsg).addListener((ChannelFutureListener) channelFuture -> {
+            if (channelFuture.isSuccess()) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("推送消息成功: {}", publishMsg);
                 }
+            } else {
+                LOG.error("publish message error, clientID: <{}>, message: <{}>, cause: <{}>", clientID, brokerMessage, channelFuture.cause());
             }
-        }
+        });
+        return mqttQoS;
     }
 }
@@ -0,0 +1,169 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.broker.mqtt.subscriptions;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按主题层级组织的前缀树，支持单层通配符+和多层通配符#。
+ * <p>
+ * 有两种用法：
+ * 1. 键是订阅的主题过滤器，用match查找匹配某个主题的所有订阅；
+ * 2. 键是具体的主题，用select查找匹配某个主题过滤器的所有主题。
+ * <p>
+ * 查找不加锁，增删之间互斥。
+ */
+public class TopicTrie<V> {
+    private static final String SEPARATOR = "/";
+    private static final String SINGLE = "+";
+    private static final String MULTI = "#";
+    // 以$开头的主题不匹配以通配符开头的过滤器
+    private static final String SYSTEM_PREFIX = "$";
+
+    private final Node<V> root = new Node<>();
+
+    public synchronized void add(String key, V value) {
+        Node<V> node = root;
+        for (String level : split(key)) {
+            node = node.children.computeIfAbsent(level, k -> new Node<>());
+        }
+        node.values.add(value);
+    }
+
+    public synchronized boolean remove(String key, V value) {
+        return remove(root, split(key), 0, value);
+    }
+
+    private boolean remove(Node<V> node, String[] levels, int depth, V value) {
+        if (depth == levels.length) {
+            return node.values.remove(value);
+        }
+        Node<V> child = node.children.get(levels[depth]);
+        if (child == null) {
+            return false;
+        }
+        boolean removed = remove(child, levels, depth + 1, value);
+        if (child.isEmpty()) {
+            node.children.remove(levels[depth], child);
+        }
+        return removed;
+    }
+
+    /**
+     * 查找过滤器匹配主题的所有值
+     *
+     * @param topic 主题，不能包含通配符
+     */
+    public Set<V> match(String topic) {
+        if (root.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Set<V> result = new HashSet<>();
+        String[] levels = split(topic);
+        match(root, levels, 0, !topic.startsWith(SYSTEM_PREFIX), result);
+        return result;
+    }
+
+    private void match(Node<V> node, String[] levels, int depth, boolean wildcard, Set<V> result) {
+        if (wildcard) {
+            // #同时匹配父级，a/#匹配a
+            Node<V> multi = node.children.get(MULTI);
+            if (multi != null) {
+                result.addAll(multi.values);
+            }
+        }
+        if (depth == levels.length) {
+            result.addAll(node.values);
+            return;
+        }
+        Node<V> child = node.children.get(levels[depth]);
+        if (child != null) {
+            match(child, levels, depth + 1, true, result);
+        }
+        if (wildcard) {
+            Node<V> single = node.children.get(SINGLE);
+            if (single != null) {
+                match(single, levels, depth + 1, true, result);
+            }
+        }
+    }
+
+    /**
+     * 查找键匹配主题过滤器的所有值
+     *
+     * @param filter 主题过滤器，可以包含通配符
+     */
+    public Set<V> select(String filter) {
+        if (root.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Set<V> result = new HashSet<>();
+        select(root, split(filter), 0, result);
+        return result;
+    }
+
+    private void select(Node<V> node, String[] levels, int depth, Set<V> result) {
+        if (depth == levels.length) {
+            result.addAll(node.values);
+            return;
+        }
+        String level = levels[depth];
+        if (MULTI.equals(level)) {
+            collect(node, depth == 0, result);
+        } else if (SINGLE.equals(level)) {
+            for (Map.Entry<String, Node<V>> entry : node.children.entrySet()) {
+                if (depth != 0 || !entry.getKey().startsWith(SYSTEM_PREFIX)) {
+                    select(entry.getValue(), levels, depth + 1, result);
+                }
+            }
+        } else {
+            Node<V> child = node.children.get(level);
+            if (child != null) {
+                select(child, levels, depth + 1, result);
+            }
+        }
+    }
+
+    private void collect(Node<V> node, boolean top, Set<V> result) {
+        result.addAll(node.values);
+        for (Map.Entry<String, Node<V>> entry : node.children.entrySet()) {
+            if (!top || !entry.getKey().startsWith(SYSTEM_PREFIX)) {
+                collect(entry.getValue(), false, result);
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return root.isEmpty();
+    }
+
+    private static String[] split(String key) {
+        return key.split(SEPARATOR, -1);
+    }
+
+    private static class Node<V> {
+        private final Map<String, Node<V>> children = new ConcurrentHashMap<>();
+        private final Set<V> values = ConcurrentHashMap.newKeySet();
+
+        boolean isEmpty() {
+            return children.isEmpty() && values.isEmpty();
+        }
+    }
+}
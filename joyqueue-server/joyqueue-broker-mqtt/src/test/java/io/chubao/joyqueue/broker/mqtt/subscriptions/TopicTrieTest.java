@@ -0,0 +1,81 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.broker.mqtt.subscriptions;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+public class TopicTrieTest {
+
+    @Test
+    public void matchTest() {
+        TopicTrie<String> filters = new TopicTrie<>();
+        for (String filter : Arrays.asList("a/b", "a/+", "a/#", "+/b", "#", "a/+/c", "+", "$SYS/#", "$SYS/+/info")) {
+            filters.add(filter, filter);
+        }
+
+        Assert.assertEquals(set("a/b", "a/+", "a/#", "+/b", "#"), filters.match("a/b"));
+        // #同时匹配父级，+不匹配父级
+        Assert.assertEquals(set("a/#", "#", "+"), filters.match("a"));
+        Assert.assertEquals(set("a/#", "#", "a/+/c"), filters.match("a/b/c"));
+        Assert.assertEquals(set("+/b", "#"), filters.match("x/b"));
+        // 空层级也是一个层级
+        Assert.assertEquals(set("a/+", "a/#", "#"), filters.match("a/"));
+        // 以$开头的主题不匹配以通配符开头的过滤器
+        Assert.assertEquals(set("$SYS/#", "$SYS/+/info"), filters.match("$SYS/broker/info"));
+        Assert.assertEquals(set("$SYS/#"), filters.match("$SYS"));
+        Assert.assertEquals(Collections.emptySet(), filters.match("$other/b"));
+
+        Assert.assertTrue(filters.remove("a/#", "a/#"));
+        Assert.assertFalse(filters.remove("a/#", "a/#"));
+        Assert.assertEquals(set("a/b", "a/+", "+/b", "#"), filters.match("a/b"));
+        Assert.assertEquals(set("#", "+"), filters.match("a"));
+    }
+
+    @Test
+    public void selectTest() {
+        TopicTrie<String> topics = new TopicTrie<>();
+        for (String topic : Arrays.asList("a", "a/b", "a/c", "a/b/c", "x/b", "$SYS/broker/info", "$SYS")) {
+            topics.add(topic, topic);
+        }
+
+        Assert.assertEquals(set("a/b"), topics.select("a/b"));
+        Assert.assertEquals(set("a/b", "a/c"), topics.select("a/+"));
+        Assert.assertEquals(set("a", "a/b", "a/c", "a/b/c"), topics.select("a/#"));
+        Assert.assertEquals(set("a/b", "x/b"), topics.select("+/b"));
+        Assert.assertEquals(set("a/b/c"), topics.select("a/+/c"));
+        // 以通配符开头的过滤器不匹配以$开头的主题
+        Assert.assertEquals(set("a", "a/b", "a/c", "a/b/c", "x/b"), topics.select("#"));
+        Assert.assertEquals(set("a"), topics.select("+"));
+        Assert.assertEquals(set("$SYS", "$SYS/broker/info"), topics.select("$SYS/#"));
+        Assert.assertEquals(set("$SYS/broker/info"), topics.select("$SYS/+/info"));
+        Assert.assertEquals(Collections.emptySet(), topics.select("b/#"));
+
+        Assert.assertTrue(topics.remove("a/b/c", "a/b/c"));
+        Assert.assertEquals(set("a/b", "a/c"), topics.select("a/+"));
+        Assert.assertEquals(set("a", "a/b", "a/c"), topics.select("a/#"));
+        Assert.assertEquals(set("a/b", "x/b"), topics.select("+/b"));
+    }
+
+    private static Set<String> set(String... values) {
+        return new HashSet<>(Arrays.asList(values));
+    }
+}
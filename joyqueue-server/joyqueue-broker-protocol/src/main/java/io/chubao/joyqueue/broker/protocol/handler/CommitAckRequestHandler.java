@@ -43,6 +43,7 @@ import io.chubao.joyqueue.network.transport.command.Command;
 import io.chubao.joyqueue.network.transport.command.Type;
 import io.chubao.joyqueue.server.retry.api.MessageRetry;
 import io.chubao.joyqueue.server.retry.model.RetryMessageModel;
+import io.chubao.joyqueue.store.message.MessageBytes;
 import io.chubao.joyqueue.toolkit.lang.ListUtil;
 import org.apache.commons.collections.CollectionUtils;
 import org.slf4j.Logger;
@@ -184,7 +185,7 @@ public class CommitAckRequestHandler implements JoyQueueCommandHandler, Type, Br
             try {
                 ByteBuffer buffer = buffers.get(0);
                 BrokerMessage brokerMessage = Serializer.readBrokerMessage(buffer);
-                RetryMessageModel model = generateRetryMessage(consumer, brokerMessage, buffer.array(), ackData.getRetryType().name());
+                RetryMessageModel model = generateRetryMessage(consumer, brokerMessage, MessageBytes.toBytes(buffer), ackData.getRetryType().name());
                 retryManager.addRetry(Lists.newArrayList(model));
             } catch (Exception e) {
                 logger.error("add retryMessage exception, transport: {}, topic: {}, partition: {}, index: {}",
@@ -213,4 +214,4 @@ public class CommitAckRequestHandler implements JoyQueueCommandHandler, Type, Br
     public int type() {
         return JoyQueueCommandType.COMMIT_ACK_REQUEST.getCode();
     }
-}
\ No newline at end of file
+}
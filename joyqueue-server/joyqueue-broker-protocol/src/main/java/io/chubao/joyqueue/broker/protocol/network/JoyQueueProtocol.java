@@ -55,7 +55,8 @@ public class JoyQueueProtocol extends Service implements ProtocolService, Broker
         this.coordinator = new Coordinator(brokerContext.getCoordinatorService().getCoordinator());
         this.coordinatorGroupManager = new GroupMetadataManager(config, brokerContext.getCoordinatorService().getOrCreateGroupMetadataManager(JoyQueueConsts.COORDINATOR_NAMESPACE));
         this.partitionAssignmentHandler = new PartitionAssignmentHandler(config, coordinatorGroupManager);
-        this.longPollingManager = new LongPollingManager(brokerContext.getSessionManager(), brokerContext.getClusterManager(), brokerContext.getConsume(),brokerContext.getPropertySupplier());
+        this.longPollingManager = new LongPollingManager(brokerContext.getSessionManager(), brokerContext.getClusterManager(), brokerContext.getConsume(),
+                brokerContext.getStoreService(), brokerContext.getPropertySupplier());
 
         this.joyQueueContext = new JoyQueueContext(config, coordinator, coordinatorGroupManager, partitionAssignmentHandler, longPollingManager, brokerContext);
     }
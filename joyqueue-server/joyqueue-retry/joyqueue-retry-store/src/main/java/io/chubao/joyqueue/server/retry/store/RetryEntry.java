@@ -0,0 +1,77 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.server.retry.store;
+
+import io.chubao.joyqueue.toolkit.delay.TimerTask;
+
+/**
+ * 待重试的消息
+ * <p>
+ * 作为定时任务挂在时间轮上，到达重试时间后进入重试日志的就绪队列。
+ */
+class RetryEntry extends TimerTask {
+    private final RetryJournal journal;
+    // 重试ID，等于新增日志在重试日志中的位置+1
+    private final long id;
+    private final long createTime;
+    private final long expireTime;
+    private volatile long retryTime;
+    private volatile int retryCount;
+
+    RetryEntry(RetryJournal journal, long id, long createTime, long expireTime, long retryTime, int retryCount) {
+        this.journal = journal;
+        this.id = id;
+        this.createTime = createTime;
+        this.expireTime = expireTime;
+        this.retryTime = retryTime;
+        this.retryCount = retryCount;
+        this.delayMs = retryTime;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    long getCreateTime() {
+        return createTime;
+    }
+
+    long getExpireTime() {
+        return expireTime;
+    }
+
+    long getRetryTime() {
+        return retryTime;
+    }
+
+    int getRetryCount() {
+        return retryCount;
+    }
+
+    /**
+     * 更新重试次数和下次重试时间
+     */
+    void update(int retryCount, long retryTime) {
+        this.retryCount = retryCount;
+        this.retryTime = retryTime;
+        this.delayMs = retryTime;
+    }
+
+    @Override
+    public void run() {
+        journal.onDue(this);
+    }
+}
@@ -0,0 +1,295 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.server.retry.store;
+
+import io.chubao.joyqueue.domain.Partition;
+import io.chubao.joyqueue.server.retry.model.RetryMessageModel;
+import io.chubao.joyqueue.server.retry.model.RetryStatus;
+import io.chubao.joyqueue.store.file.PositioningStore;
+import io.chubao.joyqueue.store.utils.PreloadBufferPool;
+import io.chubao.joyqueue.toolkit.delay.Timer;
+import io.chubao.joyqueue.toolkit.retry.RetryPolicy;
+import io.chubao.joyqueue.toolkit.time.SystemClock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * 一个主题+应用的重试日志
+ * <p>
+ * 新增重试和状态变更都以日志的形式追加写入PositioningStore，内存中只维护重试中的消息：
+ * pending：所有重试中的消息，按重试ID排序，最小的重试ID之前的日志文件都可以删除；
+ * ready：已经到达重试时间的重试ID，未到重试时间的消息挂在时间轮上，到期后移入ready。
+ * <p>
+ * 写操作串行执行，读操作无锁。
+ */
+class RetryJournal implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(RetryJournal.class);
+    private static final int REPLAY_BATCH_SIZE = 1024;
+    // 默认30天过期
+    private static final long DEFAULT_EXPIRE_TIME = 30 * 24 * 3600 * 1000L;
+
+    private final String topic;
+    private final String app;
+    private final PositioningStore<ByteBuffer> store;
+    private final Timer timer;
+    private final ConcurrentSkipListMap<Long, RetryEntry> pending = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListSet<Long> ready = new ConcurrentSkipListSet<>();
+
+    RetryJournal(String topic, String app, File base, PositioningStore.Config config, PreloadBufferPool bufferPool,
+                 RetryLogSerializer serializer, Timer timer) {
+        this.topic = topic;
+        this.app = app;
+        this.store = new PositioningStore<>(base, config, bufferPool, serializer);
+        this.timer = timer;
+    }
+
+    /**
+     * 恢复存储，重放所有日志重建内存索引
+     */
+    void recover() throws IOException {
+        store.recover();
+        long position = store.left();
+        long right = store.right();
+        while (position < right) {
+            List<ByteBuffer> logs = store.batchRead(position, REPLAY_BATCH_SIZE);
+            if (logs.isEmpty()) {
+                break;
+            }
+            for (ByteBuffer log : logs) {
+                replay(position + 1, log);
+                position += log.remaining();
+            }
+        }
+        long now = SystemClock.now();
+        for (RetryEntry entry : pending.values()) {
+            schedule(entry, now);
+        }
+        logger.info("Retry journal recovered, topic: {}, app: {}, retrying: {}, ready: {}.", topic, app, pending.size(), ready.size());
+    }
+
+    private void replay(long id, ByteBuffer log) {
+        switch (RetryLogSerializer.type(log)) {
+            case RetryLogSerializer.TYPE_ADD:
+                pending.put(id, RetryLogSerializer.decodeAdd(this, id, log));
+                break;
+            case RetryLogSerializer.TYPE_UPDATE:
+                RetryLogSerializer.decodeUpdate(log, (retryId, status, retryCount, retryTime) -> {
+                    if (status == RetryStatus.RETRY_ING.getValue()) {
+                        RetryEntry entry = pending.get(retryId);
+                        if (entry != null) {
+                            entry.update(retryCount, retryTime);
+                        }
+                    } else {
+                        pending.remove(retryId);
+                    }
+                });
+                break;
+            default:
+                logger.warn("Unknown retry log type, topic: {}, app: {}, position: {}.", topic, app, id - 1);
+        }
+    }
+
+    private void schedule(RetryEntry entry, long now) {
+        if (entry.getRetryTime() <= now) {
+            ready.add(entry.getId());
+        } else {
+            timer.add(entry);
+        }
+    }
+
+    /**
+     * 时间轮回调，消息到达重试时间
+     */
+    synchronized void onDue(RetryEntry entry) {
+        if (pending.get(entry.getId()) == entry && entry.getRetryTime() <= SystemClock.now()) {
+            ready.add(entry.getId());
+        }
+    }
+
+    /**
+     * 新增重试，写入后立即刷盘
+     */
+    void add(List<RetryMessageModel> models, RetryPolicy retryPolicy) throws IOException {
+        List<RetryEntry> entries = new ArrayList<>(models.size());
+        synchronized (this) {
+            long now = SystemClock.now();
+            long expireTime = getExpireTime(retryPolicy, now);
+            long retryTime = retryPolicy.getTime(now, 1, now);
+            for (RetryMessageModel model : models) {
+                long id = store.right() + 1;
+                store.append(RetryLogSerializer.encodeAdd(model.getSendTime(), now, expireTime, retryTime,
+                        model.getBusinessId(), model.getBrokerMessage(), model.getException()));
+                RetryEntry entry = new RetryEntry(this, id, now, expireTime, retryTime, 0);
+                pending.put(id, entry);
+                entries.add(entry);
+            }
+            for (RetryEntry entry : entries) {
+                schedule(entry, now);
+            }
+        }
+        flush();
+    }
+
+    /**
+     * 重试成功或者过期，从索引中删除并记录状态
+     */
+    synchronized void complete(Long[] ids, RetryStatus status) throws IOException {
+        RetryEntry[] entries = new RetryEntry[ids.length];
+        int count = 0;
+        for (Long id : ids) {
+            RetryEntry entry = id == null ? null : pending.remove(id);
+            if (entry != null) {
+                entry.cancel();
+                ready.remove(id);
+                if (status == RetryStatus.RETRY_SUCCESS) {
+                    entry.update(entry.getRetryCount() + 1, entry.getRetryTime());
+                }
+                entries[count++] = entry;
+            }
+        }
+        if (count > 0) {
+            store.append(RetryLogSerializer.encodeUpdate(entries, count, status.getValue()));
+        }
+    }
+
+    /**
+     * 重试失败，计算下次重试时间，超过重试次数的消息过期
+     */
+    synchronized void error(Long[] ids, RetryPolicy retryPolicy) throws IOException {
+        RetryEntry[] retrying = new RetryEntry[ids.length];
+        RetryEntry[] expired = new RetryEntry[ids.length];
+        int retryingCount = 0;
+        int expiredCount = 0;
+        long now = SystemClock.now();
+        for (Long id : ids) {
+            RetryEntry entry = id == null ? null : pending.get(id);
+            if (entry == null) {
+                continue;
+            }
+            ready.remove(id);
+            int retryCount = entry.getRetryCount() + 1;
+            long retryTime = retryPolicy.getTime(now, retryCount + 1, entry.getCreateTime());
+            if (retryTime <= 0 || entry.getExpireTime() <= now) {
+                pending.remove(id);
+                entry.cancel();
+                entry.update(retryCount, now);
+                expired[expiredCount++] = entry;
+            } else {
+                entry.update(retryCount, retryTime);
+                schedule(entry, now);
+                retrying[retryingCount++] = entry;
+            }
+        }
+        if (retryingCount > 0) {
+            store.append(RetryLogSerializer.encodeUpdate(retrying, retryingCount, RetryStatus.RETRY_ING.getValue()));
+        }
+        if (expiredCount > 0) {
+            store.append(RetryLogSerializer.encodeUpdate(expired, expiredCount, RetryStatus.RETRY_EXPIRE.getValue()));
+        }
+    }
+
+    /**
+     * 按重试ID顺序读取已到重试时间的消息
+     *
+     * @param count      条数
+     * @param startIndex 跳过的条数
+     */
+    List<RetryMessageModel> get(int count, long startIndex) throws IOException {
+        List<RetryMessageModel> result = new ArrayList<>(count);
+        long skip = startIndex;
+        for (Long id : ready) {
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            if (!pending.containsKey(id)) {
+                continue;
+            }
+            ByteBuffer log = store.read(id - 1);
+            RetryMessageModel model = new RetryMessageModel();
+            model.setIndex(id);
+            model.setTopic(topic);
+            model.setApp(app);
+            model.setPartition(Partition.RETRY_PARTITION_ID);
+            RetryLogSerializer.decodeMessage(log, (sendTime, businessId, brokerMessage, exception) -> {
+                model.setSendTime(sendTime);
+                model.setBusinessId(businessId);
+                model.setBrokerMessage(brokerMessage);
+                model.setException(exception);
+            });
+            result.add(model);
+            if (result.size() >= count) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    int count() {
+        return pending.size();
+    }
+
+    /**
+     * 将写入的日志刷盘
+     */
+    void flush() throws IOException {
+        while (store.flush()) {
+            // 每次刷一个文件，直到全部刷完
+        }
+    }
+
+    /**
+     * 删除最小重试ID之前的日志文件
+     */
+    void compact() throws IOException {
+        Map.Entry<Long, RetryEntry> first = pending.firstEntry();
+        long position = first == null ? store.flushPosition() : Math.min(first.getKey() - 1, store.flushPosition());
+        if (position > store.left()) {
+            store.physicalDeleteTo(position);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (RetryEntry entry : pending.values()) {
+            entry.cancel();
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            logger.warn("Flush retry journal exception, topic: {}, app: {}.", topic, app, e);
+        }
+        store.close();
+    }
+
+    /**
+     * 获取重试消息的过期时间，默认30天过期
+     */
+    private static long getExpireTime(RetryPolicy retryPolicy, long now) {
+        long expireTime = retryPolicy.getExpireTime() != null ? retryPolicy.getExpireTime() : 0;
+        return expireTime > 0 ? now + expireTime : now + DEFAULT_EXPIRE_TIME;
+    }
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.server.retry.store;
+
+import io.chubao.joyqueue.store.PartialLogException;
+import io.chubao.joyqueue.store.ReadException;
+import io.chubao.joyqueue.store.file.LogSerializer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * 重试日志序列化
+ * <p>
+ * 日志格式：长度(4) + 魔数(2) + 类型(1) + 内容 + CRC(8)，CRC校验类型和内容。
+ * <p>
+ * 新增日志(ADD)内容：发送时间(8) + 创建时间(8) + 过期时间(8) + 重试时间(8) + 业务ID + 消息 + 异常，
+ * 变长字段以长度开头，长度为-1表示null；
+ * 状态日志(UPDATE)内容：条数(4) + 若干条 [重试ID(8) + 状态(2) + 重试次数(4) + 下次重试时间(8)]。
+ */
+public class RetryLogSerializer implements LogSerializer<ByteBuffer> {
+    static final byte TYPE_ADD = 1;
+    static final byte TYPE_UPDATE = 2;
+
+    private static final short MAGIC = (short) 0xA5E7;
+    private static final int TYPE_OFFSET = 4 + 2;
+    private static final int PAYLOAD_OFFSET = TYPE_OFFSET + 1;
+    private static final int CRC_SIZE = 8;
+    private static final int ADD_FIXED_SIZE = 8 * 4 + 2 + 4 + 4;
+    private static final int UPDATE_ITEM_SIZE = 8 + 2 + 4 + 8;
+
+    private final int maxLogLength;
+
+    public RetryLogSerializer(int maxLogLength) {
+        this.maxLogLength = maxLogLength;
+    }
+
+    @Override
+    public ByteBuffer read(ByteBuffer src, int length) {
+        src.mark();
+        try {
+            if (length < 0) {
+                if (src.remaining() < Integer.BYTES) {
+                    throw new ReadException();
+                }
+                length = src.getInt(src.position());
+            }
+            if (length < PAYLOAD_OFFSET + CRC_SIZE || length > maxLogLength) {
+                throw new ReadException();
+            }
+            if (src.remaining() < length) {
+                throw new PartialLogException();
+            }
+            byte[] bytes = new byte[length];
+            src.get(bytes);
+            ByteBuffer log = ByteBuffer.wrap(bytes);
+            if (log.getShort(Integer.BYTES) != MAGIC || log.getLong(length - CRC_SIZE) != crc(log)) {
+                throw new ReadException();
+            }
+            return log;
+        } catch (Throwable t) {
+            src.reset();
+            throw t;
+        }
+    }
+
+    @Override
+    public int trim(ByteBuffer src, int length) {
+        ByteBuffer sliced = src.slice();
+        int pos = 0;
+        while (sliced.remaining() - pos >= Integer.BYTES && pos < length) {
+            int len = sliced.getInt(pos);
+            if (len < PAYLOAD_OFFSET + CRC_SIZE || len > maxLogLength) {
+                throw new ReadException();
+            }
+            if (sliced.remaining() - pos < len) {
+                break;
+            }
+            pos += len;
+        }
+        return pos;
+    }
+
+    @Override
+    public int size(ByteBuffer buffer) {
+        return buffer.remaining();
+    }
+
+    @Override
+    public int append(ByteBuffer from, ByteBuffer to) {
+        int length = from.remaining();
+        from.mark();
+        to.put(from);
+        from.reset();
+        return length;
+    }
+
+    static byte type(ByteBuffer log) {
+        return log.get(log.position() + TYPE_OFFSET);
+    }
+
+    /**
+     * 生成新增日志
+     */
+    static ByteBuffer encodeAdd(long sendTime, long createTime, long expireTime, long retryTime,
+                                String businessId, byte[] brokerMessage, byte[] exception) {
+        byte[] businessIdBytes = businessId == null ? null : businessId.getBytes(StandardCharsets.UTF_8);
+        int length = PAYLOAD_OFFSET + ADD_FIXED_SIZE + sizeOf(businessIdBytes) + sizeOf(brokerMessage) + sizeOf(exception) + CRC_SIZE;
+        ByteBuffer log = begin(length, TYPE_ADD);
+        log.putLong(sendTime);
+        log.putLong(createTime);
+        log.putLong(expireTime);
+        log.putLong(retryTime);
+        log.putShort((short) (businessIdBytes == null ? -1 : businessIdBytes.length));
+        if (businessIdBytes != null) {
+            log.put(businessIdBytes);
+        }
+        putBytes(log, brokerMessage);
+        putBytes(log, exception);
+        return end(log);
+    }
+
+    /**
+     * 生成状态日志
+     */
+    static ByteBuffer encodeUpdate(RetryEntry[] entries, int count, short status) {
+        ByteBuffer log = begin(PAYLOAD_OFFSET + Integer.BYTES + UPDATE_ITEM_SIZE * count + CRC_SIZE, TYPE_UPDATE);
+        log.putInt(count);
+        for (int i = 0; i < count; i++) {
+            RetryEntry entry = entries[i];
+            log.putLong(entry.getId());
+            log.putShort(status);
+            log.putInt(entry.getRetryCount());
+            log.putLong(entry.getRetryTime());
+        }
+        return end(log);
+    }
+
+    /**
+     * 解析新增日志中的重试时间信息
+     */
+    static RetryEntry decodeAdd(RetryJournal journal, long id, ByteBuffer log) {
+        int pos = log.position() + PAYLOAD_OFFSET;
+        long createTime = log.getLong(pos + 8);
+        long expireTime = log.getLong(pos + 16);
+        long retryTime = log.getLong(pos + 24);
+        return new RetryEntry(journal, id, createTime, expireTime, retryTime, 0);
+    }
+
+    /**
+     * 解析新增日志中的消息内容
+     */
+    static void decodeMessage(ByteBuffer log, MessageConsumer consumer) {
+        ByteBuffer buffer = log.duplicate();
+        buffer.position(log.position() + PAYLOAD_OFFSET);
+        long sendTime = buffer.getLong();
+        buffer.position(buffer.position() + 24);
+        short businessIdLength = buffer.getShort();
+        String businessId = null;
+        if (businessIdLength >= 0) {
+            byte[] bytes = new byte[businessIdLength];
+            buffer.get(bytes);
+            businessId = new String(bytes, StandardCharsets.UTF_8);
+        }
+        byte[] brokerMessage = getBytes(buffer);
+        byte[] exception = getBytes(buffer);
+        consumer.accept(sendTime, businessId, brokerMessage, exception);
+    }
+
+    /**
+     * 逐条解析状态日志
+     */
+    static void decodeUpdate(ByteBuffer log, UpdateConsumer consumer) {
+        int pos = log.position() + PAYLOAD_OFFSET;
+        int count = log.getInt(pos);
+        pos += Integer.BYTES;
+        for (int i = 0; i < count; i++, pos += UPDATE_ITEM_SIZE) {
+            consumer.accept(log.getLong(pos), log.getShort(pos + 8), log.getInt(pos + 10), log.getLong(pos + 14));
+        }
+    }
+
+    private static ByteBuffer begin(int length, byte type) {
+        ByteBuffer log = ByteBuffer.allocate(length);
+        log.putInt(length);
+        log.putShort(MAGIC);
+        log.put(type);
+        return log;
+    }
+
+    private static ByteBuffer end(ByteBuffer log) {
+        log.putLong(crc(log));
+        log.flip();
+        return log;
+    }
+
+    private static long crc(ByteBuffer log) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(log.array(), log.arrayOffset() + TYPE_OFFSET, log.getInt(0) - TYPE_OFFSET - CRC_SIZE);
+        return crc32.getValue();
+    }
+
+    private static int sizeOf(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private static void putBytes(ByteBuffer log, byte[] bytes) {
+        if (bytes == null) {
+            log.putInt(-1);
+        } else {
+            log.putInt(bytes.length);
+            log.put(bytes);
+        }
+    }
+
+    private static byte[] getBytes(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    interface MessageConsumer {
+        void accept(long sendTime, String businessId, byte[] brokerMessage, byte[] exception);
+    }
+
+    interface UpdateConsumer {
+        void accept(long id, short status, int retryCount, long retryTime);
+    }
+}
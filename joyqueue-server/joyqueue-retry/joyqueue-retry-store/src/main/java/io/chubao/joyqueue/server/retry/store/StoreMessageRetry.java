@@ -0,0 +1,316 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.server.retry.store;
+
+import com.jd.laf.extension.Extension;
+import io.chubao.joyqueue.domain.TopicName;
+import io.chubao.joyqueue.exception.JoyQueueCode;
+import io.chubao.joyqueue.exception.JoyQueueException;
+import io.chubao.joyqueue.server.retry.api.MessageRetry;
+import io.chubao.joyqueue.server.retry.api.RetryPolicyProvider;
+import io.chubao.joyqueue.server.retry.model.RetryMessageModel;
+import io.chubao.joyqueue.server.retry.model.RetryStatus;
+import io.chubao.joyqueue.server.retry.store.config.StoreRetryConfigKey;
+import io.chubao.joyqueue.store.file.PositioningStore;
+import io.chubao.joyqueue.store.utils.PreloadBufferPool;
+import io.chubao.joyqueue.toolkit.concurrent.LoopThread;
+import io.chubao.joyqueue.toolkit.concurrent.NamedThreadFactory;
+import io.chubao.joyqueue.toolkit.config.Property;
+import io.chubao.joyqueue.toolkit.config.PropertySupplier;
+import io.chubao.joyqueue.toolkit.delay.Timer;
+import io.chubao.joyqueue.toolkit.retry.RetryPolicy;
+import io.chubao.joyqueue.toolkit.time.SystemClock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 基于本地存储的重试管理
+ * <p>
+ * 每个主题+应用一个重试日志（{@link RetryJournal}），目录为 ${retry.store.path}/主题/应用，
+ * 重试时间由时间轮驱动，状态变更按批追加写入日志并定时刷盘，不依赖数据库。
+ */
+@Extension("StoreRetry")
+public class StoreMessageRetry implements MessageRetry<Long> {
+
+    private static final Logger logger = LoggerFactory.getLogger(StoreMessageRetry.class);
+    private static final String RETRY_PATH = "/retry/";
+
+    // K=主题, V=(K=应用, V=重试日志)
+    private final ConcurrentMap<String, ConcurrentMap<String, RetryJournal>> journals = new ConcurrentHashMap<>();
+    // 重试策略
+    private RetryPolicyProvider retryPolicyProvider;
+    private File base;
+    private int fileSize;
+    private PositioningStore.Config storeConfig;
+    private RetryLogSerializer serializer;
+    private int flushInterval;
+    private PreloadBufferPool bufferPool;
+    private ExecutorService timerExecutor;
+    private Timer timer;
+    private LoopThread timerThread;
+    private LoopThread flushThread;
+    // start flag
+    private volatile boolean isStartFlag = false;
+
+    @Override
+    public void setSupplier(PropertySupplier supplier) {
+        String path = PropertySupplier.getValue(supplier, StoreRetryConfigKey.PATH);
+        if (path == null || path.isEmpty()) {
+            Property property = supplier == null ? null : supplier.getProperty(Property.APPLICATION_DATA_PATH);
+            path = (property == null ? "" : property.getString()) + RETRY_PATH;
+        }
+        this.fileSize = PropertySupplier.getValue(supplier, StoreRetryConfigKey.FILE_SIZE);
+        this.base = new File(path);
+        this.storeConfig = new PositioningStore.Config(fileSize);
+        this.serializer = new RetryLogSerializer(fileSize);
+        this.flushInterval = PropertySupplier.getValue(supplier, StoreRetryConfigKey.FLUSH_INTERVAL);
+    }
+
+    @Override
+    public void setRetryPolicyProvider(RetryPolicyProvider retryPolicyProvider) {
+        this.retryPolicyProvider = retryPolicyProvider;
+    }
+
+    @Override
+    public void start() throws Exception {
+        if (base == null) {
+            setSupplier(null);
+        }
+        if (!base.exists() && !base.mkdirs()) {
+            throw new IOException(String.format("Create directory %s failed!", base.getAbsolutePath()));
+        }
+        bufferPool = PreloadBufferPool.getInstance();
+        bufferPool.addPreLoad(fileSize, 0, 4);
+        timerExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("joyqueue-retry-store-timer-executor"));
+        timer = new Timer(timerExecutor);
+        timerThread = LoopThread.builder()
+                .name("joyqueue-retry-store-timer")
+                .doWork(() -> timer.advanceClock(200))
+                .sleepTime(0, 0)
+                .onException(e -> logger.warn("Advance retry timer exception: ", e))
+                .build();
+        flushThread = LoopThread.builder()
+                .name("joyqueue-retry-store-flush")
+                .doWork(this::flushAndCompact)
+                .sleepTime(flushInterval, flushInterval)
+                .onException(e -> logger.warn("Flush retry journal exception: ", e))
+                .build();
+
+        recoverJournals();
+        timerThread.start();
+        flushThread.start();
+        isStartFlag = true;
+        logger.info("store retry manager is started, path: {}", base.getAbsolutePath());
+    }
+
+    private void recoverJournals() throws IOException {
+        File[] topicDirs = base.listFiles(File::isDirectory);
+        if (topicDirs == null) {
+            return;
+        }
+        for (File topicDir : topicDirs) {
+            File[] appDirs = topicDir.listFiles(File::isDirectory);
+            if (appDirs == null) {
+                continue;
+            }
+            for (File appDir : appDirs) {
+                RetryJournal journal = openJournal(topicDir.getName(), appDir.getName());
+                journals.computeIfAbsent(topicDir.getName(), k -> new ConcurrentHashMap<>()).put(appDir.getName(), journal);
+            }
+        }
+    }
+
+    private RetryJournal openJournal(String topic, String app) throws IOException {
+        File journalBase = new File(new File(base, topic), app);
+        if (!journalBase.exists() && !journalBase.mkdirs()) {
+            throw new IOException(String.format("Create directory %s failed!", journalBase.getAbsolutePath()));
+        }
+        RetryJournal journal = new RetryJournal(topic, app, journalBase, storeConfig, bufferPool, serializer, timer);
+        journal.recover();
+        return journal;
+    }
+
+    private void flushAndCompact() throws IOException {
+        for (Map<String, RetryJournal> appJournals : journals.values()) {
+            for (RetryJournal journal : appJournals.values()) {
+                journal.flush();
+                journal.compact();
+            }
+        }
+    }
+
+    @Override
+    public boolean isStarted() {
+        return isStartFlag;
+    }
+
+    @Override
+    public void stop() {
+        isStartFlag = false;
+        if (flushThread != null) {
+            flushThread.stop();
+        }
+        if (timerThread != null) {
+            timerThread.stop();
+        }
+        if (timerExecutor != null) {
+            timerExecutor.shutdown();
+        }
+        for (Map<String, RetryJournal> appJournals : journals.values()) {
+            for (RetryJournal journal : appJournals.values()) {
+                journal.close();
+            }
+        }
+        journals.clear();
+        logger.info("store retry manager is stopped");
+    }
+
+    /**
+     * 获取重试日志
+     *
+     * @param create 不存在时是否创建
+     */
+    private RetryJournal getJournal(String topic, String app, boolean create) throws JoyQueueException {
+        ConcurrentMap<String, RetryJournal> appJournals = journals.get(topic);
+        RetryJournal journal = appJournals == null ? null : appJournals.get(app);
+        if (journal != null || !create) {
+            return journal;
+        }
+        synchronized (journals) {
+            appJournals = journals.computeIfAbsent(topic, k -> new ConcurrentHashMap<>());
+            journal = appJournals.get(app);
+            if (journal == null) {
+                try {
+                    journal = openJournal(topic, app);
+                } catch (IOException e) {
+                    throw new JoyQueueException(JoyQueueCode.SE_IO_ERROR.getMessage() + ",topic:" + topic + ",app:" + app, e,
+                            JoyQueueCode.SE_IO_ERROR.getCode());
+                }
+                appJournals.put(app, journal);
+            }
+            return journal;
+        }
+    }
+
+    private RetryPolicy getRetryPolicy(String topic, String app) throws JoyQueueException {
+        return retryPolicyProvider.getPolicy(TopicName.parse(topic), app);
+    }
+
+    @Override
+    public void addRetry(List<RetryMessageModel> retryMessageModelList) throws JoyQueueException {
+        if (retryMessageModelList == null || retryMessageModelList.isEmpty()) {
+            return;
+        }
+        // 按主题+应用分组，每组一次写入
+        Map<String, List<RetryMessageModel>> groups = new LinkedHashMap<>();
+        for (RetryMessageModel model : retryMessageModelList) {
+            groups.computeIfAbsent(model.getTopic() + File.separator + model.getApp(), k -> new ArrayList<>()).add(model);
+        }
+        for (List<RetryMessageModel> models : groups.values()) {
+            String topic = models.get(0).getTopic();
+            String app = models.get(0).getApp();
+            try {
+                getJournal(topic, app, true).add(models, getRetryPolicy(topic, app));
+            } catch (IOException e) {
+                throw new JoyQueueException(JoyQueueCode.SE_IO_ERROR.getMessage() + ",topic:" + topic + ",app:" + app, e,
+                        JoyQueueCode.SE_IO_ERROR.getCode());
+            }
+        }
+    }
+
+    @Override
+    public void retrySuccess(String topic, String app, Long[] messageIds) throws JoyQueueException {
+        complete(topic, app, messageIds, RetryStatus.RETRY_SUCCESS);
+    }
+
+    @Override
+    public void retryError(String topic, String app, Long[] messageIds) throws JoyQueueException {
+        if (topic == null || topic.isEmpty() || app == null || app.isEmpty() || messageIds == null || messageIds.length == 0) {
+            return;
+        }
+        RetryJournal journal = getJournal(topic, app, false);
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.error(messageIds, getRetryPolicy(topic, app));
+        } catch (IOException e) {
+            throw new JoyQueueException(JoyQueueCode.SE_IO_ERROR, e);
+        }
+    }
+
+    @Override
+    public void retryExpire(String topic, String app, Long[] messageIds) throws JoyQueueException {
+        complete(topic, app, messageIds, RetryStatus.RETRY_EXPIRE);
+    }
+
+    private void complete(String topic, String app, Long[] messageIds, RetryStatus status) throws JoyQueueException {
+        if (topic == null || topic.isEmpty() || app == null || app.isEmpty() || messageIds == null || messageIds.length == 0) {
+            return;
+        }
+        RetryJournal journal = getJournal(topic, app, false);
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.complete(messageIds, status);
+        } catch (IOException e) {
+            throw new JoyQueueException(JoyQueueCode.SE_IO_ERROR, e);
+        }
+    }
+
+    @Override
+    public List<RetryMessageModel> getRetry(String topic, String app, short count, long startIndex) throws JoyQueueException {
+        if (topic == null || topic.isEmpty() || app == null || app.isEmpty() || count <= 0) {
+            return new ArrayList<>(0);
+        }
+        RetryJournal journal = getJournal(topic, app, false);
+        if (journal == null) {
+            return new ArrayList<>(0);
+        }
+        try {
+            return journal.get(count, startIndex);
+        } catch (IOException e) {
+            throw new JoyQueueException(String.format("%s topic:%s,app:%s,count:%d", JoyQueueCode.SE_IO_ERROR.getMessage(), topic, app, count), e,
+                    JoyQueueCode.SE_IO_ERROR.getCode());
+        }
+    }
+
+    @Override
+    public int countRetry(String topic, String app) throws JoyQueueException {
+        if (topic == null || topic.isEmpty() || app == null || app.isEmpty()) {
+            return 0;
+        }
+        long start = SystemClock.now();
+        RetryJournal journal = getJournal(topic, app, false);
+        int count = journal == null ? 0 : journal.count();
+        if (logger.isDebugEnabled()) {
+            logger.debug("count retry, topic: {}, app: {}, count: {}, time: {}", topic, app, count, SystemClock.now() - start);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.server.retry.store.config;
+
+import io.chubao.joyqueue.toolkit.config.PropertyDef;
+
+/**
+ * 本地存储重试配置
+ */
+public enum StoreRetryConfigKey implements PropertyDef {
+
+    // 重试日志目录，为空时使用 ${application.data.path}/retry
+    PATH("retry.store.path", "", Type.STRING),
+    // 单个重试日志文件大小
+    FILE_SIZE("retry.store.file.size", 16 * 1024 * 1024, Type.INT),
+    // 重试状态批量刷盘间隔（毫秒）
+    FLUSH_INTERVAL("retry.store.flush.interval", 100, Type.INT);
+
+    private String name;
+    private Object value;
+    private Type type;
+
+    StoreRetryConfigKey(String name, Object value, Type type) {
+        this.name = name;
+        this.value = value;
+        this.type = type;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Object getValue() {
+        return value;
+    }
+
+    @Override
+    public Type getType() {
+        return type;
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.server.retry.store;
+
+import io.chubao.joyqueue.server.retry.model.RetryMessageModel;
+import io.chubao.joyqueue.toolkit.config.PropertySupplier;
+import io.chubao.joyqueue.toolkit.retry.RetryPolicy;
+import io.chubao.joyqueue.toolkit.time.SystemClock;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class StoreMessageRetryTest {
+    private static final String TOPIC = "test_topic";
+    private static final String APP = "test_app";
+    private File base;
+    private volatile RetryPolicy retryPolicy = new RetryPolicy(0, 2);
+
+    @Before
+    public void before() throws Exception {
+        base = Files.createTempDirectory("retry-store").toFile();
+    }
+
+    @After
+    public void after() {
+        delete(base);
+    }
+
+    @Test
+    public void testRetryAndRecover() throws Exception {
+        StoreMessageRetry messageRetry = start();
+        messageRetry.addRetry(createMessages(3));
+        Assert.assertEquals(3, messageRetry.countRetry(TOPIC, APP));
+
+        List<RetryMessageModel> retries = messageRetry.getRetry(TOPIC, APP, (short) 10, 0);
+        Assert.assertEquals(3, retries.size());
+        Assert.assertEquals("business_0", retries.get(0).getBusinessId());
+        Assert.assertArrayEquals("message_0".getBytes(), retries.get(0).getBrokerMessage());
+        Assert.assertEquals(2, messageRetry.getRetry(TOPIC, APP, (short) 10, 1).size());
+
+        Long[] first = {retries.get(0).getIndex()};
+        Long[] second = {retries.get(1).getIndex()};
+        messageRetry.retrySuccess(TOPIC, APP, first);
+        // 第一次失败继续重试，第二次失败超过最大重试次数后过期
+        messageRetry.retryError(TOPIC, APP, second);
+        Assert.assertEquals(2, messageRetry.countRetry(TOPIC, APP));
+        messageRetry.retryError(TOPIC, APP, second);
+        Assert.assertEquals(1, messageRetry.countRetry(TOPIC, APP));
+        messageRetry.stop();
+
+        messageRetry = start();
+        Assert.assertEquals(1, messageRetry.countRetry(TOPIC, APP));
+        retries = messageRetry.getRetry(TOPIC, APP, (short) 10, 0);
+        Assert.assertEquals(1, retries.size());
+        Assert.assertEquals("business_2", retries.get(0).getBusinessId());
+        Assert.assertArrayEquals("exception_2".getBytes(), retries.get(0).getException());
+        messageRetry.retryExpire(TOPIC, APP, new Long[]{retries.get(0).getIndex()});
+        Assert.assertEquals(0, messageRetry.countRetry(TOPIC, APP));
+        messageRetry.stop();
+    }
+
+    @Test
+    public void testRetryDelay() throws Exception {
+        retryPolicy = new RetryPolicy(300, 3);
+        StoreMessageRetry messageRetry = start();
+        messageRetry.addRetry(createMessages(1));
+        Assert.assertTrue(messageRetry.getRetry(TOPIC, APP, (short) 10, 0).isEmpty());
+
+        long deadline = SystemClock.now() + 5000;
+        List<RetryMessageModel> retries;
+        do {
+            Thread.sleep(50);
+            retries = messageRetry.getRetry(TOPIC, APP, (short) 10, 0);
+        } while (retries.isEmpty() && SystemClock.now() < deadline);
+        Assert.assertEquals(1, retries.size());
+
+        messageRetry.retryError(TOPIC, APP, new Long[]{retries.get(0).getIndex()});
+        Assert.assertTrue(messageRetry.getRetry(TOPIC, APP, (short) 10, 0).isEmpty());
+        Assert.assertEquals(1, messageRetry.countRetry(TOPIC, APP));
+        messageRetry.stop();
+    }
+
+    private StoreMessageRetry start() throws Exception {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("retry.store.path", base.getAbsolutePath());
+        properties.put("retry.store.file.size", 64 * 1024);
+        StoreMessageRetry messageRetry = new StoreMessageRetry();
+        messageRetry.setSupplier(new PropertySupplier.MapSupplier(properties));
+        messageRetry.setRetryPolicyProvider((topic, app) -> retryPolicy);
+        messageRetry.start();
+        return messageRetry;
+    }
+
+    private List<RetryMessageModel> createMessages(int count) {
+        List<RetryMessageModel> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            RetryMessageModel message = new RetryMessageModel();
+            message.setTopic(TOPIC);
+            message.setApp(APP);
+            message.setBusinessId("business_" + i);
+            message.setBrokerMessage(("message_" + i).getBytes());
+            message.setException(("exception_" + i).getBytes());
+            message.setSendTime(SystemClock.now());
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    private void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -92,6 +92,34 @@ public interface PartitionGroupStore {
      */
     void asyncWrite(EventListener<WriteResult> eventListener, WriteRequest... writeRequests);
 
+    /**
+     * 异步写入事务消息。消息只写入一次，直接写入分区，在事务提交之前对消费者不可见；
+     * 同一个事务可以多次写入。
+     * @param transactionId 事务ID，在Topic范围内唯一
+     * @param expireTime 事务的过期时间，超过这个时间仍未完成的事务由存储自动回滚
+     * @param writeRequests partition序号和消息
+     * @return 以Future形式返回结果
+     * @see #asyncCommitTransaction(String)
+     * @see #asyncRollbackTransaction(String)
+     */
+    Future<WriteResult> asyncWriteTransaction(String transactionId, long expireTime, WriteRequest... writeRequests);
+
+    /**
+     * 异步提交事务，写入提交标记，之后事务消息对消费者可见。
+     * 事务在这个Partition group中没有写入消息或者已经完成时，直接返回成功。
+     * @param transactionId 事务ID
+     * @return 以Future形式返回结果
+     */
+    Future<WriteResult> asyncCommitTransaction(String transactionId);
+
+    /**
+     * 异步回滚事务，写入回滚标记，之后读取时跳过事务消息。
+     * 事务在这个Partition group中没有写入消息或者已经完成时，直接返回成功。
+     * @param transactionId 事务ID
+     * @return 以Future形式返回结果
+     */
+    Future<WriteResult> asyncRollbackTransaction(String transactionId);
+
 
 
     /**
@@ -103,6 +131,7 @@ public interface PartitionGroupStore {
      *                当第一条消息长度大于maxSize时，返回1条消息。
      *                否则返回尽可能多的消息，保证这些消息长度之不超过maxSize。
      * @return 消息数组，不保证返回消息数量一定等于要求数量count。
+     *         未完成事务的消息及其之后的消息不会返回；已回滚事务的消息被跳过，跳过的数量见{@link ReadResult#getSkipped()}。
      * @see ReadResult
      *
      */
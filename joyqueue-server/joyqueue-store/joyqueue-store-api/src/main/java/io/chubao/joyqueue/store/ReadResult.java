@@ -39,6 +39,11 @@ public class ReadResult {
      */
     private boolean eop;
 
+    /**
+     * 读取时跳过的已回滚事务消息的数量，返回的消息从 index + skipped 开始。
+     */
+    private long skipped;
+
     public JoyQueueCode getCode() {
         return code;
     }
@@ -62,4 +67,12 @@ public class ReadResult {
     public void setEop(boolean eop) {
         this.eop = eop;
     }
+
+    public long getSkipped() {
+        return skipped;
+    }
+
+    public void setSkipped(long skipped) {
+        this.skipped = skipped;
+    }
 }
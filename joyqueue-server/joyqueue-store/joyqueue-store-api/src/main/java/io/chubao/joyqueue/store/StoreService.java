@@ -19,9 +19,11 @@ import io.chubao.joyqueue.domain.QosLevel;
 import io.chubao.joyqueue.monitor.BufferPoolMonitorInfo;
 import io.chubao.joyqueue.store.replication.ReplicableStore;
 import io.chubao.joyqueue.store.transaction.TransactionStore;
+import io.chubao.joyqueue.toolkit.concurrent.EventListener;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -71,6 +73,13 @@ public interface StoreService {
      */
     void restorePartitionGroup(String topic, int partitionGroup);
 
+    /**
+     * 从磁盘并行恢复多个partition group，系统启动时调用。
+     * 所有partition group都恢复完成后返回，任何一个恢复失败都会抛出异常。
+     * @param partitionGroups key: Topic, value: 该Topic需要恢复的Partition group
+     */
+    void restorePartitionGroups(Map<String, List<Integer>> partitionGroups);
+
     /**
      * 创建PartitionGroup。仅当topic创建或者向topic中添加partitionGroup的时候调用，需要提供节点信息。
      * 如果磁盘上数据目录不存在，自动创建数据目录；如果磁盘上存在数据目录，自动逻辑删除这些目录，然后创建新的数据目录。
@@ -139,4 +148,16 @@ public interface StoreService {
      */
     BufferPoolMonitorInfo monitorInfo();
 
+    /**
+     * 添加消息写入监听器，消息写入存储后在写入线程中同步回调，监听器不能阻塞。
+     * @param listener 监听器
+     */
+    void addWriteListener(EventListener<WriteEvent> listener);
+
+    /**
+     * 删除消息写入监听器
+     * @param listener 监听器
+     */
+    void removeWriteListener(EventListener<WriteEvent> listener);
+
 }
@@ -0,0 +1,65 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.store;
+
+import java.util.Arrays;
+
+/**
+ * 消息写入事件，消息写入存储并且可以被读取之后产生
+ */
+public class WriteEvent {
+    /**
+     * 主题
+     */
+    private final String topic;
+
+    /**
+     * 分区组
+     */
+    private final int partitionGroup;
+
+    /**
+     * 本次写入涉及的分区，可能重复
+     */
+    private final short[] partitions;
+
+    public WriteEvent(String topic, int partitionGroup, short[] partitions) {
+        this.topic = topic;
+        this.partitionGroup = partitionGroup;
+        this.partitions = partitions;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public int getPartitionGroup() {
+        return partitionGroup;
+    }
+
+    public short[] getPartitions() {
+        return partitions;
+    }
+
+    @Override
+    public String toString() {
+        return "WriteEvent{" +
+                "topic='" + topic + '\'' +
+                ", partitionGroup=" + partitionGroup +
+                ", partitions=" + Arrays.toString(partitions) +
+                '}';
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.store.message;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 存储读出的消息和字节数组之间的转换
+ */
+public class MessageBytes {
+
+    /**
+     * 消息的完整字节数组。
+     * 存储读出的每条消息是一个从0到capacity的切片，底层数组正好是这条消息时直接返回，
+     * 消息是更大数据块的切片或者是堆外内存时复制一份。
+     */
+    public static byte[] toBytes(ByteBuffer message) {
+        if (!message.hasArray()) {
+            byte[] bytes = new byte[message.capacity()];
+            ByteBuffer duplicate = message.duplicate();
+            duplicate.clear();
+            duplicate.get(bytes);
+            return bytes;
+        }
+        byte[] array = message.array();
+        if (message.arrayOffset() == 0 && array.length == message.capacity()) {
+            return array;
+        }
+        return Arrays.copyOfRange(array, message.arrayOffset(), message.arrayOffset() + message.capacity());
+    }
+}
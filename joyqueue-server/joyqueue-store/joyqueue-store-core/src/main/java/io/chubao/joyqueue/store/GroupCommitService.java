@@ -0,0 +1,181 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.store;
+
+import io.chubao.joyqueue.toolkit.concurrent.LoopThread;
+import io.chubao.joyqueue.toolkit.lang.LifeCycle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 组提交服务。
+ * <p>
+ * 同一块磁盘上的所有分区组共用一个刷盘线程，每个提交窗口内：
+ * 1. 依次将所有分区组的脏数据写入文件；
+ * 2. 依次对写入的文件执行fdatasync；
+ * 3. 一次性回调所有分区组中已经落盘的PERSISTENCE写入请求。
+ * <p>
+ * 提交窗口在距上次提交超过maxLatencyMs，或者未提交的数据超过maxBytes时触发。
+ */
+public class GroupCommitService implements LifeCycle {
+    private static final Logger logger = LoggerFactory.getLogger(GroupCommitService.class);
+    private static final String DEFAULT_DISK = "default";
+    private final long maxLatencyMs;
+    private final long maxBytes;
+    private final Map<String, Committer> committers = new ConcurrentHashMap<>();
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    /**
+     * @param maxLatencyMs 最大提交间隔
+     * @param maxBytes     未提交数据超过这个值时立即提交
+     */
+    public GroupCommitService(long maxLatencyMs, long maxBytes) {
+        this.maxLatencyMs = maxLatencyMs;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 获取目录所在磁盘的提交器
+     */
+    Committer committer(File base) {
+        return committers.computeIfAbsent(diskOf(base), disk -> {
+            Committer committer = new Committer(disk);
+            if (started.get()) {
+                committer.start();
+            }
+            return committer;
+        });
+    }
+
+    private String diskOf(File base) {
+        try {
+            FileStore fileStore = Files.getFileStore(base.toPath());
+            return fileStore.name();
+        } catch (IOException e) {
+            logger.warn("Get file store of {} failed, use default disk.", base.getAbsolutePath(), e);
+            return DEFAULT_DISK;
+        }
+    }
+
+    @Override
+    public void start() {
+        if (started.compareAndSet(false, true)) {
+            committers.values().forEach(Committer::start);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (started.compareAndSet(true, false)) {
+            committers.values().forEach(Committer::stop);
+        }
+    }
+
+    @Override
+    public boolean isStarted() {
+        return started.get();
+    }
+
+    /**
+     * 一块磁盘的提交器
+     */
+    class Committer {
+        private final String disk;
+        private final Set<PartitionGroupStoreManager> stores = ConcurrentHashMap.newKeySet();
+        private final AtomicLong pendingBytes = new AtomicLong(0L);
+        private final Lock commitLock = new ReentrantLock();
+        private final LoopThread commitThread;
+
+        private Committer(String disk) {
+            this.disk = disk;
+            this.commitThread = LoopThread.builder()
+                    .name(String.format("GroupCommitThread-%s", disk))
+                    .doWork(this::commit)
+                    .sleepTime(maxLatencyMs, maxLatencyMs)
+                    .onException(e -> logger.warn("Group commit exception, disk: {}: ", disk, e))
+                    .build();
+        }
+
+        void register(PartitionGroupStoreManager store) {
+            stores.add(store);
+        }
+
+        /**
+         * 取消注册，如果正在提交，等待提交完成后返回
+         */
+        void unregister(PartitionGroupStoreManager store) {
+            commitLock.lock();
+            try {
+                stores.remove(store);
+            } finally {
+                commitLock.unlock();
+            }
+        }
+
+        /**
+         * 写入数据后调用，未提交的数据超过maxBytes时立即唤醒提交线程
+         */
+        void onWrite(long bytes) {
+            if (pendingBytes.addAndGet(bytes) >= maxBytes) {
+                commitThread.wakeup();
+            }
+        }
+
+        private void commit() {
+            commitLock.lock();
+            try {
+                pendingBytes.set(0L);
+                List<PartitionGroupStoreManager> flushed = new ArrayList<>(stores.size());
+                for (PartitionGroupStoreManager store : stores) {
+                    if (store.groupCommitFlush()) {
+                        flushed.add(store);
+                    }
+                }
+                for (PartitionGroupStoreManager store : flushed) {
+                    store.groupCommitForce();
+                }
+                for (PartitionGroupStoreManager store : stores) {
+                    store.groupCommitCallback();
+                }
+            } finally {
+                commitLock.unlock();
+            }
+        }
+
+        private void start() {
+            logger.info("Starting group commit thread of disk {}...", disk);
+            commitThread.start();
+        }
+
+        private void stop() {
+            commitThread.stop();
+        }
+    }
+}
@@ -24,11 +24,14 @@ import io.chubao.joyqueue.store.file.StoreMessageSerializer;
 import io.chubao.joyqueue.store.file.WriteException;
 import io.chubao.joyqueue.store.index.IndexItem;
 import io.chubao.joyqueue.store.index.IndexSerializer;
+import io.chubao.joyqueue.store.index.TimeIndex;
 import io.chubao.joyqueue.store.message.BatchMessageParser;
 import io.chubao.joyqueue.store.message.MessageParser;
 import io.chubao.joyqueue.store.nsm.VirtualThread;
 import io.chubao.joyqueue.store.nsm.VirtualThreadExecutor;
 import io.chubao.joyqueue.store.replication.ReplicableStore;
+import io.chubao.joyqueue.store.transaction.TransactionIndex;
+import io.chubao.joyqueue.store.transaction.TransactionMarker;
 import io.chubao.joyqueue.store.utils.PreloadBufferPool;
 import io.chubao.joyqueue.toolkit.concurrent.EventListener;
 import io.chubao.joyqueue.toolkit.concurrent.LoopThread;
@@ -45,6 +48,9 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -72,6 +78,12 @@ import java.util.stream.Stream;
 public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, Closeable {
     private static final Logger logger = LoggerFactory.getLogger(PartitionGroupStoreManager.class);
     private static final long EVENT_TIMEOUT_MILLS = 60 * 1000L;
+    private static final long TRANSACTION_CHECK_INTERVAL_MS = 1000L;
+    /**
+     * 保存事务标记的内部分区，不属于Topic的分区，不对外列出。
+     * 与重试分区的序号相同，重试分区不在存储中。
+     */
+    static final short TRANSACTION_PARTITION = Short.MAX_VALUE;
     private final PositioningStore<ByteBuffer> store;
     private final File base;
     private final String topic;
@@ -88,19 +100,28 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
     private final ScheduledExecutorService scheduledExecutorService;
     private final PreloadBufferPool bufferPool;
     private final VirtualThreadExecutor virtualThreadPool;
+    private final GroupCommitService.Committer groupCommitter;
     private final VirtualThread callbackVirtualThread = this::callbackVT;
+    private final VirtualThread flushVirtualThread = this::flushVT;
     private final LoopThread writeLoopThread, flushLoopThread;
     private final LoopThread metricThread;
+    private ScheduledFuture metricFeature;
     private final BlockingQueue<WriteCommand> writeCommandCache;
     private long replicationPosition;
     private long indexPosition;
+    private boolean recoveredFromCheckpoint = false;
+    private volatile boolean checkpointed = false;
     private final VirtualThread writeVirtualThread = this::writeVT;
     private AtomicBoolean started, enabled;
     private int term; // 当前轮次
     private Metric produceMetrics = null, consumeMetrics = null;
     private Metric.MetricInstance produceMetric = null, consumeMetric;
     private ScheduledFuture callbackFeature;
+    private ScheduledFuture transactionFeature;
+    private final TransactionIndex transactionIndex = new TransactionIndex();
     private final Lock writeLock = new ReentrantLock();
+    // 消息写入监听器，写入成功后同步回调
+    private volatile EventListener<WriteEvent> writeListener;
 
     public PartitionGroupStoreManager(String topic, int partitionGroup, File base, Config config,
                                       PreloadBufferPool bufferPool,
@@ -115,6 +136,16 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
                                       PreloadBufferPool bufferPool,
                                       ScheduledExecutorService scheduledExecutorService,
                                       VirtualThreadExecutor virtualThreadPool) {
+        this(topic, partitionGroup, base, config,
+                bufferPool,
+                scheduledExecutorService, virtualThreadPool, null);
+    }
+
+    public PartitionGroupStoreManager(String topic, int partitionGroup, File base, Config config,
+                                      PreloadBufferPool bufferPool,
+                                      ScheduledExecutorService scheduledExecutorService,
+                                      VirtualThreadExecutor virtualThreadPool,
+                                      GroupCommitService groupCommitService) {
         this.scheduledExecutorService = scheduledExecutorService;
         this.base = base;
         this.topic = topic;
@@ -135,6 +166,7 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
         flushCallbackBelt = new CallbackPositioningBelt();
         commitCallbackBelt = new CallbackPositioningBelt();
         this.virtualThreadPool = virtualThreadPool;
+        this.groupCommitter = null == groupCommitService ? null : groupCommitService.committer(base);
         this.writeLoopThread = LoopThread.builder()
                 .name(String.format("WriteThread-%s-%d", topic, partitionGroup))
                 .doWork(this::write)
@@ -152,44 +184,149 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
 
     private LoopThread initMetrics(Config config) {
         if (config.printMetricIntervalMs > 0) {
-            produceMetrics = new Metric("WriteMetric-" + topic + "-" + partitionGroup, 1,
-                    new String[]{"WriteLatency", "FlushLatency"}, new String[]{"WriteCount", "FlushCount"},
-                    new String[]{"WriteTraffic", "FlushTraffic"});
-            produceMetric = produceMetrics.getMetricInstances().get(0);
-            consumeMetrics = new Metric("ReadMetric-" + topic + "-" + partitionGroup, 1,
-                    new String[]{"ReadLatency"}, new String[]{"ReadCount"},
-                    new String[]{"ReadTraffic"});
-            consumeMetric = consumeMetrics.getMetricInstances().get(0);
-
+            // 使用共享的虚拟线程执行器时，不再为每个分区组单独创建打印性能信息的线程
+            if (null != virtualThreadPool) {
+                initMetricInstances();
+                return null;
+            }
+            initMetricInstances();
             return LoopThread.builder()
                     .sleepTime(config.printMetricIntervalMs, config.printMetricIntervalMs)
                     .name("Metric-Thread")
                     .onException(e -> logger.warn("Exception:", e))
-                    .doWork(() -> {
-                        consumeMetrics.reportAndReset();
-                        produceMetrics.reportAndReset();
-                        logger.info("{}-{} WriteCommandCache size: {}, dirty size: {}/{}.",
-                                topic, partitionGroup, writeCommandCache.size(),
-                                store.right() - store.flushPosition(), config.maxDirtySize);
-                    }).build();
+                    .doWork(this::reportMetrics).build();
         } else {
             return null;
         }
     }
 
+    private void initMetricInstances() {
+        produceMetrics = new Metric("WriteMetric-" + topic + "-" + partitionGroup, 1,
+                new String[]{"WriteLatency", "FlushLatency"}, new String[]{"WriteCount", "FlushCount"},
+                new String[]{"WriteTraffic", "FlushTraffic"});
+        produceMetric = produceMetrics.getMetricInstances().get(0);
+        consumeMetrics = new Metric("ReadMetric-" + topic + "-" + partitionGroup, 1,
+                new String[]{"ReadLatency"}, new String[]{"ReadCount"},
+                new String[]{"ReadTraffic"});
+        consumeMetric = consumeMetrics.getMetricInstances().get(0);
+    }
+
+    private void reportMetrics() {
+        consumeMetrics.reportAndReset();
+        produceMetrics.reportAndReset();
+        logger.info("{}-{} WriteCommandCache size: {}, dirty size: {}/{}.",
+                topic, partitionGroup, writeCommandCache.size(),
+                store.right() - store.flushPosition(), config.maxDirtySize);
+    }
+
+    /**
+     * 写入请求队列中等待写入的请求数量
+     */
+    int writeCommandCacheSize() {
+        return writeCommandCache.size();
+    }
+
     public void recover() {
         try {
+            StoreCheckpoint checkpoint = StoreCheckpoint.load(base);
+            // 恢复之后会有新的写入，检查点只对这一次恢复有效
+            StoreCheckpoint.delete(base);
             logger.info("Recovering message store...");
-            store.recover();
+            store.recover(null == checkpoint ? -1L : checkpoint.getRightPosition());
+            if (null != checkpoint && recoverFromCheckpoint(checkpoint)) {
+                recoveredFromCheckpoint = true;
+                logger.info("Topic: {}, group: {} recovered from checkpoint, right position: {}.",
+                        topic, partitionGroup, Format.formatWithComma(store.right()));
+                recoverTransactions();
+                return;
+            }
             logger.info("Recovering index store...");
             indexPosition = recoverPartitions();
             logger.info("Building indices ...");
             recoverIndices();
+            recoverTransactions();
         } catch (Throwable e) {
             throw new StoreInitializeException(e);
         }
     }
 
+    /**
+     * 上次正常关闭时写入了检查点，如果所有文件的长度都与检查点一致，直接使用检查点中的位置，
+     * 跳过索引的校验和重建。
+     *
+     * @return 成功返回true，不一致时返回false，需要执行完整的恢复
+     */
+    private boolean recoverFromCheckpoint(StoreCheckpoint checkpoint) throws IOException {
+        if (store.right() != checkpoint.getRightPosition() || checkpoint.getIndexPosition() != store.right()) {
+            logger.warn("Checkpoint mismatch, topic: {}, group: {}, right position: {}, checkpoint: {}/{}.",
+                    topic, partitionGroup, store.right(), checkpoint.getRightPosition(), checkpoint.getIndexPosition());
+            return false;
+        }
+        File indexBase = new File(base, "index");
+        Short[] partitionIndices = indexBase.isDirectory() ? loadPartitionIndices(indexBase) : null;
+        Map<Short, Long> indexPositions = checkpoint.getIndexPositions();
+        if (null == partitionIndices || partitionIndices.length != indexPositions.size()
+                || !Arrays.stream(partitionIndices).allMatch(indexPositions::containsKey)) {
+            logger.warn("Checkpoint mismatch, topic: {}, group: {}, partitions: {}, checkpoint: {}.",
+                    topic, partitionGroup, Arrays.toString(partitionIndices), indexPositions.keySet());
+            return false;
+        }
+
+        Map<Short, Partition> partitions = new HashMap<>(partitionIndices.length);
+        for (short partitionIndex : partitionIndices) {
+            File partitionBase = new File(indexBase, String.valueOf(partitionIndex));
+            PositioningStore<IndexItem> indexStore =
+                    new PositioningStore<>(partitionBase, config.indexStoreConfig, bufferPool, new IndexSerializer());
+            long checkpointPosition = indexPositions.get(partitionIndex);
+            indexStore.recover(checkpointPosition);
+            if (indexStore.right() != checkpointPosition) {
+                logger.warn("Checkpoint mismatch, topic: {}, group: {}, partition: {}, index right position: {}, checkpoint: {}.",
+                        topic, partitionGroup, partitionIndex, indexStore.right(), checkpointPosition);
+                indexStore.close();
+                partitions.values().forEach(partition -> partition.store.close());
+                return false;
+            }
+            TimeIndex timeIndex = newTimeIndex(partitionBase, indexStore);
+            timeIndex.recover(indexStore.left() / IndexItem.STORAGE_SIZE, indexStore.right() / IndexItem.STORAGE_SIZE);
+            partitions.put(partitionIndex, new Partition(indexStore, timeIndex));
+        }
+        partitionMap.putAll(partitions);
+        indexPosition = checkpoint.getIndexPosition();
+        return true;
+    }
+
+    /**
+     * 最近一次恢复是否使用了检查点
+     */
+    boolean isRecoveredFromCheckpoint() {
+        return recoveredFromCheckpoint;
+    }
+
+    /**
+     * 正常关闭时写入检查点。只有在写入已经停止，并且所有数据都已经刷盘时才写入。
+     */
+    private void writeCheckpoint() throws IOException {
+        // 从节点复制写入时也持有写锁，写检查点期间不允许写入
+        writeLock.lock();
+        try {
+            if (enabled.get() || !isAllStoreClean() || indexPosition != store.right()) {
+                return;
+            }
+            Map<Short, Long> indexPositions = new HashMap<>(partitionMap.size());
+            store.force();
+            for (Map.Entry<Short, Partition> entry : partitionMap.entrySet()) {
+                Partition partition = entry.getValue();
+                partition.store.force();
+                partition.timeIndex.flush();
+                indexPositions.put(entry.getKey(), partition.store.right());
+            }
+            new StoreCheckpoint(store.right(), indexPosition, indexPositions).write(base);
+            checkpointed = true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
     private void recoverIndices() throws IOException {
 
         // 删除indexPosition之后的所有索引
@@ -203,7 +340,8 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
             if (null == byteBuffer)
                 throw new ReadException(String.format("Read log failed! store: %s, position: %d.", store.base().getAbsolutePath(), indexPosition));
             IndexItem indexItem = IndexItem.parseMessage(byteBuffer, indexPosition);
-            Partition partition = partitionMap.get(indexItem.getPartition());
+            Partition partition = indexItem.getPartition() == TRANSACTION_PARTITION ?
+                    transactionPartition() : partitionMap.get(indexItem.getPartition());
             if(null == partition) {
                 indexPosition += indexItem.getLength();
                 continue;
@@ -222,7 +360,7 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
                     indexItem.setBatchMessage(true);
                     indexItem.setBatchMessageSize(batchSize);
                 }
-                writeIndex(indexItem, partition.store);
+                writeIndex(indexItem, partition, getStorageTimestamp(byteBuffer));
 
             } else if (indexItem.getIndex() < storeIndex) {
                 IndexItem pi = indexStore.read(indexItem.getIndex() * IndexItem.STORAGE_SIZE);
@@ -260,6 +398,30 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
             if (indexStore.right() > indexStore.flushPosition()) {
                 indexStore.flush();
             }
+            partition.timeIndex.flush();
+        }
+    }
+
+    /**
+     * 按顺序重放日志中的事务标记，重建事务消息的可见性
+     */
+    private void recoverTransactions() throws IOException {
+        transactionIndex.clear();
+        Partition partition = partitionMap.get(TRANSACTION_PARTITION);
+        if (null == partition) {
+            return;
+        }
+        PositioningStore<IndexItem> indexStore = partition.store;
+        for (long position = indexStore.left(); position < indexStore.right(); position += IndexItem.STORAGE_SIZE) {
+            IndexItem indexItem = indexStore.read(position);
+            // 对应的日志已经被删除
+            if (indexItem.getLength() <= 0 || indexItem.getOffset() < store.left()) {
+                continue;
+            }
+            transactionIndex.apply(TransactionMarker.parse(store.read(indexItem.getOffset(), indexItem.getLength())));
+        }
+        for (Map.Entry<Short, Partition> entry : partitionMap.entrySet()) {
+            transactionIndex.trim(entry.getKey(), entry.getValue().store.left() / IndexItem.STORAGE_SIZE);
         }
     }
 
@@ -322,7 +484,9 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
             indexStore.setRight(validPosition + IndexItem.STORAGE_SIZE);
 
 
-            partitionMap.put(partitionIndex, new Partition(indexStore));
+            TimeIndex timeIndex = newTimeIndex(partitionBase, indexStore);
+            timeIndex.recover(indexStore.left() / IndexItem.STORAGE_SIZE, indexStore.right() / IndexItem.STORAGE_SIZE);
+            partitionMap.put(partitionIndex, new Partition(indexStore, timeIndex));
 
             if (indexStore.right() > 0) {
 
@@ -417,7 +581,7 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
     }
 
     Short[] listPartitions() {
-        return partitionMap.keySet().toArray(new Short[0]);
+        return partitionMap.keySet().stream().filter(partition -> partition != TRANSACTION_PARTITION).toArray(Short[]::new);
     }
 
     private void removePartition(short partition) {
@@ -442,77 +606,102 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
                 PositioningStore<IndexItem> indexStore =
                         new PositioningStore<>(partitionBase, config.indexStoreConfig, bufferPool, new IndexSerializer());
                 indexStore.recover();
-                partitionMap.put(partition, new Partition(indexStore));
+                partitionMap.put(partition, new Partition(indexStore, newTimeIndex(partitionBase, indexStore)));
             } else {
                 throw new IOException(String.format("Create directory: %s failed!", partitionBase.getAbsolutePath()));
             }
         }
     }
 
+    /**
+     * 保存事务标记的分区，第一次写入事务标记时创建
+     */
+    private Partition transactionPartition() throws IOException {
+        Partition partition = partitionMap.get(TRANSACTION_PARTITION);
+        if (null == partition) {
+            addPartition(TRANSACTION_PARTITION);
+            partition = partitionMap.get(TRANSACTION_PARTITION);
+        }
+        return partition;
+    }
+
     public ReadResult read(short partition, long index, int count, long maxSize) throws IOException {
         long t0 = System.nanoTime();
         ReadResult readResult = new ReadResult();
         checkPartition(partition);
         PositioningStore<IndexItem> indexStore = partitionMap.get(partition).store;
+
+        // 跳过已回滚的事务消息；未完成事务的第一条消息及之后的消息，以及下一段已回滚的消息，都不在这次读取的范围内
+        long readIndex = transactionIndex.skipRollback(partition, index);
+        long stableIndex = Math.min(transactionIndex.stableIndex(partition), transactionIndex.nextRollback(partition, readIndex));
+        long rightIndex = indexStore.right() / IndexItem.STORAGE_SIZE;
+        readResult.setSkipped(readIndex - index);
+        if ((readIndex > index && readIndex >= rightIndex) || (readIndex < rightIndex && readIndex >= stableIndex)) {
+            readResult.setMessages(new ByteBuffer[0]);
+            readResult.setEop(true);
+            readResult.setCode(JoyQueueCode.SUCCESS);
+            return readResult;
+        }
+        if (stableIndex - readIndex < count) {
+            count = (int) Math.max(1L, stableIndex - readIndex);
+        }
+        index = readIndex;
+
         List<IndexItem> indexItemList = indexStore.batchRead(index * IndexItem.STORAGE_SIZE, count);
 
         long size = 0L;
         readResult.setEop(indexItemList.size() < count);
         List<ByteBuffer> buffers = new ArrayList<>(count);
-        IndexItem lastIndexItem = null;
-        for (int i = 0; i < indexItemList.size(); i++) {
-            IndexItem indexItem = indexItemList.get(i);
-            // 如果索引的offset和上一条相同，说明它们是同一批消息，直接跳过即可
-            if (null != lastIndexItem && indexItem.getOffset() == lastIndexItem.getOffset()) {
-                continue;
-            }
-            try {
-                //FIXME: 偶尔会发生索引长度错误导致读消息抛异常，
-                // 临时解决方案是捕获异常后，再用不传长度的方法试一次。
-                // 另，用带长度的方法读性能更好。
-                ByteBuffer log;
-                try {
-                    log = store.read(indexItem.getOffset(), indexItem.getLength());
-                    if (MessageParser.getInt(log, MessageParser.LENGTH) != indexItem.getLength()) {
-                        logger.warn("索引中消息长度不正确！index: {} , offset: {}, message length (from index/from message): {}/{}, partition: {}, store: {}.",
-                                Format.formatWithComma(index + i),
-                                Format.formatWithComma(indexItem.getOffset()),
-                                indexItem.getLength(), MessageParser.getInt(log, MessageParser.LENGTH),
-                                partition,
-                                base.getAbsolutePath());
-                        log = store.read(indexItem.getOffset());
+        int i = 0;
+        reading:
+        while (i < indexItemList.size()) {
+            // 找出从i开始在日志中首尾相接的一段消息，整段一次读出
+            IndexItem first = indexItemList.get(i);
+            long rangeEnd = first.getOffset() + first.getLength();
+            long lastOffset = first.getOffset();
+            int end = i + 1;
+            while (end < indexItemList.size() && (maxSize <= 0 || size + rangeEnd - first.getOffset() < maxSize)) {
+                IndexItem indexItem = indexItemList.get(end);
+                if (indexItem.getOffset() != lastOffset) {
+                    if (indexItem.getOffset() != rangeEnd || indexItem.getLength() <= 0) {
+                        break;
                     }
-                } catch (Throwable t) {
-                    logger.warn("Exception on read, try to read without length! index: {} , offset: {}, message length: {}, partition: {}, store: {}.",
-                            Format.formatWithComma(index + i),
-                            Format.formatWithComma(indexItem.getOffset()),
-                            indexItem.getLength(),
-                            partition,
-                            base.getAbsolutePath(),
-                            t);
-                    log = store.read(indexItem.getOffset());
+                    rangeEnd = indexItem.getOffset() + indexItem.getLength();
+                    lastOffset = indexItem.getOffset();
                 }
+                end++;
+            }
 
-                if (null != log) {
-                    if (maxSize <= 0 || (size += log.remaining()) < maxSize) {
-                        buffers.add(log);
-                    } else {
-                        break;
-                    }
+            List<ByteBuffer> blocks = readBlocks(first.getOffset(), rangeEnd - first.getOffset());
+
+            // 每条消息都是数据块的切片，offsets[k]为第k个数据块的起始位置
+            long[] offsets = new long[blocks.size()];
+            for (int k = 0; k < blocks.size(); k++) {
+                offsets[k] = k == 0 ? first.getOffset() : offsets[k - 1] + blocks.get(k - 1).remaining();
+            }
+
+            IndexItem lastIndexItem = null;
+            int block = 0;
+            for (; i < end; i++) {
+                IndexItem indexItem = indexItemList.get(i);
+                // 如果索引的offset和上一条相同，说明它们是同一批消息，直接跳过即可
+                if (null != lastIndexItem && indexItem.getOffset() == lastIndexItem.getOffset()) {
+                    continue;
+                }
+                while (block + 1 < blocks.size() && indexItem.getOffset() >= offsets[block + 1]) {
+                    block++;
+                }
+                ByteBuffer log = block < blocks.size() ? slice(blocks.get(block), indexItem.getOffset() - offsets[block], indexItem.getLength()) : null;
+                if (null == log) {
+                    log = readMessage(partition, index + i, indexItem);
+                }
+
+                if (maxSize <= 0 || (size += log.remaining()) < maxSize) {
+                    buffers.add(log);
                 } else {
-                    throw new ReadException(String.format("Read log failed! store: %s, position: %d.", store.base().getAbsolutePath(), indexItem.getOffset()));
+                    break reading;
                 }
                 lastIndexItem = indexItem;
-
-            } catch (Throwable t) {
-                logger.warn("Exception on read! index: {} , offset: {}, message length: {}, partition: {}, store: {}.",
-                        Format.formatWithComma(index + i),
-                        Format.formatWithComma(indexItem.getOffset()),
-                        indexItem.getLength(),
-                        partition,
-                        base.getAbsolutePath(),
-                        t);
-                throw t;
             }
         }
         readResult.setMessages(buffers.toArray(new ByteBuffer[0]));
@@ -526,6 +715,83 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
         return readResult;
     }
 
+    /**
+     * 读取[position, position + length)之间的日志，读取失败时返回空列表，由调用方逐条读取
+     */
+    private List<ByteBuffer> readBlocks(long position, long length) {
+        if (length <= 0 || length > Integer.MAX_VALUE) {
+            return Collections.emptyList();
+        }
+        try {
+            return store.readByteBuffers(position, (int) length);
+        } catch (Throwable t) {
+            logger.warn("Exception on read range, try to read one by one! offset: {}, length: {}, store: {}.",
+                    Format.formatWithComma(position), length, base.getAbsolutePath(), t);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * 从数据块中切出一条消息，数据不完整或者长度和消息中记录的长度不一致时返回null
+     */
+    private ByteBuffer slice(ByteBuffer block, long offset, int length) {
+        if (offset < 0 || length <= Integer.BYTES || offset + length > block.remaining()) {
+            return null;
+        }
+        ByteBuffer log = block.duplicate();
+        log.position(block.position() + (int) offset);
+        log.limit(log.position() + length);
+        log = log.slice();
+        return MessageParser.getInt(log, MessageParser.LENGTH) == length ? log : null;
+    }
+
+    /**
+     * 逐条读取一条消息
+     */
+    private ByteBuffer readMessage(short partition, long index, IndexItem indexItem) throws IOException {
+        try {
+            //FIXME: 偶尔会发生索引长度错误导致读消息抛异常，
+            // 临时解决方案是捕获异常后，再用不传长度的方法试一次。
+            // 另，用带长度的方法读性能更好。
+            ByteBuffer log;
+            try {
+                log = store.read(indexItem.getOffset(), indexItem.getLength());
+                if (MessageParser.getInt(log, MessageParser.LENGTH) != indexItem.getLength()) {
+                    logger.warn("索引中消息长度不正确！index: {} , offset: {}, message length (from index/from message): {}/{}, partition: {}, store: {}.",
+                            Format.formatWithComma(index),
+                            Format.formatWithComma(indexItem.getOffset()),
+                            indexItem.getLength(), MessageParser.getInt(log, MessageParser.LENGTH),
+                            partition,
+                            base.getAbsolutePath());
+                    log = store.read(indexItem.getOffset());
+                }
+            } catch (Throwable t) {
+                logger.warn("Exception on read, try to read without length! index: {} , offset: {}, message length: {}, partition: {}, store: {}.",
+                        Format.formatWithComma(index),
+                        Format.formatWithComma(indexItem.getOffset()),
+                        indexItem.getLength(),
+                        partition,
+                        base.getAbsolutePath(),
+                        t);
+                log = store.read(indexItem.getOffset());
+            }
+
+            if (null == log) {
+                throw new ReadException(String.format("Read log failed! store: %s, position: %d.", store.base().getAbsolutePath(), indexItem.getOffset()));
+            }
+            return log;
+        } catch (Throwable t) {
+            logger.warn("Exception on read! index: {} , offset: {}, message length: {}, partition: {}, store: {}.",
+                    Format.formatWithComma(index),
+                    Format.formatWithComma(indexItem.getOffset()),
+                    indexItem.getLength(),
+                    partition,
+                    base.getAbsolutePath(),
+                    t);
+            throw t;
+        }
+    }
+
     private void checkPartition(short partition) {
         if (!partitionMap.containsKey(partition))
             throw new ReadException(String.format("No such partition: %d in topic: %s, partition group: %d.", partition, topic, partitionGroup));
@@ -550,6 +816,7 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
                 indexItem.setIndex(indices[i]);
 
                 int l = MessageParser.getInt(byteBuffer, MessageParser.LENGTH);
+                long storageTimestamp = getStorageTimestamp(byteBuffer);
                 long p = position;
                 // 写入消息
                 position = store.append(byteBuffer);
@@ -568,8 +835,15 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
                             indexItem.getLength(), l, p, topic, partitionGroup,
                             indexItem.getPartition(), indexItem.getIndex());
                 }
-                writeIndex(indexItem, partition.store);
-                flushLoopThread.wakeup();
+                writeIndex(indexItem, partition, storageTimestamp);
+                if (indexItem.getPartition() == TRANSACTION_PARTITION) {
+                    transactionIndex.apply(TransactionMarker.parse(byteBuffer));
+                }
+                if (null != groupCommitter) {
+                    groupCommitter.onWrite(l);
+                } else if (null == virtualThreadPool) {
+                    flushLoopThread.wakeup();
+                }
             }
         } catch (Throwable t) {
             logger.warn("Write failed, rollback to position: {}, topic={}, partitionGroup={}.", start, topic, partitionGroup, t);
@@ -583,16 +857,62 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
         return indices;
     }
 
-    private void writeIndex(IndexItem indexItem, PositioningStore<IndexItem> indexStore) throws IOException {
+    private void writeIndex(IndexItem indexItem, Partition partition, long storageTimestamp) throws IOException {
         if (indexItem.isBatchMessage()) {
             // 批消息内每条消息的索引都指向批消息的起始位置，长度都是都批消息的总长度
-            appendBatchMessageIndices(indexStore, indexItem);
+            appendBatchMessageIndices(partition.store, indexItem);
         } else {
-            indexStore.append(indexItem);
+            partition.store.append(indexItem);
         }
+        partition.timeIndex.onMessage(indexItem.getIndex(), storageTimestamp);
         indexPosition += indexItem.getLength();
     }
 
+    /**
+     * 写入事务消息或者事务标记。
+     * 事务消息之前先写入PREPARE标记，标记中记录这些消息将要使用的序号，
+     * 标记在消息之前生效，消息写入后在事务提交之前对消费者不可见。
+     *
+     * @return 事务消息的序号，不包含标记
+     */
+    private long[] writeTransaction(WriteCommand writeCommand) throws IOException {
+        TransactionMarker transaction = writeCommand.transaction;
+        transactionPartition();
+        if (transaction.getType() != TransactionMarker.PREPARE) {
+            // 事务在这个分区组没有写入消息，或者已经完成（比如过期后已经回滚），不需要写入标记
+            if (transactionIndex.isOpen(transaction.getTransactionId())) {
+                Set<Short> partitions = transactionIndex.getRanges(transaction.getTransactionId()).keySet();
+                write(transaction.toMessage(TRANSACTION_PARTITION, term));
+                if (transaction.getType() == TransactionMarker.COMMIT) {
+                    // 提交后事务消息变为可见，通知等待这些分区的读取
+                    short[] committedPartitions = new short[partitions.size()];
+                    int i = 0;
+                    for (short partition : partitions) {
+                        committedPartitions[i++] = partition;
+                    }
+                    fireWriteEvent(committedPartitions);
+                }
+            }
+            return new long[0];
+        }
+
+        // key: 分区，value: [起始序号, 结束序号)
+        Map<Short, long[]> ranges = new LinkedHashMap<>();
+        for (ByteBuffer message : writeCommand.messages) {
+            long[] range = ranges.computeIfAbsent(MessageParser.getShort(message, MessageParser.PARTITION), partition -> {
+                long right = partitionMap.get(partition).store.right() / IndexItem.STORAGE_SIZE;
+                return new long[]{right, right};
+            });
+            range[1] += BatchMessageParser.isBatch(message) ? BatchMessageParser.getBatchSize(message) : 1;
+        }
+        ByteBuffer[] messages = new ByteBuffer[writeCommand.messages.length + 1];
+        messages[0] = TransactionMarker.prepare(transaction.getTransactionId(), transaction.getExpireTime(), ranges)
+                .toMessage(TRANSACTION_PARTITION, term);
+        System.arraycopy(writeCommand.messages, 0, messages, 1, writeCommand.messages.length);
+        long[] indices = write(messages);
+        return Arrays.copyOfRange(indices, 1, indices.length);
+    }
+
     private void appendBatchMessageIndices(PositioningStore<IndexItem> indexStore, IndexItem indexItem) throws IOException {
         ByteBuffer indexBuffer = ByteBuffer.allocate(indexItem.getBatchMessageSize() * IndexItem.STORAGE_SIZE);
         for (int j = 0; j < indexItem.getBatchMessageSize(); j++) {
@@ -602,34 +922,53 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
         indexStore.appendByteBuffer(indexBuffer);
     }
 
-    @Deprecated
+    /**
+     * 使用共享的虚拟线程执行器时的写入任务，每次最多处理一个写入请求。
+     * 同一个虚拟线程不会被并发执行，因此分区组内的写入顺序和单独的写线程一致。
+     * 脏数据超过限制时不阻塞物理线程，直接返回false等待下次调度，超时的请求返回超时。
+     */
     private boolean writeVT() {
-        boolean ret = false;
-        WriteCommand writeCommand;
-        if (null != (writeCommand = writeCommandCache.poll())) {
-            try {
-                if (waitForFlush()) {
-                    writeCommand.eventListener.onEvent(new WriteResult(JoyQueueCode.SE_WRITE_TIMEOUT, null));
-                } else {
-                    long[] indices = write(writeCommand.messages);
-                    handleCallback(writeCommand, store.right(), indices);
-                }
-                ret = true;
-            } catch (Throwable t) {
+        WriteCommand writeCommand = writeCommandCache.peek();
+        if (null == writeCommand) {
+            return false;
+        }
+        if (store.right() - store.flushPosition() >= config.maxDirtySize) {
+            if (SystemClock.now() - writeCommand.timestamp > config.writeTimeoutMs && writeCommandCache.remove(writeCommand)) {
                 if (writeCommand.eventListener != null)
-                    writeCommand.eventListener.onEvent(new WriteResult(JoyQueueCode.SE_WRITE_FAILED, null));
+                    writeCommand.eventListener.onEvent(new WriteResult(JoyQueueCode.SE_WRITE_TIMEOUT, null));
+                return true;
             }
+            return false;
         }
-        return ret;
+        if (!writeLock.tryLock()) {
+            return false;
+        }
+        try {
+            writeCommand = writeCommandCache.poll();
+            if (null != writeCommand) {
+                doWrite(writeCommand);
+            }
+        } catch (Throwable t) {
+            logger.warn("Write Exception: ", t);
+        } finally {
+            writeLock.unlock();
+        }
+        return true;
     }
 
     private void write() throws IOException, InterruptedException {
-        WriteCommand writeCommand = null;
         if(!writeLock.tryLock()) {
             throw new IllegalStateException("Acquire write lock failed!");
         }
         try {
-            writeCommand = writeCommandCache.take();
+            doWrite(writeCommandCache.take());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void doWrite(WriteCommand writeCommand) throws IOException {
+        try {
             if (null != produceMetric) {
                 produceMetric.addTraffic("WriteTraffic", Arrays.stream(writeCommand.messages).mapToInt(ByteBuffer::remaining).sum());
             }
@@ -640,8 +979,11 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
             if (waitForFlush()) {
                 writeCommand.eventListener.onEvent(new WriteResult(JoyQueueCode.SE_WRITE_TIMEOUT, null));
             } else {
-                long[] indices = write(writeCommand.messages);
+                long[] indices = null == writeCommand.transaction ? write(writeCommand.messages) : writeTransaction(writeCommand);
                 handleCallback(writeCommand, store.right(), indices);
+                if (null == writeCommand.transaction) {
+                    fireWriteEvent(writeCommand);
+                }
             }
             long t1 = System.nanoTime();
 //
@@ -663,10 +1005,31 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
                 writeCommand.eventListener.onEvent(new WriteResult(JoyQueueCode.SE_WRITE_FAILED, null));
             throw t;
         } finally {
-            writeLock.unlock();
+            if (null != writeCommand) {
+                writeCommand.release();
+            }
+        }
+    }
+
+    private void fireWriteEvent(WriteCommand writeCommand) {
+        short[] partitions = new short[writeCommand.writeRequests.length];
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = writeCommand.writeRequests[i].getPartition();
+        }
+        fireWriteEvent(partitions);
+    }
+
+    private void fireWriteEvent(short[] partitions) {
+        EventListener<WriteEvent> listener = writeListener;
+        if (null != listener && partitions.length > 0) {
+            listener.onEvent(new WriteEvent(topic, partitionGroup, partitions));
         }
     }
 
+    void setWriteListener(EventListener<WriteEvent> writeListener) {
+        this.writeListener = writeListener;
+    }
+
     private void verifyState(boolean expectedState) {
         if(enabled.get() != expectedState) {
             throw new IllegalStateException();
@@ -713,22 +1076,76 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
         try {
             boolean flushed;
             do {
-                long t0 = System.nanoTime();
-                long before = store.flushPosition();
-                flushed = store.flush() | flushIndices();
-
-                if (null != produceMetric && flushed) {
-                    long t1 = System.nanoTime();
-                    produceMetric.addTraffic("FlushTraffic", store.flushPosition() - before);
-                    produceMetric.addLatency("FlushLatency", t1 - t0);
-                    produceMetric.addCounter("FlushCount", 1);
-                }
+                flushed = flushOnce();
             } while (flushed);
         } catch (IOException e) {
             logger.warn("Exception:", e);
         }
     }
 
+    /**
+     * 使用共享的虚拟线程执行器时的刷盘任务，每次只刷一轮，有数据刷盘返回true，由执行器决定是否继续执行
+     */
+    private boolean flushVT() throws IOException {
+        return flushOnce();
+    }
+
+    /**
+     * 组提交：将脏数据写入文件，不同步到磁盘
+     *
+     * @return 有数据写入返回true
+     */
+    boolean groupCommitFlush() {
+        boolean ret = false;
+        try {
+            while (flushOnce()) {
+                ret = true;
+            }
+        } catch (Throwable t) {
+            logger.warn("Group commit flush exception, topic: {}, partitionGroup: {}.", topic, partitionGroup, t);
+        }
+        return ret;
+    }
+
+    /**
+     * 组提交：将已写入文件的消息同步到磁盘。
+     * 索引可以在恢复时根据消息重建，因此只同步消息文件。
+     */
+    void groupCommitForce() {
+        try {
+            store.force();
+        } catch (Throwable t) {
+            logger.warn("Group commit force exception, topic: {}, partitionGroup: {}.", topic, partitionGroup, t);
+        }
+    }
+
+    /**
+     * 组提交：回调已经同步到磁盘的PERSISTENCE写入请求
+     */
+    void groupCommitCallback() {
+        long forcePosition = store.forcePosition();
+        try {
+            if (flushCallbackBelt.getFirst().position <= forcePosition) {
+                flushCallbackBelt.callbackBefore(forcePosition);
+            }
+        } catch (NoSuchElementException ignored) {
+        }
+    }
+
+    private boolean flushOnce() throws IOException {
+        long t0 = System.nanoTime();
+        long before = store.flushPosition();
+        boolean flushed = store.flush() | flushIndices();
+
+        if (null != produceMetric && flushed) {
+            long t1 = System.nanoTime();
+            produceMetric.addTraffic("FlushTraffic", store.flushPosition() - before);
+            produceMetric.addLatency("FlushLatency", t1 - t0);
+            produceMetric.addCounter("FlushCount", 1);
+        }
+        return flushed;
+    }
+
     private boolean flushIndices() {
         boolean ret = false;
 
@@ -741,6 +1158,9 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
                 }
                 ret = ret || flushed;
             } while (flushed);
+            for (Partition partition : partitionMap.values()) {
+                partition.timeIndex.flush();
+            }
         } catch (Exception e) {
             logger.warn("Exception: ", e);
         }
@@ -748,6 +1168,34 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
     }
 
     void asyncWrite(QosLevel qosLevel, EventListener<WriteResult> eventListener, WriteRequest... writeRequests) {
+        asyncWrite(qosLevel, eventListener, null, writeRequests);
+    }
+
+    /**
+     * 写入事务消息，事务提交之前这些消息对消费者不可见。同一个事务可以写入多次。
+     *
+     * @param expireTime 事务的过期时间，过期仍未完成的事务由存储自动回滚
+     */
+    void asyncWriteTransaction(QosLevel qosLevel, EventListener<WriteResult> eventListener,
+                               String transactionId, long expireTime, WriteRequest... writeRequests) {
+        asyncWrite(qosLevel, eventListener, TransactionMarker.prepare(transactionId, expireTime, Collections.emptyMap()), writeRequests);
+    }
+
+    /**
+     * 提交事务，写入COMMIT标记之后事务消息对消费者可见
+     */
+    void asyncCommitTransaction(QosLevel qosLevel, EventListener<WriteResult> eventListener, String transactionId) {
+        asyncWrite(qosLevel, eventListener, TransactionMarker.commit(transactionId));
+    }
+
+    /**
+     * 回滚事务，写入ROLLBACK标记之后读取时跳过事务消息
+     */
+    void asyncRollbackTransaction(QosLevel qosLevel, EventListener<WriteResult> eventListener, String transactionId) {
+        asyncWrite(qosLevel, eventListener, TransactionMarker.rollback(transactionId));
+    }
+
+    private void asyncWrite(QosLevel qosLevel, EventListener<WriteResult> eventListener, TransactionMarker transaction, WriteRequest... writeRequests) {
 
         if (!enabled.get())
             throw new WriteException(String.format("Store disabled! topic: %s, partitionGroup: %d.", topic, partitionGroup));
@@ -774,7 +1222,7 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
                     (int) (SystemClock.now() - MessageParser.getLong(byteBuffer, MessageParser.CLIENT_TIMESTAMP)));
             messages[i] = writeRequest.getBuffer();
         }
-        WriteCommand writeCommand = new WriteCommand(qosLevel, eventListener, messages);
+        WriteCommand writeCommand = new WriteCommand(qosLevel, eventListener, messages, writeRequests, transaction);
         try {
             this.writeCommandCache.put(writeCommand);
         } catch (InterruptedException e) {
@@ -800,6 +1248,17 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
         }
     }
 
+    /**
+     * 删除分区时间索引和已回滚事务记录中，已经被删除的消息对应的记录
+     */
+    void trimTimeIndex(short partition) throws IOException {
+        Partition p = partitionMap.get(partition);
+        if (null != p) {
+            p.timeIndex.trim(p.store.left() / IndexItem.STORAGE_SIZE);
+            transactionIndex.trim(partition, p.store.left() / IndexItem.STORAGE_SIZE);
+        }
+    }
+
     PositioningStore<ByteBuffer> messageStore() {
         return store;
     }
@@ -812,6 +1271,7 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
      * 重新分区
      */
     synchronized void rePartition(Short[] partitions) throws IOException {
+        deleteCheckpoint();
 
 
         for (short partition : partitions) {
@@ -823,7 +1283,7 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
         List<Short> partitionList = Arrays.asList(partitions);
         List<Short> toBeRemoved = new ArrayList<>();
         for (Map.Entry<Short, Partition> entry : partitionMap.entrySet()) {
-            if (!partitionList.contains(entry.getKey())) {
+            if (!partitionList.contains(entry.getKey()) && entry.getKey() != TRANSACTION_PARTITION) {
                 toBeRemoved.add(entry.getKey());
             }
         }
@@ -834,20 +1294,67 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
 
     @Override
     public synchronized void start() {
+        deleteCheckpoint();
         if (config.printMetricIntervalMs > 0) {
-            metricThread.start();
+            startMetricThread();
         }
         startCallbackThread();
         startFlushThread();
+        transactionFeature = scheduledExecutorService.scheduleWithFixedDelay(this::rollbackExpiredTransactions,
+                TRANSACTION_CHECK_INTERVAL_MS, TRANSACTION_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
         started.set(true);
     }
 
+    /**
+     * 主节点回滚已经过期的事务，避免未完成的事务一直阻塞分区的读取
+     */
+    private void rollbackExpiredTransactions() {
+        if (!enabled.get()) {
+            return;
+        }
+        try {
+            for (String transactionId : transactionIndex.expired(SystemClock.now())) {
+                logger.info("Rollback expired transaction, topic: {}, group: {}, transaction: {}.", topic, partitionGroup, transactionId);
+                asyncRollbackTransaction(QosLevel.ONE_WAY, null, transactionId);
+            }
+        } catch (Throwable t) {
+            logger.warn("Rollback expired transactions exception, topic: {}, group: {}.", topic, partitionGroup, t);
+        }
+    }
+
+
+    private void startMetricThread() {
+        if (null != virtualThreadPool) {
+            metricFeature = scheduledExecutorService.scheduleAtFixedRate(this::reportMetrics,
+                    config.printMetricIntervalMs, config.printMetricIntervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            metricThread.start();
+        }
+    }
+
+    private void stopMetricThread(long stopTimeout) throws TimeoutException {
+        if (null != virtualThreadPool) {
+            stopAndWaitScheduledFeature(metricFeature, stopTimeout);
+        } else {
+            metricThread.stop();
+        }
+    }
 
     private void startFlushThread() {
-        flushLoopThread.start();
+        if (null != groupCommitter) {
+            groupCommitter.register(this);
+        } else if (null != virtualThreadPool) {
+            this.virtualThreadPool.start(flushVirtualThread, String.format("FlushThread-%s-%d", topic, partitionGroup));
+        } else {
+            flushLoopThread.start();
+        }
     }
 
     private void startCallbackThread() {
+        if (null != groupCommitter) {
+            // 组提交时，由提交线程在同步到磁盘后统一回调
+            return;
+        }
         if (null != virtualThreadPool) {
             this.virtualThreadPool.start(callbackVirtualThread, config.flushIntervalMs, String.format("CallbackThread-%s-%d", topic, partitionGroup));
         } else {
@@ -883,22 +1390,41 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
                 } catch (InterruptedException e) {
                     logger.error(e.getMessage(), e);
                 }
+                stopAndWaitScheduledFeature(transactionFeature, stopTimeout);
                 stopFlushThread();
                 stopCallbackThread(stopTimeout);
                 if (config.printMetricIntervalMs > 0) {
-                    metricThread.stop();
+                    stopMetricThread(stopTimeout);
                 }
+                writeCheckpoint();
             }
         } catch (Throwable t) {
            logger.error(t.getMessage(),t);
         }
     }
 
+    /**
+     * 写入或者回滚之前删除关闭时写入的检查点
+     */
+    private void deleteCheckpoint() {
+        if (checkpointed) {
+            try {
+                StoreCheckpoint.delete(base);
+                checkpointed = false;
+            } catch (IOException e) {
+                throw new WriteException(e);
+            }
+        }
+    }
+
     private boolean isAllStoreClean() {
         return Stream.concat(Stream.of(store), partitionMap.values().stream().map(partition -> partition.store)).allMatch(PositioningStore::isClean);
     }
 
     private void stopCallbackThread(long stopTimeout) throws TimeoutException {
+        if (null != groupCommitter) {
+            return;
+        }
         if (null != virtualThreadPool) {
             safeStop("Stopping callback thread...", callbackVirtualThread);
         } else {
@@ -907,7 +1433,13 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
     }
 
     private void stopFlushThread() {
-        flushLoopThread.stop();
+        if (null != groupCommitter) {
+            groupCommitter.unregister(this);
+        } else if (null != virtualThreadPool) {
+            safeStop("Stopping flush thread...", flushVirtualThread);
+        } else {
+            flushLoopThread.stop();
+        }
     }
 
     private void stopWriteThread() {
@@ -981,6 +1513,7 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
     @Override
     public void enable() {
         if (!enabled.get()) {
+            deleteCheckpoint();
             enabled.set(true);
             startWriteThread();
         }
@@ -997,6 +1530,7 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
 
     @Override
     public void setRightPosition(long position) throws IOException {
+        deleteCheckpoint();
         stopFlushThread();
         try {
             rollback(position);
@@ -1007,11 +1541,13 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
 
     @Override
     public void clear(long position) throws IOException {
+        deleteCheckpoint();
         stopFlushThread();
         try {
             for (Partition partition : partitionMap.values()) {
-                partition.store.setRight(0L);
+                partition.setRight(0L);
             }
+            transactionIndex.clear();
             store.clear(position);
         } finally {
             startFlushThread();
@@ -1030,13 +1566,15 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
         //  如果被选为LEADER，index是不正确的。
         if (clearIndexStore) {
             for (Partition partition : partitionMap.values()) {
-                partition.store.setRight(0L);
+                partition.setRight(0L);
             }
         } else {
             rollbackPartitions(position);
         }
 
         store.setRight(position);
+        // 回滚掉的日志中可能有事务标记
+        recoverTransactions();
     }
 
 
@@ -1090,6 +1628,7 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
         }
         try {
             verifyState(false);
+            deleteCheckpoint();
             long t0 = System.nanoTime();
             if (waitForFlush()) {
                 throw new TimeoutException("Wait for flush timeout! The broker is too much busy to write data to disks.");
@@ -1104,7 +1643,8 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
                 // 写入索引
                 while (byteBuffer.hasRemaining()) {
                     IndexItem indexItem = IndexItem.parseMessage(byteBuffer, start + byteBuffer.position());
-                    Partition partition = partitionMap.get(indexItem.getPartition());
+                    Partition partition = indexItem.getPartition() == TRANSACTION_PARTITION ?
+                            transactionPartition() : partitionMap.get(indexItem.getPartition());
                     if (partition.store.right() == 0L) {
                         partition.store.setRight(indexItem.getIndex() * IndexItem.STORAGE_SIZE);
                     } else if (indexItem.getIndex() * IndexItem.STORAGE_SIZE != partition.store.right()) {
@@ -1124,7 +1664,10 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
                         indexItem.setBatchMessageSize(batchSize);
                     }
 
-                    writeIndex(indexItem, partition.store);
+                    writeIndex(indexItem, partition, getStorageTimestamp(byteBuffer));
+                    if (indexItem.getPartition() == TRANSACTION_PARTITION) {
+                        transactionIndex.apply(TransactionMarker.parse(byteBuffer));
+                    }
                     byteBuffer.position(byteBuffer.position() + indexItem.getLength());
                     counter++;
                 }
@@ -1218,19 +1761,35 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
 
     /**
      * 根据消息存储时间获取索引。
-     * 如果找到，返回最后一条 “存储时间 <= timestamp” 消息的索引。
+     * 如果找到，返回第一条 “存储时间 >= timestamp” 消息的索引。
      * 如果找不到，返回负值。
+     * <p>
+     * 先用稀疏时间索引确定查找范围，再在这个范围内读取消息的存储时间折半查找。
      */
     public long getIndex(short partition, long timestamp) {
 
         try {
-            if (partitionMap.containsKey(partition)) {
-                PositioningStore<IndexItem> indexStore = partitionMap.get(partition).store;
-                long searchedIndex = binarySearchByTimestamp(timestamp, store, indexStore, indexStore.left() / IndexItem.STORAGE_SIZE, indexStore.right() / IndexItem.STORAGE_SIZE - 1);
+            Partition p = partitionMap.get(partition);
+            if (null != p) {
+                PositioningStore<IndexItem> indexStore = p.store;
+                long leftIndex = indexStore.left() / IndexItem.STORAGE_SIZE;
+                long rightIndex = indexStore.right() / IndexItem.STORAGE_SIZE - 1;
+                if (rightIndex < leftIndex) {
+                    return -1L;
+                }
+
+                long[] range = p.timeIndex.lookup(timestamp);
+                long lowIndex = Math.max(leftIndex, range[0]);
+                if (lowIndex > rightIndex) {
+                    // 所有消息的存储时间都小于timestamp
+                    return -1L;
+                }
+                long highIndex = range[1] < 0 ? rightIndex : Math.max(lowIndex, Math.min(rightIndex, range[1]));
 
-                // 考虑到有可能出现连续n条消息时间相同，找到这n条消息的第一条
-                while (searchedIndex - 1 >= indexStore.left() && timestamp <= getStorageTimestamp(store, indexStore, searchedIndex - 1)) {
-                    searchedIndex--;
+                long searchedIndex = binarySearchByTimestamp(timestamp, store, indexStore, lowIndex, highIndex);
+                if (searchedIndex < 0 && highIndex < rightIndex) {
+                    // 存储时间不是严格递增的，在剩余的范围内继续查找
+                    searchedIndex = binarySearchByTimestamp(timestamp, store, indexStore, highIndex + 1, rightIndex);
                 }
                 return searchedIndex;
 
@@ -1241,47 +1800,44 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
         return -1L;
     }
 
+    private TimeIndex newTimeIndex(File partitionBase, PositioningStore<IndexItem> indexStore) {
+        return new TimeIndex(partitionBase, config.timeIndexInterval, config.timeIndexIntervalMs,
+                index -> getStorageTimestamp(store, indexStore, index));
+    }
+
+    private long getStorageTimestamp(ByteBuffer message) {
+        return MessageParser.getLong(message, MessageParser.CLIENT_TIMESTAMP) + MessageParser.getInt(message, MessageParser.STORAGE_TIMESTAMP);
+    }
+
     private long getStorageTimestamp(PositioningStore<ByteBuffer> journalStore,
                                      PositioningStore<IndexItem> indexStore,
                                      long index) throws IOException {
         IndexItem indexItem = indexStore.read(index * IndexItem.STORAGE_SIZE);
         ByteBuffer journal = journalStore.read(indexItem.getOffset(), indexItem.getLength());
 
-        return MessageParser.getLong(journal, MessageParser.CLIENT_TIMESTAMP) + MessageParser.getInt(journal, MessageParser.STORAGE_TIMESTAMP);
+        return getStorageTimestamp(journal);
     }
 
-    // 折半查找
+    // 折半查找第一条存储时间 >= timestamp的消息，找不到返回-1
     private long binarySearchByTimestamp(long timestamp,
                                          PositioningStore<ByteBuffer> journalStore,
                                          PositioningStore<IndexItem> indexStore,
                                          long leftIndexInclude,
                                          long rightIndexInclude) throws IOException {
 
-        if (rightIndexInclude <= leftIndexInclude) {
-            return -1L;
-        }
-
-        if (timestamp <= getStorageTimestamp(journalStore, indexStore, leftIndexInclude)) {
-            return leftIndexInclude;
-        }
-
         if (timestamp > getStorageTimestamp(journalStore, indexStore, rightIndexInclude)) {
-            return -1;
-        }
-
-        if (leftIndexInclude + 1 == rightIndexInclude) {
-            return rightIndexInclude;
+            return -1L;
         }
 
-        long mid = leftIndexInclude + (rightIndexInclude - leftIndexInclude) / 2;
-
-        long midTimestamp = getStorageTimestamp(journalStore, indexStore, mid);
-
-        if (timestamp < midTimestamp) {
-            return binarySearchByTimestamp(timestamp, journalStore, indexStore, leftIndexInclude, mid);
-        } else {
-            return binarySearchByTimestamp(timestamp, journalStore, indexStore, mid, rightIndexInclude);
+        while (leftIndexInclude < rightIndexInclude) {
+            long mid = leftIndexInclude + (rightIndexInclude - leftIndexInclude) / 2;
+            if (timestamp <= getStorageTimestamp(journalStore, indexStore, mid)) {
+                rightIndexInclude = mid;
+            } else {
+                leftIndexInclude = mid + 1;
+            }
         }
+        return rightIndexInclude;
     }
 
     QosStore getQosStore(QosLevel level) {
@@ -1304,10 +1860,17 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
 
     private static class Partition {
         private final PositioningStore<IndexItem> store;
+        private final TimeIndex timeIndex;
 
 
-        private Partition(PositioningStore<IndexItem> store) {
+        private Partition(PositioningStore<IndexItem> store, TimeIndex timeIndex) {
             this.store = store;
+            this.timeIndex = timeIndex;
+        }
+
+        private void setRight(long position) throws IOException {
+            store.setRight(position);
+            timeIndex.truncate(store.left() / IndexItem.STORAGE_SIZE, store.right() / IndexItem.STORAGE_SIZE);
         }
 
         private void rollbackTo(long messagePosition) throws IOException {
@@ -1323,7 +1886,7 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
                 indexPosition -= IndexItem.STORAGE_SIZE;
             }
 
-            store.setRight(indexPosition <= store.left() ? 0L : indexPosition + IndexItem.STORAGE_SIZE);
+            setRight(indexPosition <= store.left() ? 0L : indexPosition + IndexItem.STORAGE_SIZE);
 
         }
 
@@ -1333,11 +1896,28 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
         private final QosLevel qosLevel;
         private final EventListener<WriteResult> eventListener;
         private final ByteBuffer[] messages;
+        private final WriteRequest[] writeRequests;
+        private final long timestamp;
+        // 事务消息或者事务标记，普通消息为null
+        private final TransactionMarker transaction;
 
-        private WriteCommand(QosLevel qosLevel, EventListener<WriteResult> eventListener, ByteBuffer[] messages) {
+        private WriteCommand(QosLevel qosLevel, EventListener<WriteResult> eventListener, ByteBuffer[] messages,
+                             WriteRequest[] writeRequests, TransactionMarker transaction) {
             this.qosLevel = qosLevel;
             this.eventListener = eventListener;
             this.messages = messages;
+            this.writeRequests = writeRequests;
+            this.timestamp = SystemClock.now();
+            this.transaction = transaction;
+        }
+
+        /**
+         * 消息已经复制到存储中，归还写入请求的缓冲区
+         */
+        private void release() {
+            for (WriteRequest writeRequest : writeRequests) {
+                writeRequest.close();
+            }
         }
     }
 
@@ -1348,6 +1928,8 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
         public static final long DEFAULT_WRITE_TIMEOUT_MS = 3000L;
         public static final long DEFAULT_MAX_DIRTY_SIZE = 10L * 1024 * 1024;
         public static final long DEFAULT_PRINT_METRIC_INTERVAL_MS = 0L;
+        public static final int DEFAULT_TIME_INDEX_INTERVAL = 4096;
+        public static final long DEFAULT_TIME_INDEX_INTERVAL_MS = 5000L;
 
         /**
          * 允许脏数据的最大长度，超过这个长度就阻塞写入。
@@ -1379,6 +1961,16 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
          */
         private final long printMetricIntervalMs;
 
+        /**
+         * 时间索引的采样间隔（消息条数）
+         */
+        private final int timeIndexInterval;
+
+        /**
+         * 时间索引的采样间隔（存储时间ms）
+         */
+        private final long timeIndexIntervalMs;
+
         private PositioningStore.Config storeConfig;
         private PositioningStore.Config indexStoreConfig;
 
@@ -1393,12 +1985,22 @@ public class PartitionGroupStoreManager implements ReplicableStore, LifeCycle, C
         public Config(int maxMessageLength, int writeRequestCacheSize, long flushIntervalMs,
                       long writeTimeoutMs, long maxDirtySize, long printMetricIntervalMs,
                       PositioningStore.Config storeConfig, PositioningStore.Config indexStoreConfig) {
+            this(maxMessageLength, writeRequestCacheSize, flushIntervalMs, writeTimeoutMs, maxDirtySize, printMetricIntervalMs,
+                    DEFAULT_TIME_INDEX_INTERVAL, DEFAULT_TIME_INDEX_INTERVAL_MS, storeConfig, indexStoreConfig);
+        }
+
+        public Config(int maxMessageLength, int writeRequestCacheSize, long flushIntervalMs,
+                      long writeTimeoutMs, long maxDirtySize, long printMetricIntervalMs,
+                      int timeIndexInterval, long timeIndexIntervalMs,
+                      PositioningStore.Config storeConfig, PositioningStore.Config indexStoreConfig) {
             this.maxMessageLength = maxMessageLength;
             this.writeRequestCacheSize = writeRequestCacheSize;
             this.flushIntervalMs = flushIntervalMs;
             this.writeTimeoutMs = writeTimeoutMs;
             this.maxDirtySize = maxDirtySize;
             this.printMetricIntervalMs = printMetricIntervalMs;
+            this.timeIndexInterval = timeIndexInterval;
+            this.timeIndexIntervalMs = timeIndexIntervalMs;
             this.storeConfig = storeConfig;
             this.indexStoreConfig = indexStoreConfig;
         }
@@ -104,6 +104,7 @@ public class QosStore implements PartitionGroupStore {
                         }
                     }
                 }
+                store.trimTimeIndex(p);
 
                 try {
                     long storeMinMessagePosition = indexStore.read(indexStore.left()).getOffset();
@@ -151,6 +152,27 @@ public class QosStore implements PartitionGroupStore {
         store.asyncWrite(this.qosLevel, eventListener, writeRequests);
     }
 
+    @Override
+    public Future<WriteResult> asyncWriteTransaction(String transactionId, long expireTime, WriteRequest... writeRequests) {
+        EventFuture<WriteResult> future = new EventFuture<>();
+        store.asyncWriteTransaction(this.qosLevel, future, transactionId, expireTime, writeRequests);
+        return future;
+    }
+
+    @Override
+    public Future<WriteResult> asyncCommitTransaction(String transactionId) {
+        EventFuture<WriteResult> future = new EventFuture<>();
+        store.asyncCommitTransaction(this.qosLevel, future, transactionId);
+        return future;
+    }
+
+    @Override
+    public Future<WriteResult> asyncRollbackTransaction(String transactionId) {
+        EventFuture<WriteResult> future = new EventFuture<>();
+        store.asyncRollbackTransaction(this.qosLevel, future, transactionId);
+        return future;
+    }
+
     @Override
     public ReadResult read(short partition, long index, int count, long maxSize) throws IOException {
 
@@ -15,13 +15,20 @@
  */
 package io.chubao.joyqueue.store;
 
+import com.jd.laf.extension.ExtensionPoint;
+import com.jd.laf.extension.ExtensionPointLazy;
+import com.jd.laf.extension.SpiLoader;
 import io.chubao.joyqueue.domain.QosLevel;
 import io.chubao.joyqueue.monitor.BufferPoolMonitorInfo;
 import io.chubao.joyqueue.store.file.PositioningStore;
+import io.chubao.joyqueue.store.nsm.VirtualThreadExecutor;
 import io.chubao.joyqueue.store.replication.ReplicableStore;
+import io.chubao.joyqueue.store.tiered.TieredSegmentManager;
+import io.chubao.joyqueue.store.tiered.TieredStorage;
 import io.chubao.joyqueue.store.transaction.TransactionStore;
 import io.chubao.joyqueue.store.transaction.TransactionStoreManager;
 import io.chubao.joyqueue.store.utils.PreloadBufferPool;
+import io.chubao.joyqueue.toolkit.concurrent.EventListener;
 import io.chubao.joyqueue.toolkit.concurrent.NamedThreadFactory;
 import io.chubao.joyqueue.toolkit.config.PropertySupplier;
 import io.chubao.joyqueue.toolkit.config.PropertySupplierAware;
@@ -39,8 +46,15 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
@@ -51,6 +65,7 @@ import java.util.stream.Collectors;
  * ├── metadata                    # 元数据，目前只存放brokerId
  * ├── lock                        # 进程锁目录，避免多进程同时操作导致数据损坏
  * │   └── 112334                  # 当前持有锁的进程的PID
+ * ├── tiered-cache                # 从分级存储下载的消息日志文件缓存，启动时清空
  * └── topics                      # 所有topic目录，子目录就是topic名称
  * ├── coupon                  # topic coupon
  * └── order                   # topic order
@@ -62,8 +77,8 @@ import java.util.stream.Collectors;
  * │   │   │   └── 2097152
  * │   │   ├── 4
  * │   │   └── 5
- * │   ├── 0               # 消息日志文件
- * │   ├── 134217728
+ * │   ├── 0.tiered        # 已经转移到分级存储的消息日志文件的描述文件
+ * │   ├── 134217728       # 消息日志文件
  * │   └── 268435456
  * ├── tx                  # 事务消息目录，存放未提交的事务消息
  * │   ├── 0
@@ -75,22 +90,30 @@ public class Store extends Service implements StoreService, Closeable, PropertyS
 
     private static final Logger logger = LoggerFactory.getLogger(Store.class);
     private static final int SCHEDULE_EXECUTOR_THREADS = 16;
+    private static final long RECOVER_PROGRESS_INTERVAL_MS = 5000L;
 
 
     private static final String TOPICS_DIR = "topics";
     private static final String TX_DIR = "tx";
+    private static final String TIERED_CACHE_DIR = "tiered-cache";
+    private static final ExtensionPoint<TieredStorage, String> TIERED_STORAGES = new ExtensionPointLazy<>(TieredStorage.class, SpiLoader.INSTANCE, null, null);
     private static final String DEL_PREFIX = ".d.";
     /**
      * key: [topic]/[group index]，例如：order/1
      */
     private final Map<String, PartitionGroupStoreManager> storeMap = new HashMap<>();
     private final Map<String, TransactionStoreManager> txStoreMap = new HashMap<>();
+    private final List<EventListener<WriteEvent>> writeListeners = new CopyOnWriteArrayList<>();
+    private final EventListener<WriteEvent> writeEventDispatcher = this::onWrite;
     private StoreConfig config;
     private PreloadBufferPool bufferPool;
     private File base;
     private ScheduledExecutorService scheduledExecutor;
+    private VirtualThreadExecutor virtualThreadExecutor;
+    private GroupCommitService groupCommitService;
     private PropertySupplier propertySupplier;
     private StoreLock storeLock;
+    private TieredSegmentManager tieredSegmentManager;
 
     public Store() {
         //do nothing
@@ -123,7 +146,64 @@ public class Store extends Service implements StoreService, Closeable, PropertyS
         }
         this.bufferPool.addPreLoad(config.getIndexFileSize(), config.getPreLoadBufferCoreCount(), config.getPreLoadBufferMaxCount());
         this.bufferPool.addPreLoad(config.getMessageFileSize(), config.getPreLoadBufferCoreCount(), config.getPreLoadBufferMaxCount());
+        if (config.getColdReadHotFileCount() > 0 && !config.isColdReadBypassPool()) {
+            // 冷文件的预读缓冲区，不预先分配
+            this.bufferPool.addPreLoad(config.getColdReadAheadSize(), 0, config.getPreLoadBufferMaxCount());
+        }
+        if (virtualThreadExecutor == null && config.isVirtualThreadEnable()) {
+            long maxIntervalMs = config.getVirtualThreadMaxIntervalMs();
+            this.virtualThreadExecutor = new VirtualThreadExecutor(config.getVirtualThreadKeepAliveMs(), maxIntervalMs,
+                    (int) Math.max(1L, maxIntervalMs), config.getVirtualThreadMaxUseTimeMs(), config.getThreadCount());
+            if (config.getPrintMetricIntervalMs() > 0) {
+                scheduledExecutor.scheduleAtFixedRate(this::printVirtualThreadMetric,
+                        config.getPrintMetricIntervalMs(), config.getPrintMetricIntervalMs(), TimeUnit.MILLISECONDS);
+            }
+        }
+        if (groupCommitService == null && config.isGroupCommitEnable()) {
+            this.groupCommitService = new GroupCommitService(config.getGroupCommitMaxLatencyMs(), config.getGroupCommitMaxBytes());
+        }
+        if (tieredSegmentManager == null && config.isTieredEnable()) {
+            TieredStorage tieredStorage = TIERED_STORAGES.get(config.getTieredStorageType());
+            if (tieredStorage == null) {
+                throw new StoreInitializeException(String.format("Tiered storage %s not found!", config.getTieredStorageType()));
+            }
+            tieredStorage.init(config.getTieredStorageUri());
+            this.tieredSegmentManager = new TieredSegmentManager(base, new File(base, TIERED_CACHE_DIR), tieredStorage, config.getTieredCacheSize());
+            scheduledExecutor.scheduleWithFixedDelay(this::offload,
+                    config.getTieredIntervalMs(), config.getTieredIntervalMs(), TimeUnit.MILLISECONDS);
+        }
+    }
 
+    /**
+     * 把各分区组中较早的、已经同步到磁盘的消息文件转移到分级存储中，索引文件保留在本地
+     */
+    private void offload() {
+        List<PartitionGroupStoreManager> managers;
+        synchronized (this) {
+            managers = new ArrayList<>(storeMap.values());
+        }
+        for (PartitionGroupStoreManager manager : managers) {
+            try {
+                int count = manager.messageStore().offload(config.getTieredLocalFileCount());
+                if (count > 0) {
+                    logger.info("{} store files offloaded, topic: {}, group: {}.", count, manager.getTopic(), manager.getPartitionGroup());
+                }
+            } catch (Throwable t) {
+                logger.warn("Offload store files of topic: {}, group: {} failed!", manager.getTopic(), manager.getPartitionGroup(), t);
+            }
+        }
+    }
+
+    private synchronized void printVirtualThreadMetric() {
+        int pendingWrites = 0;
+        for (PartitionGroupStoreManager manager : storeMap.values()) {
+            pendingWrites += manager.writeCommandCacheSize();
+        }
+        logger.info("Store virtual thread executor, threads: {}, virtual threads: {}, queue size: {}, " +
+                        "schedule lag avg/max: {}/{}ms, pending write commands: {}.",
+                virtualThreadExecutor.threadCount(), virtualThreadExecutor.virtualThreadCount(),
+                virtualThreadExecutor.queueSize(), virtualThreadExecutor.avgScheduleLagMsAndReset(),
+                virtualThreadExecutor.maxScheduleLagMsAndReset(), pendingWrites);
     }
 
     @Override
@@ -132,6 +212,10 @@ public class Store extends Service implements StoreService, Closeable, PropertyS
 
         logger.info("Starting store {}...", base.getPath());
 
+        if (groupCommitService != null) {
+            groupCommitService.start();
+        }
+
         for (PartitionGroupStoreManager manger : storeMap.values()) {
             if (!manger.isStarted()) manger.start();
         }
@@ -153,6 +237,14 @@ public class Store extends Service implements StoreService, Closeable, PropertyS
 
         Close.close(scheduledExecutor);
 
+        if (groupCommitService != null) {
+            groupCommitService.stop();
+        }
+
+        if (virtualThreadExecutor != null) {
+            virtualThreadExecutor.stop();
+        }
+
         storeLock.unlock();
 
         logger.info("Store {} stopped.", base.getPath());
@@ -269,20 +361,104 @@ public class Store extends Service implements StoreService, Closeable, PropertyS
 
         PartitionGroupStoreManager partitionGroupStoreManger = partitionGroupStore(topic, partitionGroup);
         if (null == partitionGroupStoreManger) {
-            File groupBase = new File(base, getPartitionGroupRelPath(topic, partitionGroup));
-            partitionGroupStoreManger = new PartitionGroupStoreManager(topic, partitionGroup, groupBase
-                    , getPartitionGroupConfig(config)
-                    , bufferPool
-                    , scheduledExecutor);
+            partitionGroupStoreManger = newPartitionGroupStoreManager(topic, partitionGroup);
             partitionGroupStoreManger.recover();
-            if (isStarted()) {
-                partitionGroupStoreManger.start();
+            addPartitionGroupStoreManager(partitionGroupStoreManger);
+        }
+    }
+
+    /**
+     * 使用有界的线程池并行恢复，上次正常关闭的分区组直接从检查点恢复。
+     * 恢复期间定时打印进度。
+     */
+    @Override
+    public synchronized void restorePartitionGroups(Map<String, List<Integer>> partitionGroups) {
+        List<PartitionGroupStoreManager> managers = new ArrayList<>();
+        for (Map.Entry<String, List<Integer>> entry : partitionGroups.entrySet()) {
+            for (int partitionGroup : entry.getValue()) {
+                if (null == partitionGroupStore(entry.getKey(), partitionGroup)) {
+                    managers.add(newPartitionGroupStoreManager(entry.getKey(), partitionGroup));
+                }
             }
-            storeMap.put(topic + "/" + partitionGroup, partitionGroupStoreManger);
+        }
+        if (managers.isEmpty()) {
+            return;
+        }
 
+        int threads = Math.max(1, Math.min(config.getRecoverThreadCount(), managers.size()));
+        logger.info("Recovering {} partition groups with {} threads...", managers.size(), threads);
+        long t0 = SystemClock.now();
+        AtomicInteger recovered = new AtomicInteger(0);
+        AtomicInteger fromCheckpoint = new AtomicInteger(0);
+        ScheduledFuture<?> progressFuture = null == scheduledExecutor ? null :
+                scheduledExecutor.scheduleAtFixedRate(() -> logger.info(
+                        "Recovering partition groups, recovered: {}/{}, from checkpoint: {}, elapsed: {}ms.",
+                        recovered.get(), managers.size(), fromCheckpoint.get(), SystemClock.now() - t0),
+                        RECOVER_PROGRESS_INTERVAL_MS, RECOVER_PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        ExecutorService recoverExecutor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("Store-Recover-Executor"));
+        List<Future<?>> futures = new ArrayList<>(managers.size());
+        StoreInitializeException exception = null;
+        try {
+            for (PartitionGroupStoreManager manager : managers) {
+                futures.add(recoverExecutor.submit(() -> {
+                    manager.recover();
+                    if (manager.isRecoveredFromCheckpoint()) {
+                        fromCheckpoint.incrementAndGet();
+                    }
+                    recovered.incrementAndGet();
+                }));
+            }
+            for (int i = 0; i < managers.size(); i++) {
+                PartitionGroupStoreManager manager = managers.get(i);
+                try {
+                    futures.get(i).get();
+                    addPartitionGroupStoreManager(manager);
+                } catch (ExecutionException e) {
+                    logger.warn("Recover partition group failed, topic: {}, group: {}.",
+                            manager.getTopic(), manager.getPartitionGroup(), e.getCause());
+                    manager.close();
+                    if (null == exception) {
+                        exception = e.getCause() instanceof StoreInitializeException ?
+                                (StoreInitializeException) e.getCause() : new StoreInitializeException(e.getCause());
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StoreInitializeException(e);
+        } finally {
+            recoverExecutor.shutdownNow();
+            if (null != progressFuture) {
+                progressFuture.cancel(false);
+            }
+        }
+        logger.info("Partition groups recovered: {}/{}, from checkpoint: {}, elapsed: {}ms.",
+                recovered.get(), managers.size(), fromCheckpoint.get(), SystemClock.now() - t0);
+        if (null != exception) {
+            throw exception;
         }
     }
 
+    private PartitionGroupStoreManager newPartitionGroupStoreManager(String topic, int partitionGroup) {
+        File groupBase = new File(base, getPartitionGroupRelPath(topic, partitionGroup));
+        PartitionGroupStoreManager partitionGroupStoreManger = new PartitionGroupStoreManager(topic, partitionGroup, groupBase
+                , getPartitionGroupConfig(config)
+                , bufferPool
+                , scheduledExecutor
+                , virtualThreadExecutor
+                , groupCommitService);
+        partitionGroupStoreManger.setWriteListener(writeEventDispatcher);
+        return partitionGroupStoreManger;
+    }
+
+    private void addPartitionGroupStoreManager(PartitionGroupStoreManager partitionGroupStoreManger) {
+        if (isStarted()) {
+            partitionGroupStoreManger.start();
+        }
+        storeMap.put(partitionGroupStoreManger.getTopic() + "/" + partitionGroupStoreManger.getPartitionGroup(), partitionGroupStoreManger);
+    }
+
     @Override
     public synchronized void createPartitionGroup(String topic, int partitionGroup, short[] partitions) {
         if (!storeMap.containsKey(topic + "/" + partitionGroup)) {
@@ -303,12 +479,14 @@ public class Store extends Service implements StoreService, Closeable, PropertyS
         return new PartitionGroupStoreManager.Config(
                 config.getMaxMessageLength(), config.getWriteRequestCacheSize(), config.getFlushIntervalMs(),
                 config.getWriteTimeoutMs(), config.getMaxDirtySize(),
-                config.getPrintMetricIntervalMs(), messageConfig, indexConfig);
+                config.getPrintMetricIntervalMs(), config.getTimeIndexInterval(), config.getTimeIndexIntervalMs(),
+                messageConfig, indexConfig);
     }
 
     private PositioningStore.Config getMessageStoreConfig(StoreConfig config) {
         return new PositioningStore.Config(config.getMessageFileSize(),
-                config.getFileHeaderSize());
+                config.getFileHeaderSize(), config.getColdReadHotFileCount(),
+                config.getColdReadAheadSize(), config.isColdReadBypassPool(), tieredSegmentManager);
     }
 
     /**
@@ -367,6 +545,26 @@ public class Store extends Service implements StoreService, Closeable, PropertyS
         return bufferPool.monitorInfo();
     }
 
+    @Override
+    public void addWriteListener(EventListener<WriteEvent> listener) {
+        writeListeners.add(listener);
+    }
+
+    @Override
+    public void removeWriteListener(EventListener<WriteEvent> listener) {
+        writeListeners.remove(listener);
+    }
+
+    private void onWrite(WriteEvent event) {
+        for (EventListener<WriteEvent> listener : writeListeners) {
+            try {
+                listener.onEvent(event);
+            } catch (Throwable t) {
+                logger.warn("Write listener exception, event: {}.", event, t);
+            }
+        }
+    }
+
     private String getPartitionGroupRelPath(String topic, int partitionGroup) {
         return TOPICS_DIR + File.separator + topic.replace('/', '@') + File.separator + partitionGroup;
     }
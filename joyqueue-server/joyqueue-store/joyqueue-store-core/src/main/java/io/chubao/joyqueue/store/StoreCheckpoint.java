@@ -0,0 +1,162 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * 分区组的检查点，正常关闭时写入。
+ * 记录已经同步到磁盘的消息和各分区索引的结束位置，恢复时如果磁盘上的文件与检查点一致，
+ * 可以跳过索引校验和重建。
+ * <p>
+ * 检查点只对紧接着的一次恢复有效，恢复时读取后立即删除。
+ * <p>
+ * 格式：MAGIC(4) + VERSION(2) + 消息结束位置(8) + 索引位置(8) + 分区数量(4)
+ * + [分区(2) + 索引结束位置(8)] * 分区数量 + CRC32(4)
+ */
+final class StoreCheckpoint {
+    private static final Logger logger = LoggerFactory.getLogger(StoreCheckpoint.class);
+    static final String FILE_NAME = "checkpoint";
+    private static final String TEMP_FILE_NAME = FILE_NAME + ".tmp";
+    private static final int MAGIC = 0x4A514350;
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 2 + 8 + 8 + 4;
+    private static final int PARTITION_SIZE = 2 + 8;
+
+    private final long rightPosition;
+    private final long indexPosition;
+    private final Map<Short, Long> indexPositions;
+
+    StoreCheckpoint(long rightPosition, long indexPosition, Map<Short, Long> indexPositions) {
+        this.rightPosition = rightPosition;
+        this.indexPosition = indexPosition;
+        this.indexPositions = Collections.unmodifiableMap(new TreeMap<>(indexPositions));
+    }
+
+    /**
+     * 消息日志的结束位置
+     */
+    long getRightPosition() {
+        return rightPosition;
+    }
+
+    /**
+     * 已经建立索引的消息位置
+     */
+    long getIndexPosition() {
+        return indexPosition;
+    }
+
+    /**
+     * 各分区索引的结束位置
+     */
+    Map<Short, Long> getIndexPositions() {
+        return indexPositions;
+    }
+
+    /**
+     * 写入检查点：先写临时文件并同步到磁盘，再重命名
+     */
+    void write(File base) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + PARTITION_SIZE * indexPositions.size() + 4);
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putLong(rightPosition);
+        buffer.putLong(indexPosition);
+        buffer.putInt(indexPositions.size());
+        for (Map.Entry<Short, Long> entry : indexPositions.entrySet()) {
+            buffer.putShort(entry.getKey());
+            buffer.putLong(entry.getValue());
+        }
+        CRC32 crc32 = new CRC32();
+        crc32.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc32.getValue());
+        buffer.flip();
+
+        File tempFile = new File(base, TEMP_FILE_NAME);
+        try (RandomAccessFile raf = new RandomAccessFile(tempFile, "rw")) {
+            raf.setLength(0L);
+            while (buffer.hasRemaining()) {
+                raf.getChannel().write(buffer);
+            }
+            raf.getChannel().force(true);
+        }
+        Files.move(tempFile.toPath(), new File(base, FILE_NAME).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 读取检查点
+     *
+     * @return 检查点不存在或者无效时返回null
+     */
+    static StoreCheckpoint load(File base) {
+        File file = new File(base, FILE_NAME);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            if (buffer.remaining() < HEADER_SIZE + 4) {
+                logger.warn("Ignore truncated checkpoint: {}.", file.getAbsolutePath());
+                return null;
+            }
+            CRC32 crc32 = new CRC32();
+            crc32.update(buffer.array(), 0, buffer.limit() - 4);
+            if ((int) crc32.getValue() != buffer.getInt(buffer.limit() - 4)
+                    || buffer.getInt() != MAGIC || buffer.getShort() != VERSION) {
+                logger.warn("Ignore invalid checkpoint: {}.", file.getAbsolutePath());
+                return null;
+            }
+            long rightPosition = buffer.getLong();
+            long indexPosition = buffer.getLong();
+            int partitions = buffer.getInt();
+            if (partitions < 0 || buffer.remaining() != PARTITION_SIZE * partitions + 4) {
+                logger.warn("Ignore invalid checkpoint: {}.", file.getAbsolutePath());
+                return null;
+            }
+            Map<Short, Long> indexPositions = new TreeMap<>();
+            for (int i = 0; i < partitions; i++) {
+                indexPositions.put(buffer.getShort(), buffer.getLong());
+            }
+            return new StoreCheckpoint(rightPosition, indexPosition, indexPositions);
+        } catch (IOException | BufferUnderflowException e) {
+            logger.warn("Read checkpoint {} failed!", file.getAbsolutePath(), e);
+            return null;
+        }
+    }
+
+    /**
+     * 删除检查点，之后任何写入都会使检查点失效
+     */
+    static void delete(File base) throws IOException {
+        Files.deleteIfExists(new File(base, FILE_NAME).toPath());
+        Files.deleteIfExists(new File(base, TEMP_FILE_NAME).toPath());
+    }
+}
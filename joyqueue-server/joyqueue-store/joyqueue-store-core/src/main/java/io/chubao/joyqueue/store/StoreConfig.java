@@ -19,6 +19,8 @@ import io.chubao.joyqueue.store.file.PositioningStore;
 import io.chubao.joyqueue.toolkit.config.Property;
 import io.chubao.joyqueue.toolkit.config.PropertySupplier;
 
+import java.io.File;
+
 /**
  * 存储配置
  * 总磁盘大小 = PartitionGroup 数量 * partitionGroupMaxStoreSize
@@ -30,12 +32,29 @@ public class StoreConfig {
 
     public static final int DEFAULT_MESSAGE_FILE_SIZE = 128 * 1024 * 1024;
     public static final int DEFAULT_INDEX_FILE_SIZE = 512 * 1024;
-    public static final int DEFAULT_THREAD_COUNT = 4;
+    public static final int DEFAULT_THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+    public static final boolean DEFAULT_VIRTUAL_THREAD_ENABLE = false;
+    public static final long DEFAULT_VIRTUAL_THREAD_KEEP_ALIVE_MS = 100L;
+    public static final long DEFAULT_VIRTUAL_THREAD_MAX_INTERVAL_MS = 10L;
+    public static final long DEFAULT_VIRTUAL_THREAD_MAX_USE_TIME_MS = 100L;
+    public static final boolean DEFAULT_GROUP_COMMIT_ENABLE = false;
+    public static final long DEFAULT_GROUP_COMMIT_MAX_LATENCY_MS = 5L;
+    public static final long DEFAULT_GROUP_COMMIT_MAX_BYTES = 4L * 1024 * 1024;
+    public static final int DEFAULT_RECOVER_THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+    public static final int DEFAULT_COLD_READ_HOT_FILE_COUNT = 4;
+    public static final int DEFAULT_COLD_READ_AHEAD_SIZE = 1024 * 1024;
+    public static final boolean DEFAULT_COLD_READ_BYPASS_POOL = false;
+    public static final boolean DEFAULT_TIERED_ENABLE = false;
+    public static final String DEFAULT_TIERED_STORAGE_TYPE = "local";
+    public static final int DEFAULT_TIERED_LOCAL_FILE_COUNT = 8;
+    public static final long DEFAULT_TIERED_CACHE_SIZE = 2L * 1024 * 1024 * 1024;
+    public static final long DEFAULT_TIERED_INTERVAL_MS = 60 * 1000L;
     public static final int DEFAULT_PRE_LOAD_BUFFER_CORE_COUNT = 3;
     public static final int DEFAULT_PRE_LOAD_BUFFER_MAX_COUNT = 10;
     public static final long DEFAULT_PRINT_METRIC_INTERVAL_MS = 0;
 
     public static final String STORE_PATH = "/store";
+    public static final String TIERED_PATH = "/tiered";
     /**
      * 存储路径
      */
@@ -54,6 +73,84 @@ public class StoreConfig {
      */
     private int threadCount = DEFAULT_THREAD_COUNT;
 
+    /**
+     * 是否使用共享的虚拟线程执行器执行所有分区组的写入和刷盘
+     */
+    private boolean virtualThreadEnable = DEFAULT_VIRTUAL_THREAD_ENABLE;
+
+    /**
+     * 虚拟线程执行完任务后的空转时长(ms)
+     */
+    private long virtualThreadKeepAliveMs = DEFAULT_VIRTUAL_THREAD_KEEP_ALIVE_MS;
+
+    /**
+     * 虚拟线程空闲时的最大等待时长(ms)
+     */
+    private long virtualThreadMaxIntervalMs = DEFAULT_VIRTUAL_THREAD_MAX_INTERVAL_MS;
+
+    /**
+     * 虚拟线程每次最大占用物理线程的时长(ms)
+     */
+    private long virtualThreadMaxUseTimeMs = DEFAULT_VIRTUAL_THREAD_MAX_USE_TIME_MS;
+
+    /**
+     * 是否开启组提交
+     */
+    private boolean groupCommitEnable = DEFAULT_GROUP_COMMIT_ENABLE;
+
+    /**
+     * 组提交的最大间隔(ms)
+     */
+    private long groupCommitMaxLatencyMs = DEFAULT_GROUP_COMMIT_MAX_LATENCY_MS;
+
+    /**
+     * 未提交数据超过这个值时立即触发组提交
+     */
+    private long groupCommitMaxBytes = DEFAULT_GROUP_COMMIT_MAX_BYTES;
+
+    /**
+     * 启动时并行恢复分区组的线程数量
+     */
+    private int recoverThreadCount = DEFAULT_RECOVER_THREAD_COUNT;
+
+    /**
+     * 消息文件中使用页缓存的最新文件数量，更早的文件不映射内存，直接从磁盘读取。小于等于0时所有文件都使用页缓存
+     */
+    private int coldReadHotFileCount = DEFAULT_COLD_READ_HOT_FILE_COUNT;
+    /**
+     * 直接从磁盘读取时的最大预读长度
+     */
+    private int coldReadAheadSize = DEFAULT_COLD_READ_AHEAD_SIZE;
+    /**
+     * 直接从磁盘读取时，预读缓冲区是否不占用PreloadBufferPool的内存
+     */
+    private boolean coldReadBypassPool = DEFAULT_COLD_READ_BYPASS_POOL;
+
+    /**
+     * 是否开启分级存储，开启后较早的消息文件压缩后转移到分级存储中，本地只保留索引
+     */
+    private boolean tieredEnable = DEFAULT_TIERED_ENABLE;
+    /**
+     * 分级存储的类型
+     */
+    private String tieredStorageType = DEFAULT_TIERED_STORAGE_TYPE;
+    /**
+     * 分级存储的地址，默认为存储路径同级的tiered目录
+     */
+    private String tieredStorageUri;
+    /**
+     * 每个分区组在本地保留的最新消息文件数量
+     */
+    private int tieredLocalFileCount = DEFAULT_TIERED_LOCAL_FILE_COUNT;
+    /**
+     * 从分级存储读取的消息文件在本地缓存的最大总长度
+     */
+    private long tieredCacheSize = DEFAULT_TIERED_CACHE_SIZE;
+    /**
+     * 检查并转移消息文件的间隔(ms)
+     */
+    private long tieredIntervalMs = DEFAULT_TIERED_INTERVAL_MS;
+
     /**
      * 预加载DirectBuffer的核心数量
      */
@@ -90,6 +187,16 @@ public class StoreConfig {
 
     private long maxDirtySize = PartitionGroupStoreManager.Config.DEFAULT_MAX_DIRTY_SIZE;
 
+    /**
+     * 时间索引的采样间隔（消息条数）
+     */
+    private int timeIndexInterval = PartitionGroupStoreManager.Config.DEFAULT_TIME_INDEX_INTERVAL;
+
+    /**
+     * 时间索引的采样间隔（存储时间ms）
+     */
+    private long timeIndexIntervalMs = PartitionGroupStoreManager.Config.DEFAULT_TIME_INDEX_INTERVAL_MS;
+
 
     private PropertySupplier propertySupplier;
 
@@ -185,6 +292,147 @@ public class StoreConfig {
         this.threadCount = threadCount;
     }
 
+    public boolean isVirtualThreadEnable() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.VIRTUAL_THREAD_ENABLE, this.virtualThreadEnable);
+    }
+
+    public void setVirtualThreadEnable(boolean virtualThreadEnable) {
+        this.virtualThreadEnable = virtualThreadEnable;
+    }
+
+    public long getVirtualThreadKeepAliveMs() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.VIRTUAL_THREAD_KEEP_ALIVE_MS, this.virtualThreadKeepAliveMs);
+    }
+
+    public void setVirtualThreadKeepAliveMs(long virtualThreadKeepAliveMs) {
+        this.virtualThreadKeepAliveMs = virtualThreadKeepAliveMs;
+    }
+
+    public long getVirtualThreadMaxIntervalMs() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.VIRTUAL_THREAD_MAX_INTERVAL_MS, this.virtualThreadMaxIntervalMs);
+    }
+
+    public void setVirtualThreadMaxIntervalMs(long virtualThreadMaxIntervalMs) {
+        this.virtualThreadMaxIntervalMs = virtualThreadMaxIntervalMs;
+    }
+
+    public long getVirtualThreadMaxUseTimeMs() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.VIRTUAL_THREAD_MAX_USE_TIME_MS, this.virtualThreadMaxUseTimeMs);
+    }
+
+    public void setVirtualThreadMaxUseTimeMs(long virtualThreadMaxUseTimeMs) {
+        this.virtualThreadMaxUseTimeMs = virtualThreadMaxUseTimeMs;
+    }
+
+    public boolean isGroupCommitEnable() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.GROUP_COMMIT_ENABLE, this.groupCommitEnable);
+    }
+
+    public void setGroupCommitEnable(boolean groupCommitEnable) {
+        this.groupCommitEnable = groupCommitEnable;
+    }
+
+    public long getGroupCommitMaxLatencyMs() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.GROUP_COMMIT_MAX_LATENCY_MS, this.groupCommitMaxLatencyMs);
+    }
+
+    public void setGroupCommitMaxLatencyMs(long groupCommitMaxLatencyMs) {
+        this.groupCommitMaxLatencyMs = groupCommitMaxLatencyMs;
+    }
+
+    public long getGroupCommitMaxBytes() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.GROUP_COMMIT_MAX_BYTES, this.groupCommitMaxBytes);
+    }
+
+    public void setGroupCommitMaxBytes(long groupCommitMaxBytes) {
+        this.groupCommitMaxBytes = groupCommitMaxBytes;
+    }
+
+    public int getRecoverThreadCount() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.RECOVER_THREAD_COUNT, this.recoverThreadCount);
+    }
+
+    public void setRecoverThreadCount(int recoverThreadCount) {
+        this.recoverThreadCount = recoverThreadCount;
+    }
+
+    public int getColdReadHotFileCount() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.COLD_READ_HOT_FILE_COUNT, this.coldReadHotFileCount);
+    }
+
+    public void setColdReadHotFileCount(int coldReadHotFileCount) {
+        this.coldReadHotFileCount = coldReadHotFileCount;
+    }
+
+    public int getColdReadAheadSize() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.COLD_READ_AHEAD_SIZE, this.coldReadAheadSize);
+    }
+
+    public void setColdReadAheadSize(int coldReadAheadSize) {
+        this.coldReadAheadSize = coldReadAheadSize;
+    }
+
+    public boolean isColdReadBypassPool() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.COLD_READ_BYPASS_POOL, this.coldReadBypassPool);
+    }
+
+    public void setColdReadBypassPool(boolean coldReadBypassPool) {
+        this.coldReadBypassPool = coldReadBypassPool;
+    }
+
+    public boolean isTieredEnable() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.TIERED_ENABLE, this.tieredEnable);
+    }
+
+    public void setTieredEnable(boolean tieredEnable) {
+        this.tieredEnable = tieredEnable;
+    }
+
+    public String getTieredStorageType() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.TIERED_STORAGE_TYPE, this.tieredStorageType);
+    }
+
+    public void setTieredStorageType(String tieredStorageType) {
+        this.tieredStorageType = tieredStorageType;
+    }
+
+    public String getTieredStorageUri() {
+        String uri = PropertySupplier.getValue(propertySupplier, StoreConfigKey.TIERED_STORAGE_URI, this.tieredStorageUri);
+        if (uri == null || uri.isEmpty()) {
+            File parent = new File(getPath()).getAbsoluteFile().getParentFile();
+            uri = (parent == null ? "" : parent.getPath()) + TIERED_PATH;
+        }
+        return uri;
+    }
+
+    public void setTieredStorageUri(String tieredStorageUri) {
+        this.tieredStorageUri = tieredStorageUri;
+    }
+
+    public int getTieredLocalFileCount() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.TIERED_LOCAL_FILE_COUNT, this.tieredLocalFileCount);
+    }
+
+    public void setTieredLocalFileCount(int tieredLocalFileCount) {
+        this.tieredLocalFileCount = tieredLocalFileCount;
+    }
+
+    public long getTieredCacheSize() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.TIERED_CACHE_SIZE, this.tieredCacheSize);
+    }
+
+    public void setTieredCacheSize(long tieredCacheSize) {
+        this.tieredCacheSize = tieredCacheSize;
+    }
+
+    public long getTieredIntervalMs() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.TIERED_INTERVAL_MS, this.tieredIntervalMs);
+    }
+
+    public void setTieredIntervalMs(long tieredIntervalMs) {
+        this.tieredIntervalMs = tieredIntervalMs;
+    }
+
     public int getPreLoadBufferCoreCount() {
         return PropertySupplier.getValue(propertySupplier, StoreConfigKey.PRELOAD_BUFFER_CORE_COUNT, this.preLoadBufferCoreCount);
     }
@@ -209,6 +457,22 @@ public class StoreConfig {
         this.maxDirtySize = maxDirtySize;
     }
 
+    public int getTimeIndexInterval() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.TIME_INDEX_INTERVAL, this.timeIndexInterval);
+    }
+
+    public void setTimeIndexInterval(int timeIndexInterval) {
+        this.timeIndexInterval = timeIndexInterval;
+    }
+
+    public long getTimeIndexIntervalMs() {
+        return PropertySupplier.getValue(propertySupplier, StoreConfigKey.TIME_INDEX_INTERVAL_MS, this.timeIndexIntervalMs);
+    }
+
+    public void setTimeIndexIntervalMs(long timeIndexIntervalMs) {
+        this.timeIndexIntervalMs = timeIndexIntervalMs;
+    }
+
 
     public long getPrintMetricIntervalMs() {
         return PropertySupplier.getValue(propertySupplier, StoreConfigKey.PRINT_METRIC_INTERVAL_MS, printMetricIntervalMs);
@@ -20,6 +20,8 @@ import io.chubao.joyqueue.toolkit.config.PropertyDef;
 import static io.chubao.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_FLUSH_INTERVAL_MS;
 import static io.chubao.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_MAX_DIRTY_SIZE;
 import static io.chubao.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_MAX_MESSAGE_LENGTH;
+import static io.chubao.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_TIME_INDEX_INTERVAL;
+import static io.chubao.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_TIME_INDEX_INTERVAL_MS;
 import static io.chubao.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_WRITE_REQUEST_CACHE_SIZE;
 import static io.chubao.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_WRITE_TIMEOUT_MS;
 import static io.chubao.joyqueue.store.file.PositioningStore.Config.DEFAULT_FILE_HEADER_SIZE;
@@ -44,6 +46,74 @@ public enum StoreConfigKey implements PropertyDef {
      * 虚拟线程执行器的线程数量
      */
     THREAD_COUNT("store.thread.count", StoreConfig.DEFAULT_THREAD_COUNT, Type.INT),
+    /**
+     * 是否使用共享的虚拟线程执行器执行所有分区组的写入和刷盘
+     */
+    VIRTUAL_THREAD_ENABLE("store.virtual.thread.enable", StoreConfig.DEFAULT_VIRTUAL_THREAD_ENABLE, Type.BOOLEAN),
+    /**
+     * 虚拟线程执行完任务后的空转时长(ms)
+     */
+    VIRTUAL_THREAD_KEEP_ALIVE_MS("store.virtual.thread.keep.alive", StoreConfig.DEFAULT_VIRTUAL_THREAD_KEEP_ALIVE_MS, Type.LONG),
+    /**
+     * 虚拟线程空闲时的最大等待时长(ms)
+     */
+    VIRTUAL_THREAD_MAX_INTERVAL_MS("store.virtual.thread.max.interval", StoreConfig.DEFAULT_VIRTUAL_THREAD_MAX_INTERVAL_MS, Type.LONG),
+    /**
+     * 虚拟线程每次最大占用物理线程的时长(ms)
+     */
+    VIRTUAL_THREAD_MAX_USE_TIME_MS("store.virtual.thread.max.use.time", StoreConfig.DEFAULT_VIRTUAL_THREAD_MAX_USE_TIME_MS, Type.LONG),
+    /**
+     * 是否开启组提交，开启后同一磁盘上的所有分区组合并刷盘，并同步到磁盘后再回调PERSISTENCE写入
+     */
+    GROUP_COMMIT_ENABLE("store.group.commit.enable", StoreConfig.DEFAULT_GROUP_COMMIT_ENABLE, Type.BOOLEAN),
+    /**
+     * 组提交的最大间隔(ms)
+     */
+    GROUP_COMMIT_MAX_LATENCY_MS("store.group.commit.max.latency", StoreConfig.DEFAULT_GROUP_COMMIT_MAX_LATENCY_MS, Type.LONG),
+    /**
+     * 未提交数据超过这个值时立即触发组提交
+     */
+    GROUP_COMMIT_MAX_BYTES("store.group.commit.max.bytes", StoreConfig.DEFAULT_GROUP_COMMIT_MAX_BYTES, Type.LONG),
+    /**
+     * 启动时并行恢复分区组的线程数量
+     */
+    RECOVER_THREAD_COUNT("store.recover.thread.count", StoreConfig.DEFAULT_RECOVER_THREAD_COUNT, Type.INT),
+    /**
+     * 消息文件中使用页缓存的最新文件数量，更早的文件直接从磁盘读取
+     */
+    COLD_READ_HOT_FILE_COUNT("store.cold.read.hot.file.count", StoreConfig.DEFAULT_COLD_READ_HOT_FILE_COUNT, Type.INT),
+    /**
+     * 直接从磁盘读取时的最大预读长度
+     */
+    COLD_READ_AHEAD_SIZE("store.cold.read.ahead.size", StoreConfig.DEFAULT_COLD_READ_AHEAD_SIZE, Type.INT),
+    /**
+     * 直接从磁盘读取时，预读缓冲区是否不占用PreloadBufferPool的内存
+     */
+    COLD_READ_BYPASS_POOL("store.cold.read.bypass.pool", StoreConfig.DEFAULT_COLD_READ_BYPASS_POOL, Type.BOOLEAN),
+    /**
+     * 是否开启分级存储
+     */
+    TIERED_ENABLE("store.tiered.enable", StoreConfig.DEFAULT_TIERED_ENABLE, Type.BOOLEAN),
+    /**
+     * 分级存储的类型
+     */
+    TIERED_STORAGE_TYPE("store.tiered.storage.type", StoreConfig.DEFAULT_TIERED_STORAGE_TYPE, Type.STRING),
+    /**
+     * 分级存储的地址
+     */
+    TIERED_STORAGE_URI("store.tiered.storage.uri", "", Type.STRING),
+    /**
+     * 每个分区组在本地保留的最新消息文件数量
+     */
+    TIERED_LOCAL_FILE_COUNT("store.tiered.local.file.count", StoreConfig.DEFAULT_TIERED_LOCAL_FILE_COUNT, Type.INT),
+    /**
+     * 从分级存储读取的消息文件在本地缓存的最大总长度
+     */
+    TIERED_CACHE_SIZE("store.tiered.cache.size", StoreConfig.DEFAULT_TIERED_CACHE_SIZE, Type.LONG),
+    /**
+     * 检查并转移消息文件的间隔(ms)
+     */
+    TIERED_INTERVAL_MS("store.tiered.interval", StoreConfig.DEFAULT_TIERED_INTERVAL_MS, Type.LONG),
     /**
      * 预加载DirectBuffer的核心数量
      */
@@ -74,6 +144,14 @@ public enum StoreConfigKey implements PropertyDef {
     FILE_HEADER_SIZE("store.file.header.size", DEFAULT_FILE_HEADER_SIZE, Type.INT),
 
     MAX_DIRTY_SIZE("store.max.dirty.size", DEFAULT_MAX_DIRTY_SIZE, Type.LONG),
+    /**
+     * 时间索引的采样间隔（消息条数）
+     */
+    TIME_INDEX_INTERVAL("store.time.index.interval", DEFAULT_TIME_INDEX_INTERVAL, Type.INT),
+    /**
+     * 时间索引的采样间隔（存储时间ms）
+     */
+    TIME_INDEX_INTERVAL_MS("store.time.index.interval.ms", DEFAULT_TIME_INDEX_INTERVAL_MS, Type.LONG),
 
     PRINT_METRIC_INTERVAL_MS("print.metric.interval", StoreConfig.DEFAULT_PRINT_METRIC_INTERVAL_MS, Type.LONG);
 
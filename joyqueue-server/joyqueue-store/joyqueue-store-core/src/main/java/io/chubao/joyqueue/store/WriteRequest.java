@@ -15,8 +15,9 @@
  */
 package io.chubao.joyqueue.store;
 
+import io.chubao.joyqueue.toolkit.buffer.DirectBufferPool;
+
 import java.io.Closeable;
-import java.io.IOException;
 import java.nio.ByteBuffer;
 
 /**
@@ -27,16 +28,24 @@ public class WriteRequest implements Closeable {
     private final short partition;
     private ByteBuffer buffer;
     private int batchSize;
+    private int size;
+    // 缓冲区来自这个缓冲池，写入存储后归还
+    private DirectBufferPool bufferPool;
 
     public WriteRequest(short partition, ByteBuffer buffer) {
         this.partition = partition;
-        this.buffer = buffer;
+        setBuffer(buffer);
     }
 
     public WriteRequest(short partition, ByteBuffer buffer, int batchSize) {
         this.partition = partition;
-        this.buffer = buffer;
         this.batchSize = batchSize;
+        setBuffer(buffer);
+    }
+
+    public WriteRequest(short partition, ByteBuffer buffer, int batchSize, DirectBufferPool bufferPool) {
+        this(partition, buffer, batchSize);
+        this.bufferPool = bufferPool;
     }
 
     public short getPartition() {
@@ -51,12 +60,26 @@ public class WriteRequest implements Closeable {
         return batchSize;
     }
 
+    /**
+     * 消息的长度，缓冲区归还后仍然有效
+     */
+    public int getSize() {
+        return size;
+    }
+
     public void setBuffer(ByteBuffer buffer) {
         this.buffer = buffer;
+        this.size = null == buffer ? 0 : buffer.remaining();
     }
 
+    /**
+     * 消息已经复制到存储中，将缓冲区归还给缓冲池，之后不能再访问缓冲区
+     */
     @Override
-    public void close() throws IOException {
-
+    public void close() {
+        if (null != bufferPool) {
+            bufferPool.release(buffer);
+            bufferPool = null;
+        }
     }
 }
@@ -0,0 +1,265 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.store.file;
+
+import io.chubao.joyqueue.store.PartialLogException;
+import io.chubao.joyqueue.store.ReadException;
+import io.chubao.joyqueue.store.utils.BufferHolder;
+import io.chubao.joyqueue.store.utils.PreloadBufferPool;
+import io.chubao.joyqueue.toolkit.time.SystemClock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 冷文件的读取器：不映射文件，用FileChannel按位置把数据读到预读缓冲区中。
+ * <p>
+ * 随机读取只读取需要的数据；连续命中上次读取的结束位置时判定为顺序读取，
+ * 每次从磁盘读取时预读长度加倍，最大不超过readAheadSize。
+ * <p>
+ * 预读缓冲区默认从PreloadBufferPool中申请DirectBuffer，占用内存预算，空闲时由PreloadBufferPool回收；
+ * bypassBufferPool为true时使用堆内存，不占用PreloadBufferPool的内存，随机读取或者卸载文件时释放。
+ */
+class ColdFileReader implements BufferHolder {
+    private static final Logger logger = LoggerFactory.getLogger(ColdFileReader.class);
+    // 随机读取时的读取长度
+    static final int MIN_READ_SIZE = 4 * 1024;
+    private final File file;
+    private final int headerSize;
+    private final PreloadBufferPool bufferPool;
+    private final int readAheadSize;
+    private final boolean bypassBufferPool;
+    private final ReentrantLock lock = new ReentrantLock();
+    // 预读缓冲区，缓存文件内[bufferPosition, bufferPosition + buffer.limit())的数据
+    private ByteBuffer buffer = null;
+    private int bufferPosition = 0;
+    // 上次读取的结束位置，用于检测顺序读取
+    private int nextPosition = -1;
+    // 当前预读长度
+    private int window = MIN_READ_SIZE;
+    private volatile long lastAccessTime = SystemClock.now();
+    // 只读的文件通道，第一次从磁盘读取时打开，释放读取器时关闭
+    private RandomAccessFile raf = null;
+    private FileChannel fileChannel = null;
+
+    ColdFileReader(File file, int headerSize, PreloadBufferPool bufferPool, int readAheadSize, boolean bypassBufferPool) {
+        this.file = file;
+        this.headerSize = headerSize;
+        this.bufferPool = bufferPool;
+        this.readAheadSize = Math.max(readAheadSize, MIN_READ_SIZE);
+        this.bypassBufferPool = bypassBufferPool;
+    }
+
+    /**
+     * 读取数据，语义同{@link StoreFile#read(int, int, BufferReader)}
+     *
+     * @param writePosition 文件的写入位置
+     */
+    <R> R read(int position, int length, int writePosition, BufferReader<R> bufferReader) throws IOException {
+        lock.lock();
+        try {
+            lastAccessTime = SystemClock.now();
+            int remaining = writePosition - position;
+            if (remaining <= 0) {
+                return bufferReader.read(ByteBuffer.allocate(0), length);
+            }
+            boolean sequential = position == nextPosition;
+
+            // 先从预读缓冲区中读取
+            if (null != buffer && position >= bufferPosition && position < bufferPosition + buffer.limit()) {
+                int bufferEnd = bufferPosition + buffer.limit();
+                if (length < 0 || position + length <= bufferEnd) {
+                    ByteBuffer src = buffer.asReadOnlyBuffer();
+                    src.position(position - bufferPosition);
+                    if (bufferEnd >= writePosition) {
+                        return consume(position, src, length, bufferReader);
+                    }
+                    try {
+                        return consume(position, src, length, bufferReader);
+                    } catch (ReadException | BufferUnderflowException ignored) {
+                        // 缓冲区中的数据不完整，从磁盘读取
+                    }
+                }
+            }
+
+            if (sequential) {
+                window = Math.min(window * 2, readAheadSize);
+            } else {
+                window = MIN_READ_SIZE;
+                if (bypassBufferPool) {
+                    releaseBuffer();
+                }
+            }
+
+            int readSize = Math.min(remaining, Math.max(length, window));
+            while (true) {
+                try {
+                    return consume(position, fill(position, readSize, sequential), length, bufferReader);
+                } catch (PartialLogException | BufferUnderflowException e) {
+                    if (readSize >= remaining) {
+                        throw e;
+                    }
+                    readSize = (int) Math.min(remaining, 2L * readSize);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private <R> R consume(int position, ByteBuffer src, int length, BufferReader<R> bufferReader) {
+        int start = src.position();
+        R r = bufferReader.read(src, length);
+        nextPosition = position + src.position() - start;
+        return r;
+    }
+
+    /**
+     * 从磁盘读取[position, position + size)的数据。
+     * 顺序读取时数据放入预读缓冲区，随机读取或者数据超过缓冲区大小时使用临时缓冲区。
+     */
+    private ByteBuffer fill(int position, int size, boolean sequential) throws IOException {
+        ByteBuffer dest = null;
+        if (sequential && size <= readAheadSize) {
+            if (null == buffer) {
+                buffer = allocateBuffer();
+            }
+            if (null != buffer) {
+                // 读取完成之前缓冲区中的数据无效
+                buffer.limit(0);
+                dest = buffer.duplicate();
+                dest.clear();
+                dest.limit(size);
+            }
+        }
+        if (null == dest) {
+            dest = ByteBuffer.allocate(size);
+        }
+
+        try {
+            FileChannel channel = openChannel();
+            long filePosition = headerSize + position;
+            while (dest.hasRemaining()) {
+                if (channel.read(dest, filePosition + dest.position()) < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // 读取线程被中断时通道会被关闭，下次读取时重新打开
+            closeChannel();
+            throw e;
+        }
+        dest.flip();
+        if (null != buffer && sequential && size <= readAheadSize) {
+            buffer.position(0);
+            buffer.limit(dest.limit());
+            bufferPosition = position;
+        }
+        return dest;
+    }
+
+    private FileChannel openChannel() throws IOException {
+        if (null == fileChannel) {
+            raf = new RandomAccessFile(file, "r");
+            fileChannel = raf.getChannel();
+        }
+        return fileChannel;
+    }
+
+    private void closeChannel() {
+        RandomAccessFile closed = raf;
+        raf = null;
+        fileChannel = null;
+        if (null != closed) {
+            try {
+                closed.close();
+            } catch (IOException e) {
+                logger.warn("Close file {} failed!", file.getAbsolutePath(), e);
+            }
+        }
+    }
+
+    private ByteBuffer allocateBuffer() {
+        if (bypassBufferPool) {
+            return ByteBuffer.allocate(readAheadSize);
+        }
+        try {
+            return bufferPool.allocateDirect(this);
+        } catch (OutOfMemoryError e) {
+            // 内存不足时不使用预读缓冲区
+            return null;
+        }
+    }
+
+    private void releaseBuffer() {
+        ByteBuffer released = buffer;
+        buffer = null;
+        nextPosition = -1;
+        if (null != released && !bypassBufferPool) {
+            bufferPool.releaseDirect(released, this);
+        }
+    }
+
+    /**
+     * 释放预读缓冲区并关闭文件通道
+     */
+    void release() {
+        lock.lock();
+        try {
+            releaseBuffer();
+            closeChannel();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        return readAheadSize;
+    }
+
+    @Override
+    public boolean isFree() {
+        return !lock.isLocked();
+    }
+
+    @Override
+    public boolean evict() {
+        // 不等待正在进行的读取
+        if (lock.tryLock()) {
+            try {
+                releaseBuffer();
+                closeChannel();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public long lastAccessTime() {
+        return lastAccessTime;
+    }
+}
@@ -17,6 +17,8 @@ package io.chubao.joyqueue.store.file;
 
 import io.chubao.joyqueue.store.PositionOverflowException;
 import io.chubao.joyqueue.store.PositionUnderflowException;
+import io.chubao.joyqueue.store.ReadException;
+import io.chubao.joyqueue.store.tiered.TieredSegmentManager;
 import io.chubao.joyqueue.store.utils.PreloadBufferPool;
 import io.chubao.joyqueue.toolkit.format.Format;
 import org.slf4j.Logger;
@@ -25,9 +27,11 @@ import org.slf4j.LoggerFactory;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.SortedMap;
@@ -46,12 +50,17 @@ public class PositioningStore<T> implements Closeable {
     private final Logger logger = LoggerFactory.getLogger(PositioningStore.class);
     private final int fileHeaderSize;
     private final int fileDataSize;
+    private final int hotFileCount;
+    private final int readAheadSize;
+    private final boolean bypassBufferPool;
+    private final TieredSegmentManager tieredSegmentManager;
     private final File base;
     private final LogSerializer<T> serializer;
     private final PreloadBufferPool bufferPool;
     private final NavigableMap<Long, StoreFile<T>> storeFileMap = new ConcurrentSkipListMap<>();
 
     private final AtomicLong flushPosition = new AtomicLong(0L);
+    private final AtomicLong forcePosition = new AtomicLong(0L);
     private final AtomicLong rightPosition = new AtomicLong(0L);
     private final AtomicLong leftPosition = new AtomicLong(0L);
 
@@ -66,6 +75,10 @@ public class PositioningStore<T> implements Closeable {
         this.base = base;
         this.fileHeaderSize = config.fileHeaderSize;
         this.fileDataSize = config.fileDataSize;
+        this.hotFileCount = config.hotFileCount;
+        this.readAheadSize = config.readAheadSize;
+        this.bypassBufferPool = config.bypassBufferPool;
+        this.tieredSegmentManager = config.tieredSegmentManager;
         this.bufferPool = bufferPool;
         this.serializer = serializer;
     }
@@ -82,6 +95,13 @@ public class PositioningStore<T> implements Closeable {
         return flushPosition.get();
     }
 
+    /**
+     * 已经同步到磁盘的位置，forcePosition <= flushPosition
+     */
+    public long forcePosition() {
+        return forcePosition.get();
+    }
+
     public void clear(long position) {
         logger.info("Clear store, new position: {}, store: {}...",
                 Format.formatWithComma(position),
@@ -96,6 +116,7 @@ public class PositioningStore<T> implements Closeable {
             this.leftPosition.set(position);
             this.rightPosition.set(position);
             this.flushPosition.set(position);
+            this.forcePosition.set(position);
             resetWriteStoreFile();
         } finally {
             deleteLock.unlock();
@@ -131,10 +152,12 @@ public class PositioningStore<T> implements Closeable {
                 this.leftPosition.set(position);
                 this.rightPosition.set(position);
                 this.flushPosition.set(position);
+                this.forcePosition.set(position);
             } else if (position < right()) {
                 rollbackFiles(position);
                 this.rightPosition.set(position);
                 if (this.flushPosition() > position) this.flushPosition.set(position);
+                if (this.forcePosition() > position) this.forcePosition.set(position);
             }
             resetWriteStoreFile();
         } finally {
@@ -196,9 +219,34 @@ public class PositioningStore<T> implements Closeable {
                 writeStoreFile = storeFile;
             }
         }
+        updateColdFiles();
+    }
+
+    /**
+     * 只有最新的hotFileCount个文件使用页缓存，更早的文件是冷文件，直接从磁盘读取，
+     * 避免读取历史数据的消费者占用页缓存，影响读取最新数据的消费者。
+     */
+    private void updateColdFiles() {
+        if (hotFileCount <= 0) {
+            return;
+        }
+        int index = 0;
+        for (StoreFile<T> storeFile : storeFileMap.descendingMap().values()) {
+            storeFile.setCold(index++ >= hotFileCount);
+        }
     }
 
     public void recover() throws IOException {
+        recover(-1L);
+    }
+
+    /**
+     * 恢复存储。
+     * 如果文件的总长度与检查点中记录的结束位置一致，说明上次是正常关闭的，跳过末尾日志的校验。
+     *
+     * @param checkpointPosition 检查点中记录的结束位置，没有检查点时传入负值
+     */
+    public void recover(long checkpointPosition) throws IOException {
         logger.info("Recovering store file: {}...", base.getAbsolutePath());
         try {
             // 注意锁的顺序必须一致，避免死锁。
@@ -209,10 +257,11 @@ public class PositioningStore<T> implements Closeable {
 
             long recoverPosition = this.storeFileMap.isEmpty() ? 0L : this.storeFileMap.lastKey() + this.storeFileMap.lastEntry().getValue().fileDataSize();
             flushPosition.set(recoverPosition);
+            forcePosition.set(recoverPosition);
             rightPosition.set(recoverPosition);
             leftPosition.set(this.storeFileMap.isEmpty() ? 0L : this.storeFileMap.firstKey());
 
-            if (recoverPosition > 0) {
+            if (recoverPosition > 0 && recoverPosition != checkpointPosition) {
                 long lastLogTail = toLogTail(recoverPosition - 1);
                 if (lastLogTail < 0) {
                     throw new CorruptedLogException(String.format("Unable to read any valid log. Corrupted log files: %s.", base.getAbsolutePath()));
@@ -220,6 +269,7 @@ public class PositioningStore<T> implements Closeable {
                 if (lastLogTail < recoverPosition) {
                     rollbackFiles(lastLogTail);
                     flushPosition.set(lastLogTail);
+                    forcePosition.set(lastLogTail);
                     rightPosition.set(lastLogTail);
 
                 }
@@ -243,13 +293,14 @@ public class PositioningStore<T> implements Closeable {
         if (null != files) {
             for (File file : files) {
                 filePosition = Long.parseLong(file.getName());
-                storeFileMap.put(filePosition, new StoreFileImpl<>(filePosition, base, fileHeaderSize, serializer, bufferPool, fileDataSize));
+                storeFileMap.put(filePosition, newStoreFile(filePosition));
 //                storeFileMap.put(filePosition, new FastWriteStoreFile<>(filePosition, base, fileHeaderSize, serializer, 10 * 1024 * 1024));
             }
         }
+        recoverTieredFiles();
         // 当服务器断电时，在存储的末尾，有可能会存在没来得及刷盘的空文件，需要删掉。
 
-        while (!storeFileMap.isEmpty() && storeFileMap.lastEntry().getValue().file().length() <= fileHeaderSize) {
+        while (!storeFileMap.isEmpty() && storeFileMap.lastEntry().getValue().fileDataSize() <= 0) {
             Map.Entry<Long, StoreFile<T>> lastEntry = storeFileMap.pollLastEntry();
             StoreFile<T> storeFile = lastEntry.getValue();
             File file = storeFile.file();
@@ -270,11 +321,80 @@ public class PositioningStore<T> implements Closeable {
                 if (position != fileEntry.getKey()) {
                     throw new CorruptedLogException(String.format("Files are not continuous! expect: %d, actual file name: %d, store: %s.", position, fileEntry.getKey(), base.getAbsolutePath()));
                 }
-                position += fileEntry.getValue().file().length() - fileHeaderSize;
+                position += fileEntry.getValue().fileDataSize();
             }
         }
     }
 
+    /**
+     * 恢复已经转移到分级存储中的文件。
+     * 转移过程中宕机时，本地文件和描述文件可能同时存在，这时使用本地文件，删除描述文件。
+     */
+    private void recoverTieredFiles() throws IOException {
+        File[] descriptors = base.listFiles(file -> file.isFile() && file.getName().matches("\\d+\\" + TieredStoreFile.SUFFIX));
+        if (null == descriptors) {
+            return;
+        }
+        for (File descriptor : descriptors) {
+            String name = descriptor.getName();
+            long filePosition = Long.parseLong(name.substring(0, name.length() - TieredStoreFile.SUFFIX.length()));
+            if (storeFileMap.containsKey(filePosition)) {
+                if (!descriptor.delete()) {
+                    throw new IOException(String.format("Delete file %s failed!", descriptor.getAbsolutePath()));
+                }
+                continue;
+            }
+            if (null == tieredSegmentManager) {
+                throw new CorruptedLogException(String.format("Tiered store file %s found but tiered storage is disabled!", descriptor.getAbsolutePath()));
+            }
+            storeFileMap.put(filePosition, TieredStoreFile.recover(filePosition, base, fileHeaderSize, serializer,
+                    bufferPool, readAheadSize, bypassBufferPool, tieredSegmentManager));
+        }
+    }
+
+    /**
+     * 把最新的localFileCount个文件之前、已经同步到磁盘的文件转移到分级存储中，删除本地文件。
+     * 与physicalDeleteTo()互斥，文件转移之后读取时从分级存储下载到本地缓存。
+     *
+     * @param localFileCount 保留在本地的最新文件数量，最少保留1个
+     * @return 转移的文件数量
+     */
+    public int offload(int localFileCount) throws IOException {
+        if (null == tieredSegmentManager) {
+            return 0;
+        }
+        int count = 0;
+        List<StoreFile<T>> candidates = new ArrayList<>();
+        Iterator<StoreFile<T>> iterator = storeFileMap.descendingMap().values().iterator();
+        for (int i = 0; iterator.hasNext(); i++) {
+            StoreFile<T> storeFile = iterator.next();
+            if (i >= Math.max(localFileCount, 1) && storeFile instanceof StoreFileImpl && storeFile != writeStoreFile
+                    && storeFile.position() + storeFile.fileDataSize() <= forcePosition()) {
+                candidates.add(storeFile);
+            }
+        }
+        for (StoreFile<T> storeFile : candidates) {
+            // 先上传，上传过程中不影响读取和删除
+            TieredStoreFile<T> tieredStoreFile = TieredStoreFile.offload(storeFile, fileHeaderSize, serializer,
+                    bufferPool, readAheadSize, bypassBufferPool, tieredSegmentManager);
+            boolean replaced;
+            try {
+                deleteLock.lock();
+                replaced = storeFileMap.replace(storeFile.position(), storeFile, tieredStoreFile);
+            } finally {
+                deleteLock.unlock();
+            }
+            if (replaced) {
+                forceDeleteStoreFile(storeFile);
+                count++;
+            } else {
+                // 上传过程中文件已经被删除
+                forceDeleteStoreFile(tieredStoreFile);
+            }
+        }
+        return count;
+    }
+
     private long toLogTail(long position) {
         T t = null;
         while (position >= left()) {
@@ -378,15 +498,42 @@ public class PositioningStore<T> implements Closeable {
         return false;
     }
 
+    /**
+     * 将flushPosition之前已经写入文件的数据同步到磁盘（fdatasync）。
+     * 只同步上次同步之后有变化的文件。
+     *
+     * @return 有数据被同步返回true，否则返回false
+     */
+    public boolean force() throws IOException {
+        if (forcePosition() < flushPosition()) {
+            try {
+                flushLock.lock();
+                long position = flushPosition();
+                Long fromKey = storeFileMap.floorKey(Math.max(forcePosition(), left()));
+                if (null == fromKey) {
+                    fromKey = left();
+                }
+                for (StoreFile<T> storeFile : storeFileMap.subMap(fromKey, true, position, false).values()) {
+                    storeFile.force();
+                }
+                forcePosition.set(position);
+                return true;
+            } finally {
+                flushLock.unlock();
+            }
+        }
+        return false;
+    }
 
     private StoreFile<T> createStoreFile(long position) {
 
-        StoreFile<T> storeFile = new StoreFileImpl<>(position, base, fileHeaderSize, serializer, bufferPool, fileDataSize);
+        StoreFile<T> storeFile = newStoreFile(position);
         StoreFile<T> present;
         if ((present = storeFileMap.putIfAbsent(position, storeFile)) != null) {
             storeFile = present;
         } else {
             checkDiskFreeSpace(base, fileDataSize + fileHeaderSize);
+            updateColdFiles();
         }
         logger.info("Store file created, leftPosition: {}, rightPosition: {}, flushPosition: {}, base: {}.",
                 Format.formatWithComma(left()),
@@ -397,6 +544,11 @@ public class PositioningStore<T> implements Closeable {
         return storeFile;
     }
 
+    private StoreFile<T> newStoreFile(long position) {
+        return new StoreFileImpl<>(position, base, fileHeaderSize, serializer, bufferPool, fileDataSize,
+                readAheadSize, bypassBufferPool);
+    }
+
     private void checkDiskFreeSpace(File file, long fileSize) {
         if(file.getFreeSpace() < fileSize) {
             throw new DiskFullException(file);
@@ -439,24 +591,50 @@ public class PositioningStore<T> implements Closeable {
         return storeFile.read(relPosition, -1);
     }
 
+    /**
+     * 从position开始连续读取最多count条日志，每个文件只加一次锁
+     */
     public List<T> batchRead(long position, int count) throws IOException {
         checkReadPosition(position);
         List<T> list = new ArrayList<>(count);
         long pointer = position;
 
-        StoreFile<T> storeFile = null;
         try {
-            while (list.size() < count && pointer < right()) {
-
-                if (null == storeFile || storeFile.writePosition() + storeFile.position() <= pointer) {
-                    storeFile = storeFileMap.floorEntry(pointer).getValue();
-                }
-
+            long right = right();
+            while (list.size() < count && pointer < right) {
+                StoreFile<T> storeFile = storeFileMap.floorEntry(pointer).getValue();
                 int relPosition = (int) (pointer - storeFile.position());
-                T t = storeFile.read(relPosition, -1);
-                list.add(t);
-                pointer += serializer.size(t);
-
+                int relLimit = (int) Math.min(right - storeFile.position(), storeFile.writePosition());
+                int read = storeFile.read(relPosition, -1, (buffer, length) -> {
+                    // buffer的位置不一定是文件内的位置，只能使用相对位置
+                    int start = buffer.position();
+                    if (buffer.limit() - start > relLimit - relPosition) {
+                        buffer.limit(start + relLimit - relPosition);
+                    }
+                    int readCount = 0;
+                    while (list.size() < count && buffer.hasRemaining()) {
+                        int logStart = buffer.position();
+                        T t;
+                        try {
+                            t = serializer.read(buffer, -1);
+                        } catch (ReadException | BufferUnderflowException e) {
+                            // 数据不完整（例如跨页），返回已经读到的数据，下次从这条数据开始读
+                            if (readCount > 0) {
+                                buffer.position(logStart);
+                                break;
+                            }
+                            throw e;
+                        }
+                        list.add(t);
+                        readCount++;
+                        buffer.position(logStart + serializer.size(t));
+                    }
+                    return buffer.position() - start;
+                });
+                if (read <= 0) {
+                    break;
+                }
+                pointer += read;
             }
 
             return list;
@@ -494,6 +672,43 @@ public class PositioningStore<T> implements Closeable {
     }
 
 
+    /**
+     * 读取[position, position + length)之间的连续数据，不做反序列化。
+     * 数据跨越多个文件时，每个文件返回一个ByteBuffer，每个文件只加一次锁、只复制一次数据。
+     *
+     * @param position 起始位置
+     * @param length   最大长度，超过right()的部分不读取
+     * @return 按位置顺序排列的数据块，数据块之间首尾相接
+     */
+    public List<ByteBuffer> readByteBuffers(long position, int length) throws IOException {
+        checkReadPosition(position);
+        long end = Math.min(position + length, right());
+        List<ByteBuffer> buffers = new ArrayList<>(1);
+        long pointer = position;
+        try {
+            while (pointer < end) {
+                StoreFile<T> storeFile = storeFileMap.floorEntry(pointer).getValue();
+                int relPosition = (int) (pointer - storeFile.position());
+                ByteBuffer buffer = storeFile.readByteBuffer(relPosition, (int) (end - pointer));
+                if (!buffer.hasRemaining()) {
+                    break;
+                }
+                buffers.add(buffer);
+                pointer += buffer.remaining();
+            }
+            return buffers;
+        } catch (Throwable t) {
+            logger.warn("Exception on readByteBuffers position {} of store {}, " +
+                            "leftPosition: {}, rightPosition: {}, flushPosition: {}.",
+                    pointer, base.getAbsolutePath(),
+                    Format.formatWithComma(left()),
+                    Format.formatWithComma(right()),
+                    Format.formatWithComma(flushPosition()),
+                    t);
+            throw t;
+        }
+    }
+
     private void checkReadPosition(long position) {
         long p;
         if ((p = left()) > position) {
@@ -504,6 +719,9 @@ public class PositioningStore<T> implements Closeable {
 
     }
 
+    /**
+     * 本地文件的总长度，不包含已经转移到分级存储中的文件
+     */
     public long physicalSize() {
         return storeFileMap.values().stream().map(StoreFile::file).mapToLong(File::length).sum();
     }
@@ -560,6 +778,9 @@ public class PositioningStore<T> implements Closeable {
      * 删除文件，丢弃未刷盘的数据，用于rollback
      */
     private void forceDeleteStoreFile(StoreFile storeFile) throws IOException {
+        if (storeFile instanceof TieredStoreFile) {
+            ((TieredStoreFile) storeFile).deleteSegment();
+        }
         storeFile.forceUnload();
         File file = storeFile.file();
         if (file.exists()) {
@@ -653,6 +874,7 @@ public class PositioningStore<T> implements Closeable {
     public static class Config {
         public static final int DEFAULT_FILE_HEADER_SIZE = 128;
         public static final int DEFAULT_FILE_DATA_SIZE = 128 * 1024 * 1024;
+        public static final int DEFAULT_READ_AHEAD_SIZE = 1024 * 1024;
 
         /**
          * 文件头长度
@@ -662,6 +884,22 @@ public class PositioningStore<T> implements Closeable {
          * 文件内数据最大长度
          */
         private final int fileDataSize;
+        /**
+         * 使用页缓存的最新文件数量，更早的文件直接从磁盘读取。小于等于0时所有文件都使用页缓存
+         */
+        private final int hotFileCount;
+        /**
+         * 直接从磁盘读取时的最大预读长度
+         */
+        private final int readAheadSize;
+        /**
+         * 直接从磁盘读取时，预读缓冲区是否不占用PreloadBufferPool的内存
+         */
+        private final boolean bypassBufferPool;
+        /**
+         * 分级存储，为null时不转移文件
+         */
+        private final TieredSegmentManager tieredSegmentManager;
 
         public Config() {
             this(DEFAULT_FILE_DATA_SIZE,
@@ -674,8 +912,21 @@ public class PositioningStore<T> implements Closeable {
         }
 
         public Config(int fileDataSize, int fileHeaderSize) {
+            this(fileDataSize, fileHeaderSize, 0, DEFAULT_READ_AHEAD_SIZE, false);
+        }
+
+        public Config(int fileDataSize, int fileHeaderSize, int hotFileCount, int readAheadSize, boolean bypassBufferPool) {
+            this(fileDataSize, fileHeaderSize, hotFileCount, readAheadSize, bypassBufferPool, null);
+        }
+
+        public Config(int fileDataSize, int fileHeaderSize, int hotFileCount, int readAheadSize, boolean bypassBufferPool,
+                      TieredSegmentManager tieredSegmentManager) {
+            this.tieredSegmentManager = tieredSegmentManager;
             this.fileDataSize = fileDataSize;
             this.fileHeaderSize = fileHeaderSize;
+            this.hotFileCount = hotFileCount;
+            this.readAheadSize = readAheadSize;
+            this.bypassBufferPool = bypassBufferPool;
         }
     }
 
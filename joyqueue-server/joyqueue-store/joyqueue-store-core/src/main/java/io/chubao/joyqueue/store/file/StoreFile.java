@@ -47,6 +47,16 @@ public interface StoreFile<T> extends Timed {
      */
     boolean hasPage();
 
+    /**
+     * 设置是否为冷文件。冷文件不使用页缓存，直接从磁盘读取
+     */
+    void setCold(boolean cold);
+
+    /**
+     * 是否为冷文件
+     */
+    boolean isCold();
+
     /**
      * 用给定的位置和长度读取数据
      *
@@ -55,6 +65,18 @@ public interface StoreFile<T> extends Timed {
      */
     T read(int position, int length) throws IOException;
 
+    /**
+     * 在一次加锁内用bufferReader读取数据
+     *
+     * @param position     文件内的相对位置
+     * @param length       数据长度，原样传给bufferReader
+     * @param bufferReader 读取器，传入的ByteBuffer从给定位置的数据开始，最多到文件的写入位置结束。
+     *                     ByteBuffer内的位置不一定等于文件内的位置，只能使用相对于ByteBuffer初始position的位置。
+     *                     只读文件按页缓存，ByteBuffer可能只包含到页结束的数据，
+     *                     读取不完整的数据时抛出{@link io.chubao.joyqueue.store.ReadException}，会复制跨页的数据后再次调用。
+     */
+    <R> R read(int position, int length, BufferReader<R> bufferReader) throws IOException;
+
     /**
      * 追加写入数据
      *
@@ -83,6 +105,11 @@ public interface StoreFile<T> extends Timed {
      */
     int flush() throws IOException;
 
+    /**
+     * 将已刷盘（写入文件）的数据同步到磁盘（fdatasync）
+     */
+    void force() throws IOException;
+
     /**
      * 回滚到指定位置，未刷盘的数据直接丢弃，已刷盘的数据需要截断。
      */
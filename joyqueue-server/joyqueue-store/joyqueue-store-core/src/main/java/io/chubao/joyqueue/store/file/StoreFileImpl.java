@@ -15,7 +15,10 @@
  */
 package io.chubao.joyqueue.store.file;
 
+import io.chubao.joyqueue.store.PartialLogException;
+import io.chubao.joyqueue.store.ReadException;
 import io.chubao.joyqueue.store.utils.BufferHolder;
+import io.chubao.joyqueue.store.utils.CachePage;
 import io.chubao.joyqueue.store.utils.PreloadBufferPool;
 import io.chubao.joyqueue.toolkit.time.SystemClock;
 import org.slf4j.Logger;
@@ -27,6 +30,7 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.lang.reflect.Method;
 import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
@@ -41,10 +45,10 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
     private static final Logger logger = LoggerFactory.getLogger(StoreFileImpl.class);
     // 缓存页类型
     // 只读：
-    // MAPPED_BUFFER：mmap映射内存镜像文件；
+    // PAGED_BUFFER：按页mmap映射文件，每页在第一次读取时映射，由PreloadBufferPool的页缓存管理；
     // 读写：
     // DIRECT_BUFFER: 数据先写入DirectBuffer，异步刷盘到文件，性能最好；
-    private static final int MAPPED_BUFFER = 0, DIRECT_BUFFER = 1, NO_BUFFER = -1;
+    private static final int PAGED_BUFFER = 0, DIRECT_BUFFER = 1, NO_BUFFER = -1;
     // 文件全局位置
     private final long filePosition;
     // 文件头长度
@@ -59,20 +63,40 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
     private final long createTimestamp;
     // 缓存页
     private ByteBuffer pageBuffer = null;
+    // 只读时的分页
+    private Page[] pages = null;
     private int bufferType = NO_BUFFER;
     private PreloadBufferPool bufferPool;
     private int capacity;
     private long lastAccessTime = SystemClock.now();
     // 当前刷盘位置
     private int flushPosition;
+    // 当前已同步到磁盘的位置
+    private int forcePosition;
     // 当前写入位置
     private int writePosition = 0;
     private long timestamp = -1L;
     private AtomicBoolean flushGate = new AtomicBoolean(false);
+    // 冷文件不使用页缓存，直接从磁盘读取
+    private volatile boolean cold = false;
+    private final int readAheadSize;
+    private final boolean bypassBufferPool;
+    private volatile ColdFileReader coldFileReader = null;
 
 
     public StoreFileImpl(long filePosition, File base, int headerSize, LogSerializer<T> serializer, PreloadBufferPool bufferPool, int maxFileDataLength) {
+        this(filePosition, base, headerSize, serializer, bufferPool, maxFileDataLength, ColdFileReader.MIN_READ_SIZE, false);
+    }
+
+    /**
+     * @param readAheadSize    冷文件直接从磁盘读取时的最大预读长度
+     * @param bypassBufferPool 冷文件的预读缓冲区是否不占用bufferPool的内存
+     */
+    public StoreFileImpl(long filePosition, File base, int headerSize, LogSerializer<T> serializer, PreloadBufferPool bufferPool,
+                         int maxFileDataLength, int readAheadSize, boolean bypassBufferPool) {
         this.filePosition = filePosition;
+        this.readAheadSize = readAheadSize;
+        this.bypassBufferPool = bypassBufferPool;
         this.headerSize = headerSize;
         this.serializer = serializer;
         this.bufferPool = bufferPool;
@@ -81,6 +105,7 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
         if (file.exists() && file.length() > headerSize) {
             this.writePosition = (int) (file.length() - headerSize);
             this.flushPosition = writePosition;
+            this.forcePosition = writePosition;
         }
         createTimestamp = SystemClock.now();
 
@@ -97,30 +122,23 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
     }
 
     private void loadRoUnsafe() throws IOException {
-        if (null != pageBuffer) throw new IOException("Buffer already loaded!");
-        bufferPool.allocateMMap(this);
-        try {
-            MappedByteBuffer loadBuffer;
-            try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel fileChannel = raf.getChannel()) {
-                loadBuffer =
-                        fileChannel.map(FileChannel.MapMode.READ_ONLY, headerSize, file.length() - headerSize);
-            }
-//            loadBuffer.load();
-            pageBuffer = loadBuffer;
-            bufferType = MAPPED_BUFFER;
-            pageBuffer.clear();
-        } catch (Throwable t) {
-            logger.warn("Exception: ", t);
-            bufferPool.releaseMMap(this);
-            pageBuffer = null;
-            throw t;
+        if (null != pageBuffer || null != pages) throw new IOException("Buffer already loaded!");
+        // 只划分页，每页在第一次读取时才映射
+        int pageSize = bufferPool.pageSize();
+        @SuppressWarnings("unchecked")
+        Page[] loadPages = new StoreFileImpl.Page[(writePosition + pageSize - 1) / pageSize];
+        for (int i = 0; i < loadPages.length; i++) {
+            int offset = i * pageSize;
+            loadPages[i] = new Page(offset, Math.min(pageSize, writePosition - offset));
         }
+        pages = loadPages;
+        bufferType = PAGED_BUFFER;
     }
 
     private void loadRwUnsafe() throws IOException {
         if (bufferType == DIRECT_BUFFER) {
             return;
-        } else if (bufferType == MAPPED_BUFFER) {
+        } else if (bufferType == PAGED_BUFFER) {
             unloadUnsafe();
         }
         ByteBuffer buffer = bufferPool.allocateDirect( this);
@@ -204,15 +222,44 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
         return this.bufferType != NO_BUFFER;
     }
 
+    @Override
+    public void setCold(boolean cold) {
+        if (this.cold == cold) {
+            return;
+        }
+        this.cold = cold;
+        long stamp = bufferLock.writeLock();
+        try {
+            if (cold) {
+                if (PAGED_BUFFER == bufferType) {
+                    unloadUnsafe();
+                }
+            } else {
+                releaseColdFileReader();
+            }
+        } finally {
+            bufferLock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public boolean isCold() {
+        return cold;
+    }
+
     @Override
     public T read(int position, int length) throws IOException {
         return read(position, length, serializer);
     }
 
+    @Override
     public <R> R read(int position, int length, BufferReader<R> bufferReader) throws IOException {
         touch();
         long stamp = bufferLock.readLock();
         try {
+            if (cold && DIRECT_BUFFER != bufferType && isClean()) {
+                return coldFileReader().read(position, length, writePosition, bufferReader);
+            }
             while (!hasPage()) {
                 long ws = bufferLock.tryConvertToWriteLock(stamp);
                 if (ws != 0L) {
@@ -228,6 +275,9 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
             if (rs != 0L) {
                 stamp = rs;
             }
+            if (PAGED_BUFFER == bufferType) {
+                return readPages(position, length, bufferReader);
+            }
             ByteBuffer byteBuffer = pageBuffer.asReadOnlyBuffer();
             byteBuffer.position(position);
             byteBuffer.limit(writePosition);
@@ -237,6 +287,86 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
         }
     }
 
+    // 需要持有读锁
+    private ColdFileReader coldFileReader() {
+        ColdFileReader reader = coldFileReader;
+        if (null == reader) {
+            synchronized (this) {
+                if (null == (reader = coldFileReader)) {
+                    coldFileReader = reader = new ColdFileReader(file, headerSize, bufferPool, readAheadSize, bypassBufferPool);
+                }
+            }
+        }
+        return reader;
+    }
+
+    // 需要持有写锁
+    private void releaseColdFileReader() {
+        ColdFileReader reader = coldFileReader;
+        coldFileReader = null;
+        if (null != reader) {
+            reader.release();
+        }
+    }
+
+    // 需要持有读锁
+    private <R> R readPages(int position, int length, BufferReader<R> bufferReader) throws IOException {
+        if (position >= writePosition) {
+            return bufferReader.read(ByteBuffer.allocate(0), length);
+        }
+        Page page = pages[position / bufferPool.pageSize()];
+        int pageEnd = page.offset + page.length;
+        if (length < 0 || position + length <= pageEnd) {
+            ByteBuffer byteBuffer = page.view(position);
+            if (length >= 0 || pageEnd >= writePosition) {
+                return bufferReader.read(byteBuffer, length);
+            }
+            try {
+                return bufferReader.read(byteBuffer, length);
+            } catch (ReadException | BufferUnderflowException e) {
+                // 数据跨页，复制后再读
+                logger.debug("Read across pages, file: {}, position: {}.", file.getAbsolutePath(), position);
+            }
+        }
+        return readAcrossPages(position, length, bufferReader);
+    }
+
+    // 需要持有读锁。把跨页的数据复制到一个连续的ByteBuffer中再读取，
+    // 长度未知时，先复制两页，数据不完整时加倍复制的长度。
+    private <R> R readAcrossPages(int position, int length, BufferReader<R> bufferReader) throws IOException {
+        int remaining = writePosition - position;
+        if (length >= 0) {
+            return bufferReader.read(copyPages(position, Math.min(length, remaining)), length);
+        }
+        int copyLength = (int) Math.min(remaining, 2L * bufferPool.pageSize());
+        while (true) {
+            try {
+                return bufferReader.read(copyPages(position, copyLength), length);
+            } catch (PartialLogException | BufferUnderflowException e) {
+                if (copyLength >= remaining) {
+                    throw e;
+                }
+                copyLength = (int) Math.min(remaining, 2L * copyLength);
+            }
+        }
+    }
+
+    // 需要持有读锁
+    private ByteBuffer copyPages(int position, int length) throws IOException {
+        ByteBuffer dest = ByteBuffer.allocate(length);
+        int pageSize = bufferPool.pageSize();
+        while (dest.hasRemaining()) {
+            int pointer = position + dest.position();
+            ByteBuffer src = pages[pointer / pageSize].view(pointer);
+            if (src.remaining() > dest.remaining()) {
+                src.limit(src.position() + dest.remaining());
+            }
+            dest.put(src);
+        }
+        dest.flip();
+        return dest;
+    }
+
     @Override
     public ByteBuffer readByteBuffer(int position, int length) throws IOException {
         return read(position, Math.min(length, writePosition - position), (src, len) -> {
@@ -362,12 +492,27 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
         return flushSize;
     }
 
+    // Not thread safe!
+    @Override
+    public void force() throws IOException {
+        int position = flushPosition;
+        if (position > forcePosition && file.exists()) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel fileChannel = raf.getChannel()) {
+                fileChannel.force(false);
+            }
+            forcePosition = position;
+        }
+    }
+
     // Not thread safe!
     @Override
     public void rollback(int position) throws IOException {
         if (position < writePosition) {
             writePosition = position;
         }
+        if (position < forcePosition) {
+            forcePosition = position;
+        }
         if (position < flushPosition) {
             if (flushGate.compareAndSet(false, true)) {
                 try {
@@ -411,8 +556,9 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
 
 
     private void unloadUnsafe() {
-        if (MAPPED_BUFFER == this.bufferType) {
-            unloadMappedBuffer();
+        releaseColdFileReader();
+        if (PAGED_BUFFER == this.bufferType) {
+            unloadPages();
         } else if (DIRECT_BUFFER == this.bufferType) {
             unloadDirectBuffer();
         }
@@ -425,21 +571,26 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
         if (null != direct) bufferPool.releaseDirect(direct, this);
     }
 
-    private void unloadMappedBuffer() {
-        try {
-            final Buffer mapped = pageBuffer;
-            pageBuffer = null;
-            this.bufferType = NO_BUFFER;
-            if (null != mapped) {
-                Method getCleanerMethod;
-                getCleanerMethod = mapped.getClass().getMethod("cleaner");
-                getCleanerMethod.setAccessible(true);
-                Cleaner cleaner = (Cleaner) getCleanerMethod.invoke(mapped, new Object[0]);
-                cleaner.clean();
+    private void unloadPages() {
+        final Page[] unloadPages = pages;
+        pages = null;
+        this.bufferType = NO_BUFFER;
+        if (null != unloadPages) {
+            for (Page page : unloadPages) {
+                page.release();
             }
-            bufferPool.releaseMMap(this);
+        }
+    }
+
+    private void releaseMappedBuffer(Buffer mapped) {
+        try {
+            Method getCleanerMethod;
+            getCleanerMethod = mapped.getClass().getMethod("cleaner");
+            getCleanerMethod.setAccessible(true);
+            Cleaner cleaner = (Cleaner) getCleanerMethod.invoke(mapped, new Object[0]);
+            cleaner.clean();
         } catch (Exception e) {
-            logger.warn("Release direct buffer exception: ", e);
+            logger.warn("Release mapped buffer exception: ", e);
         }
     }
 
@@ -458,4 +609,86 @@ public class StoreFileImpl<T> implements StoreFile<T>, BufferHolder {
     public boolean evict() {
         return unload();
     }
+
+    /**
+     * 只读文件的一页，对应文件中[offset, offset + length)的数据
+     */
+    private class Page extends CachePage {
+        private final int offset;
+        private final int length;
+        private volatile MappedByteBuffer buffer = null;
+
+        Page(int offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * 需要持有读锁，返回从position开始到页结束的只读视图
+         */
+        ByteBuffer view(int position) throws IOException {
+            MappedByteBuffer mapped = buffer;
+            if (null == mapped) {
+                synchronized (this) {
+                    mapped = buffer;
+                    if (null == mapped) {
+                        mapped = load();
+                    } else {
+                        bufferPool.accessPage(this);
+                    }
+                }
+            } else {
+                bufferPool.accessPage(this);
+            }
+            ByteBuffer view = mapped.asReadOnlyBuffer();
+            view.position(position - offset);
+            return view;
+        }
+
+        private MappedByteBuffer load() throws IOException {
+            bufferPool.allocatePage(this);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel fileChannel = raf.getChannel()) {
+                MappedByteBuffer mapped = fileChannel.map(FileChannel.MapMode.READ_ONLY, headerSize + offset, length);
+                buffer = mapped;
+                return mapped;
+            } catch (Throwable t) {
+                logger.warn("Exception: ", t);
+                bufferPool.releasePage(this);
+                throw t;
+            }
+        }
+
+        /**
+         * 需要持有写锁
+         */
+        boolean release() {
+            final MappedByteBuffer mapped = buffer;
+            if (null == mapped) {
+                return false;
+            }
+            buffer = null;
+            releaseMappedBuffer(mapped);
+            bufferPool.releasePage(this);
+            return true;
+        }
+
+        @Override
+        public int size() {
+            return length;
+        }
+
+        @Override
+        public boolean evict() {
+            // 不等待正在读取这个文件的线程，下一轮再淘汰
+            long stamp = bufferLock.tryWriteLock();
+            if (0L == stamp) {
+                return false;
+            }
+            try {
+                return release();
+            } finally {
+                bufferLock.unlockWrite(stamp);
+            }
+        }
+    }
 }
@@ -0,0 +1,271 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.store.file;
+
+import io.chubao.joyqueue.store.tiered.TieredSegmentManager;
+import io.chubao.joyqueue.store.utils.PreloadBufferPool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * 已经转移到分级存储中的只读文件。
+ * <p>
+ * 本地只保留一个描述文件（文件名为"起始位置.tiered"），记录文件的创建时间和数据长度；
+ * 读取时通过{@link TieredSegmentManager}把文件下载到本地缓存，然后按照冷文件的方式直接从磁盘读取。
+ * <p>
+ * 描述文件格式：创建时间(8) + 数据长度(4)
+ */
+public class TieredStoreFile<T> implements StoreFile<T> {
+    static final String SUFFIX = ".tiered";
+    private static final int DESCRIPTOR_SIZE = Long.BYTES + Integer.BYTES;
+    private final long filePosition;
+    private final File descriptor;
+    private final String key;
+    private final int headerSize;
+    private final LogSerializer<T> serializer;
+    private final PreloadBufferPool bufferPool;
+    private final int readAheadSize;
+    private final boolean bypassBufferPool;
+    private final TieredSegmentManager segmentManager;
+    private final long timestamp;
+    private final int dataSize;
+    // 读取本地缓存文件，第一次读取时创建
+    private volatile StoreFileImpl<T> cachedFile = null;
+
+    private TieredStoreFile(long filePosition, File descriptor, String key, int headerSize, LogSerializer<T> serializer,
+                            PreloadBufferPool bufferPool, int readAheadSize, boolean bypassBufferPool,
+                            TieredSegmentManager segmentManager, long timestamp, int dataSize) {
+        this.filePosition = filePosition;
+        this.descriptor = descriptor;
+        this.key = key;
+        this.headerSize = headerSize;
+        this.serializer = serializer;
+        this.bufferPool = bufferPool;
+        this.readAheadSize = readAheadSize;
+        this.bypassBufferPool = bypassBufferPool;
+        this.segmentManager = segmentManager;
+        this.timestamp = timestamp;
+        this.dataSize = dataSize;
+    }
+
+    /**
+     * 描述文件
+     */
+    static File descriptor(File base, long filePosition) {
+        return new File(base, filePosition + SUFFIX);
+    }
+
+    /**
+     * 把已经写满并同步到磁盘的本地文件转移到分级存储中，写入描述文件。
+     * 本地文件由调用者在替换完成后删除。
+     */
+    static <T> TieredStoreFile<T> offload(StoreFile<T> storeFile, int headerSize, LogSerializer<T> serializer,
+                                          PreloadBufferPool bufferPool, int readAheadSize, boolean bypassBufferPool,
+                                          TieredSegmentManager segmentManager) throws IOException {
+        File file = storeFile.file();
+        String key = segmentManager.key(file);
+        long timestamp = storeFile.timestamp();
+        int dataSize = storeFile.fileDataSize();
+        segmentManager.offload(key, file);
+
+        ByteBuffer buffer = ByteBuffer.allocate(DESCRIPTOR_SIZE);
+        buffer.putLong(timestamp);
+        buffer.putInt(dataSize);
+        buffer.flip();
+        File descriptor = descriptor(file.getParentFile(), storeFile.position());
+        File tempFile = new File(descriptor.getParentFile(), descriptor.getName() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tempFile, "rw")) {
+            raf.setLength(0L);
+            while (buffer.hasRemaining()) {
+                raf.getChannel().write(buffer);
+            }
+            raf.getChannel().force(true);
+        }
+        Files.move(tempFile.toPath(), descriptor.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        return new TieredStoreFile<>(storeFile.position(), descriptor, key, headerSize, serializer,
+                bufferPool, readAheadSize, bypassBufferPool, segmentManager, timestamp, dataSize);
+    }
+
+    /**
+     * 从描述文件恢复
+     */
+    static <T> TieredStoreFile<T> recover(long filePosition, File base, int headerSize, LogSerializer<T> serializer,
+                                          PreloadBufferPool bufferPool, int readAheadSize, boolean bypassBufferPool,
+                                          TieredSegmentManager segmentManager) throws IOException {
+        File descriptor = descriptor(base, filePosition);
+        byte[] bytes = Files.readAllBytes(descriptor.toPath());
+        if (bytes.length != DESCRIPTOR_SIZE) {
+            throw new CorruptedLogException(String.format("Invalid tiered file descriptor: %s.", descriptor.getAbsolutePath()));
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long timestamp = buffer.getLong();
+        int dataSize = buffer.getInt();
+        String key = segmentManager.key(new File(base, String.valueOf(filePosition)));
+        return new TieredStoreFile<>(filePosition, descriptor, key, headerSize, serializer,
+                bufferPool, readAheadSize, bypassBufferPool, segmentManager, timestamp, dataSize);
+    }
+
+    /**
+     * 删除分级存储中的文件和本地缓存，描述文件由调用者删除
+     */
+    void deleteSegment() throws IOException {
+        forceUnload();
+        segmentManager.delete(key);
+    }
+
+    @Override
+    public File file() {
+        return descriptor;
+    }
+
+    @Override
+    public long position() {
+        return filePosition;
+    }
+
+    @Override
+    public boolean unload() {
+        forceUnload();
+        return true;
+    }
+
+    @Override
+    public void forceUnload() {
+        StoreFileImpl<T> file = cachedFile;
+        if (null != file) {
+            file.forceUnload();
+        }
+    }
+
+    @Override
+    public boolean hasPage() {
+        return false;
+    }
+
+    @Override
+    public void setCold(boolean cold) {
+        // 总是冷文件
+    }
+
+    @Override
+    public boolean isCold() {
+        return true;
+    }
+
+    @Override
+    public T read(int position, int length) throws IOException {
+        return read(position, length, serializer);
+    }
+
+    @Override
+    public <R> R read(int position, int length, BufferReader<R> bufferReader) throws IOException {
+        File file = segmentManager.acquire(key);
+        try {
+            return cachedFile(file).read(position, length, bufferReader);
+        } finally {
+            segmentManager.release(key);
+        }
+    }
+
+    @Override
+    public ByteBuffer readByteBuffer(int position, int length) throws IOException {
+        File file = segmentManager.acquire(key);
+        try {
+            return cachedFile(file).readByteBuffer(position, length);
+        } finally {
+            segmentManager.release(key);
+        }
+    }
+
+    private StoreFileImpl<T> cachedFile(File file) {
+        StoreFileImpl<T> storeFile = cachedFile;
+        if (null == storeFile) {
+            synchronized (this) {
+                if (null == (storeFile = cachedFile)) {
+                    storeFile = new StoreFileImpl<>(filePosition, file.getParentFile(), headerSize, serializer,
+                            bufferPool, dataSize, readAheadSize, bypassBufferPool);
+                    storeFile.setCold(true);
+                    cachedFile = storeFile;
+                }
+            }
+        }
+        return storeFile;
+    }
+
+    @Override
+    public int append(T t) throws IOException {
+        throw new IOException(String.format("Tiered store file is read only: %s.", descriptor.getAbsolutePath()));
+    }
+
+    @Override
+    public int appendByteBuffer(ByteBuffer byteBuffer) throws IOException {
+        throw new IOException(String.format("Tiered store file is read only: %s.", descriptor.getAbsolutePath()));
+    }
+
+    @Override
+    public int flush() {
+        return 0;
+    }
+
+    @Override
+    public void force() {
+    }
+
+    @Override
+    public void rollback(int position) throws IOException {
+        if (position < dataSize) {
+            throw new IOException(String.format("Can not rollback tiered store file: %s to position: %d.",
+                    descriptor.getAbsolutePath(), position));
+        }
+    }
+
+    @Override
+    public boolean isClean() {
+        return true;
+    }
+
+    @Override
+    public int writePosition() {
+        return dataSize;
+    }
+
+    @Override
+    public int fileDataSize() {
+        return dataSize;
+    }
+
+    @Override
+    public int flushPosition() {
+        return dataSize;
+    }
+
+    @Override
+    public long timestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public long lastAccessTime() {
+        StoreFileImpl<T> file = cachedFile;
+        return null == file ? 0L : file.lastAccessTime();
+    }
+}
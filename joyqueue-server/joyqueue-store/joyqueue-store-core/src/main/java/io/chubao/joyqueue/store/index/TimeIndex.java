@@ -0,0 +1,252 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.store.index;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * 分区的稀疏时间索引。
+ * <p>
+ * 每隔indexInterval条消息，或者存储时间每隔timeIntervalMs，记录一条（时间戳，索引）。
+ * 记录的时间戳是截止到该索引为止所有消息存储时间的最大值，因此：
+ * 如果一条记录的时间戳小于T，那么这条记录索引之前（含）的所有消息的存储时间都小于T；
+ * 如果一条记录的时间戳大于等于T，那么这条记录索引之前（含）一定存在存储时间大于等于T的消息。
+ * <p>
+ * 索引全部保存在内存中，异步追加写入文件，不需要同步刷盘：丢失的记录只会使查找范围变大，不影响正确性。
+ * 恢复和截断后，最后一条记录之后还没有采样的消息的存储时间通过{@link TimestampReader}从日志中读取，
+ * 保证之后写入的记录仍然是截止到该索引为止的最大值。
+ * <p>
+ * 线程安全。
+ */
+public class TimeIndex {
+    private static final Logger logger = LoggerFactory.getLogger(TimeIndex.class);
+    public static final String FILE_NAME = "time.idx";
+    public static final int STORAGE_SIZE = 8 + 8;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final File file;
+    private final int indexInterval;
+    private final long timeIntervalMs;
+    private final TimestampReader timestampReader;
+
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private long[] indices = new long[INITIAL_CAPACITY];
+    private int size = 0;
+    // 已经写入文件的记录数量
+    private int flushedSize = 0;
+    // 写入线程观察到的最大存储时间
+    private long maxTimestamp = Long.MIN_VALUE;
+
+    public TimeIndex(File partitionBase, int indexInterval, long timeIntervalMs, TimestampReader timestampReader) {
+        this.file = new File(partitionBase, FILE_NAME);
+        this.indexInterval = indexInterval;
+        this.timeIntervalMs = timeIntervalMs;
+        this.timestampReader = timestampReader;
+    }
+
+    /**
+     * 从文件恢复，丢弃索引大于等于rightIndex的记录
+     *
+     * @param leftIndex  分区的最小索引（含）
+     * @param rightIndex 分区的最大索引（不含）
+     */
+    public synchronized void recover(long leftIndex, long rightIndex) throws IOException {
+        size = 0;
+        flushedSize = 0;
+        if (file.isFile()) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel fileChannel = raf.getChannel()) {
+                long length = fileChannel.size() - fileChannel.size() % STORAGE_SIZE;
+                ByteBuffer buffer = ByteBuffer.allocate((int) length);
+                int read;
+                do {
+                    read = fileChannel.read(buffer);
+                } while (read > 0 && buffer.hasRemaining());
+                buffer.flip();
+                while (buffer.remaining() >= STORAGE_SIZE) {
+                    long timestamp = buffer.getLong();
+                    long index = buffer.getLong();
+                    if (size > 0 && (index <= indices[size - 1] || timestamp < timestamps[size - 1])) {
+                        // 文件尾部可能存在写了一半或者无效的记录
+                        break;
+                    }
+                    add(timestamp, index);
+                }
+            }
+            flushedSize = size;
+        }
+        truncate(leftIndex, rightIndex);
+        recoverMaxTimestamp(leftIndex, rightIndex);
+        logger.info("Time index recovered, entries: {}, file: {}.", size, file.getAbsolutePath());
+    }
+
+    /**
+     * 写入一条消息后调用，按照采样间隔决定是否记录
+     *
+     * @param index     消息索引
+     * @param timestamp 消息存储时间
+     */
+    public synchronized void onMessage(long index, long timestamp) {
+        if (timestamp > maxTimestamp) {
+            maxTimestamp = timestamp;
+        }
+        if (size == 0 || (index > indices[size - 1] &&
+                (index - indices[size - 1] >= indexInterval || maxTimestamp - timestamps[size - 1] >= timeIntervalMs))) {
+            add(maxTimestamp, index);
+        }
+    }
+
+    private void add(long timestamp, long index) {
+        if (size == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+            indices = Arrays.copyOf(indices, size * 2);
+        }
+        timestamps[size] = timestamp;
+        indices[size] = index;
+        size++;
+    }
+
+    /**
+     * 查找包含第一条存储时间大于等于timestamp的消息的索引范围
+     *
+     * @return [左边界（含），右边界（含）]，右边界为-1时表示没有找到上界
+     */
+    public synchronized long[] lookup(long timestamp) {
+        // 最后一条时间戳小于timestamp的记录
+        int low = 0, high = size - 1, floor = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[mid] < timestamp) {
+                floor = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        long left = floor < 0 ? -1L : indices[floor] + 1;
+        long right = floor + 1 < size ? indices[floor + 1] : -1L;
+        return new long[]{left, right};
+    }
+
+    /**
+     * 根据最后一条记录和之后还没有采样的消息的存储时间，重新计算最大存储时间
+     */
+    private void recoverMaxTimestamp(long leftIndex, long rightIndex) throws IOException {
+        if (size == 0) {
+            maxTimestamp = Long.MIN_VALUE;
+            return;
+        }
+        long max = timestamps[size - 1];
+        long index = Math.max(indices[size - 1] + 1, leftIndex);
+        try {
+            for (; index < rightIndex; index++) {
+                max = Math.max(max, timestampReader.read(index));
+            }
+        } catch (Throwable t) {
+            logger.warn("Read storage timestamp of index {} failed, file: {}.", index, file.getAbsolutePath(), t);
+        }
+        maxTimestamp = max;
+    }
+
+    /**
+     * 删除索引大于等于rightIndex的记录
+     *
+     * @param leftIndex  分区的最小索引（含）
+     * @param rightIndex 分区的最大索引（不含）
+     */
+    public synchronized void truncate(long leftIndex, long rightIndex) throws IOException {
+        int newSize = size;
+        while (newSize > 0 && indices[newSize - 1] >= rightIndex) {
+            newSize--;
+        }
+        if (newSize < size) {
+            size = newSize;
+            if (flushedSize > size) {
+                flushedSize = size;
+                if (file.exists()) {
+                    try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel fileChannel = raf.getChannel()) {
+                        fileChannel.truncate((long) size * STORAGE_SIZE);
+                    }
+                }
+            }
+            recoverMaxTimestamp(leftIndex, rightIndex);
+        }
+    }
+
+    /**
+     * 删除所有指向leftIndex之前的记录，保留最后一条作为下界，并重写文件。
+     * 只有可删除的记录超过一半时才执行。
+     */
+    public synchronized void trim(long leftIndex) throws IOException {
+        int count = 0;
+        while (count + 1 < size && indices[count + 1] <= leftIndex) {
+            count++;
+        }
+        if (count > 0 && count * 2 >= size) {
+            size -= count;
+            System.arraycopy(timestamps, count, timestamps, 0, size);
+            System.arraycopy(indices, count, indices, 0, size);
+            flushedSize = 0;
+            if (file.exists() && !file.delete()) {
+                throw new IOException(String.format("Delete file %s failed!", file.getAbsolutePath()));
+            }
+            flush();
+        }
+    }
+
+    /**
+     * 将未写入文件的记录追加到文件中
+     *
+     * @return 有数据写入返回true
+     */
+    public synchronized boolean flush() throws IOException {
+        if (flushedSize < size) {
+            ByteBuffer buffer = ByteBuffer.allocate((size - flushedSize) * STORAGE_SIZE);
+            for (int i = flushedSize; i < size; i++) {
+                buffer.putLong(timestamps[i]);
+                buffer.putLong(indices[i]);
+            }
+            buffer.flip();
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel fileChannel = raf.getChannel()) {
+                fileChannel.position((long) flushedSize * STORAGE_SIZE);
+                while (buffer.hasRemaining()) {
+                    fileChannel.write(buffer);
+                }
+            }
+            flushedSize = size;
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * 读取消息的存储时间
+     */
+    public interface TimestampReader {
+        long read(long index) throws IOException;
+    }
+}
@@ -25,6 +25,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.DelayQueue;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -86,6 +87,10 @@ public class VirtualThreadExecutor {
     private final List<Thread> workThreads;
     private final Set<VirtualThread> toBeRemoved = ConcurrentHashMap.newKeySet();
     private final Set<VirtualThread> virtualThreads = ConcurrentHashMap.newKeySet();
+    // 调度延迟：虚拟线程计划执行时间到实际被物理线程取出执行的时间差
+    private final AtomicLong maxScheduleLagMs = new AtomicLong(0L);
+    private final AtomicLong totalScheduleLagMs = new AtomicLong(0L);
+    private final AtomicLong scheduleCount = new AtomicLong(0L);
 
     /**
      * @param keepAliveTimeMs 每次执行完任务后线程空转的时长，在空转期内一旦有任务立即就能执行，避免等待；
@@ -109,13 +114,14 @@ public class VirtualThreadExecutor {
     }
 
     public void start(VirtualThread vt, String name) {
-        virtualThreads.add(vt);
-        commandQueue.add(new DelayCommand(vt, name));
+        start(vt, 0L, name);
     }
 
     public void start(VirtualThread vt, long minDelayMs, String name) {
-        virtualThreads.add(vt);
-        commandQueue.add(new DelayCommand(vt, minDelayMs, name));
+        // 同一个虚拟线程只能有一个DelayCommand在队列中，否则会被多个物理线程并发执行
+        if (virtualThreads.add(vt)) {
+            commandQueue.add(new DelayCommand(vt, minDelayMs, name));
+        }
     }
 
     public void stop(VirtualThread vt) throws InterruptedException {
@@ -148,6 +154,56 @@ public class VirtualThreadExecutor {
         workThreads.forEach(this::wait);
     }
 
+    /**
+     * 物理线程数量
+     */
+    public int threadCount() {
+        return workThreads.size();
+    }
+
+    /**
+     * 正在运行的虚拟线程数量
+     */
+    public int virtualThreadCount() {
+        return virtualThreads.size();
+    }
+
+    /**
+     * 延时队列中等待调度的虚拟线程数量
+     */
+    public int queueSize() {
+        return commandQueue.size();
+    }
+
+    /**
+     * 返回并重置上次调用以来的最大调度延迟(ms)
+     */
+    public long maxScheduleLagMsAndReset() {
+        return maxScheduleLagMs.getAndSet(0L);
+    }
+
+    /**
+     * 返回并重置上次调用以来的平均调度延迟(ms)
+     */
+    public long avgScheduleLagMsAndReset() {
+        long count = scheduleCount.getAndSet(0L);
+        long total = totalScheduleLagMs.getAndSet(0L);
+        return count > 0 ? total / count : 0L;
+    }
+
+    private void onSchedule(DelayCommand cmd) {
+        long lag = SystemClock.now() - cmd.startTime;
+        if (lag < 0) {
+            lag = 0;
+        }
+        totalScheduleLagMs.addAndGet(lag);
+        scheduleCount.incrementAndGet();
+        long max;
+        while (lag > (max = maxScheduleLagMs.get()) && !maxScheduleLagMs.compareAndSet(max, lag)) {
+            Thread.yield();
+        }
+    }
+
     private static class DelayCommand implements Delayed {
         private final VirtualThread virtualThread;
         private final long minDelayMs;
@@ -197,8 +253,10 @@ public class VirtualThreadExecutor {
                 try {
                     cmd = commandQueue.take();
                     if (toBeRemoved.remove(cmd.virtualThread)) {
+                        cmd = null;
                         continue;
                     }
+                    onSchedule(cmd);
                     long start = SystemClock.now();
                     dryRun = true;
                     while (maxUseTime + start > SystemClock.now()) {
@@ -0,0 +1,71 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.store.tiered;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * 使用本地目录（例如挂载的大容量磁盘或网络文件系统）作为分级存储，key即为目录下的相对路径。
+ */
+public class LocalTieredStorage implements TieredStorage {
+    public static final String TYPE = "local";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private File base;
+
+    @Override
+    public void init(String uri) throws IOException {
+        base = new File(uri);
+        if (!base.isDirectory() && !base.mkdirs()) {
+            throw new IOException(String.format("Failed to create directory: %s.", base.getAbsolutePath()));
+        }
+    }
+
+    @Override
+    public void put(String key, File file) throws IOException {
+        File target = new File(base, key);
+        File parent = target.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException(String.format("Failed to create directory: %s.", parent.getAbsolutePath()));
+        }
+        // 先复制到临时文件再重命名，避免留下不完整的对象
+        File temp = new File(parent, target.getName() + TEMP_SUFFIX);
+        Files.copy(file.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void get(String key, File file) throws IOException {
+        File source = new File(base, key);
+        if (!source.isFile()) {
+            throw new FileNotFoundException(source.getAbsolutePath());
+        }
+        Files.copy(source.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(new File(base, key).toPath());
+    }
+
+    @Override
+    public String type() {
+        return TYPE;
+    }
+}
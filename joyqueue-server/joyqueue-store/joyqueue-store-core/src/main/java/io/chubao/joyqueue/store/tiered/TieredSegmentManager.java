@@ -0,0 +1,276 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.store.tiered;
+
+import io.chubao.joyqueue.toolkit.format.Format;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 管理转移到分级存储中的消息文件：
+ * 1. 转移时压缩文件后保存到{@link TieredStorage}中；
+ * 2. 读取时下载并解压到本地缓存目录，缓存的总长度超过上限后按照LRU删除没有在使用的文件。
+ * <p>
+ * 文件的key为文件相对于存储根目录的路径，缓存文件在缓存目录中的相对路径与key相同，
+ * 所以缓存文件的文件名与原文件相同。
+ */
+public class TieredSegmentManager {
+    private static final Logger logger = LoggerFactory.getLogger(TieredSegmentManager.class);
+    private static final String COMPRESSED_SUFFIX = ".gz";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private final File storeBase;
+    private final File cacheBase;
+    private final TieredStorage storage;
+    private final long maxCacheSize;
+    // 按照访问顺序排列，由自身的锁保护
+    private final LinkedHashMap<String, CachedSegment> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cacheSize = 0L;
+
+    /**
+     * @param storeBase    存储根目录
+     * @param cacheBase    本地缓存目录，启动时清空
+     * @param storage      分级存储
+     * @param maxCacheSize 本地缓存的最大总长度
+     */
+    public TieredSegmentManager(File storeBase, File cacheBase, TieredStorage storage, long maxCacheSize) throws IOException {
+        this.storeBase = storeBase.getAbsoluteFile();
+        this.cacheBase = cacheBase.getAbsoluteFile();
+        this.storage = storage;
+        this.maxCacheSize = maxCacheSize;
+        deleteFolder(this.cacheBase);
+        if (!this.cacheBase.mkdirs()) {
+            throw new IOException(String.format("Failed to create directory: %s.", this.cacheBase.getAbsolutePath()));
+        }
+    }
+
+    /**
+     * 文件在分级存储中的key
+     */
+    public String key(File file) {
+        return storeBase.toPath().relativize(file.getAbsoluteFile().toPath()).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * 压缩文件并保存到分级存储中
+     */
+    public void offload(String key, File file) throws IOException {
+        File compressed = new File(file.getParentFile(), file.getName() + COMPRESSED_SUFFIX + TEMP_SUFFIX);
+        try {
+            try (InputStream in = new FileInputStream(file);
+                 OutputStream out = new GZIPOutputStream(new FileOutputStream(compressed), BUFFER_SIZE)) {
+                copy(in, out);
+            }
+            storage.put(key + COMPRESSED_SUFFIX, compressed);
+            logger.info("Store file offloaded, file: {}, size: {}, compressed size: {}.",
+                    file.getAbsolutePath(), Format.formatSize(file.length()), Format.formatSize(compressed.length()));
+        } finally {
+            Files.deleteIfExists(compressed.toPath());
+        }
+    }
+
+    /**
+     * 获取文件的本地缓存，不存在时从分级存储下载，使用完后必须调用{@link #release(String)}。
+     * 在release之前缓存文件不会被删除。
+     *
+     * @return 缓存的文件
+     */
+    public File acquire(String key) throws IOException {
+        CachedSegment segment;
+        synchronized (cache) {
+            segment = cache.computeIfAbsent(key, CachedSegment::new);
+            segment.refCount++;
+        }
+        try {
+            if (!segment.load()) {
+                // 加载过程中文件被删除
+                throw new FileNotFoundException(String.format("Tiered store file %s deleted.", key));
+            }
+        } catch (Throwable t) {
+            release(segment);
+            throw t;
+        }
+        return segment.file;
+    }
+
+    /**
+     * 释放{@link #acquire(String)}获取的缓存
+     */
+    public void release(String key) {
+        synchronized (cache) {
+            CachedSegment segment = cache.get(key);
+            if (null != segment) {
+                release(segment);
+            }
+        }
+    }
+
+    private void release(CachedSegment segment) {
+        synchronized (cache) {
+            segment.refCount--;
+            // 加载失败的文件不保留在缓存中
+            if (!segment.loaded && segment.refCount <= 0) {
+                cache.remove(segment.key, segment);
+            }
+            evict();
+        }
+    }
+
+    /**
+     * 删除分级存储中的文件和本地缓存
+     */
+    public void delete(String key) throws IOException {
+        synchronized (cache) {
+            CachedSegment segment = cache.remove(key);
+            if (null != segment) {
+                segment.delete();
+            }
+        }
+        storage.delete(key + COMPRESSED_SUFFIX);
+    }
+
+    public long cacheSize() {
+        synchronized (cache) {
+            return cacheSize;
+        }
+    }
+
+    // 需要持有cache的锁
+    private void evict() {
+        Iterator<CachedSegment> iterator = cache.values().iterator();
+        while (cacheSize > maxCacheSize && iterator.hasNext()) {
+            CachedSegment segment = iterator.next();
+            if (segment.refCount <= 0) {
+                iterator.remove();
+                segment.delete();
+            }
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int length;
+        while ((length = in.read(buffer)) > 0) {
+            out.write(buffer, 0, length);
+        }
+    }
+
+    private static void deleteFolder(File folder) throws IOException {
+        if (folder.exists()) {
+            try (Stream<Path> paths = Files.walk(folder.toPath())) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    /**
+     * 缓存在本地的文件
+     */
+    private class CachedSegment {
+        private final String key;
+        private final File file;
+        // 由cache的锁保护
+        private int refCount = 0;
+        private long size = 0L;
+        private volatile boolean loaded = false;
+        // 已经从cache中移除，在cache的锁内修改
+        private volatile boolean deleted = false;
+
+        CachedSegment(String key) {
+            this.key = key;
+            this.file = new File(cacheBase, key);
+        }
+
+        /**
+         * 下载并解压文件
+         *
+         * @return 文件是否在缓存中，加载过程中被删除时返回false
+         */
+        synchronized boolean load() throws IOException {
+            if (loaded) {
+                return true;
+            }
+            if (deleted) {
+                return false;
+            }
+            File parent = file.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException(String.format("Failed to create directory: %s.", parent.getAbsolutePath()));
+            }
+            File compressed = new File(parent, file.getName() + COMPRESSED_SUFFIX + TEMP_SUFFIX);
+            File temp = new File(parent, file.getName() + TEMP_SUFFIX);
+            try {
+                storage.get(key + COMPRESSED_SUFFIX, compressed);
+                try (InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(compressed)), BUFFER_SIZE);
+                     OutputStream out = new BufferedOutputStream(new FileOutputStream(temp), BUFFER_SIZE)) {
+                    copy(in, out);
+                }
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(compressed.toPath());
+                Files.deleteIfExists(temp.toPath());
+            }
+            synchronized (cache) {
+                if (deleted) {
+                    // 加载过程中已经被删除，没有计入缓存长度
+                    deleteFile();
+                    return false;
+                }
+                size = file.length();
+                cacheSize += size;
+                loaded = true;
+            }
+            logger.info("Store file loaded from tiered storage, file: {}, size: {}, cache size: {}/{}.",
+                    file.getAbsolutePath(), Format.formatSize(size), Format.formatSize(cacheSize()), Format.formatSize(maxCacheSize));
+            return true;
+        }
+
+        // 需要持有cache的锁，调用前已经从cache中移除
+        void delete() {
+            deleted = true;
+            if (loaded) {
+                cacheSize -= size;
+                loaded = false;
+                deleteFile();
+            }
+        }
+
+        private void deleteFile() {
+            if (file.exists() && !file.delete()) {
+                logger.warn("Delete cached file {} failed!", file.getAbsolutePath());
+            }
+        }
+    }
+}
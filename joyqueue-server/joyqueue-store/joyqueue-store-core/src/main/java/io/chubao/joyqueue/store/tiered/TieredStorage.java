@@ -0,0 +1,61 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.store.tiered;
+
+import com.jd.laf.extension.Type;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 分级存储，保存从本地转移出去的已封闭的消息文件，例如对象存储。
+ * 实现通过SPI扩展，用{@link #type()}区分，由store.tiered.storage.type配置。
+ * <p>
+ * 保存的对象写入后不再修改，key由字母、数字和'/'组成。
+ */
+public interface TieredStorage extends Type<String> {
+
+    /**
+     * 初始化
+     *
+     * @param uri 存储地址，由store.tiered.storage.uri配置
+     */
+    void init(String uri) throws IOException;
+
+    /**
+     * 保存对象，相同的key已经存在时覆盖
+     *
+     * @param key  对象的key
+     * @param file 对象内容所在的本地文件
+     */
+    void put(String key, File file) throws IOException;
+
+    /**
+     * 读取对象到本地文件
+     *
+     * @param key  对象的key
+     * @param file 目标文件，已经存在时覆盖
+     * @throws java.io.FileNotFoundException 对象不存在
+     */
+    void get(String key, File file) throws IOException;
+
+    /**
+     * 删除对象，对象不存在时直接返回
+     *
+     * @param key 对象的key
+     */
+    void delete(String key) throws IOException;
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.store.transaction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 分区组内事务消息的可见性，由日志中的事务标记按顺序构建，不单独持久化。
+ * <br>
+ * 未完成事务的消息及其之后的消息对消费者不可见；已回滚事务的消息在读取时跳过。
+ * 写入线程更新，读取线程查询，所有方法都是同步的。
+ */
+public class TransactionIndex {
+    // key: 事务ID
+    private final Map<String, Transaction> openTransactions = new HashMap<>();
+    // key: 分区，value: 已回滚的消息序号范围，起始序号 -> 结束序号（不含）
+    private final Map<Short, TreeMap<Long, Long>> rollbackRanges = new HashMap<>();
+
+    /**
+     * 按日志中的顺序应用一个事务标记
+     */
+    public synchronized void apply(TransactionMarker marker) {
+        switch (marker.getType()) {
+            case TransactionMarker.PREPARE:
+                Transaction transaction = openTransactions.computeIfAbsent(marker.getTransactionId(), id -> new Transaction());
+                transaction.expireTime = Math.max(transaction.expireTime, marker.getExpireTime());
+                for (Map.Entry<Short, long[]> entry : marker.getRanges().entrySet()) {
+                    transaction.ranges.computeIfAbsent(entry.getKey(), partition -> new ArrayList<>()).add(entry.getValue());
+                }
+                break;
+            case TransactionMarker.COMMIT:
+                openTransactions.remove(marker.getTransactionId());
+                break;
+            case TransactionMarker.ROLLBACK:
+                Transaction rollback = openTransactions.remove(marker.getTransactionId());
+                if (null != rollback) {
+                    for (Map.Entry<Short, List<long[]>> entry : rollback.ranges.entrySet()) {
+                        TreeMap<Long, Long> ranges = rollbackRanges.computeIfAbsent(entry.getKey(), partition -> new TreeMap<>());
+                        for (long[] range : entry.getValue()) {
+                            if (range[1] > range[0]) {
+                                ranges.put(range[0], range[1]);
+                            }
+                        }
+                    }
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown transaction marker type: " + marker.getType());
+        }
+    }
+
+    public synchronized boolean isOpen(String transactionId) {
+        return openTransactions.containsKey(transactionId);
+    }
+
+    /**
+     * 未完成事务在分区中的所有消息序号范围
+     */
+    public synchronized Map<Short, List<long[]>> getRanges(String transactionId) {
+        Transaction transaction = openTransactions.get(transactionId);
+        return null == transaction ? new HashMap<>() : new HashMap<>(transaction.ranges);
+    }
+
+    /**
+     * 分区中第一条未完成事务的消息序号，消费者只能读到这个序号之前的消息。
+     * 没有未完成的事务时返回Long.MAX_VALUE。
+     */
+    public synchronized long stableIndex(short partition) {
+        long index = Long.MAX_VALUE;
+        for (Transaction transaction : openTransactions.values()) {
+            List<long[]> ranges = transaction.ranges.get(partition);
+            if (null != ranges) {
+                for (long[] range : ranges) {
+                    if (range[1] > range[0]) {
+                        index = Math.min(index, range[0]);
+                    }
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * 如果index落在已回滚的消息中，跳过所有首尾相接的已回滚范围，返回之后第一个序号；否则返回index
+     */
+    public synchronized long skipRollback(short partition, long index) {
+        TreeMap<Long, Long> ranges = rollbackRanges.get(partition);
+        if (null != ranges) {
+            Map.Entry<Long, Long> range;
+            while (null != (range = ranges.floorEntry(index)) && range.getValue() > index) {
+                index = range.getValue();
+            }
+        }
+        return index;
+    }
+
+    /**
+     * index之后第一段已回滚消息的起始序号，没有时返回Long.MAX_VALUE
+     */
+    public synchronized long nextRollback(short partition, long index) {
+        TreeMap<Long, Long> ranges = rollbackRanges.get(partition);
+        Long start = null == ranges ? null : ranges.ceilingKey(index);
+        return null == start ? Long.MAX_VALUE : start;
+    }
+
+    /**
+     * 已经超过过期时间仍未完成的事务
+     */
+    public synchronized List<String> expired(long now) {
+        List<String> expired = new ArrayList<>();
+        for (Map.Entry<String, Transaction> entry : openTransactions.entrySet()) {
+            if (entry.getValue().expireTime > 0 && entry.getValue().expireTime <= now) {
+                expired.add(entry.getKey());
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * 删除分区中已经被删除的消息对应的回滚记录
+     */
+    public synchronized void trim(short partition, long leftIndex) {
+        TreeMap<Long, Long> ranges = rollbackRanges.get(partition);
+        if (null != ranges) {
+            ranges.entrySet().removeIf(range -> range.getValue() <= leftIndex);
+        }
+    }
+
+    public synchronized void clear() {
+        openTransactions.clear();
+        rollbackRanges.clear();
+    }
+
+    private static class Transaction {
+        private long expireTime;
+        // key: 分区，value: 每次写入的消息序号范围[start, end)
+        private final Map<Short, List<long[]>> ranges = new HashMap<>();
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.store.transaction;
+
+import io.chubao.joyqueue.store.message.MessageParser;
+import io.chubao.joyqueue.toolkit.time.SystemClock;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 事务标记，和消息一样写入分区组的日志中，随日志一起复制和恢复。
+ * <br>
+ * PREPARE：写在一次事务消息写入的最前面，记录这次写入的消息在各分区中的序号范围[start, end)；
+ * COMMIT / ROLLBACK：事务完成，分别表示这些消息对消费者可见，或者永远跳过。
+ */
+public class TransactionMarker {
+    public static final byte PREPARE = 0;
+    public static final byte COMMIT = 1;
+    public static final byte ROLLBACK = 2;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final byte type;
+    private final String transactionId;
+    private final long expireTime;
+    // key: 分区，value: [起始序号, 结束序号)
+    private final Map<Short, long[]> ranges;
+
+    private TransactionMarker(byte type, String transactionId, long expireTime, Map<Short, long[]> ranges) {
+        this.type = type;
+        this.transactionId = transactionId;
+        this.expireTime = expireTime;
+        this.ranges = ranges;
+    }
+
+    public static TransactionMarker prepare(String transactionId, long expireTime, Map<Short, long[]> ranges) {
+        return new TransactionMarker(PREPARE, transactionId, expireTime, ranges);
+    }
+
+    public static TransactionMarker commit(String transactionId) {
+        return new TransactionMarker(COMMIT, transactionId, 0L, Collections.emptyMap());
+    }
+
+    public static TransactionMarker rollback(String transactionId) {
+        return new TransactionMarker(ROLLBACK, transactionId, 0L, Collections.emptyMap());
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public String getTransactionId() {
+        return transactionId;
+    }
+
+    public long getExpireTime() {
+        return expireTime;
+    }
+
+    public Map<Short, long[]> getRanges() {
+        return ranges;
+    }
+
+    /**
+     * 序列化为一条消息，消息体是标记的内容
+     *
+     * @param partition 保存事务标记的分区
+     * @param term 当前任期
+     */
+    public ByteBuffer toMessage(short partition, int term) {
+        byte[] id = transactionId.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer body = ByteBuffer.allocate(Byte.BYTES + Short.BYTES + id.length + Long.BYTES + Short.BYTES
+                + ranges.size() * (Short.BYTES + Long.BYTES + Long.BYTES));
+        body.put(type);
+        body.putShort((short) id.length);
+        body.put(id);
+        body.putLong(expireTime);
+        body.putShort((short) ranges.size());
+        for (Map.Entry<Short, long[]> entry : ranges.entrySet()) {
+            body.putShort(entry.getKey());
+            body.putLong(entry.getValue()[0]);
+            body.putLong(entry.getValue()[1]);
+        }
+
+        ByteBuffer message = MessageParser.build(new byte[][]{body.array(), EMPTY, EMPTY, EMPTY, EMPTY});
+        CRC32 crc32 = new CRC32();
+        crc32.update(body.array());
+        MessageParser.setLong(message, MessageParser.CRC, crc32.getValue());
+        MessageParser.setShort(message, MessageParser.PARTITION, partition);
+        MessageParser.setInt(message, MessageParser.TERM, term);
+        MessageParser.setLong(message, MessageParser.CLIENT_TIMESTAMP, SystemClock.now());
+        return message;
+    }
+
+    public static TransactionMarker parse(ByteBuffer message) {
+        // getByteBuffer按绝对位置解析变长属性，需要从消息的起始位置切片
+        ByteBuffer body = MessageParser.getByteBuffer(message.slice(), MessageParser.BODY);
+        byte type = body.get();
+        byte[] id = new byte[body.getShort()];
+        body.get(id);
+        long expireTime = body.getLong();
+        int size = body.getShort();
+        Map<Short, long[]> ranges = new LinkedHashMap<>(size);
+        for (int i = 0; i < size; i++) {
+            ranges.put(body.getShort(), new long[]{body.getLong(), body.getLong()});
+        }
+        return new TransactionMarker(type, new String(id, StandardCharsets.UTF_8), expireTime, ranges);
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.store.utils;
+
+/**
+ * 页缓存中的一页，由{@link PreloadBufferPool}按照分段的CLOCK算法管理。
+ * <p>
+ * 新加载的页进入试用区，加载后超过关联访问时间窗口再次被访问的页才会被提升到保护区。
+ * 只被顺序扫描一遍的页始终留在试用区，优先被淘汰，不会挤掉其它读取者反复访问的热页。
+ */
+public abstract class CachePage implements BufferHolder {
+    private volatile long loadTime;
+    private volatile long lastAccessTime;
+    // 最近是否被再次访问过，由读取线程设置，由淘汰线程清除
+    volatile boolean referenced;
+    // 以下字段由PreloadBufferPool持有页缓存锁时访问
+    // 是否在保护区中
+    boolean hot;
+    // 是否在页缓存中
+    boolean cached;
+
+    void onLoad(long now) {
+        loadTime = now;
+        lastAccessTime = now;
+        referenced = false;
+    }
+
+    void onAccess(long now, long correlatedReferenceMs) {
+        lastAccessTime = now;
+        if (!referenced && now - loadTime > correlatedReferenceMs) {
+            referenced = true;
+        }
+    }
+
+    @Override
+    public long lastAccessTime() {
+        return lastAccessTime;
+    }
+
+    @Override
+    public boolean isFree() {
+        return true;
+    }
+}
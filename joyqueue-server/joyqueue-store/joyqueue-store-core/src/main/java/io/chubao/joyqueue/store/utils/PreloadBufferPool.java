@@ -29,6 +29,8 @@ import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -37,10 +39,15 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
+ * 管理存储文件使用的堆外内存：
+ * 可写文件使用整个文件大小的DirectBuffer，预先分配并缓存；
+ * 只读文件按照固定大小的页映射（mmap），所有页组成一个页缓存，按照分段的CLOCK算法淘汰，
+ * 顺序扫描历史数据不会淘汰其它读取者反复访问的热页。
+ *
  * @author liyue25
  * Date: 2018-12-20
  */
@@ -58,6 +65,18 @@ public class PreloadBufferPool {
     public static final String CACHE_LIFE_TIME_MS_KEY = "PreloadBufferPool.CacheLifeTimeMs";
     public static final String PRINT_METRIC_INTERVAL_MS_KEY = "PreloadBufferPool.PrintMetricIntervalMs";
     public static final String MAX_MEMORY_KEY = "PreloadBufferPool.MaxMemory";
+    public static final String PAGE_SIZE_KEY = "PreloadBufferPool.PageSize";
+    public static final String CORRELATED_REFERENCE_MS_KEY = "PreloadBufferPool.CorrelatedReferenceMs";
+    public static final int DEFAULT_PAGE_SIZE = 1024 * 1024;
+    public static final long DEFAULT_CORRELATED_REFERENCE_MS = 1000L;
+    /**
+     * 保护区最多占用页缓存的比率
+     */
+    private static final double PROTECTED_RATIO = 0.8d;
+    /**
+     * 每轮淘汰最多检查的页数，淘汰是增量进行的
+     */
+    private static final int EVICT_BATCH_SIZE = 1024;
 
     private final LoopThread preloadThread;
     private final LoopThread metricThread;
@@ -66,7 +85,17 @@ public class PreloadBufferPool {
     private final long maxMemorySize;
     private final AtomicLong usedSize = new AtomicLong(0L);
     private final Set<BufferHolder> directBufferHolders = ConcurrentHashMap.newKeySet();
-    private final Set<BufferHolder> mMapBufferHolders = ConcurrentHashMap.newKeySet();
+    private final int pageSize;
+    private final long correlatedReferenceMs;
+    // 页缓存：试用区和保护区，按照进入的先后顺序排列，由pageLock保护
+    private final Object pageLock = new Object();
+    private final Set<CachePage> probationPages = new LinkedHashSet<>();
+    private final Set<CachePage> protectedPages = new LinkedHashSet<>();
+    private long pageUsedSize = 0L;
+    private long protectedUsedSize = 0L;
+    private final LongAdder pageHits = new LongAdder();
+    private final LongAdder pageMisses = new LongAdder();
+    private final LongAdder pageEvictions = new LongAdder();
     private Map<Integer, PreLoadCache> bufferCache = new ConcurrentHashMap<>();
     private static PreloadBufferPool instance = null;
 
@@ -82,6 +111,10 @@ public class PreloadBufferPool {
         long printMetricInterval = Long.parseLong(System.getProperty(PRINT_METRIC_INTERVAL_MS_KEY,"0"));
         this.cacheLifetimeMs = Long.parseLong(System.getProperty(CACHE_LIFE_TIME_MS_KEY,String.valueOf(DEFAULT_CACHE_LIFE_TIME_MS)));
         long maxMemorySize = Format.parseSize(System.getProperty(MAX_MEMORY_KEY), Math.round(VM.maxDirectMemory() * CACHE_RATIO));
+        // 页大小必须是索引长度(16)的整数倍，保证索引不会跨页
+        int pageSize = (int) Format.parseSize(System.getProperty(PAGE_SIZE_KEY), DEFAULT_PAGE_SIZE);
+        this.pageSize = Math.max(4096, pageSize - pageSize % 4096);
+        this.correlatedReferenceMs = Long.parseLong(System.getProperty(CORRELATED_REFERENCE_MS_KEY, String.valueOf(DEFAULT_CORRELATED_REFERENCE_MS)));
 
         preloadThread = buildPreloadThread();
         preloadThread.start();
@@ -115,14 +148,16 @@ public class PreloadBufferPool {
                                 Format.formatSize(totalSize));
                         return totalSize;
                     }).sum();
-                    long mmpUsed = mMapBufferHolders.stream().mapToInt(BufferHolder::size).sum();
                     long directUsed = directBufferHolders.stream().mapToInt(BufferHolder::size).sum();
-                    logger.info("Direct memory usage: preload/direct/mmp/used/max: {}/{}/{}/{}/{}.",
+                    logger.info("Direct memory usage: preload/direct/mmp/used/max: {}/{}/{}/{}/{}, " +
+                                    "page cache protected/hits/misses/evictions: {}/{}/{}/{}.",
                             Format.formatSize(plUsed),
                             Format.formatSize(directUsed),
-                            Format.formatSize(mmpUsed),
+                            Format.formatSize(pageUsedSize()),
                             Format.formatSize(totalUsed),
-                            Format.formatSize(maxMemorySize));
+                            Format.formatSize(maxMemorySize),
+                            Format.formatSize(protectedUsedSize()),
+                            pageHits.sum(), pageMisses.sum(), pageEvictions.sum());
 
                 })
                 .daemon(true)
@@ -152,11 +187,12 @@ public class PreloadBufferPool {
 
 
     /**
-     * 清除文件缓存页。LRU。
+     * 清除文件缓存页。
+     * 只读文件的页按照分段的CLOCK算法增量淘汰，可写文件的DirectBuffer按照LRU淘汰。
      */
     private void evict() {
         // 先清除过期的
-        Stream.concat(directBufferHolders.stream(), mMapBufferHolders.stream())
+        directBufferHolders.stream()
                 .filter(holder -> SystemClock.now() - holder.lastAccessTime() > cacheLifetimeMs)
                 .forEach(BufferHolder::evict);
 
@@ -174,11 +210,13 @@ public class PreloadBufferPool {
             }
         }
 
-        // 清理使用中最旧的页面，直到内存占用率达标
+        evictPages();
+
+        // 页缓存淘汰后仍然不足，清理可写文件中最旧的页面，直到内存占用率达标
 
-        if (usedSize.get() > maxMemorySize * EVICT_RATIO) {
+        if (usedSize.get() > maxMemorySize * EVICT_RATIO && pageUsedSize() == 0L) {
             List<LruWrapper<BufferHolder>> sorted;
-            sorted = Stream.concat(directBufferHolders.stream(), mMapBufferHolders.stream())
+            sorted = directBufferHolders.stream()
                     .filter(BufferHolder::isFree)
                     .map(bufferHolder -> new LruWrapper<>(bufferHolder, bufferHolder.lastAccessTime()))
                     .sorted(Comparator.comparing(LruWrapper::getLastAccessTime))
@@ -196,6 +234,57 @@ public class PreloadBufferPool {
 
     }
 
+    /**
+     * 增量淘汰页缓存，每轮最多检查EVICT_BATCH_SIZE页：
+     * 1. 保护区超过上限时，检查保护区头部的页，最近被访问过的移到保护区尾部，否则降级到试用区尾部；
+     * 2. 否则检查试用区头部的页，最近被再次访问过的提升到保护区，否则淘汰。
+     */
+    private void evictPages() {
+        int examined = 0;
+        while (usedSize.get() > maxMemorySize * EVICT_RATIO && examined++ < EVICT_BATCH_SIZE) {
+            CachePage victim = null;
+            synchronized (pageLock) {
+                if (probationPages.isEmpty() && protectedPages.isEmpty()) {
+                    return;
+                }
+                if (!protectedPages.isEmpty() &&
+                        (probationPages.isEmpty() || protectedUsedSize > pageUsedSize * PROTECTED_RATIO)) {
+                    CachePage page = pollFirst(protectedPages);
+                    if (page.referenced && !probationPages.isEmpty()) {
+                        page.referenced = false;
+                        protectedPages.add(page);
+                    } else {
+                        page.hot = false;
+                        protectedUsedSize -= page.size();
+                        probationPages.add(page);
+                    }
+                } else {
+                    CachePage page = pollFirst(probationPages);
+                    if (page.referenced) {
+                        page.referenced = false;
+                        page.hot = true;
+                        protectedUsedSize += page.size();
+                        protectedPages.add(page);
+                    } else {
+                        // 淘汰失败（例如正在被读取）时留在试用区尾部
+                        probationPages.add(page);
+                        victim = page;
+                    }
+                }
+            }
+            if (null != victim && victim.evict()) {
+                pageEvictions.increment();
+            }
+        }
+    }
+
+    private static CachePage pollFirst(Set<CachePage> pages) {
+        Iterator<CachePage> iterator = pages.iterator();
+        CachePage page = iterator.next();
+        iterator.remove();
+        return page;
+    }
+
     public synchronized boolean addPreLoad(int bufferSize, int coreCount, int maxCount) {
         return bufferCache.putIfAbsent(bufferSize, new PreLoadCache(bufferSize, coreCount, maxCount)) == null;
     }
@@ -284,9 +373,66 @@ public class PreloadBufferPool {
         }
     }
 
-    public void allocateMMap(BufferHolder bufferHolder) {
-        reserveMemory(bufferHolder.size());
-        mMapBufferHolders.add(bufferHolder);
+    /**
+     * 页大小
+     */
+    public int pageSize() {
+        return pageSize;
+    }
+
+    /**
+     * 加载一页之前调用，为页预留内存并加入页缓存的试用区
+     */
+    public void allocatePage(CachePage page) {
+        reserveMemory(page.size());
+        pageMisses.increment();
+        synchronized (pageLock) {
+            page.onLoad(SystemClock.now());
+            page.cached = true;
+            page.hot = false;
+            probationPages.add(page);
+            pageUsedSize += page.size();
+        }
+    }
+
+    /**
+     * 读取已经加载的页时调用
+     */
+    public void accessPage(CachePage page) {
+        pageHits.increment();
+        page.onAccess(SystemClock.now(), correlatedReferenceMs);
+    }
+
+    /**
+     * 页被释放后调用，将页移出页缓存并归还内存
+     */
+    public void releasePage(CachePage page) {
+        synchronized (pageLock) {
+            if (!page.cached) {
+                return;
+            }
+            page.cached = false;
+            if (page.hot) {
+                protectedPages.remove(page);
+                protectedUsedSize -= page.size();
+            } else {
+                probationPages.remove(page);
+            }
+            pageUsedSize -= page.size();
+        }
+        usedSize.getAndAdd(-1 * page.size());
+    }
+
+    private long pageUsedSize() {
+        synchronized (pageLock) {
+            return pageUsedSize;
+        }
+    }
+
+    private long protectedUsedSize() {
+        synchronized (pageLock) {
+            return protectedUsedSize;
+        }
     }
 
     public ByteBuffer allocateDirect(BufferHolder bufferHolder) {
@@ -333,12 +479,6 @@ public class PreloadBufferPool {
         }
     }
 
-    public void releaseMMap(BufferHolder bufferHolder) {
-        mMapBufferHolders.remove(bufferHolder);
-        usedSize.getAndAdd(-1 * bufferHolder.size());
-
-    }
-
     /**
      * buffer监控
      */
@@ -359,15 +499,19 @@ public class PreloadBufferPool {
             plMonitorInfos.add(plMonitorInfo);
             return totalSize;
         }).sum();
-        long mmpUsed = mMapBufferHolders.stream().mapToInt(BufferHolder::size).sum();
         long directUsed = directBufferHolders.stream().mapToInt(BufferHolder::size).sum();
 
         bufferPoolMonitorInfo.setPlMonitorInfos(plMonitorInfos);
         bufferPoolMonitorInfo.setPlUsed(Format.formatSize(plUsed));
         bufferPoolMonitorInfo.setUsed(Format.formatSize(totalUsed));
         bufferPoolMonitorInfo.setMaxMemorySize(Format.formatSize(maxMemorySize));
-        bufferPoolMonitorInfo.setMmpUsed(Format.formatSize(mmpUsed));
+        bufferPoolMonitorInfo.setMmpUsed(Format.formatSize(pageUsedSize()));
         bufferPoolMonitorInfo.setDirectUsed(Format.formatSize(directUsed));
+        bufferPoolMonitorInfo.setPageSize(Format.formatSize(pageSize));
+        bufferPoolMonitorInfo.setPageProtectedUsed(Format.formatSize(protectedUsedSize()));
+        bufferPoolMonitorInfo.setPageHits(pageHits.sum());
+        bufferPoolMonitorInfo.setPageMisses(pageMisses.sum());
+        bufferPoolMonitorInfo.setPageEvictions(pageEvictions.sum());
         return bufferPoolMonitorInfo;
     }
     static class PreLoadCache {
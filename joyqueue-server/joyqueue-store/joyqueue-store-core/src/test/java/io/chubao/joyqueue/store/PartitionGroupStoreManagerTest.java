@@ -19,6 +19,7 @@ import io.chubao.joyqueue.domain.QosLevel;
 import io.chubao.joyqueue.exception.JoyQueueCode;
 import io.chubao.joyqueue.store.file.PositioningStore;
 import io.chubao.joyqueue.store.message.MessageParser;
+import io.chubao.joyqueue.store.nsm.VirtualThreadExecutor;
 import io.chubao.joyqueue.store.utils.MessageUtils;
 import io.chubao.joyqueue.store.utils.PreloadBufferPool;
 import io.chubao.joyqueue.toolkit.concurrent.EventFuture;
@@ -46,6 +47,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -53,6 +55,7 @@ import java.util.stream.IntStream;
 import static io.chubao.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_FLUSH_INTERVAL_MS;
 import static io.chubao.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_MAX_DIRTY_SIZE;
 import static io.chubao.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_MAX_MESSAGE_LENGTH;
+import static io.chubao.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_TIME_INDEX_INTERVAL_MS;
 import static io.chubao.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_WRITE_REQUEST_CACHE_SIZE;
 import static io.chubao.joyqueue.store.PartitionGroupStoreManager.Config.DEFAULT_WRITE_TIMEOUT_MS;
 
@@ -80,6 +83,39 @@ public class PartitionGroupStoreManagerTest {
 
     }
 
+    @Test
+    public void virtualThreadWriteReadTest() throws Exception {
+        destroyStore();
+        VirtualThreadExecutor virtualThreadPool = new VirtualThreadExecutor(100, 10, 10, 100, 2);
+        try {
+            prepareStore(virtualThreadPool, null);
+            writeReadTest(QosLevel.PERSISTENCE);
+            Assert.assertTrue(store.flushPosition() > 0L);
+        } finally {
+            destroyStore();
+            virtualThreadPool.stop();
+        }
+    }
+
+    @Test
+    public void groupCommitTest() throws Exception {
+        destroyStore();
+        GroupCommitService groupCommitService = new GroupCommitService(5L, 1024 * 1024L);
+        groupCommitService.start();
+        try {
+            prepareStore(null, groupCommitService);
+            short partition = 4;
+            List<ByteBuffer> messages = MessageUtils.build(1024, 1024);
+            final EventFuture<WriteResult> future = new EventFuture<>();
+            store.asyncWrite(QosLevel.PERSISTENCE, future, messages.stream().map(b -> new WriteRequest(partition, b)).toArray(WriteRequest[]::new));
+            WriteResult writeResult = future.get(10, TimeUnit.SECONDS);
+            Assert.assertEquals(JoyQueueCode.SUCCESS, writeResult.getCode());
+            Assert.assertEquals(store.rightPosition(), store.messageStore().forcePosition());
+        } finally {
+            destroyStore();
+            groupCommitService.stop();
+        }
+    }
 
     @Test
     public void indexLengthTest() throws Exception {
@@ -476,6 +512,196 @@ public class PartitionGroupStoreManagerTest {
         }
     }
 
+    @Test
+    public void checkpointTest() throws Exception {
+        int count = 1024;
+        long timeout = 500000L;
+        short partition = 4;
+        List<ByteBuffer> messages = MessageUtils.build(count, 1024);
+        long length = messages.stream().mapToInt(Buffer::remaining).sum();
+
+        final EventFuture<WriteResult> future = new EventFuture<>();
+        store.asyncWrite(QosLevel.RECEIVE, future, messages.stream().map(b -> new WriteRequest(partition, b)).toArray(WriteRequest[]::new));
+        long t0 = SystemClock.now();
+        while (SystemClock.now() - t0 < timeout && store.indexPosition() < length) {
+            Thread.sleep(10L);
+        }
+
+        // 正常关闭后写入检查点，恢复时使用检查点并删除
+        restartStore();
+        Assert.assertTrue(store.isRecoveredFromCheckpoint());
+        Assert.assertFalse(new File(groupBase, StoreCheckpoint.FILE_NAME).exists());
+        Assert.assertEquals(length, store.indexPosition());
+        verifyMessages(partition, messages);
+
+        // 检查点损坏时执行完整的恢复
+        store.disable();
+        store.stop();
+        store.close();
+        File checkpoint = new File(groupBase, StoreCheckpoint.FILE_NAME);
+        Assert.assertTrue(checkpoint.exists());
+        try (FileOutputStream output = new FileOutputStream(checkpoint, true)) {
+            output.write(new byte[]{1, 2, 3});
+        }
+        store = null;
+        prepareStore();
+        Assert.assertFalse(store.isRecoveredFromCheckpoint());
+        Assert.assertEquals(length, store.indexPosition());
+        verifyMessages(partition, messages);
+    }
+
+    private void restartStore() throws Exception {
+        store.disable();
+        store.stop();
+        store.close();
+        store = null;
+        prepareStore();
+    }
+
+    private void verifyMessages(short partition, List<ByteBuffer> messages) throws IOException {
+        for (int i = 0; i < messages.size(); i++) {
+            ByteBuffer writeBuffer = messages.get(i);
+            writeBuffer.clear();
+
+            ReadResult readResult = store.read(partition, i, 1, 0);
+            Assert.assertEquals(JoyQueueCode.SUCCESS, readResult.getCode());
+            Assert.assertEquals(1, readResult.getMessages().length);
+            Assert.assertEquals(writeBuffer, readResult.getMessages()[0]);
+        }
+    }
+
+    @Test
+    public void transactionTest() throws Exception {
+        QosStore qosStore = store.getQosStore(QosLevel.PERSISTENCE);
+        List<ByteBuffer> messages = MessageUtils.build(10, 128);
+        long expireTime = SystemClock.now() + 60 * 1000L;
+
+        // 分区4：0普通消息，1-3事务tx1，4普通消息；分区5：0事务tx1
+        write(qosStore.asyncWrite(new WriteRequest((short) 4, messages.get(0))));
+        WriteResult prepared = write(qosStore.asyncWriteTransaction("tx1", expireTime,
+                new WriteRequest((short) 4, messages.get(1)), new WriteRequest((short) 4, messages.get(2)),
+                new WriteRequest((short) 4, messages.get(3)), new WriteRequest((short) 5, messages.get(4))));
+        Assert.assertArrayEquals(new long[]{1L, 2L, 3L, 0L}, prepared.getIndices());
+        write(qosStore.asyncWrite(new WriteRequest((short) 4, messages.get(5))));
+
+        // 未提交事务的消息及之后的消息不可见
+        assertRead((short) 4, 0L, 0L, 0L);
+        assertRead((short) 5, 0L, 0L);
+        Assert.assertFalse(Arrays.asList(store.listPartitions()).contains(PartitionGroupStoreManager.TRANSACTION_PARTITION));
+
+        write(qosStore.asyncCommitTransaction("tx1"));
+        assertRead((short) 4, 0L, 0L, 0L, 1L, 2L, 3L, 4L);
+        assertRead((short) 5, 0L, 0L, 0L);
+
+        // 分区4：5-6事务tx2，7普通消息，tx2回滚
+        write(qosStore.asyncWriteTransaction("tx2", expireTime,
+                new WriteRequest((short) 4, messages.get(6)), new WriteRequest((short) 4, messages.get(7))));
+        write(qosStore.asyncWrite(new WriteRequest((short) 4, messages.get(8))));
+        write(qosStore.asyncRollbackTransaction("tx2"));
+        // 读到回滚的消息之前为止，从回滚的消息开始读时跳过
+        assertRead((short) 4, 3L, 0L, 3L, 4L);
+        assertRead((short) 4, 5L, 2L, 7L);
+        assertRead((short) 4, 6L, 1L, 7L);
+
+        // 分区4：8事务tx3，重启时未完成
+        write(qosStore.asyncWriteTransaction("tx3", expireTime, new WriteRequest((short) 4, messages.get(9))));
+        assertRead((short) 4, 7L, 0L, 7L);
+
+        // 正常关闭后从检查点恢复，异常关闭后完整恢复，都从日志中的事务标记重建可见性
+        restartStore();
+        Assert.assertTrue(store.isRecoveredFromCheckpoint());
+        assertRead((short) 4, 0L, 0L, 0L, 1L, 2L, 3L, 4L);
+        assertRead((short) 4, 5L, 2L, 7L);
+        store.disable();
+        store.stop();
+        store.close();
+        Assert.assertTrue(new File(groupBase, StoreCheckpoint.FILE_NAME).delete());
+        store = null;
+        prepareStore();
+        Assert.assertFalse(store.isRecoveredFromCheckpoint());
+        assertRead((short) 4, 0L, 0L, 0L, 1L, 2L, 3L, 4L);
+        assertRead((short) 4, 5L, 2L, 7L);
+        assertRead((short) 4, 8L, 0L);
+
+        write(store.getQosStore(QosLevel.PERSISTENCE).asyncCommitTransaction("tx3"));
+        assertRead((short) 4, 7L, 0L, 7L, 8L);
+    }
+
+    @Test
+    public void transactionExpireTest() throws Exception {
+        QosStore qosStore = store.getQosStore(QosLevel.PERSISTENCE);
+        List<ByteBuffer> messages = MessageUtils.build(2, 128);
+
+        write(qosStore.asyncWriteTransaction("tx1", SystemClock.now() + 500L, new WriteRequest((short) 4, messages.get(0))));
+        write(qosStore.asyncWrite(new WriteRequest((short) 4, messages.get(1))));
+        assertRead((short) 4, 0L, 0L);
+
+        // 过期的事务被自动回滚
+        long t0 = SystemClock.now();
+        while (SystemClock.now() - t0 < 10 * 1000L && store.read((short) 4, 0L, 10, 0L).getSkipped() == 0L) {
+            Thread.sleep(50L);
+        }
+        assertRead((short) 4, 0L, 1L, 1L);
+
+        // 已经完成的事务不再写入标记
+        long rightPosition = store.rightPosition();
+        write(qosStore.asyncCommitTransaction("tx1"));
+        Assert.assertEquals(rightPosition, store.rightPosition());
+        assertRead((short) 4, 0L, 1L, 1L);
+    }
+
+    @Test
+    public void transactionReplicationTest() throws Exception {
+        QosStore qosStore = store.getQosStore(QosLevel.PERSISTENCE);
+        List<ByteBuffer> messages = MessageUtils.build(4, 128);
+        long expireTime = SystemClock.now() + 60 * 1000L;
+        write(qosStore.asyncWriteTransaction("tx1", expireTime, new WriteRequest((short) 4, messages.get(0))));
+        write(qosStore.asyncWriteTransaction("tx2", expireTime, new WriteRequest((short) 4, messages.get(1))));
+        write(qosStore.asyncWriteTransaction("tx3", expireTime, new WriteRequest((short) 4, messages.get(2))));
+        write(qosStore.asyncWrite(new WriteRequest((short) 4, messages.get(3))));
+        write(qosStore.asyncCommitTransaction("tx1"));
+        write(qosStore.asyncRollbackTransaction("tx2"));
+
+        List<ByteBuffer> entries = new LinkedList<>();
+        long position = 0L;
+        while (position < store.rightPosition()) {
+            ByteBuffer entry = store.readEntryBuffer(position, 10 * 1024);
+            position += entry.remaining();
+            entries.add(entry);
+        }
+
+        // FOLLOWER复制日志后得到相同的事务状态
+        destroyStore();
+        destroyBaseDir();
+        prepareBaseDir();
+        prepareStore();
+        store.disable();
+        for (ByteBuffer entry : entries) {
+            store.appendEntryBuffer(entry);
+        }
+        assertRead((short) 4, 0L, 0L, 0L);
+        assertRead((short) 4, 1L, 1L);
+
+        // 成为LEADER后可以继续完成事务
+        store.enable();
+        write(store.getQosStore(QosLevel.PERSISTENCE).asyncCommitTransaction("tx3"));
+        assertRead((short) 4, 1L, 1L, 2L, 3L);
+    }
+
+    private WriteResult write(Future<WriteResult> future) throws Exception {
+        WriteResult writeResult = future.get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(JoyQueueCode.SUCCESS, writeResult.getCode());
+        return writeResult;
+    }
+
+    private void assertRead(short partition, long index, long skipped, long... indices) throws IOException {
+        ReadResult readResult = store.read(partition, index, 10, 0L);
+        Assert.assertEquals(JoyQueueCode.SUCCESS, readResult.getCode());
+        Assert.assertEquals(skipped, readResult.getSkipped());
+        Assert.assertArrayEquals(indices, Arrays.stream(readResult.getMessages())
+                .mapToLong(message -> MessageParser.getLong(message, MessageParser.INDEX)).toArray());
+    }
+
     @Test
     public void getIndexTest() throws InterruptedException, IOException {
         long timeout = 500000L;
@@ -520,6 +746,50 @@ public class PartitionGroupStoreManagerTest {
 
     }
 
+    @Test
+    public void timeIndexTest() throws Exception {
+        int count = 100;
+        long timeout = 500000L;
+        List<ByteBuffer> msgs = MessageUtils.build(count, 255);
+        short partition = partitions[0];
+        final EventFuture<WriteResult> future = new EventFuture<>();
+
+        for (int i = 0; i < count; i++) {
+            ByteBuffer msg = msgs.get(i);
+            MessageParser.setLong(msg, MessageParser.CLIENT_TIMESTAMP, SystemClock.now());
+            store.asyncWrite(QosLevel.PERSISTENCE, future, new WriteRequest(partition, msg));
+            Thread.sleep(i % 7 == 0 ? 10L : 1L);
+        }
+
+        long t0 = SystemClock.now();
+        while (SystemClock.now() - t0 < timeout && store.getRightIndex(partition) < count) {
+            Thread.sleep(10L);
+        }
+
+        long[] storageTimestamps = Arrays.stream(store.read(partition, 0L, count, 0).getMessages())
+                .mapToLong(b -> MessageParser.getLong(b, MessageParser.CLIENT_TIMESTAMP) + MessageParser.getInt(b, MessageParser.STORAGE_TIMESTAMP)).toArray();
+
+        verifyGetIndex(partition, storageTimestamps);
+
+        // 重启后从文件恢复时间索引
+        destroyStore();
+        prepareStore();
+        Assert.assertTrue(new File(groupBase, "index" + File.separator + partition + File.separator + "time.idx").isFile());
+        verifyGetIndex(partition, storageTimestamps);
+    }
+
+    private void verifyGetIndex(short partition, long[] storageTimestamps) {
+        Assert.assertEquals(0L, store.getIndex(partition, storageTimestamps[0] - 1L));
+        Assert.assertEquals(-1L, store.getIndex(partition, storageTimestamps[storageTimestamps.length - 1] + 1L));
+        for (int i = 0; i < storageTimestamps.length; i++) {
+            long expected = i;
+            while (expected > 0 && storageTimestamps[(int) expected - 1] >= storageTimestamps[i]) {
+                expected--;
+            }
+            Assert.assertEquals(expected, store.getIndex(partition, storageTimestamps[i]));
+        }
+    }
+
     private void verifyTerm(ByteBuffer buffer) {
         int term = -1;
         ByteBuffer r = buffer.asReadOnlyBuffer();
@@ -590,8 +860,14 @@ public class PartitionGroupStoreManagerTest {
     }
 
     private void prepareStore() throws Exception {
+        prepareStore(null, null);
+    }
+
+    private void prepareStore(VirtualThreadExecutor virtualThreadPool, GroupCommitService groupCommitService) throws Exception {
 
-        PartitionGroupStoreSupport.init(groupBase, partitions);
+        if (!groupBase.isDirectory()) {
+            PartitionGroupStoreSupport.init(groupBase, partitions);
+        }
         if (null == bufferPool) {
             bufferPool = PreloadBufferPool.getInstance();
             bufferPool.addPreLoad(128 * 1024 * 1024, 2, 4);
@@ -599,13 +875,14 @@ public class PartitionGroupStoreManagerTest {
         }
 
         PartitionGroupStoreManager.Config config = new PartitionGroupStoreManager.Config(DEFAULT_MAX_MESSAGE_LENGTH, DEFAULT_WRITE_REQUEST_CACHE_SIZE, DEFAULT_FLUSH_INTERVAL_MS,
-                DEFAULT_WRITE_TIMEOUT_MS, DEFAULT_MAX_DIRTY_SIZE, 6000,
+                DEFAULT_WRITE_TIMEOUT_MS, DEFAULT_MAX_DIRTY_SIZE, 6000, 4, DEFAULT_TIME_INDEX_INTERVAL_MS,
                 new PositioningStore.Config(128 * 1024 * 1024),
                 new PositioningStore.Config(512 * 1024));
 
         this.store = new PartitionGroupStoreManager(topic, partitionGroup, groupBase, config,
                 bufferPool,
-                Executors.newSingleThreadScheduledExecutor());
+                Executors.newSingleThreadScheduledExecutor(),
+                virtualThreadPool, groupCommitService);
         this.store.recover();
         this.store.start();
         this.store.enable();
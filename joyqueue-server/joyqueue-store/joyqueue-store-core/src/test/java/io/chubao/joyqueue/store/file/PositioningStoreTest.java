@@ -18,6 +18,8 @@ package io.chubao.joyqueue.store.file;
 import io.chubao.joyqueue.store.index.IndexItem;
 import io.chubao.joyqueue.store.index.IndexSerializer;
 import io.chubao.joyqueue.store.nsm.VirtualThreadExecutor;
+import io.chubao.joyqueue.store.tiered.LocalTieredStorage;
+import io.chubao.joyqueue.store.tiered.TieredSegmentManager;
 import io.chubao.joyqueue.store.utils.MessageTestUtils;
 import io.chubao.joyqueue.store.utils.PreloadBufferPool;
 import io.chubao.joyqueue.toolkit.time.SystemClock;
@@ -32,6 +34,7 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
@@ -81,6 +84,42 @@ public class PositioningStoreTest {
         virtualThreadPool.stop();
     }
 
+    @Test
+    public void readByteBuffersTest() throws IOException {
+        int count = 1000;
+        List<String> bodyList = MessageTestUtils.createBodyList("Hello, world!", count);
+        List<ByteBuffer> writeMessages = MessageTestUtils.createMessages(bodyList);
+        long length = writeMessages.stream().mapToLong(ByteBuffer::remaining).sum();
+        PositioningStore.Config config = new PositioningStore.Config(16 * 1024,
+                PositioningStore.Config.DEFAULT_FILE_HEADER_SIZE);
+        PositioningStore<ByteBuffer> store =
+                new PositioningStore<>(logBase, config, PreloadBufferPool.getInstance(),
+                        new StoreMessageSerializer(1024 * 1024));
+        store.recover();
+        long start = store.right();
+        store.append(writeMessages);
+
+        // 跨越多个文件读取，每个文件一个数据块，数据块首尾相接
+        List<ByteBuffer> blocks = store.readByteBuffers(start, (int) length);
+        Assert.assertTrue(blocks.size() > 1);
+        Assert.assertEquals(length, blocks.stream().mapToLong(ByteBuffer::remaining).sum());
+
+        List<ByteBuffer> readLogs = new ArrayList<>(count);
+        for (ByteBuffer block : blocks) {
+            while (block.hasRemaining()) {
+                ByteBuffer log = block.slice();
+                log.limit(log.getInt(0));
+                readLogs.add(log);
+                block.position(block.position() + log.remaining());
+            }
+        }
+        Assert.assertEquals(bodyList, MessageTestUtils.getBodies(readLogs));
+
+        // 超过right的部分不读取
+        Assert.assertEquals(length, store.readByteBuffers(start, (int) length + 1024).stream().mapToLong(ByteBuffer::remaining).sum());
+        store.close();
+    }
+
     // recover
     @Test
     public void messageRecoverTest() throws IOException {
@@ -172,6 +211,60 @@ public class PositioningStoreTest {
 
 
 
+    /**
+     * 测试文件转移到分级存储后的读取、恢复和删除
+     */
+    @Test
+    public void tieredOffloadTest() throws IOException {
+        int count = 10000;
+        String writeMessage = "Hello, world!";
+        List<String> bodyList = MessageTestUtils.createBodyList(writeMessage, count);
+        List<ByteBuffer> writeMessages = MessageTestUtils.createMessages(bodyList);
+        int fileDataSize = 128 * 1024;
+        LocalTieredStorage tieredStorage = new LocalTieredStorage();
+        tieredStorage.init(new File(base, "tiered").getAbsolutePath());
+        // 缓存只能放下一个文件
+        TieredSegmentManager segmentManager = new TieredSegmentManager(base, new File(base, "tiered-cache"),
+                tieredStorage, fileDataSize + PositioningStore.Config.DEFAULT_FILE_HEADER_SIZE);
+        PositioningStore.Config config = new PositioningStore.Config(fileDataSize,
+                PositioningStore.Config.DEFAULT_FILE_HEADER_SIZE, 0, PositioningStore.Config.DEFAULT_READ_AHEAD_SIZE,
+                true, segmentManager);
+        PreloadBufferPool bufferPool = PreloadBufferPool.getInstance();
+        StoreMessageSerializer factory = new StoreMessageSerializer(1024 * 1024);
+
+        PositioningStore<ByteBuffer> store = new PositioningStore<>(logBase, config, bufferPool, factory);
+        store.recover();
+        store.append(writeMessages);
+        while (store.flush()) {
+            Thread.yield();
+        }
+        // 没有同步到磁盘的文件不转移
+        Assert.assertEquals(0, store.offload(1));
+        store.force();
+        int fileCount = store.fileCount();
+        Assert.assertEquals(fileCount - 1, store.offload(1));
+        Assert.assertEquals(0, store.offload(1));
+        Assert.assertEquals(fileCount, store.fileCount());
+        Assert.assertEquals(fileCount - 1, logBase.listFiles((dir, name) -> name.endsWith(TieredStoreFile.SUFFIX)).length);
+
+        List<ByteBuffer> readLogs = store.batchRead(0L, writeMessages.size());
+        Assert.assertEquals(bodyList, MessageTestUtils.getBodies(readLogs));
+        Assert.assertTrue(segmentManager.cacheSize() <= fileDataSize + PositioningStore.Config.DEFAULT_FILE_HEADER_SIZE);
+        store.close();
+
+        store = new PositioningStore<>(logBase, config, bufferPool, factory);
+        store.recover();
+        Assert.assertEquals(fileCount, store.fileCount());
+        readLogs = store.batchRead(0L, writeMessages.size());
+        Assert.assertEquals(bodyList, MessageTestUtils.getBodies(readLogs));
+
+        long deleteSize = store.physicalDeleteLeftFile();
+        Assert.assertTrue(deleteSize > 0);
+        Assert.assertEquals(deleteSize, store.left());
+        Assert.assertEquals(fileCount - 2, logBase.listFiles((dir, name) -> name.endsWith(TieredStoreFile.SUFFIX)).length);
+        store.close();
+    }
+
     // setRight
 
     @Test
@@ -31,6 +31,8 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @author majun8
@@ -73,6 +75,100 @@ public class StoreFileTest {
     }
 
 
+    @Test
+    public void readAcrossPagesTest() throws IOException {
+        PreloadBufferPool bufferPool = PreloadBufferPool.getInstance();
+        StoreMessageSerializer serializer = new StoreMessageSerializer(4 * 1024 * 1024);
+        StoreFileImpl<ByteBuffer> storeFile = new StoreFileImpl<>(888L, base, 128, serializer, bufferPool, 1024 * 1024 * 10);
+        List<ByteBuffer> messages = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        // 写入超过3页的数据，其中包含跨页的消息和大于一页的消息
+        writeMessages(storeFile, bufferPool.pageSize() * 3, bufferPool.pageSize() + 17, messages, positions);
+
+        // 重新打开后以只读方式按页读取
+        storeFile = new StoreFileImpl<>(888L, base, 128, serializer, bufferPool, 1024 * 1024 * 10);
+        for (int i = 0; i < messages.size(); i++) {
+            Assert.assertEquals(messages.get(i), storeFile.read(positions.get(i), -1));
+            Assert.assertEquals(messages.get(i), storeFile.readByteBuffer(positions.get(i), messages.get(i).remaining()));
+        }
+        Assert.assertTrue(storeFile.hasPage());
+        storeFile.forceUnload();
+        Assert.assertFalse(storeFile.hasPage());
+        storeFile.file().delete();
+    }
+
+    @Test
+    public void coldReadTest() throws IOException {
+        PreloadBufferPool bufferPool = PreloadBufferPool.getInstance();
+        StoreMessageSerializer serializer = new StoreMessageSerializer(4 * 1024 * 1024);
+        StoreFileImpl<ByteBuffer> storeFile = new StoreFileImpl<>(999L, base, 128, serializer, bufferPool, 1024 * 1024 * 10);
+        List<ByteBuffer> messages = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        // 包含大于预读长度的消息
+        writeMessages(storeFile, 1024 * 1024 * 3, 300 * 1024, messages, positions);
+
+        for (boolean bypassBufferPool : new boolean[]{false, true}) {
+            storeFile = new StoreFileImpl<>(999L, base, 128, serializer, bufferPool, 1024 * 1024 * 10,
+                    256 * 1024, bypassBufferPool);
+            storeFile.setCold(true);
+            // 顺序读取
+            for (int i = 0; i < messages.size(); i++) {
+                Assert.assertEquals(messages.get(i), storeFile.read(positions.get(i), -1));
+            }
+            // 随机读取
+            for (int i = messages.size() - 1; i >= 0; i -= 7) {
+                Assert.assertEquals(messages.get(i), storeFile.readByteBuffer(positions.get(i), messages.get(i).remaining()));
+            }
+            // 冷文件不使用页缓存
+            Assert.assertFalse(storeFile.hasPage());
+            storeFile.forceUnload();
+        }
+        storeFile.file().delete();
+    }
+
+    @Test
+    public void coldReadChannelTest() throws IOException {
+        PreloadBufferPool bufferPool = PreloadBufferPool.getInstance();
+        StoreMessageSerializer serializer = new StoreMessageSerializer(4 * 1024 * 1024);
+        StoreFileImpl<ByteBuffer> storeFile = new StoreFileImpl<>(777L, base, 128, serializer, bufferPool, 1024 * 1024 * 10);
+        List<ByteBuffer> messages = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        writeMessages(storeFile, 1024 * 1024, 300 * 1024, messages, positions);
+
+        storeFile = new StoreFileImpl<>(777L, base, 128, serializer, bufferPool, 1024 * 1024 * 10,
+                256 * 1024, true);
+        storeFile.setCold(true);
+        Assert.assertEquals(messages.get(0), storeFile.read(positions.get(0), -1));
+
+        // 文件通道在第一次读取时打开并一直复用，删除文件后仍然可以读取
+        Assert.assertTrue(storeFile.file().delete());
+        for (int i = messages.size() - 1; i > 0; i -= 7) {
+            Assert.assertEquals(messages.get(i), storeFile.readByteBuffer(positions.get(i), messages.get(i).remaining()));
+        }
+
+        // 卸载时关闭文件通道，之后需要重新打开文件
+        storeFile.forceUnload();
+        try {
+            storeFile.read(positions.get(0), -1);
+            Assert.fail("file channel should be closed");
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void writeMessages(StoreFileImpl<ByteBuffer> storeFile, int totalSize, int largeMessageSize,
+                               List<ByteBuffer> messages, List<Integer> positions) throws IOException {
+        int position = 0;
+        while (position < totalSize) {
+            int size = messages.size() % 100 == 99 ? largeMessageSize : 1000 + messages.size() % 3000;
+            ByteBuffer message = MessageTestUtils.createMessage(new byte[size]);
+            messages.add(message);
+            positions.add(position);
+            position += storeFile.append(message);
+        }
+        storeFile.flush();
+        Assert.assertTrue(storeFile.unload());
+    }
+
     @Test
     public void readFileNotExistTimestamp() {
         ByteBuffer timeBuffer = ByteBuffer.allocate(8);
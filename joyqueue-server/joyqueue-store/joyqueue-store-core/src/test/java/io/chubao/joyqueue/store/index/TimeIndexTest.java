@@ -0,0 +1,127 @@
+/**
+ * Copyright 2019 The JoyQueue Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.chubao.joyqueue.store.index;
+
+import io.chubao.joyqueue.toolkit.util.BaseDirUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+public class TimeIndexTest {
+    private File base = null;
+    // 日志中每条消息的存储时间
+    private final Map<Long, Long> journal = new HashMap<>();
+    // 只按照消息数量采样，使存储时间最大的消息落在没有采样的尾部
+    private static final long TAIL_TIME_INTERVAL = 1000000L;
+
+    @Before
+    public void before() throws Exception {
+        base = BaseDirUtils.prepareBaseDir();
+    }
+
+    @After
+    public void after() {
+        BaseDirUtils.destroyBaseDir(base);
+        base = null;
+        journal.clear();
+    }
+
+    private TimeIndex newTimeIndex() {
+        return newTimeIndex(1000L);
+    }
+
+    private TimeIndex newTimeIndex(long timeIntervalMs) {
+        return new TimeIndex(base, 10, timeIntervalMs, journal::get);
+    }
+
+    private void write(TimeIndex timeIndex, long index, long timestamp) {
+        journal.put(index, timestamp);
+        timeIndex.onMessage(index, timestamp);
+    }
+
+    /**
+     * 重启后写入的存储时间比已有记录小时，索引仍然保持有序
+     */
+    @Test
+    public void appendAfterRecoverTest() throws IOException {
+        TimeIndex timeIndex = newTimeIndex();
+        timeIndex.recover(0L, 0L);
+        for (int i = 0; i < 100; i++) {
+            write(timeIndex, i, 1000L + i * 10);
+        }
+        Assert.assertTrue(timeIndex.flush());
+
+        timeIndex = newTimeIndex();
+        timeIndex.recover(0L, 100L);
+        Assert.assertArrayEquals(new long[]{91L, -1L}, timeIndex.lookup(Long.MAX_VALUE));
+        // 存储时间早于已有记录的消息
+        write(timeIndex, 100L, 500L);
+        Assert.assertArrayEquals(new long[]{101L, -1L}, timeIndex.lookup(Long.MAX_VALUE));
+        Assert.assertArrayEquals(new long[]{81L, 90L}, timeIndex.lookup(1900L));
+        Assert.assertTrue(timeIndex.flush());
+
+        timeIndex = newTimeIndex();
+        timeIndex.recover(0L, 101L);
+        Assert.assertArrayEquals(new long[]{101L, -1L}, timeIndex.lookup(Long.MAX_VALUE));
+    }
+
+    /**
+     * 重启前最后一条记录之后没有采样的消息中存储时间最大，重启后写入的记录仍然包含它
+     */
+    @Test
+    public void recoverTailTest() throws IOException {
+        TimeIndex timeIndex = newTimeIndex(TAIL_TIME_INTERVAL);
+        timeIndex.recover(0L, 0L);
+        for (int i = 0; i < 95; i++) {
+            write(timeIndex, i, i == 94 ? 5000L : 1000L + i);
+        }
+        Assert.assertTrue(timeIndex.flush());
+
+        timeIndex = newTimeIndex(TAIL_TIME_INTERVAL);
+        timeIndex.recover(0L, 95L);
+        for (int i = 95; i <= 100; i++) {
+            write(timeIndex, i, 2000L);
+        }
+        Assert.assertArrayEquals(new long[]{91L, 100L}, timeIndex.lookup(4000L));
+        Assert.assertArrayEquals(new long[]{101L, -1L}, timeIndex.lookup(Long.MAX_VALUE));
+    }
+
+    /**
+     * 截断后最后一条记录之后没有采样的消息中存储时间最大，之后写入的记录仍然包含它
+     */
+    @Test
+    public void truncateTailTest() throws IOException {
+        TimeIndex timeIndex = newTimeIndex(TAIL_TIME_INTERVAL);
+        timeIndex.recover(0L, 0L);
+        for (int i = 0; i < 105; i++) {
+            write(timeIndex, i, i == 94 ? 5000L : 1000L + i);
+        }
+        Assert.assertArrayEquals(new long[]{91L, 100L}, timeIndex.lookup(4000L));
+
+        timeIndex.truncate(0L, 96L);
+        Assert.assertArrayEquals(new long[]{91L, -1L}, timeIndex.lookup(4000L));
+        for (int i = 96; i <= 100; i++) {
+            write(timeIndex, i, 2000L);
+        }
+        Assert.assertArrayEquals(new long[]{91L, 100L}, timeIndex.lookup(4000L));
+    }
+}